@@ -1,48 +1,70 @@
 package com.machine.learning;
 
-import com.github.rschmitt.dynamicobject.DynamicObject;
 import com.machine.learning.classifier.Classifier;
 import com.machine.learning.classifier.ID3;
 import com.machine.learning.classifier.KNearestNeighbors;
+import com.machine.learning.classifier.ModelSnapshot;
 import com.machine.learning.classifier.NaiveBayes;
+import com.machine.learning.classifier.PrototypeSelection;
 import com.machine.learning.classifier.TreeAugmentedNaiveBayes;
+import com.machine.learning.experimenter.DatasetCatalog;
 import com.machine.learning.experimenter.MadScientist;
 import com.machine.learning.model.DataModel;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.server.InferenceServer;
+import com.machine.learning.server.MicroBatcher;
+import com.machine.learning.server.ModelRegistry;
+import com.github.rschmitt.dynamicobject.DynamicObject;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 public class Main {
     public static void main(String ... args) {
-        System.out.println("Beginning testing...");
         OptionSet optionSet = getOptions(args);
-        List<DataModel> dataModelList = new ArrayList<>();
+        if (optionSet.has("cache-snapshots")) {
+            System.setProperty("snapshot.cache", "true");
+        }
+        if (optionSet.has("serve")) {
+            serve(optionSet);
+            return;
+        }
+        System.out.println("Beginning testing...");
+        List<String> dataFiles = new ArrayList<>();
         if ((optionSet.valueOf("files")).equals("")) {
-            dataModelList = Arrays.asList(
-                    DynamicObject.newInstance(DataModel.class).fromFile("breast-cancer-wisconsin.data.txt"),
-                    DynamicObject.newInstance(DataModel.class).fromFile("glass.data.txt"),
-                    DynamicObject.newInstance(DataModel.class).fromFile("house-votes-84.data.txt"),
-                    DynamicObject.newInstance(DataModel.class).fromFile("iris.data.txt"),
-                    DynamicObject.newInstance(DataModel.class).fromFile("soybean-small.data.txt")
+            dataFiles = Arrays.asList(
+                    "breast-cancer-wisconsin.data.txt",
+                    "glass.data.txt",
+                    "house-votes-84.data.txt",
+                    "iris.data.txt",
+                    "soybean-small.data.txt"
             );
         } else {
             List<String> files = Arrays.asList(optionSet.valueOf("files").toString().split(",", 0));
             for (String fileName: files) {
-                dataModelList.add(DynamicObject.newInstance(DataModel.class).fromFile(fileName+".data.txt"));
+                dataFiles.add(fileName+".data.txt");
             }
         }
 
-        List<Classifier> classifiers = new ArrayList<>();
+        Map<String, Classifier> classifiers = new LinkedHashMap<>();
         Map<String, Classifier> classifierRegistry = new HashMap<>();
+        PrototypeSelection reduction = null;
+        if (optionSet.has("reduce")) {
+            reduction = PrototypeSelection.valueOf(optionSet.valueOf("reduce").toString().toUpperCase());
+        }
         for (int i = 1; i <= 15; i += 2) {
             classifierRegistry.put("kNN"+i, new KNearestNeighbors(i));
         }
@@ -51,20 +73,47 @@ public class Main {
         classifierRegistry.put("id3", new ID3());
 
         if ((optionSet.valueOf("classifiers")).equals("")) {
-            classifiers.addAll(classifierRegistry.values());
+            classifiers.putAll(classifierRegistry);
         } else {
             List<String> classifierList = Arrays.asList(optionSet.valueOf("classifiers").toString().split(",", 0));
             for (String classifierId: classifierList) {
                 Classifier classifier = classifierRegistry.get(classifierId);
                 if (classifier != null) {
-                    classifiers.add(classifier);
+                    classifiers.put(classifierId, classifier);
                 } else {
                     System.err.println("Classifier "+ classifierId + "isn't registered.");
                 }
             }
         }
 
-        MadScientist madScientist = new MadScientist(dataModelList, classifiers);
+        // Each k-Nearest-Neighbors classifier is evaluated next to one that keeps only the selected prototypes
+        if (reduction != null) {
+            Map<String, Classifier> reduced = new LinkedHashMap<>();
+            for (Map.Entry<String, Classifier> entry : classifiers.entrySet()) {
+                if (entry.getValue() instanceof KNearestNeighbors) {
+                    int k = ((KNearestNeighbors) entry.getValue()).getK();
+                    reduced.put(entry.getKey() + "-" + reduction.name().toLowerCase(),
+                                new KNearestNeighbors(k, reduction));
+                }
+            }
+            classifiers.putAll(reduced);
+        }
+
+        if (optionSet.has("save-models")) {
+            saveModels(dataFiles, classifiers, optionSet.valueOf("save-models").toString());
+            return;
+        }
+
+        long memoryBudget = (Long) optionSet.valueOf("memory-budget") << 20;
+        int prefetch = (Integer) optionSet.valueOf("prefetch");
+        MadScientist madScientist;
+        Function<String, DataModel> loader = optionSet.has("out-of-core")
+                ? file -> DynamicObject.newInstance(DataModel.class).fromFileOutOfCore(file)
+                : file -> DynamicObject.newInstance(DataModel.class).fromFile(file);
+        try (DatasetCatalog catalog = new DatasetCatalog(dataFiles, loader, memoryBudget, prefetch)) {
+            madScientist = new MadScientist(catalog, new ArrayList<>(classifiers.values()),
+                                            optionSet.has("share-fold-distances"));
+        }
         PrintWriter pw = null;
         try {
             Calendar calendar = Calendar.getInstance();
@@ -88,11 +137,79 @@ public class Main {
         System.out.println("All tests finished");
     }
 
+    /**
+     * Trains each classifier on the whole of each data file, and writes a model snapshot for each
+     * as dir/dataset-classifier.model
+     *
+     * @param dataFiles the data files to train on
+     * @param classifiers the classifiers to train, by id
+     * @param dir the directory to write the snapshots to
+     */
+    private static void saveModels(List<String> dataFiles, Map<String, Classifier> classifiers, String dir) {
+        for (String dataFile : dataFiles) {
+            EncodedDataSet data = DynamicObject.newInstance(DataModel.class).fromFile(dataFile).encode();
+            String dataSetName = Paths.get(dataFile).getFileName().toString().replace(".data.txt", "");
+            for (Map.Entry<String, Classifier> entry : classifiers.entrySet()) {
+                entry.getValue().train(data);
+                if (entry.getValue() instanceof KNearestNeighbors
+                        && ((KNearestNeighbors) entry.getValue()).getReduction() != null) {
+                    KNearestNeighbors reduced = (KNearestNeighbors) entry.getValue();
+                    System.out.println(entry.getKey() + " kept " + reduced.getReferenceSize() + " of "
+                                       + data.size() + " training points of " + dataSetName);
+                }
+                String modelFile = dir + File.separator + dataSetName + "-" + entry.getKey() + ".model";
+                try {
+                    ModelSnapshot.write(entry.getValue(), Paths.get(modelFile));
+                    System.out.println("Wrote " + modelFile);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the model snapshots given with --models and serves them over HTTP until the process is stopped
+     *
+     * @param optionSet the command line options
+     */
+    private static void serve(OptionSet optionSet) {
+        List<String> modelFiles = Arrays.asList(optionSet.valueOf("models").toString().split(",", 0));
+        ModelRegistry models;
+        try {
+            models = ModelRegistry.load(modelFiles,
+                                        (Integer) optionSet.valueOf("max-batch-size"),
+                                        (Long) optionSet.valueOf("max-batch-delay-us"));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+        InferenceServer.start(models, (Integer) optionSet.valueOf("port"));
+        System.out.println("Serving " + models.getNames());
+    }
+
     private static OptionSet getOptions(String... args) {
         OptionParser parser = new OptionParser();
         parser.accepts("files").withRequiredArg().ofType(String.class).defaultsTo("");
         parser.accepts("classifiers").withRequiredArg().ofType(String.class).defaultsTo("");
         parser.accepts("outdir").withRequiredArg().ofType(String.class).defaultsTo("results");
+        parser.accepts("memory-budget").withRequiredArg().ofType(Long.class)
+                .defaultsTo(DatasetCatalog.DEFAULT_MEMORY_BUDGET >> 20);
+        parser.accepts("prefetch").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(DatasetCatalog.DEFAULT_PREFETCH);
+        parser.accepts("share-fold-distances");
+        parser.accepts("cache-snapshots");
+        parser.accepts("out-of-core");
+        parser.accepts("reduce").withRequiredArg().ofType(String.class);
+        parser.accepts("save-models").withRequiredArg().ofType(String.class);
+        parser.accepts("serve");
+        parser.accepts("models").requiredIf("serve").withRequiredArg().ofType(String.class);
+        parser.accepts("port").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(InferenceServer.DEFAULT_PORT);
+        parser.accepts("max-batch-size").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(MicroBatcher.DEFAULT_MAX_BATCH_SIZE);
+        parser.accepts("max-batch-delay-us").withRequiredArg().ofType(Long.class)
+                .defaultsTo(MicroBatcher.DEFAULT_MAX_DELAY_MICROS);
         OptionSet options = parser.parse(args);
         return options;
     }
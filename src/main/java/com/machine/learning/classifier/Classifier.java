@@ -1,9 +1,20 @@
 package com.machine.learning.classifier;
 
 import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.SufficientStatistics;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * A classifier learns from labelled data points and predicts the class of unlabelled ones.
+ *
+ * Training builds a new model and replaces the previous one in a single step. Once trained, a classifier's
+ * classify and classScores methods are safe to call from any number of threads at once, including while
+ * it is being retrained or updated, and each call sees either the old model or the new one.
+ */
 public interface Classifier {
     /**
      * Trains the classifier on the given data
@@ -19,4 +30,160 @@ public interface Classifier {
      * @return  class label
      */
     String classify(List dataPoint);
+
+    /**
+     * Trains the classifier on dictionary-encoded data. Classifiers that can count codes directly
+     * should override this, the default decodes the data back into data points.
+     *
+     * @param dataSet data to train with
+     */
+    default void train(EncodedDataSet dataSet) {
+        train(dataSet.toDataPoints());
+    }
+
+    /**
+     * Classifies a row of dictionary-encoded data. Classifiers trained on a data set sharing the same
+     * dictionaries should override this to use the codes directly, the default decodes the row.
+     *
+     * @param dataSet data holding the row to classify
+     * @param row position of the row to classify
+     * @return class label
+     */
+    default String classify(EncodedDataSet dataSet, int row) {
+        return classify(dataSet.getRow(row));
+    }
+
+    /**
+     * Classifies a block of rows of dictionary-encoded data in one call. Classifiers that can share work
+     * across rows should override this, the default classifies the rows one at a time.
+     *
+     * @param dataSet data holding the rows to classify
+     * @param rows positions of the rows to classify
+     * @return the class label of each row, in the same order as the rows
+     */
+    default String[] classify(EncodedDataSet dataSet, int[] rows) {
+        String[] classLabels = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            classLabels[i] = classify(dataSet, rows[i]);
+        }
+        return classLabels;
+    }
+
+    /**
+     * Classifies several data points in one call. Classifiers that can share work across points should
+     * override this, the default classifies the points one at a time.
+     *
+     * @param dataPoints data to classify
+     * @return the class label of each data point, in the same order as the data points
+     */
+    default List<String> classifyAll(List<? extends List> dataPoints) {
+        List<String> classLabels = new ArrayList<>(dataPoints.size());
+        for (List dataPoint : dataPoints) {
+            classLabels.add(classify(dataPoint));
+        }
+        return classLabels;
+    }
+
+    /**
+     * Trains on encoded data whose counts are already known, such as counts derived by subtracting a held out
+     * fold from the counts of a whole data set. Classifiers that train from counts should override this along
+     * with trainsFromCounts, the default trains on the points and ignores the counts.
+     *
+     * @param dataSet data to train with
+     * @param statistics the counts of the data, with pairs of attributes if countsAttributePairs
+     */
+    default void train(EncodedDataSet dataSet, SufficientStatistics statistics) {
+        train(dataSet);
+    }
+
+    /**
+     * @return whether train(dataSet, statistics) uses the counts, so that they're worth deriving
+     */
+    default boolean trainsFromCounts() {
+        return false;
+    }
+
+    /**
+     * @return whether the counts this classifier trains from must include every pair of attributes
+     */
+    default boolean countsAttributePairs() {
+        return false;
+    }
+
+    /**
+     * @return whether add and remove can update what the classifier has learned without retraining
+     */
+    default boolean isIncremental() {
+        return false;
+    }
+
+    /**
+     * Adds labelled points to what the classifier has learned, at a cost proportional to the number of new
+     * points rather than to everything it was trained on before. Values and classes that weren't seen before
+     * are allowed. Classifiers that keep sufficient statistics should override this.
+     *
+     * @param dataSet the points to add
+     * @throws UnsupportedOperationException if the classifier can't be trained incrementally
+     */
+    default void add(EncodedDataSet dataSet) {
+        throw new UnsupportedOperationException(this + " can't be trained incrementally");
+    }
+
+    /**
+     * Removes labelled points that were previously trained on or added
+     *
+     * @param dataSet the points to remove
+     * @throws UnsupportedOperationException if the classifier can't be trained incrementally
+     */
+    default void remove(EncodedDataSet dataSet) {
+        throw new UnsupportedOperationException(this + " can't be trained incrementally");
+    }
+
+    /**
+     * Adds labelled points to what the classifier has learned
+     *
+     * @param dataPoints the points to add
+     */
+    default void add(List<DataPoint> dataPoints) {
+        add(EncodedDataSet.encode(dataPoints));
+    }
+
+    /**
+     * Removes labelled points that were previously trained on or added
+     *
+     * @param dataPoints the points to remove
+     */
+    default void remove(List<DataPoint> dataPoints) {
+        remove(EncodedDataSet.encode(dataPoints));
+    }
+
+    /**
+     * @return the class labels this classifier was trained on, where the label at position i is the
+     * class with id i in the arrays returned by classScores
+     */
+    default List<String> getClassLabels() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Scores every class for a data point. Classifiers that compute probabilities should override this,
+     * the default gives 1 to the predicted class and 0 to every other class.
+     *
+     * @param dataPoint data to classify
+     * @return the probability of each class, indexed by class id as in getClassLabels
+     */
+    default double[] classScores(List dataPoint) {
+        return Scores.oneHot(getClassLabels(), classify(dataPoint));
+    }
+
+    /**
+     * Scores every class for a row of dictionary-encoded data
+     *
+     * @param dataSet data holding the row to classify
+     * @param row position of the row to classify
+     * @return the probability of each class, indexed by class id as in getClassLabels
+     */
+    default double[] classScores(EncodedDataSet dataSet, int row) {
+        return Scores.oneHot(getClassLabels(), classify(dataSet, row));
+    }
 }
@@ -1,26 +1,51 @@
 package com.machine.learning.classifier;
 
 import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.ValueDictionary;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class ID3 implements Classifier {
-    List<DataPoint> trainingData = new ArrayList<>();
-    List<DataPoint> validationData = new ArrayList<>();
-    DecisionTree dt;
-    Set<DecisionTree> subtrees = new HashSet<>();
+    /**
+     * A pruned tree and the dictionaries of the data it was trained on. The tree is never changed after the
+     * model is published, so any number of threads can classify with it while training builds the next one.
+     */
+    private static final class Model {
+	final DecisionTree tree;
+	final ValueDictionary[] attributeDictionaries;
+	final ValueDictionary classDictionary;
+
+	Model(DecisionTree tree, EncodedDataSet dataSet) {
+	    this(tree, dataSet.getAttributeDictionaries(), dataSet.getClassDictionary());
+	}
+
+	Model(DecisionTree tree, ValueDictionary[] attributeDictionaries, ValueDictionary classDictionary) {
+	    this.tree = tree;
+	    this.attributeDictionaries = attributeDictionaries;
+	    this.classDictionary = classDictionary;
+	}
+    }
+
+    private volatile Model model;
 
     /**
      * Data structure for storing a decision tree over discrete attributes
      */
     public class DecisionTree {
 	int attributeIndex;
+	int attributeCode;
 	String attributeValue;
 	String clazz;
 	String maxClass;
@@ -33,11 +58,22 @@ public class ID3 implements Classifier {
 	    attributeValue = attrValue;
 	}
 
+	public DecisionTree(int attrIndex, int attrCode, String attrValue) {
+	    this(attrIndex, attrValue);
+	    attributeCode = attrCode;
+	}
+
 	public DecisionTree(String clazz) {
 	    this.clazz = clazz;
 	}
     }
 
+    @Override
+    public List<String> getClassLabels() {
+	Model current = model;
+	return current == null ? Collections.emptyList() : current.classDictionary.getValues();
+    }
+
     @Override
 	public String toString() {
 		return "ID3";
@@ -51,48 +87,75 @@ public class ID3 implements Classifier {
      */
     @Override
     public void train(List<DataPoint> dataPoints) {
+	train(EncodedDataSet.encode(dataPoints));
+    }
+
+    /**
+     * Trains a decision tree model directly from encoded data, seperated
+     * into training and validation rows. The tree is built and pruned before it
+     * replaces the previous one, so classification running on other threads only
+     * ever sees a finished tree.
+     *
+     * @param dataSet the encoded points to train on
+     */
+    @Override
+    public void train(EncodedDataSet dataSet) {
 	// Seperate data into training and validation
-	Collections.shuffle(dataPoints);
-	subtrees = new HashSet<>();
-	trainingData = dataPoints.subList(0, (int)(0.6*dataPoints.size()));
-	validationData = dataPoints.subList((int)(0.6*dataPoints.size()), dataPoints.size());
+	List<Integer> rows = new ArrayList<>();
+	for (int row = 0; row < dataSet.size(); row++) {
+	    rows.add(row);
+	}
+	Collections.shuffle(rows, ThreadLocalRandom.current());
+	int[] shuffledRows = rows.stream().mapToInt(Integer::intValue).toArray();
+
+	int[] trainingData = Arrays.copyOfRange(shuffledRows, 0, (int)(0.6*shuffledRows.length));
+	int[] validationData = Arrays.copyOfRange(shuffledRows, (int)(0.6*shuffledRows.length), shuffledRows.length);
 
 	// Construct decision tree
-	dt = constructDT(trainingData);
+	DecisionTree dt = constructDT(dataSet, trainingData);
 
-	findSubtrees(dt);
+	Set<DecisionTree> subtrees = new HashSet<>();
+	findSubtrees(dt, subtrees);
 
 	// Prune decision tree
-	pruneTree();
+	pruneTree(dt, subtrees, dataSet, validationData);
+
+	model = new Model(dt, dataSet);
     }
     /**
      * Finds the subtrees of a given subtree
      *
      * @param subtree the subtree to find subtrees on
+     * @param subtrees receives the subtrees that aren't leaves
      */
-    private void findSubtrees(DecisionTree subtree) {
+    private void findSubtrees(DecisionTree subtree, Set<DecisionTree> subtrees) {
 	if (subtree.clazz == null) {
 	    subtrees.add(subtree);
 
-	    findSubtrees(subtree.pos);
-	    findSubtrees(subtree.neg);
+	    findSubtrees(subtree.pos, subtrees);
+	    findSubtrees(subtree.neg, subtrees);
 	}
     }
 
     /**
      * Prunes the given tree by pruning nodes until it can no longer reduce error.
+     *
+     * @param dt the tree to prune
+     * @param subtrees the subtrees of the tree that aren't leaves
+     * @param data the encoded data holding the validation rows
+     * @param validationData the positions of the rows to measure error on
      */
-    private void pruneTree() {
+    private void pruneTree(DecisionTree dt, Set<DecisionTree> subtrees, EncodedDataSet data, int[] validationData) {
 	DecisionTree bestSubtree = null;
 
 	do {
-	    int bestError = validationError(dt);
+	    int bestError = validationError(dt, data, validationData);
 	    bestSubtree = null;
-	    
+
 	    //test on each of the subtree nodes
 	    for (DecisionTree subtree : subtrees) {
 		subtree.clazz = subtree.maxClass; //prune the node to be its majority class
-		int newError = validationError(subtree);
+		int newError = validationError(subtree, data, validationData);
 		subtree.clazz = null; //unprune the node for now
 
 		if (newError < bestError) {
@@ -103,7 +166,7 @@ public class ID3 implements Classifier {
 	    if (bestSubtree != null) {
 		bestSubtree.clazz = bestSubtree.maxClass;
 		bestSubtree.pos = bestSubtree.neg = null;
-		removeSubtrees(bestSubtree);
+		removeSubtrees(bestSubtree, subtrees);
 	    }
 	} while(bestSubtree != null);
     }
@@ -111,25 +174,29 @@ public class ID3 implements Classifier {
      * Recursively remove subtrees from a tree
      *
      * @param subtree the subtree to be deleted
+     * @param subtrees the subtrees to remove it from
      */
-    private void removeSubtrees(DecisionTree subtree) {
+    private void removeSubtrees(DecisionTree subtree, Set<DecisionTree> subtrees) {
 	subtrees.remove(subtree);
 
 	if(subtree.pos != null) {
-	    removeSubtrees(subtree.pos);
-	    removeSubtrees(subtree.neg);	    
+	    removeSubtrees(subtree.pos, subtrees);
+	    removeSubtrees(subtree.neg, subtrees);
 	}
     }
 
     /**
      * Calculates the error of the given decision tree on the validation set.
      *
+     * @param dt the decision tree to measure
+     * @param data the encoded data holding the validation rows
+     * @param validationData the positions of the validation rows
      * @returns the number of errors from running the given decision tree on the validation data
      */
-    private int validationError(DecisionTree dt) {
+    private int validationError(DecisionTree dt, EncodedDataSet data, int[] validationData) {
 	int errors = 0;
-	for (DataPoint point : validationData) {
-	    if (!classify(point.getData().get(), dt).equals(point.getClassLabel().get())) {
+	for (int row : validationData) {
+	    if (!classify(data, row, dt).equals(data.getClassLabel(row))) {
 		errors++;
 	    }
 	}
@@ -144,7 +211,7 @@ public class ID3 implements Classifier {
      */
     @Override
     public String classify(List dataPoint) {
-	return classify(dataPoint, dt);
+	return classify(dataPoint, model.tree);
     }
 
     /**
@@ -162,10 +229,178 @@ public class ID3 implements Classifier {
 		curDT = curDT.neg;
 	    }
 	}
-	
+
 	return curDT.clazz;
     }
 
+    @Override
+    public String classify(EncodedDataSet dataSet, int row) {
+	Model current = model;
+	if (!dataSet.usesDictionaries(current.attributeDictionaries)) {
+	    return classify(dataSet.getRow(row), current.tree);
+	}
+	return classify(dataSet, row, current.tree);
+    }
+
+    /**
+     * Classifies a block of rows by routing them down the tree together. At each node the rows are
+     * split on a single attribute column, so the rows at a node are tested with one tight loop.
+     *
+     * @param dataSet data holding the rows to classify
+     * @param rows positions of the rows to classify
+     * @return the class label of each row, in the same order as the rows
+     */
+    @Override
+    public String[] classify(EncodedDataSet dataSet, int[] rows) {
+	Model current = model;
+	if (current == null || !dataSet.usesDictionaries(current.attributeDictionaries)) {
+	    return Classifier.super.classify(dataSet, rows);
+	}
+	String[] classLabels = new String[rows.length];
+	int[] positions = new int[rows.length];
+	for (int i = 0; i < positions.length; i++) {
+	    positions[i] = i;
+	}
+	classify(dataSet, rows, positions, positions.length, current.tree, classLabels);
+	return classLabels;
+    }
+
+    /**
+     * Routes some of a block of rows down a subtree, recording the class label of each row at its leaf.
+     *
+     * @param dataSet data holding the rows
+     * @param rows positions of all of the rows in the block
+     * @param positions positions in the block of the rows that reached this node, in its first count entries
+     * @param count number of rows that reached this node
+     * @param curDT the subtree to classify with
+     * @param classLabels receives the class label of each row in the block
+     */
+    private void classify(EncodedDataSet dataSet, int[] rows, int[] positions, int count,
+			  DecisionTree curDT, String[] classLabels) {
+	if (count == 0) {
+	    return;
+	}
+	if (curDT.clazz != null) {
+	    for (int i = 0; i < count; i++) {
+		classLabels[positions[i]] = curDT.clazz;
+	    }
+	    return;
+	}
+
+	int[] pos = new int[count];
+	int[] neg = new int[count];
+	int p = 0, n = 0;
+	for (int i = 0; i < count; i++) {
+	    if (dataSet.value(rows[positions[i]], curDT.attributeIndex) == curDT.attributeCode) {
+		pos[p++] = positions[i];
+	    } else {
+		neg[n++] = positions[i];
+	    }
+	}
+	classify(dataSet, rows, pos, p, curDT.pos, classLabels);
+	classify(dataSet, rows, neg, n, curDT.neg, classLabels);
+    }
+
+    /**
+     * Classify an encoded row based on a given decision tree, comparing value codes.
+     *
+     * @param dataSet data holding the row, encoded with the training dictionaries
+     * @param row the position of the row to classify
+     * @param curDT the decision tree to classify with
+     * @return the class label for the given row
+     */
+    private String classify(EncodedDataSet dataSet, int row, DecisionTree curDT) {
+	while (curDT.clazz == null) {
+	    if (dataSet.value(row, curDT.attributeIndex) == curDT.attributeCode) {
+		curDT = curDT.pos;
+	    } else {
+		curDT = curDT.neg;
+	    }
+	}
+
+	return curDT.clazz;
+    }
+
+    /* Tags that start each node of a tree in a model snapshot */
+    private static final byte NO_NODE = 0, LEAF = 1, SPLIT = 2;
+
+    /**
+     * Writes the dictionaries and pruned tree of the trained model for a model snapshot
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream can't be written
+     */
+    void writeModel(DataOutputStream out) throws IOException {
+	Model current = model;
+	if (current == null) {
+	    throw new IllegalStateException(this + " hasn't been trained");
+	}
+	ModelSnapshot.writeDictionaries(out, current.attributeDictionaries);
+	ModelSnapshot.writeDictionary(out, current.classDictionary);
+	writeTree(out, current.tree);
+    }
+
+    /**
+     * Writes a subtree, parents before children
+     *
+     * @param out the stream to write to
+     * @param curDT the subtree to write
+     * @throws IOException if the stream can't be written
+     */
+    private void writeTree(DataOutputStream out, DecisionTree curDT) throws IOException {
+	if (curDT == null) {
+	    out.writeByte(NO_NODE);
+	} else if (curDT.clazz != null) {
+	    out.writeByte(LEAF);
+	    ModelSnapshot.writeString(out, curDT.clazz);
+	} else {
+	    out.writeByte(SPLIT);
+	    out.writeInt(curDT.attributeIndex);
+	    out.writeInt(curDT.attributeCode);
+	    ModelSnapshot.writeString(out, curDT.attributeValue);
+	    ModelSnapshot.writeString(out, curDT.maxClass);
+	    writeTree(out, curDT.pos);
+	    writeTree(out, curDT.neg);
+	}
+    }
+
+    /**
+     * Reads a trained model written by writeModel
+     *
+     * @param in the buffer positioned at the model
+     * @return a classifier holding the model
+     */
+    static ID3 readModel(ByteBuffer in) {
+	ValueDictionary[] attributeDictionaries = ModelSnapshot.readDictionaries(in);
+	ValueDictionary classDictionary = ModelSnapshot.readDictionary(in);
+	ID3 classifier = new ID3();
+	classifier.model = new Model(classifier.readTree(in), attributeDictionaries, classDictionary);
+	return classifier;
+    }
+
+    /**
+     * Reads a subtree written by writeTree
+     *
+     * @param in the buffer positioned at the subtree
+     * @return the subtree
+     */
+    private DecisionTree readTree(ByteBuffer in) {
+	byte tag = in.get();
+	if (tag == NO_NODE) {
+	    return null;
+	}
+	if (tag == LEAF) {
+	    return new DecisionTree(ModelSnapshot.readString(in));
+	}
+	int attrIndex = in.getInt();
+	int attrCode = in.getInt();
+	DecisionTree curDT = new DecisionTree(attrIndex, attrCode, ModelSnapshot.readString(in));
+	curDT.maxClass = ModelSnapshot.readString(in);
+	curDT.pos = readTree(in);
+	curDT.neg = readTree(in);
+	return curDT;
+    }
+
     /**
      * Constructs the decision tree for a set of data
      *
@@ -176,77 +411,107 @@ public class ID3 implements Classifier {
 	if (remainingData == null || remainingData.size() == 0) {
 	    return null;
 	}
-	Set<String> classes = new HashSet<>();
-	List<Set<String>> usedAttrValues = new ArrayList<>();
-
-	for (DataPoint dataPoint : remainingData) {
-	    classes.add(dataPoint.getClassLabel().get());
+	int[] rows = new int[remainingData.size()];
+	for (int i = 0; i < rows.length; i++) {
+	    rows[i] = i;
 	}
+	return constructDT(EncodedDataSet.encode(remainingData), rows);
+    }
 
-	if (classes.size() == 1) {
-	    String singleClass = classes.iterator().next();
-	    return new DecisionTree(singleClass);
+    /**
+     * Constructs the decision tree for the given rows of an encoded data set.
+     *
+     * Candidate splits are scored from per-value class counts, so each attribute
+     * only needs one pass over the rows rather than one pass per value.
+     *
+     * @param dataSet the encoded data holding the rows
+     * @param remainingData the positions of the rows to construct a decision tree from
+     * @return a decision tree that best memorizes the given rows
+     */
+    private DecisionTree constructDT(EncodedDataSet dataSet, int[] remainingData) {
+	if (remainingData.length == 0) {
+	    return null;
 	}
+	int numClasses = dataSet.numClasses();
+	int[] classCounts = new int[numClasses];
+	int numClassesPresent = 0;
 
-	for (int i = 0; i < remainingData.get(0).getData().get().size(); i++) {
-	    usedAttrValues.add(new HashSet<String>());
+	for (int row : remainingData) {
+	    if (classCounts[dataSet.classId(row)]++ == 0) {
+		numClassesPresent++;
+	    }
 	}
 
-	for (DataPoint dataPoint : remainingData) {
-	    List<String> datum = dataPoint.getData().get();
-	    for (int i = 0; i < datum.size(); i++) { 
-		usedAttrValues.get(i).add(datum.get(i));
-	    }
+	if (numClassesPresent == 1) {
+	    String singleClass = dataSet.getClassLabel(remainingData[0]);
+	    return new DecisionTree(singleClass);
 	}
 
 	int attrIndex = 0;
-	String attributeValue = "";
+	int attributeCode = 0;
 	double minEntropy = Double.MAX_VALUE;
-	List<DataPoint> posData = new ArrayList<>();
-	List<DataPoint> negData = new ArrayList<>();
-	double curEntropy = calculateEntropy(remainingData);
-	for (int i = 0; i < usedAttrValues.size(); i++) {
-	    for (String attrValue : usedAttrValues.get(i)) {
-		posData.clear();
-		negData.clear();
-
-		for (DataPoint dataPoint : remainingData) {
-		    if (dataPoint.getData().get().get(i).equals(attrValue)) {
-			posData.add(dataPoint);
-		    } else {
-			negData.add(dataPoint);
-		    }
+	double curEntropy = calculateEntropy(classCounts, remainingData.length);
+	int[] negCounts = new int[numClasses];
+	for (int i = 0; i < dataSet.numAttributes(); i++) {
+	    // Count the classes of the rows holding each value of this attribute
+	    int[][] valueClassCounts = new int[dataSet.cardinality(i)][];
+	    int[] valueCounts = new int[dataSet.cardinality(i)];
+	    for (int row : remainingData) {
+		int value = dataSet.value(row, i);
+		if (valueClassCounts[value] == null) {
+		    valueClassCounts[value] = new int[numClasses];
 		}
+		valueClassCounts[value][dataSet.classId(row)]++;
+		valueCounts[value]++;
+	    }
 
-		double entropy = (calculateEntropy(posData)*posData.size()/remainingData.size() +
-				  calculateEntropy(negData)*negData.size()/remainingData.size());
+	    for (int value = 0; value < valueClassCounts.length; value++) {
+		if (valueClassCounts[value] == null) {
+		    continue;
+		}
+		int[] posCounts = valueClassCounts[value];
+		for (int c = 0; c < numClasses; c++) {
+		    negCounts[c] = classCounts[c] - posCounts[c];
+		}
+		int posSize = valueCounts[value];
+		int negSize = remainingData.length - posSize;
+
+		double entropy = (calculateEntropy(posCounts, posSize)*posSize/remainingData.length +
+				  calculateEntropy(negCounts, negSize)*negSize/remainingData.length);
 		if(entropy < minEntropy){
 		    minEntropy = entropy;
 		    attrIndex = i;
-		    attributeValue = attrValue;
-		}		
+		    attributeCode = value;
+		}
 	    }
 	}
 
 	if (aboutEqual(curEntropy, minEntropy) || minEntropy > curEntropy) {
-	    return new DecisionTree(mostCommonClass(remainingData));
+	    return new DecisionTree(mostCommonClass(dataSet, classCounts));
 	}
 
-	posData.clear();
-	negData.clear();
-
-	for (DataPoint dataPoint : remainingData) {
-	    if (dataPoint.getData().get().get(attrIndex).equals(attributeValue)) {
-		posData.add(dataPoint);
+	int posSize = 0;
+	for (int row : remainingData) {
+	    if (dataSet.value(row, attrIndex) == attributeCode) {
+		posSize++;
+	    }
+	}
+	int[] posData = new int[posSize];
+	int[] negData = new int[remainingData.length - posSize];
+	int p = 0, n = 0;
+	for (int row : remainingData) {
+	    if (dataSet.value(row, attrIndex) == attributeCode) {
+		posData[p++] = row;
 	    } else {
-		negData.add(dataPoint);
+		negData[n++] = row;
 	    }
 	}
 
-	DecisionTree cur = new DecisionTree(attrIndex, attributeValue);
-	cur.maxClass = mostCommonClass(remainingData);	
-	cur.pos = constructDT(posData);
-	cur.neg = constructDT(negData);
+	DecisionTree cur = new DecisionTree(attrIndex, attributeCode,
+					    dataSet.getAttributeDictionaries()[attrIndex].decode(attributeCode));
+	cur.maxClass = mostCommonClass(dataSet, classCounts);
+	cur.pos = constructDT(dataSet, posData);
+	cur.neg = constructDT(dataSet, negData);
 
 	return cur;
     }
@@ -287,7 +552,34 @@ public class ID3 implements Classifier {
 	    }
 	}
 
-	return commonClasses.get((int)(commonClasses.size()*Math.random()));
+	return commonClasses.get(ThreadLocalRandom.current().nextInt(commonClasses.size()));
+    }
+
+    /**
+     * Finds the most common class from a set of class counts, picking
+     * randomly if two classes occur equally often.
+     *
+     * @param dataSet the encoded data the counts were taken from
+     * @param classCounts the number of rows of each class, indexed by class id
+     * @return the most common class in the counted data
+     */
+    private String mostCommonClass(EncodedDataSet dataSet, int[] classCounts) {
+	int maxCount = 0;
+	List<Integer> commonClasses = new ArrayList<>();
+
+	for (int classId = 0; classId < classCounts.length; classId++) {
+	    if (classCounts[classId] > maxCount) {
+		maxCount = classCounts[classId];
+
+		commonClasses.clear();
+		commonClasses.add(classId);
+	    } else if (classCounts[classId] == maxCount && maxCount > 0) {
+		commonClasses.add(classId);
+	    }
+	}
+
+	int classId = commonClasses.get(ThreadLocalRandom.current().nextInt(commonClasses.size()));
+	return dataSet.getClassDictionary().decode(classId);
     }
 
     /**
@@ -326,6 +618,25 @@ public class ID3 implements Classifier {
 	return sum;
     }
 
+    /**
+     * Calculates the entropy of a set of rows from the number of rows of each class.
+     *
+     * @param classCounts the number of rows of each class
+     * @param total the total number of rows
+     * @return the entropy for the set of rows
+     */
+    private double calculateEntropy(int[] classCounts, int total) {
+	double sum = 0.0;
+	for (int count : classCounts) {
+	    if (count > 0) {
+		double proportion = (double)count / total;
+		sum -= proportion * Math.log(proportion);
+	    }
+	}
+
+	return sum;
+    }
+
     /**
      * Creates a string representation of a decision tree.
      *
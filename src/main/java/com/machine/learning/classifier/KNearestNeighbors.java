@@ -1,48 +1,280 @@
 package com.machine.learning.classifier;
 
 import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.SufficientStatistics;
+import com.machine.learning.model.ValueDictionary;
 import com.machine.learning.util.ValueDifferenceMetric;
 
-import java.util.ArrayList;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.stream.IntStream;
 
 public class KNearestNeighbors implements Classifier {
+	/* Training set size from which a query is scanned in parallel, unless another threshold is given */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 50000;
 
-	int k;
-	List<DataWithDistance> data = new ArrayList();
-	Map<String, AtomicInteger> voteResults;
-	ValueDifferenceMetric vdm;
+	/* Number of chunks per fork-join worker that a parallel scan splits the training set into */
+	private static final int CHUNKS_PER_WORKER = 4;
 
-	class DataWithDistance implements Comparable {
-		List data;
-		double distance;
-		String clazz;
+	/* Most distances classifyFolds holds at once, 128MB of them, enough for 8192 points. Larger data sets measure
+	   each distance when it's needed. */
+	static final long MAX_SHARED_DISTANCES = 1 << 25;
+
+	final int k;
+	private final int parallelThreshold;
+	/* Whether a vantage point tree is built when training */
+	private final boolean indexed;
+	/* The locality-sensitive hash tables built when training, or 0 to build none */
+	private final int hashTables;
+	private final int hashesPerTable;
+	private final double bucketWidth;
+	/* Builds the index searched instead of scanning when training, or null to scan */
+	private final BiFunction<EncodedDataSet, ValueDifferenceMetric, NeighborIndex> indexFactory;
+	/* How the training set is shrunk before it is stored, or null to store all of it */
+	private final PrototypeSelection reduction;
+	private volatile Model model;
+
+	/**
+	 * The training data and the metric built on it. A model is never changed after it is published, and the
+	 * nearest neighbors of a query are collected in scratch that belongs to the querying thread, so any number
+	 * of threads can classify at once.
+	 */
+	private static final class Model {
+		final EncodedDataSet trainingData;
+		final ValueDifferenceMetric vdm;
+		final ValueDictionary[] attributeDictionaries;
+		final ValueDictionary classDictionary;
+
+		final int k;
+
+		/* Rows per chunk when the training set is scanned in parallel, or 0 to always scan on the querying thread */
+		final int chunkSize;
+
+		/* The index to search instead of scanning, or null to scan */
+		final NeighborIndex index;
+
+		/* One heap of neighbors and one vote tally per thread, reused for every query */
+		final ThreadLocal<Neighbors> neighbors;
+
+		/* The number of distances measured between queries and training points */
+		final LongAdder distanceEvaluations = new LongAdder();
+
+		Model(EncodedDataSet dataSet, ValueDifferenceMetric vdm, int k, int parallelThreshold,
+		      BiFunction<EncodedDataSet, ValueDifferenceMetric, NeighborIndex> indexFactory) {
+			trainingData = dataSet;
+			this.vdm = vdm;
+			this.k = k;
+			attributeDictionaries = dataSet.getAttributeDictionaries();
+			classDictionary = dataSet.getClassDictionary();
+			index = indexFactory == null ? null : indexFactory.apply(dataSet, vdm);
+
+			int workers = ForkJoinPool.getCommonPoolParallelism();
+			if (workers > 1 && dataSet.size() >= parallelThreshold) {
+				chunkSize = Math.max(dataSet.size() / (workers * CHUNKS_PER_WORKER), k);
+			} else {
+				chunkSize = 0;
+			}
+
+			int numClasses = classDictionary.size();
+			neighbors = ThreadLocal.withInitial(() -> new Neighbors(k, numClasses));
+		}
+
+		/**
+		 * Finds the k training points nearest to a query point. If the model is indexed, only the points the
+		 * index can't rule out are measured. Otherwise large training sets are split into chunks whose nearest
+		 * points are found on the fork-join pool and then merged. The same points are found as by a scan on one
+		 * thread, unless the index is approximate.
+		 *
+		 * @param codes the value codes of the query point
+		 * @return this thread's neighbors, holding the nearest training points in no particular order
+		 */
+		Neighbors nearest(int[] codes) {
+			Neighbors nearest = neighbors.get();
+			nearest.clear();
+			if (index != null) {
+				distanceEvaluations.add(index.search(codes, nearest));
+			} else if (chunkSize == 0) {
+				scan(codes, 0, trainingData.size(), nearest);
+			} else {
+				nearest.merge(ForkJoinPool.commonPool().invoke(new NeighborScan(this, codes, 0, trainingData.size())));
+			}
+			return nearest;
+		}
 
 		/**
-		 * Combines data points with the distance to a query point
+		 * Offers a range of training points to a set of neighbors
 		 *
-		 * @param data a single data point in the training data
+		 * @param codes the value codes of the query point
+		 * @param from the first row to offer
+		 * @param to the row after the last row to offer
+		 * @param nearest the neighbors to offer the points to
 		 */
-		public DataWithDistance(DataPoint data){
-			this.data = data.getData().get();
-			this.clazz = data.getClassLabel().get();
+		void scan(int[] codes, int from, int to, Neighbors nearest) {
+			for (int row = from; row < to; row++) {
+				nearest.offer(row, vdm.calculateDistance(trainingData, row, codes));
+			}
+			distanceEvaluations.add(to - from);
+		}
+	}
+
+	/**
+	 * Finds the nearest training points in a range of rows, splitting the range in half until it is no
+	 * larger than a chunk
+	 */
+	private static final class NeighborScan extends RecursiveTask<Neighbors> {
+		private static final long serialVersionUID = 1L;
+
+		private final Model model;
+		private final int[] codes;
+		private final int from;
+		private final int to;
+
+		NeighborScan(Model model, int[] codes, int from, int to) {
+			this.model = model;
+			this.codes = codes;
+			this.from = from;
+			this.to = to;
 		}
 
 		@Override
-		public int compareTo(Object other) {
-			DataWithDistance otherD = (DataWithDistance) other;
-			if (distance > otherD.distance) {
-				return 1;
-			} else if (distance < otherD.distance) {
-				return -1;
-			} else {
-				return 0;
+		protected Neighbors compute() {
+			if (to - from <= model.chunkSize) {
+				Neighbors nearest = new Neighbors(model.k, 0);
+				model.scan(codes, from, to, nearest);
+				return nearest;
+			}
+			int middle = (from + to) >>> 1;
+			NeighborScan left = new NeighborScan(model, codes, from, middle);
+			left.fork();
+			Neighbors nearest = new NeighborScan(model, codes, middle, to).compute();
+			nearest.merge(left.join());
+			return nearest;
+		}
+	}
+
+	/**
+	 * The nearest training points found so far for a query, kept as a max-heap on distance so that each
+	 * further point only has to be compared with the furthest neighbor. Equal distances are broken by row,
+	 * so a query always has the same neighbors however the training points are visited.
+	 */
+	static final class Neighbors {
+		final int[] rows;
+		final double[] distances;
+		final int[] votes;
+		int size;
+
+		/**
+		 * @param k the number of neighbors to keep
+		 * @param numClasses the number of classes to tally votes for
+		 */
+		Neighbors(int k, int numClasses) {
+			rows = new int[k];
+			distances = new double[k];
+			votes = new int[numClasses];
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		/**
+		 * @return the distance to the furthest neighbor, or infinity if there are fewer than k neighbors, in
+		 * which case any point would be kept
+		 */
+		double bound() {
+			return size < rows.length ? Double.POSITIVE_INFINITY : distances[0];
+		}
+
+		/**
+		 * Offers every neighbor found by another scan of the same query
+		 *
+		 * @param other the neighbors to offer
+		 */
+		void merge(Neighbors other) {
+			for (int i = 0; i < other.size; i++) {
+				offer(other.rows[i], other.distances[i]);
+			}
+		}
+
+		/**
+		 * Keeps a training point if it is nearer than the furthest neighbor, or there are fewer than k neighbors
+		 *
+		 * @param row the position of the training point
+		 * @param distance the distance from the training point to the query point
+		 */
+		void offer(int row, double distance) {
+			if (size < rows.length) {
+				rows[size] = row;
+				distances[size] = distance;
+				siftUp(size++);
+			} else if (size > 0 && (distance < distances[0] || (distance == distances[0] && row < rows[0]))) {
+				rows[0] = row;
+				distances[0] = distance;
+				siftDown(0, size);
+			}
+		}
+
+		private void siftUp(int child) {
+			while (child > 0) {
+				int parent = (child - 1) / 2;
+				if (!further(child, parent)) {
+					return;
+				}
+				swap(child, parent);
+				child = parent;
+			}
+		}
+
+		/**
+		 * Orders the neighbors from nearest to furthest. They are no longer a heap afterwards, so nothing more can
+		 * be offered until they are cleared.
+		 */
+		void sort() {
+			for (int end = size - 1; end > 0; end--) {
+				swap(0, end);
+				siftDown(0, end);
 			}
 		}
+
+		private void siftDown(int parent, int limit) {
+			while (true) {
+				int child = 2 * parent + 1;
+				if (child >= limit) {
+					return;
+				}
+				if (child + 1 < limit && further(child + 1, child)) {
+					child++;
+				}
+				if (!further(child, parent)) {
+					return;
+				}
+				swap(child, parent);
+				parent = child;
+			}
+		}
+
+		private boolean further(int i, int j) {
+			return distances[i] > distances[j] || (distances[i] == distances[j] && rows[i] > rows[j]);
+		}
+
+		private void swap(int i, int j) {
+			int row = rows[i];
+			rows[i] = rows[j];
+			rows[j] = row;
+			double distance = distances[i];
+			distances[i] = distances[j];
+			distances[j] = distance;
+		}
 	}
 
 	/**
@@ -51,63 +283,485 @@ public class KNearestNeighbors implements Classifier {
 	 * @param k the number of neighbors to check, with a minimum of 1
 	 */
 	public KNearestNeighbors(int k) {
+		this(k, DEFAULT_PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * Performs classification via k-Nearest-Neighbors, scanning the training set for each query on the
+	 * fork-join pool once it has at least the given number of points
+	 *
+	 * @param k the number of neighbors to check, with a minimum of 1
+	 * @param parallelThreshold the smallest training set to scan in parallel
+	 */
+	public KNearestNeighbors(int k, int parallelThreshold) {
+		this(k, parallelThreshold, false);
+	}
+
+	/**
+	 * Performs classification via k-Nearest-Neighbors, optionally building a vantage point tree over the
+	 * training set so that queries don't have to measure the distance to every training point. The tree finds
+	 * exactly the same neighbors as a scan, and is searched on the querying thread.
+	 *
+	 * @param k the number of neighbors to check, with a minimum of 1
+	 * @param parallelThreshold the smallest training set to scan in parallel, if it isn't indexed
+	 * @param indexed whether to build a vantage point tree when training
+	 */
+	public KNearestNeighbors(int k, int parallelThreshold, boolean indexed) {
+		this(k, parallelThreshold, indexed, 0, 0, 0, null);
+	}
+
+	/**
+	 * Performs classification via k-Nearest-Neighbors on only the training points a prototype selection keeps.
+	 * The points are selected with the metric built on the whole training set, which the classifier keeps.
+	 *
+	 * @param k the number of neighbors to check, with a minimum of 1
+	 * @param reduction how to shrink the training set
+	 */
+	public KNearestNeighbors(int k, PrototypeSelection reduction) {
+		this(k, DEFAULT_PARALLEL_THRESHOLD, false, 0, 0, 0, reduction);
+	}
+
+	private KNearestNeighbors(int k, int parallelThreshold, boolean indexed, int hashTables, int hashesPerTable,
+	                          double bucketWidth, PrototypeSelection reduction) {
 		this.k = Math.max(k, 1);
+		this.parallelThreshold = parallelThreshold;
+		this.indexed = indexed;
+		this.hashTables = hashTables;
+		this.hashesPerTable = hashesPerTable;
+		this.bucketWidth = bucketWidth;
+		if (hashTables > 0) {
+			indexFactory = (dataSet, vdm) ->
+					new LocalitySensitiveHashIndex(dataSet, vdm, hashTables, hashesPerTable, bucketWidth);
+		} else {
+			indexFactory = indexed ? VantagePointTree::new : null;
+		}
+		this.reduction = reduction;
+	}
+
+	/**
+	 * Creates a k-Nearest-Neighbors classifier that trades accuracy for speed by only measuring the distance to
+	 * training points that share a locality-sensitive hash bucket with the query. Each training point is hashed
+	 * by the class rates of its attribute values, so points the VDM finds near each other tend to share buckets.
+	 *
+	 * More tables find more of the true nearest neighbors, and more hashes per table or narrower buckets measure
+	 * fewer points, so queries are quicker but miss more neighbors.
+	 *
+	 * @param k the number of neighbors to check, with a minimum of 1
+	 * @param tables the number of hash tables, with a minimum of 1
+	 * @param hashesPerTable the number of hashes a training point must share with the query in one table
+	 * @param bucketWidth the width of each hash's buckets, on the scale of the distance between two values of
+	 *                    one attribute, which is at most 2
+	 * @return the classifier
+	 */
+	public static KNearestNeighbors approximate(int k, int tables, int hashesPerTable, double bucketWidth) {
+		return new KNearestNeighbors(k, Integer.MAX_VALUE, false, Math.max(tables, 1), hashesPerTable, bucketWidth,
+				null);
 	}
 
 	@Override
 	public void train(List<DataPoint> dataPoints) {
-		data.clear();
-		for(DataPoint dataPoint : dataPoints){
-			data.add(new DataWithDistance(dataPoint));
+		train(EncodedDataSet.encode(dataPoints));
+	}
+
+	/**
+	 * Trains on encoded data. The training points are read from the data set whenever a point is
+	 * classified rather than copied, so a data set backed by a snapshot stays on disk.
+	 *
+	 * @param dataSet the encoded points to train on
+	 */
+	@Override
+	public void train(EncodedDataSet dataSet) {
+		train(dataSet, new ValueDifferenceMetric(dataSet));
+	}
+
+	/**
+	 * Trains on encoded data, building the metric from the given counts of the data rather than counting it
+	 *
+	 * @param dataSet the encoded points to train on
+	 * @param statistics the counts of the points
+	 */
+	@Override
+	public void train(EncodedDataSet dataSet, SufficientStatistics statistics) {
+		train(dataSet, new ValueDifferenceMetric(statistics));
+	}
+
+	@Override
+	public boolean trainsFromCounts() {
+		return true;
+	}
+
+	private void train(EncodedDataSet dataSet, ValueDifferenceMetric vdm) {
+		if (reduction == null) {
+			model = new Model(dataSet, vdm, k, parallelThreshold, indexFactory);
+			return;
 		}
-		vdm = new ValueDifferenceMetric(dataPoints);
+		EncodedDataSet prototypes = dataSet.subset(reduction.select(dataSet, vdm, k));
+		model = new Model(prototypes, vdm, k, parallelThreshold, indexFactory);
 	}
 
 	@Override
 	public String classify(List dataPoint) {
-		for (int i = 0; i < data.size(); i++) {
-			data.get(i).distance = vdm.calculateDistance(data.get(i).data, dataPoint);
+		Model current = model;
+		return classify(current, current.vdm.encode(dataPoint));
+	}
+
+	@Override
+	public String classify(EncodedDataSet dataSet, int row) {
+		Model current = model;
+		if (!dataSet.usesDictionaries(current.attributeDictionaries)) {
+			return classify(current, current.vdm.encode(dataSet.getRow(row)));
+		}
+		return classify(current, dataSet.row(row));
+	}
+
+	/**
+	 * Classifies a point encoded with the training dictionaries
+	 *
+	 * @param current the model to classify with
+	 * @param codes the value codes of the point to classify
+	 * @return the class of the point, as voted on by the k nearest neighbors
+	 */
+	private String classify(Model current, int[] codes) {
+		Neighbors nearest = current.nearest(codes);
+		return vote(current.trainingData, nearest, nearest.size);
+	}
+
+	/**
+	 * Classifies points for several values of k at once. The neighbors of each point are found once, with this
+	 * classifier's k, and sorted, and each k votes with the nearest k of them. Since ties in distance are broken
+	 * by row, those are exactly the neighbors a classifier with that k would find.
+	 *
+	 * @param dataSet the data holding the points
+	 * @param rows the positions of the points to classify
+	 * @param ks the numbers of neighbors to vote with, each between 1 and this classifier's k
+	 * @return the class of each point for each k, indexed by the position of the k in ks, then of the row in rows
+	 */
+	public String[][] classify(EncodedDataSet dataSet, int[] rows, int[] ks) {
+		checkVoters(ks);
+		Model current = model;
+		boolean sharedCodes = dataSet.usesDictionaries(current.attributeDictionaries);
+		String[][] classLabels = new String[ks.length][rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			int[] codes = sharedCodes ? dataSet.row(rows[i]) : current.vdm.encode(dataSet.getRow(rows[i]));
+			Neighbors nearest = current.nearest(codes);
+			nearest.sort();
+			for (int j = 0; j < ks.length; j++) {
+				classLabels[j][i] = vote(current.trainingData, nearest, ks[j]);
+			}
+		}
+		return classLabels;
+	}
+
+	/**
+	 * Classifies every fold of a cross validation for several values of k, measuring the distance between two
+	 * points in different folds once rather than once for each fold either is tested in, and building one
+	 * metric instead of one per fold. Each point is classified by the nearest points of the other folds.
+	 *
+	 * The metric is built from the whole data set, so the class rates behind the distances include the labels
+	 * of the fold being tested. The distances approximate those measured by a classifier trained on the other
+	 * folds. Accuracy is biased upwards, most on data sets with rare attribute values, whose class rates are
+	 * dominated by the point being classified. The trained model isn't changed, and no prototypes are selected.
+	 *
+	 * @param dataSet the data to cross validate on
+	 * @param folds the row positions in each fold
+	 * @param ks the numbers of neighbors to vote with, each between 1 and this classifier's k
+	 * @return the class of each point for each k, indexed by fold, then the position of the k in ks, then the
+	 * position of the row in the fold
+	 */
+	public String[][][] classifyFolds(EncodedDataSet dataSet, int[][] folds, int[] ks) {
+		return classifyFolds(dataSet, folds, ks, MAX_SHARED_DISTANCES);
+	}
+
+	String[][][] classifyFolds(EncodedDataSet dataSet, int[][] folds, int[] ks, long maxSharedDistances) {
+		checkVoters(ks);
+		ValueDifferenceMetric vdm = new ValueDifferenceMetric(dataSet);
+		int size = dataSet.size();
+		int[] foldOf = new int[size];
+		for (int fold = 0; fold < folds.length; fold++) {
+			for (int row : folds[fold]) {
+				foldOf[row] = fold;
+			}
+		}
+
+		String[][][] classLabels = new String[folds.length][ks.length][];
+		for (int fold = 0; fold < folds.length; fold++) {
+			for (int j = 0; j < ks.length; j++) {
+				classLabels[fold][j] = new String[folds[fold].length];
+			}
+		}
+		if ((long) size * (size - 1) / 2 <= maxSharedDistances) {
+			classifySharingDistances(dataSet, folds, ks, vdm, foldOf, classLabels);
+		} else {
+			classifyEachFold(dataSet, folds, ks, vdm, foldOf, classLabels);
+		}
+		return classLabels;
+	}
+
+	/**
+	 * Measures the distance between every two points in different folds once, on the fork-join pool, and then
+	 * classifies the points of every fold in parallel from the shared distances
+	 */
+	private void classifySharingDistances(EncodedDataSet dataSet, int[][] folds, int[] ks, ValueDifferenceMetric vdm,
+	                                      int[] foldOf, String[][][] classLabels) {
+		// Only the lower triangle is kept: the distance between rows a and b, for b < a, is at a * (a - 1) / 2 + b.
+		// Floats are precise enough, as the distances are already approximate.
+		int size = dataSet.size();
+		float[] distances = new float[(int) ((long) size * (size - 1) / 2)];
+		IntStream.range(1, size).parallel().forEach(a -> {
+			int[] codes = dataSet.row(a);
+			int start = (int) ((long) a * (a - 1) / 2);
+			for (int b = 0; b < a; b++) {
+				if (foldOf[a] != foldOf[b]) {
+					distances[start + b] = (float) vdm.calculateDistance(dataSet, b, codes);
+				}
+			}
+		});
+
+		ThreadLocal<Neighbors> neighbors = ThreadLocal.withInitial(() -> new Neighbors(k, dataSet.numClasses()));
+		for (int fold = 0; fold < folds.length; fold++) {
+			int[] rows = folds[fold];
+			int testFold = fold;
+			IntStream.range(0, rows.length).parallel().forEach(i -> {
+				int a = rows[i];
+				Neighbors nearest = neighbors.get();
+				nearest.clear();
+				long start = (long) a * (a - 1) / 2;
+				for (int b = 0; b < size; b++) {
+					if (foldOf[b] == testFold) {
+						continue;
+					}
+					nearest.offer(b, b < a ? distances[(int) (start + b)]
+							: distances[(int) ((long) b * (b - 1) / 2 + a)]);
+				}
+				nearest.sort();
+				for (int j = 0; j < ks.length; j++) {
+					classLabels[testFold][j][i] = vote(dataSet, nearest, ks[j]);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Classifies the points of every fold in parallel with a model of the other folds, built on the shared metric,
+	 * which finds their neighbors as a trained model would, with this classifier's index if it has one. Each
+	 * query is scanned on its own thread, as the queries are already spread over the fork-join pool.
+	 */
+	private void classifyEachFold(EncodedDataSet dataSet, int[][] folds, int[] ks, ValueDifferenceMetric vdm,
+	                              int[] foldOf, String[][][] classLabels) {
+		for (int fold = 0; fold < folds.length; fold++) {
+			int testFold = fold;
+			int[] others = IntStream.range(0, dataSet.size()).filter(row -> foldOf[row] != testFold).toArray();
+			Model foldModel = new Model(dataSet.subset(others), vdm, k, Integer.MAX_VALUE, indexFactory);
+			int[] rows = folds[fold];
+			IntStream.range(0, rows.length).parallel().forEach(i -> {
+				Neighbors nearest = foldModel.nearest(dataSet.row(rows[i]));
+				nearest.sort();
+				for (int j = 0; j < ks.length; j++) {
+					classLabels[testFold][j][i] = vote(foldModel.trainingData, nearest, ks[j]);
+				}
+			});
+		}
+	}
+
+	private void checkVoters(int[] ks) {
+		for (int voters : ks) {
+			if (voters < 1 || voters > k) {
+				throw new IllegalArgumentException("Can't vote with " + voters + " neighbors, " + this + " finds " + k);
+			}
+		}
+	}
+
+	/**
+	 * Finds the nearest neighbors of a point
+	 *
+	 * @param dataPoint the point to find the neighbors of
+	 * @return the positions of the k nearest training points, from nearest to furthest
+	 */
+	public int[] neighbors(List dataPoint) {
+		Model current = model;
+		Neighbors nearest = current.nearest(current.vdm.encode(dataPoint));
+		nearest.sort();
+		return Arrays.copyOf(nearest.rows, nearest.size);
+	}
+
+	/**
+	 * @return the number of training points the classifier measures queries against, after any prototype
+	 *         selection
+	 */
+	public int getReferenceSize() {
+		return model.trainingData.size();
+	}
+
+	/**
+	 * @return how the training set is shrunk, or null if all of it is kept
+	 */
+	public PrototypeSelection getReduction() {
+		return reduction;
+	}
+
+	/**
+	 * @return the index searched by the trained model, or null if it scans the training set
+	 */
+	NeighborIndex getIndex() {
+		return model.index;
+	}
+
+	/**
+	 * @return the number of neighbors this classifier votes with
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @return the number of distances measured between queries and training points since the classifier was
+	 * last trained
+	 */
+	public long getDistanceEvaluations() {
+		Model current = model;
+		return current == null ? 0 : current.distanceEvaluations.sum();
+	}
+
+	@Override
+	public List<String> getClassLabels() {
+		Model current = model;
+		return current == null ? Collections.emptyList() : current.classDictionary.getValues();
+	}
+
+	/**
+	 * Scores each class by the fraction of the k nearest neighbors that belong to it
+	 *
+	 * @param dataPoint the point to score
+	 * @return the fraction of votes for each class, indexed by class id as in getClassLabels
+	 */
+	@Override
+	public double[] classScores(List dataPoint) {
+		Model current = model;
+		return classScores(current, current.vdm.encode(dataPoint));
+	}
+
+	@Override
+	public double[] classScores(EncodedDataSet dataSet, int row) {
+		Model current = model;
+		if (!dataSet.usesDictionaries(current.attributeDictionaries)) {
+			return classScores(current, current.vdm.encode(dataSet.getRow(row)));
+		}
+		return classScores(current, dataSet.row(row));
+	}
+
+	/**
+	 * Scores each class for a point encoded with the training dictionaries
+	 *
+	 * @param current the model to score with
+	 * @param codes the value codes of the point to score
+	 * @return the fraction of votes for each class, indexed by class id
+	 */
+	private double[] classScores(Model current, int[] codes) {
+		Neighbors nearest = current.nearest(codes);
+
+		double[] scores = new double[current.classDictionary.size()];
+		for (int i = 0; i < nearest.size; i++) {
+			scores[current.trainingData.classId(nearest.rows[i])] += 1.0 / nearest.size;
+		}
+		return scores;
+	}
+
+	/**
+	 * Writes the settings of the classifier and the counts of the metric for a model snapshot. The training
+	 * points are written separately, so that they can be memory-mapped when the snapshot is loaded, and the
+	 * index is built again from them.
+	 *
+	 * @param out the stream to write to
+	 * @return the training points, to be written with the model
+	 * @throws IOException if the stream can't be written
+	 */
+	EncodedDataSet writeModel(DataOutputStream out) throws IOException {
+		Model current = model;
+		if (current == null) {
+			throw new IllegalStateException(this + " hasn't been trained");
 		}
+		out.writeInt(k);
+		out.writeInt(parallelThreshold);
+		out.writeBoolean(indexed);
+		out.writeInt(hashTables);
+		out.writeInt(hashesPerTable);
+		out.writeDouble(bucketWidth);
+		ModelSnapshot.writeString(out, reduction == null ? null : reduction.name());
+		int[][][] attributeClassCounts = current.vdm.getAttributeClassCounts();
+		for (int[][] valueCounts : attributeClassCounts) {
+			out.writeInt(valueCounts.length);
+			for (int[] counts : valueCounts) {
+				ModelSnapshot.writeInts(out, counts);
+			}
+		}
+		return current.trainingData;
+	}
 
-		String vote = vote(k);
-		return vote;
+	/**
+	 * Reads a trained model written by writeModel
+	 *
+	 * @param in the buffer positioned at the model
+	 * @param trainingData the training points written with the model
+	 * @return a classifier holding the model
+	 */
+	static KNearestNeighbors readModel(ByteBuffer in, EncodedDataSet trainingData) {
+		int k = in.getInt();
+		int parallelThreshold = in.getInt();
+		boolean indexed = in.get() != 0;
+		int hashTables = in.getInt();
+		int hashesPerTable = in.getInt();
+		double bucketWidth = in.getDouble();
+		String reduction = ModelSnapshot.readString(in);
+		KNearestNeighbors classifier = new KNearestNeighbors(k, parallelThreshold, indexed, hashTables,
+				hashesPerTable, bucketWidth, reduction == null ? null : PrototypeSelection.valueOf(reduction));
+		int[][][] attributeClassCounts = new int[trainingData.numAttributes()][][];
+		for (int attrNum = 0; attrNum < attributeClassCounts.length; attrNum++) {
+			attributeClassCounts[attrNum] = new int[in.getInt()][];
+			for (int value = 0; value < attributeClassCounts[attrNum].length; value++) {
+				attributeClassCounts[attrNum][value] = ModelSnapshot.readInts(in);
+			}
+		}
+		ValueDifferenceMetric vdm = new ValueDifferenceMetric(trainingData.getAttributeDictionaries(),
+				trainingData.getClassDictionary(), attributeClassCounts);
+		classifier.model = new Model(trainingData, vdm, classifier.k, classifier.parallelThreshold,
+				classifier.indexFactory);
+		return classifier;
 	}
 
 	@Override
 	public String toString(){
-		return k+"-Nearest-Neighbors";
+		return k+"-Nearest-Neighbors" + (reduction == null ? "" : " (" + reduction + ")");
 	}
 
 	/**
-	 * Votes on the class of a queried object, with a sorted data set, and given k
+	 * Votes on the class of a queried object with its nearest neighbors. A tie between classes is broken at
+	 * random.
 	 *
-	 * @param k the number of nearest neighbors to vote
-	 * @return the class of a queried point, as voted on by the k nearest neighbors
+	 * @param trainingData the data holding the neighbors
+	 * @param nearest the nearest neighbors of the queried object, sorted from nearest unless all of them vote
+	 * @param voters the number of neighbors to vote
+	 * @return the class of a queried point, as voted on by its nearest neighbors
 	 */
-	public String vote(int k) {
-		Collections.sort(data);
-		voteResults = new HashMap<>();
-		for (int i = 0; i < k; i++) {
-			String classLabel = data.get(i).clazz;
-			if (!voteResults.containsKey(classLabel)) {
-				voteResults.put(classLabel, new AtomicInteger());
-			}
-			voteResults.get(classLabel).incrementAndGet();
+	private static String vote(EncodedDataSet trainingData, Neighbors nearest, int voters) {
+		int[] votes = nearest.votes;
+		Arrays.fill(votes, 0);
+		for (int i = 0; i < Math.min(voters, nearest.size); i++) {
+			votes[trainingData.classId(nearest.rows[i])]++;
 		}
+
+		int winner = -1;
 		int max = 0;
-		ArrayList<String> results = new ArrayList<String>();
-		for(String classLabel : voteResults.keySet()){
-			int cur = voteResults.get(classLabel).get();
-			if (cur > max) {
-				max = cur;
-				results.clear();
-				results.add(classLabel);
-			} else if (cur == max) {
-				results.add(classLabel);
+		int ties = 0;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int classId = 0; classId < votes.length; classId++) {
+			if (votes[classId] > max) {
+				max = votes[classId];
+				winner = classId;
+				ties = 1;
+			} else if (votes[classId] == max && max > 0 && random.nextInt(++ties) == 0) {
+				winner = classId;
 			}
 		}
-
-		Collections.shuffle(results);
-		return results.get(0);
+		return trainingData.getClassDictionary().decode(winner);
 	}
 }
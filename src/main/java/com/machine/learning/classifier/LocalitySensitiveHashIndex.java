@@ -0,0 +1,230 @@
+package com.machine.learning.classifier;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.util.ValueDifferenceMetric;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An index for finding approximate nearest neighbors with locality-sensitive hashing.
+ *
+ * Each row is embedded as the concatenation of the class rate vectors of its attribute values, which are the
+ * vectors the VDM compares, and hashed by several p-stable hashes h(v) = floor((a . v + b) / w), where a has normally
+ * distributed components. Rows whose embeddings are near each other are likely to share every hash of a table, so a
+ * query is only measured against the rows that share a bucket with it in at least one table. More tables find more
+ * of the true neighbors at the cost of measuring more rows, while more hashes per table and narrower buckets measure
+ * fewer rows but miss more neighbors. If fewer than k rows share a bucket with the query, every row is measured.
+ *
+ * The embedding is made of one block per attribute, so a projection is the sum of the projections of each of the
+ * point's values, which are computed for every value when the index is built.
+ */
+final class LocalitySensitiveHashIndex implements NeighborIndex {
+    /* Multiplier used to combine the hashes of a table into one bucket key */
+    private static final long KEY_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final EncodedDataSet trainingData;
+    private final ValueDifferenceMetric vdm;
+    private final double bucketWidth;
+
+    /* The projection of each attribute value, indexed by table, hash, attribute and value code, where the last
+       value of each attribute stands for values that weren't seen in training and projects to 0 */
+    private final double[][][][] projections;
+
+    /* The offset b of each hash, indexed by table and hash */
+    private final double[][] offsets;
+
+    /* For each table, the distinct bucket keys in order, where each bucket's rows start in bucketRows, and the
+       training rows grouped by bucket */
+    private final long[][] bucketKeys;
+    private final int[][] bucketStarts;
+    private final int[][] bucketRows;
+
+    /* The query number each training row was last measured for, by thread, so that a row found by several tables
+       is measured once. The last element holds the number of the current query. */
+    private final ThreadLocal<int[]> measuredFor;
+
+    /**
+     * Builds an index over every row of a training set
+     *
+     * @param trainingData the training points
+     * @param vdm the metric built on the training points
+     * @param tables the number of hash tables, with a minimum of 1
+     * @param hashesPerTable the number of hashes a query must share with a row in one table, with a minimum of 1
+     * @param bucketWidth the width w of each hash's buckets
+     */
+    LocalitySensitiveHashIndex(EncodedDataSet trainingData, ValueDifferenceMetric vdm, int tables, int hashesPerTable,
+                               double bucketWidth) {
+        this.trainingData = trainingData;
+        this.vdm = vdm;
+        this.bucketWidth = bucketWidth;
+        tables = Math.max(tables, 1);
+        hashesPerTable = Math.max(hashesPerTable, 1);
+
+        double[][][] classRates = classRates(vdm.getAttributeClassCounts(), trainingData.numClasses());
+        Random random = new Random(trainingData.size());
+        projections = new double[tables][hashesPerTable][classRates.length][];
+        offsets = new double[tables][hashesPerTable];
+        for (int table = 0; table < tables; table++) {
+            for (int hash = 0; hash < hashesPerTable; hash++) {
+                offsets[table][hash] = random.nextDouble() * bucketWidth;
+                for (int attrNum = 0; attrNum < classRates.length; attrNum++) {
+                    projections[table][hash][attrNum] = project(classRates[attrNum], random);
+                }
+            }
+        }
+
+        int size = trainingData.size();
+        bucketKeys = new long[tables][];
+        bucketStarts = new int[tables][];
+        bucketRows = new int[tables][];
+        long[] keys = new long[size];
+        for (int table = 0; table < tables; table++) {
+            for (int row = 0; row < size; row++) {
+                keys[row] = key(table, trainingData.row(row));
+            }
+            buildTable(table, keys);
+        }
+        measuredFor = ThreadLocal.withInitial(() -> new int[size + 1]);
+    }
+
+    /**
+     * @param attributeClassCounts the occurences of each class for each attribute value
+     * @param numClasses the number of classes
+     * @return the rate of each class for each attribute value, with a rate of 0 for every class of unseen values
+     */
+    private static double[][][] classRates(int[][][] attributeClassCounts, int numClasses) {
+        double[][][] classRates = new double[attributeClassCounts.length][][];
+        for (int attrNum = 0; attrNum < classRates.length; attrNum++) {
+            int[][] valueCounts = attributeClassCounts[attrNum];
+            classRates[attrNum] = new double[valueCounts.length + 1][numClasses];
+            for (int value = 0; value < valueCounts.length; value++) {
+                int occurances = Math.max(Arrays.stream(valueCounts[value]).sum(), 1);
+                for (int classId = 0; classId < valueCounts[value].length; classId++) {
+                    classRates[attrNum][value][classId] = (double) valueCounts[value][classId] / occurances;
+                }
+            }
+        }
+        return classRates;
+    }
+
+    /**
+     * Projects every value of an attribute onto the same random direction
+     *
+     * @param valueClassRates the class rates of each value of the attribute
+     * @param random the source of the direction
+     * @return the projection of each value
+     */
+    private static double[] project(double[][] valueClassRates, Random random) {
+        int numClasses = valueClassRates[0].length;
+        double[] direction = new double[numClasses];
+        for (int classId = 0; classId < numClasses; classId++) {
+            direction[classId] = random.nextGaussian();
+        }
+        double[] projection = new double[valueClassRates.length];
+        for (int value = 0; value < valueClassRates.length; value++) {
+            for (int classId = 0; classId < numClasses; classId++) {
+                projection[value] += direction[classId] * valueClassRates[value][classId];
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * Groups the training rows of a table by bucket
+     *
+     * @param table the table
+     * @param keys the bucket key of each training row in the table
+     */
+    private void buildTable(int table, long[] keys) {
+        long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        int buckets = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[buckets++] = sorted[i];
+            }
+        }
+        bucketKeys[table] = Arrays.copyOf(sorted, buckets);
+
+        int[] starts = new int[buckets + 1];
+        int[] bucketOf = new int[keys.length];
+        for (int row = 0; row < keys.length; row++) {
+            bucketOf[row] = Arrays.binarySearch(bucketKeys[table], keys[row]);
+            starts[bucketOf[row] + 1]++;
+        }
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            starts[bucket + 1] += starts[bucket];
+        }
+        int[] rows = new int[keys.length];
+        int[] next = Arrays.copyOf(starts, buckets);
+        for (int row = 0; row < keys.length; row++) {
+            rows[next[bucketOf[row]]++] = row;
+        }
+        bucketStarts[table] = starts;
+        bucketRows[table] = rows;
+    }
+
+    /**
+     * Hashes a point with every hash of a table
+     *
+     * @param table the table
+     * @param codes the value codes of the point
+     * @return the key of the point's bucket in the table
+     */
+    private long key(int table, int[] codes) {
+        long key = 0;
+        for (int hash = 0; hash < offsets[table].length; hash++) {
+            double projection = offsets[table][hash];
+            double[][] valueProjections = projections[table][hash];
+            for (int attrNum = 0; attrNum < codes.length; attrNum++) {
+                double[] attributeProjections = valueProjections[attrNum];
+                int value = codes[attrNum];
+                if (value < 0 || value >= attributeProjections.length) {
+                    value = attributeProjections.length - 1;
+                }
+                projection += attributeProjections[value];
+            }
+            key = key * KEY_MULTIPLIER + (long) Math.floor(projection / bucketWidth);
+        }
+        return key;
+    }
+
+    @Override
+    public int search(int[] codes, KNearestNeighbors.Neighbors nearest) {
+        int[] measured = measuredFor.get();
+        int size = measured.length - 1;
+        int query = ++measured[size];
+        if (query == Integer.MAX_VALUE) {
+            Arrays.fill(measured, 0);
+            query = measured[size] = 1;
+        }
+
+        int count = 0;
+        for (int table = 0; table < bucketKeys.length; table++) {
+            int bucket = Arrays.binarySearch(bucketKeys[table], key(table, codes));
+            if (bucket < 0) {
+                continue;
+            }
+            for (int i = bucketStarts[table][bucket]; i < bucketStarts[table][bucket + 1]; i++) {
+                int row = bucketRows[table][i];
+                if (measured[row] != query) {
+                    measured[row] = query;
+                    nearest.offer(row, vdm.calculateDistance(trainingData, row, codes));
+                    count++;
+                }
+            }
+        }
+
+        // Too few candidates to vote, so fall back to measuring every row
+        if (nearest.size < nearest.rows.length) {
+            for (int row = 0; row < size; row++) {
+                if (measured[row] != query) {
+                    nearest.offer(row, vdm.calculateDistance(trainingData, row, codes));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
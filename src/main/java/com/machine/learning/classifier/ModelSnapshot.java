@@ -0,0 +1,203 @@
+package com.machine.learning.classifier;
+
+import com.machine.learning.model.DataSnapshot;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.ValueDictionary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes trained classifiers as versioned binary snapshot files, so a model trained in one process
+ * can be loaded by another without retraining.
+ *
+ * A snapshot starts with a header naming the kind of classifier, followed by its trained state: the dictionaries
+ * and counts for the bayesian models, the pruned tree for ID3. Count tables are stored as runs of big-endian ints
+ * that are copied out of the memory-mapped file in bulk. A k-nearest-neighbors snapshot also holds its reference
+ * set as an embedded data snapshot, whose columns stay memory-mapped after loading and are paged in as they are used.
+ */
+public final class ModelSnapshot {
+    private static final int MAGIC = 0x4D4C4D53;
+    private static final int VERSION = 2;
+
+    /* Written in place of a string's length for null strings */
+    private static final int NULL_LENGTH = -1;
+
+    private ModelSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of a trained classifier. The snapshot is written to a temporary file first and then moved
+     * into place, so readers never see a partly written snapshot.
+     *
+     * @param classifier the trained classifier
+     * @param file the file to write to
+     * @throws IOException if the file can't be written
+     * @throws IllegalArgumentException if the classifier can't be written to a snapshot
+     * @throws IllegalStateException if the classifier hasn't been trained
+     */
+    public static void write(Classifier classifier, Path file) throws IOException {
+        String kind = classifier.getClass().getSimpleName();
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        EncodedDataSet referenceSet = null;
+        if (classifier instanceof NaiveBayes) {
+            ((NaiveBayes) classifier).writeModel(body);
+        } else if (classifier instanceof TreeAugmentedNaiveBayes) {
+            ((TreeAugmentedNaiveBayes) classifier).writeModel(body);
+        } else if (classifier instanceof ID3) {
+            ((ID3) classifier).writeModel(body);
+        } else if (classifier instanceof KNearestNeighbors) {
+            referenceSet = ((KNearestNeighbors) classifier).writeModel(body);
+        } else {
+            throw new IllegalArgumentException(classifier + " can't be written to a model snapshot");
+        }
+        body.flush();
+
+        // magic, version, kind, position of the reference set (or 0 if there isn't one), then the body
+        byte[] kindBytes = kind.getBytes(StandardCharsets.UTF_8);
+        int headerLength = 3 * Integer.BYTES + kindBytes.length + Long.BYTES;
+        long referenceSetPosition = referenceSet == null ? 0 : align(headerLength + bodyBytes.size());
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        header.putInt(MAGIC).putInt(VERSION).putInt(kindBytes.length).put(kindBytes).putLong(referenceSetPosition);
+        header.flip();
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            writeFully(channel, header, 0);
+            writeFully(channel, ByteBuffer.wrap(bodyBytes.toByteArray()), headerLength);
+            if (referenceSet != null) {
+                DataSnapshot.write(referenceSet, channel, referenceSetPosition);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a trained classifier from a snapshot, memory-mapping the file
+     *
+     * @param file the snapshot to open
+     * @return the trained classifier, ready to classify
+     * @throws IOException if the file can't be read or isn't a model snapshot
+     */
+    public static Classifier open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 3 * Integer.BYTES || in.getInt() != MAGIC) {
+                throw new IOException(file + " is not a model snapshot");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has model snapshot version " + version + ", expected " + VERSION);
+            }
+            String kind = readString(in);
+            long referenceSetPosition = in.getLong();
+
+            switch (kind) {
+                case "NaiveBayes":
+                    return NaiveBayes.readModel(in);
+                case "TreeAugmentedNaiveBayes":
+                    return TreeAugmentedNaiveBayes.readModel(in);
+                case "ID3":
+                    return ID3.readModel(in);
+                case "KNearestNeighbors":
+                    return KNearestNeighbors.readModel(in, DataSnapshot.open(channel, referenceSetPosition));
+                default:
+                    throw new IOException(file + " holds an unknown kind of model, " + kind);
+            }
+        } catch (RuntimeException ex) {
+            // Buffer underflows and bad indexes mean the file was truncated or corrupted
+            throw new IOException(file + " is not a valid model snapshot", ex);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeDictionaries(DataOutputStream out, ValueDictionary[] dictionaries) throws IOException {
+        out.writeInt(dictionaries.length);
+        for (ValueDictionary dictionary : dictionaries) {
+            writeDictionary(out, dictionary);
+        }
+    }
+
+    static ValueDictionary[] readDictionaries(ByteBuffer in) {
+        ValueDictionary[] dictionaries = new ValueDictionary[in.getInt()];
+        for (int i = 0; i < dictionaries.length; i++) {
+            dictionaries[i] = readDictionary(in);
+        }
+        return dictionaries;
+    }
+
+    static void writeDictionary(DataOutputStream out, ValueDictionary dictionary) throws IOException {
+        out.writeInt(dictionary.size());
+        for (String value : dictionary.getValues()) {
+            writeString(out, value);
+        }
+    }
+
+    static ValueDictionary readDictionary(ByteBuffer in) {
+        ValueDictionary dictionary = new ValueDictionary();
+        int size = in.getInt();
+        for (int i = 0; i < size; i++) {
+            dictionary.encode(readString(in));
+        }
+        return dictionary;
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Reads a run of ints written by writeInts, copying them out of the buffer in one bulk get
+     *
+     * @param in the buffer positioned at the run
+     * @return the ints
+     */
+    static int[] readInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * Integer.BYTES);
+        return values;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
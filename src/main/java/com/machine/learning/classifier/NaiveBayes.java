@@ -1,29 +1,197 @@
 package com.machine.learning.classifier;
 
 import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.SufficientStatistics;
+import com.machine.learning.model.ValueDictionary;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class NaiveBayes implements Classifier {
-    private static final AtomicInteger ZERO = new AtomicInteger(0);
-
     /* Constants for smoothing, assumes some number of possible missing points and a rate of
        occurance of any attribute in those missing points.
     */
-    private static final double MISSING_POINT_RATE = 0.1; 
+    private static final double MISSING_POINT_RATE = 0.1;
     private static final double ATTRIBUTE_OCCURANCE_RATE = 0.05;
-    
-    //Keeps track of the occurences of each class
-    private Map<String, AtomicInteger> classCount;
 
-    //Keeps track of the occurences of an attribute value for each class
-    private Map<String, List<Map<String, AtomicInteger>>> attributeCount;
-    
-    private int numPoints, numAttributes;
+    /**
+     * The counts gathered in training, and the log probabilities computed from them. A model is never changed
+     * after it is published, so any number of threads can classify with it while training or an update builds
+     * the next one.
+     */
+    private static final class Model {
+        /* Dictionaries used to encode the training data */
+        final ValueDictionary[] attributeDictionaries;
+        final ValueDictionary classDictionary;
+
+        //Keeps track of the occurences of each class, indexed by class id
+        final int[] classCount;
+
+        //Keeps track of the occurences of an attribute value for each class, indexed by class id, attribute and value code
+        final int[][][] attributeCount;
+
+        final int numPoints, numAttributes;
+
+        //The log of each class's prior probability, log P(class), indexed by class id
+        final double[] logPriors;
+
+        //The log of each smoothed conditional probability, log P(attribute = value | class), indexed by attribute
+        //and then by value code times the number of classes plus class id. The last value of each attribute
+        //stands for values that weren't seen in training.
+        final double[][] logFactors;
+
+        //The number of values of each attribute seen in training
+        final int[] cardinalities;
+
+        Model(ValueDictionary[] attributeDictionaries, ValueDictionary classDictionary,
+              int[] classCount, int[][][] attributeCount, int numPoints) {
+            this.attributeDictionaries = attributeDictionaries;
+            this.classDictionary = classDictionary;
+            this.classCount = classCount;
+            this.attributeCount = attributeCount;
+            this.numPoints = numPoints;
+            this.numAttributes = attributeDictionaries.length;
+
+            int numClasses = classCount.length;
+            logPriors = new double[numClasses];
+            for (int classId = 0; classId < numClasses; classId++) {
+                //A class with no training points, such as one missing from a fold, is impossible
+                logPriors[classId] = classCount[classId] == 0
+                    ? Double.NEGATIVE_INFINITY : Math.log((double)classCount[classId] / numPoints);
+            }
+            logFactors = new double[numAttributes][];
+            cardinalities = new int[numAttributes];
+            for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                int cardinality = numClasses == 0 ? 0 : attributeCount[0][attrNum].length;
+                cardinalities[attrNum] = cardinality;
+                logFactors[attrNum] = new double[(cardinality + 1) * numClasses];
+                for (int classId = 0; classId < numClasses; classId++) {
+                    //Smooth for values that are rare or weren't seen in training
+                    final int numClassPoints = classCount[classId];
+                    if (numClassPoints == 0) {
+                        //Leave the factors at 0, so the class's log probability stays at its impossible prior
+                        //rather than becoming 0 / 0
+                        continue;
+                    }
+                    final double unseenPoints = numClassPoints * MISSING_POINT_RATE;
+                    final double smoothing = unseenPoints * ATTRIBUTE_OCCURANCE_RATE;
+                    for (int code = 0; code <= cardinality; code++) {
+                        int attrCount = code < cardinality ? attributeCount[classId][attrNum][code] : 0;
+                        logFactors[attrNum][code * numClasses + classId] =
+                            Math.log((attrCount + smoothing) / (numClassPoints + unseenPoints));
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param attrNum the position of the attribute
+         * @param code the code of the attribute value
+         * @return the position of the value's log probabilities in the attribute's table
+         */
+        int offset(int attrNum, int code) {
+            int cardinality = cardinalities[attrNum];
+            return (code >= 0 && code < cardinality ? code : cardinality) * logPriors.length;
+        }
+
+        /**
+         * Computes the log of the unnormalized probability of each class for an encoded point, using the
+         * conditional independence assumption of naive bayes. Summing logs rather than multiplying
+         * probabilities keeps points with hundreds of attributes from underflowing.
+         *
+         * @param codes the attribute value codes of the point
+         * @return the log probability of each class, indexed by class id
+         */
+        double[] logProbs(int[] codes) {
+            int numClasses = logPriors.length;
+            double[] logProbs = logPriors.clone();
+            for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                double[] attributeLogFactors = logFactors[attrNum];
+                int offset = offset(attrNum, codes[attrNum]);
+                for (int classId = 0; classId < numClasses; classId++) {
+                    logProbs[classId] += attributeLogFactors[offset + classId];
+                }
+            }
+            return logProbs;
+        }
+
+        /**
+         * Classify an encoded data point using the information from training the naive bayes model.
+         *
+         * @param codes the attribute value codes of the point to classify
+         * @return predicted class label for the given data point
+         */
+        String classify(int[] codes) {
+            return classDictionary.decode(best(logProbs(codes), 0, logPriors.length));
+        }
+
+        /**
+         * Computes the posterior probability of each class for an encoded point.
+         *
+         * @param codes the attribute value codes of the point to score
+         * @return the probability of each class, indexed by class id
+         */
+        double[] classScores(int[] codes) {
+            return Scores.fromLogScores(logProbs(codes));
+        }
+
+        /**
+         * Classifies a block of rows encoded with this model's dictionaries, one attribute column at a time.
+         *
+         * @param dataSet data holding the rows to classify
+         * @param rows positions of the rows to classify
+         * @return the class label of each row, in the same order as the rows
+         */
+        String[] classify(EncodedDataSet dataSet, int[] rows) {
+            int numClasses = logPriors.length;
+            double[] logProbs = new double[rows.length * numClasses];
+            for (int i = 0; i < rows.length; i++) {
+                System.arraycopy(logPriors, 0, logProbs, i * numClasses, numClasses);
+            }
+
+            for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                double[] attributeLogFactors = logFactors[attrNum];
+                for (int i = 0; i < rows.length; i++) {
+                    int offset = offset(attrNum, dataSet.value(rows[i], attrNum));
+                    for (int classId = 0; classId < numClasses; classId++) {
+                        logProbs[i * numClasses + classId] += attributeLogFactors[offset + classId];
+                    }
+                }
+            }
+
+            String[] classLabels = new String[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                classLabels[i] = classDictionary.decode(best(logProbs, i * numClasses, numClasses));
+            }
+            return classLabels;
+        }
+
+        /**
+         * @param logProbs the log probabilities to choose from
+         * @param from the position of the first class's log probability
+         * @param numClasses the number of classes
+         * @return the class id with the greatest log probability, or UNSEEN if no class is possible
+         */
+        private static int best(double[] logProbs, int from, int numClasses) {
+            double bestLogProb = Double.NEGATIVE_INFINITY;
+            int bestClassId = ValueDictionary.UNSEEN;
+            for (int classId = 0; classId < numClasses; classId++) {
+                //Remember only the best class and probability
+                if (logProbs[from + classId] > bestLogProb) {
+                    bestLogProb = logProbs[from + classId];
+                    bestClassId = classId;
+                }
+            }
+            return bestClassId;
+        }
+    }
+
+    private volatile Model model;
 
     /**
      * Gather the data to perform classification based on a naive bayes model.
@@ -34,80 +202,176 @@ public class NaiveBayes implements Classifier {
      * @param dataPoints the points to use to construct the naive bayes model
      */
     public void train(List<DataPoint> dataPoints) {
-        numPoints = dataPoints.size();
-        if (numPoints > 0) {
-            numAttributes = dataPoints.get(0).getData().get().size();
-        }
-        resetData();
-        
-        for(DataPoint point : dataPoints) {
-            countPoint(point.getData().get(), point.getClassLabel().get());
-        }
+        train(EncodedDataSet.encode(dataPoints));
     }
 
     /**
-     * Remove all of the data from previous training.
+     * Gather the counts for the naive bayes model directly from encoded data, counting shards of the data on
+     * the fork-join pool if there are enough points. The new model replaces the previous one once it is
+     * complete, so classification running on other threads is never interrupted.
+     *
+     * @param dataSet the encoded points to use to construct the naive bayes model
      */
-    private void resetData() {
-        classCount = new HashMap<>();
-        attributeCount = new HashMap<>();
+    @Override
+    public void train(EncodedDataSet dataSet) {
+        train(SufficientStatistics.count(dataSet, false));
     }
 
     /**
-     * Count the occurences of the class label and attributes in a given point.
+     * Builds the naive bayes model from counts, such as the merged counts of shards of the training data
+     * that were counted separately.
      *
-     * @param dataPoint the point to count attributes on
-     * @param classLabel the class label for the given data point
+     * @param statistics the counts of the training data
      */
-    private void countPoint(List dataPoint, String classLabel) {
-        //count the class for the given point
-        ensureClass(classLabel);
-        classCount.get(classLabel).incrementAndGet();
-            
-        for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
-            String attributeValue = (String)dataPoint.get(attrNum);
+    public synchronized void train(SufficientStatistics statistics) {
+        int numAttributes = statistics.numAttributes();
+        int numClasses = statistics.numClasses();
+        int[][][] attributeClassCounts = statistics.getAttributeClassCounts();
 
-            //count each attribute value for the given point, grouped by the point's class label
-            ensureClassAttribute(classLabel, attrNum, attributeValue);
-            attributeCount.get(classLabel).get(attrNum).get(attributeValue).incrementAndGet();
+        //regroup the counts of each attribute value by the point's class label
+        int[][][] attributeCount = new int[numClasses][numAttributes][];
+        for (int classId = 0; classId < numClasses; classId++) {
+            for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                int[] counts = new int[statistics.cardinality(attrNum)];
+                for (int value = 0; value < counts.length; value++) {
+                    counts[value] = attributeClassCounts[attrNum][value][classId];
+                }
+                attributeCount[classId][attrNum] = counts;
+            }
         }
+
+        model = new Model(statistics.getAttributeDictionaries(), statistics.getClassDictionary(),
+                          statistics.getClassCounts().clone(), attributeCount, statistics.getNumPoints());
+    }
+
+    @Override
+    public void train(EncodedDataSet dataSet, SufficientStatistics statistics) {
+        train(statistics);
+    }
+
+    @Override
+    public boolean trainsFromCounts() {
+        return true;
+    }
+
+    @Override
+    public boolean isIncremental() {
+        return true;
     }
 
     /**
-     * Ensure that the given class can be counted.
-     * That is, ensure that the counting data structures are fully-built for the given class,
-     * and that there is a counter for the class.
+     * Adds the counts of the given points to the model, growing the counters for values and classes
+     * that weren't seen before.
      *
-     * @param classLabel the class to ensure
+     * @param dataSet the points to add
      */
-    private void ensureClass(String classLabel) {
-        if (classCount.containsKey(classLabel)) {
-            return;
-        }
-        classCount.put(classLabel, new AtomicInteger());
-        
-        List<Map<String, AtomicInteger>> classAttributeCounts = new ArrayList<>();
-        for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
-            classAttributeCounts.add(new HashMap<String, AtomicInteger>());
-        }
-        
-        attributeCount.put(classLabel, classAttributeCounts);
+    @Override
+    public void add(EncodedDataSet dataSet) {
+        update(dataSet, 1);
     }
 
     /**
-     * Ensure that a given observed attribute value can be counted.
-     * That is, ensure that there is a counter for the attribute value for the given attribute.
+     * Subtracts the counts of the given points from the model. The points must have been trained on or added.
      *
-     * @param classLabel the class associated with the observed attribute
-     * @param attributeNum on which attribute the attribute value is observed
-     * @param attributeValue the observed attribute value
+     * @param dataSet the points to remove
+     * @throws IllegalArgumentException if a point was never counted, in which case nothing is removed
      */
-    private void ensureClassAttribute(String classLabel, int attributeNum, String attributeValue) {
-        if (attributeCount.get(classLabel).get(attributeNum).containsKey(attributeValue)) {
-            return;
+    @Override
+    public void remove(EncodedDataSet dataSet) {
+        update(dataSet, -1);
+    }
+
+    /**
+     * Adds or subtracts the counts of the given points. The counters of the current model are copied and
+     * updated, and the result is published as a new model, so the cost depends on the size of the model and
+     * of the new points but not on how many points were counted before. Points encoded with the model's
+     * dictionaries are counted by code, anything else is re-encoded one row at a time.
+     *
+     * @param dataSet the points to count
+     * @param delta 1 to add the points, -1 to remove them
+     */
+    private synchronized void update(EncodedDataSet dataSet, int delta) {
+        Model current = model;
+        ValueDictionary[] attributeDictionaries;
+        ValueDictionary classDictionary;
+        int[] classCount;
+        int[][][] attributeCount;
+        if (current == null) {
+            attributeDictionaries = new ValueDictionary[dataSet.numAttributes()];
+            for (int attrNum = 0; attrNum < attributeDictionaries.length; attrNum++) {
+                attributeDictionaries[attrNum] = new ValueDictionary();
+            }
+            classDictionary = new ValueDictionary();
+            classCount = new int[0];
+            attributeCount = new int[0][][];
+        } else {
+            attributeDictionaries = current.attributeDictionaries;
+            classDictionary = current.classDictionary;
+            classCount = current.classCount;
+            attributeCount = current.attributeCount;
+        }
+        int numAttributes = attributeDictionaries.length;
+
+        int[][] codes = new int[dataSet.size()][];
+        int[] classIds = new int[dataSet.size()];
+        if (dataSet.usesDictionaries(attributeDictionaries) && dataSet.getClassDictionary() == classDictionary) {
+            for (int row = 0; row < dataSet.size(); row++) {
+                codes[row] = dataSet.row(row);
+                classIds[row] = dataSet.classId(row);
+            }
+        } else {
+            // Dictionaries that already hold a model's values are never added to, new values go into copies
+            boolean copied = current == null;
+            for (int row = 0; row < dataSet.size(); row++) {
+                List<String> values = dataSet.getRow(row);
+                codes[row] = ValueDictionary.encodeRow(attributeDictionaries, values);
+                classIds[row] = classDictionary.code(dataSet.getClassLabel(row));
+                boolean unseen = classIds[row] == ValueDictionary.UNSEEN;
+                for (int code : codes[row]) {
+                    unseen |= code == ValueDictionary.UNSEEN;
+                }
+                if (!unseen) {
+                    continue;
+                }
+                if (delta < 0) {
+                    throw new IllegalArgumentException("Can't remove " + values + ", which was never added");
+                }
+                if (!copied) {
+                    attributeDictionaries = ValueDictionary.copy(attributeDictionaries);
+                    classDictionary = classDictionary.copy();
+                    copied = true;
+                }
+                for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                    codes[row][attrNum] = attributeDictionaries[attrNum].encode(values.get(attrNum));
+                }
+                classIds[row] = classDictionary.encode(dataSet.getClassLabel(row));
+            }
+        }
+
+        int[] newClassCount = Arrays.copyOf(classCount, classDictionary.size());
+        int[][][] newAttributeCount = new int[classDictionary.size()][numAttributes][];
+        for (int classId = 0; classId < newAttributeCount.length; classId++) {
+            for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                int cardinality = attributeDictionaries[attrNum].size();
+                newAttributeCount[classId][attrNum] = classId < attributeCount.length
+                    ? Arrays.copyOf(attributeCount[classId][attrNum], cardinality)
+                    : new int[cardinality];
+            }
         }
-        
-        attributeCount.get(classLabel).get(attributeNum).put(attributeValue, new AtomicInteger());
+
+        for (int row = 0; row < codes.length; row++) {
+            // A point made of seen values can still never have been added, which shows as a count below 0
+            boolean negative = (newClassCount[classIds[row]] += delta) < 0;
+            for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                negative |= (newAttributeCount[classIds[row]][attrNum][codes[row][attrNum]] += delta) < 0;
+            }
+            if (negative) {
+                throw new IllegalArgumentException("Can't remove " + dataSet.getRow(row) + ", which was never added");
+            }
+        }
+
+        int numPoints = (current == null ? 0 : current.numPoints) + delta * dataSet.size();
+        model = new Model(attributeDictionaries, classDictionary, newClassCount, newAttributeCount, numPoints);
     }
 
     /**
@@ -117,34 +381,106 @@ public class NaiveBayes implements Classifier {
      * @return predicted class label for the given data point
      */
     public String classify(List dataPoint) {
-        double bestProb = 0;
-        String bestClassLabel = null;
-
-        //Calculate the unnormalized probability of observing each class for the given
-        //point, using the conditional independence assumption of naive bayes
-        for (String classLabel : classCount.keySet()) {
-            final int numClassPoints = classCount.get(classLabel).intValue();
-            final double unseenPoints = numClassPoints * MISSING_POINT_RATE;
-            
-            //Start with the prior probability, P(class)
-            double prob = (double)numClassPoints / numPoints;
-
-            //Factor in each conditional probability, P(attribute n = data point value | class)
-            for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
-                String attributeValue = (String)dataPoint.get(attrNum);
-                int attrCount = attributeCount.get(classLabel).get(attrNum).getOrDefault(attributeValue, ZERO).intValue();
-                
-                prob *= (attrCount + unseenPoints * ATTRIBUTE_OCCURANCE_RATE) / (numClassPoints + unseenPoints);
+        Model current = model;
+        return current.classify(ValueDictionary.encodeRow(current.attributeDictionaries, dataPoint));
+    }
+
+    @Override
+    public String classify(EncodedDataSet dataSet, int row) {
+        Model current = model;
+        if (!dataSet.usesDictionaries(current.attributeDictionaries)) {
+            return current.classify(ValueDictionary.encodeRow(current.attributeDictionaries, dataSet.getRow(row)));
+        }
+        return current.classify(dataSet.row(row));
+    }
+
+    @Override
+    public List<String> getClassLabels() {
+        Model current = model;
+        return current == null ? Collections.emptyList() : current.classDictionary.getValues();
+    }
+
+    /**
+     * Computes the posterior probability of each class for a data point, normalized to sum to 1.
+     *
+     * @param dataPoint data point to score
+     * @return the probability of each class, indexed by class id as in getClassLabels
+     */
+    @Override
+    public double[] classScores(List dataPoint) {
+        Model current = model;
+        return current.classScores(ValueDictionary.encodeRow(current.attributeDictionaries, dataPoint));
+    }
+
+    @Override
+    public double[] classScores(EncodedDataSet dataSet, int row) {
+        Model current = model;
+        if (!dataSet.usesDictionaries(current.attributeDictionaries)) {
+            return current.classScores(ValueDictionary.encodeRow(current.attributeDictionaries, dataSet.getRow(row)));
+        }
+        return current.classScores(dataSet.row(row));
+    }
+
+    /**
+     * Classifies a block of rows, one attribute column at a time, so the inner loop is only table lookups
+     * and additions.
+     *
+     * @param dataSet data holding the rows to classify
+     * @param rows positions of the rows to classify
+     * @return the class label of each row, in the same order as the rows
+     */
+    @Override
+    public String[] classify(EncodedDataSet dataSet, int[] rows) {
+        Model current = model;
+        if (!dataSet.usesDictionaries(current.attributeDictionaries)) {
+            return Classifier.super.classify(dataSet, rows);
+        }
+        return current.classify(dataSet, rows);
+    }
+
+    /**
+     * Writes the dictionaries and counts of the trained model for a model snapshot
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream can't be written
+     */
+    void writeModel(DataOutputStream out) throws IOException {
+        Model current = model;
+        if (current == null) {
+            throw new IllegalStateException(this + " hasn't been trained");
+        }
+        ModelSnapshot.writeDictionaries(out, current.attributeDictionaries);
+        ModelSnapshot.writeDictionary(out, current.classDictionary);
+        out.writeInt(current.numPoints);
+        ModelSnapshot.writeInts(out, current.classCount);
+        for (int[][] classAttributeCount : current.attributeCount) {
+            for (int[] counts : classAttributeCount) {
+                ModelSnapshot.writeInts(out, counts);
             }
+        }
+    }
 
-            //Remember only the best class and probability
-            if(prob > bestProb) {
-                bestProb = prob;
-                bestClassLabel = classLabel;
+    /**
+     * Reads a trained model written by writeModel
+     *
+     * @param in the buffer positioned at the model
+     * @return a classifier holding the model
+     */
+    static NaiveBayes readModel(ByteBuffer in) {
+        ValueDictionary[] attributeDictionaries = ModelSnapshot.readDictionaries(in);
+        ValueDictionary classDictionary = ModelSnapshot.readDictionary(in);
+        int numPoints = in.getInt();
+        int[] classCount = ModelSnapshot.readInts(in);
+        int[][][] attributeCount = new int[classCount.length][attributeDictionaries.length][];
+        for (int classId = 0; classId < classCount.length; classId++) {
+            for (int attrNum = 0; attrNum < attributeDictionaries.length; attrNum++) {
+                attributeCount[classId][attrNum] = ModelSnapshot.readInts(in);
             }
         }
 
-        return bestClassLabel;
+        NaiveBayes classifier = new NaiveBayes();
+        classifier.model = new Model(attributeDictionaries, classDictionary, classCount, attributeCount, numPoints);
+        return classifier;
     }
 
     @Override
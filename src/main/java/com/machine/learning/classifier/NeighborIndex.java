@@ -0,0 +1,16 @@
+package com.machine.learning.classifier;
+
+/**
+ * An index over the rows of a training set, which offers a query only the rows that could be among its nearest
+ * neighbors, rather than every row.
+ */
+interface NeighborIndex {
+    /**
+     * Offers the training rows that could be among the nearest neighbors of a query to a set of neighbors
+     *
+     * @param codes the value codes of the query point
+     * @param nearest the neighbors to offer the rows to
+     * @return the number of distances measured
+     */
+    int search(int[] codes, KNearestNeighbors.Neighbors nearest);
+}
@@ -0,0 +1,199 @@
+package com.machine.learning.classifier;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.util.ValueDifferenceMetric;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Ways of shrinking the training set k-Nearest-Neighbors stores to the points it needs, so that each query
+ * measures fewer distances. Points are compared with the VDM built on the whole training set, and the expensive
+ * neighbor searches run on the fork-join pool.
+ */
+public enum PrototypeSelection {
+    /**
+     * Hart's condensed nearest neighbor. Starting from the first point, each point the points kept so far
+     * misclassify with their nearest neighbor is kept, passing over the points until none are added. The
+     * points kept classify every training point the same way the whole training set does with one neighbor, so
+     * the decision boundary is kept while points deep inside a class are dropped.
+     */
+    CONDENSED("condensed") {
+        @Override
+        int[] select(EncodedDataSet dataSet, ValueDifferenceMetric vdm, int k, int[] rows) {
+            return condense(dataSet, vdm, rows);
+        }
+    },
+
+    /**
+     * Wilson's edited nearest neighbor. Each point whose k nearest other points vote for a different class
+     * is dropped, which removes noise and smooths the decision boundary, but keeps most points.
+     */
+    EDITED("edited") {
+        @Override
+        int[] select(EncodedDataSet dataSet, ValueDifferenceMetric vdm, int k, int[] rows) {
+            return edit(dataSet, vdm, k, rows);
+        }
+    },
+
+    /**
+     * Edits the training set and then condenses what is left, so that noisy points aren't kept as prototypes
+     */
+    EDITED_CONDENSED("edited and condensed") {
+        @Override
+        int[] select(EncodedDataSet dataSet, ValueDifferenceMetric vdm, int k, int[] rows) {
+            return condense(dataSet, vdm, edit(dataSet, vdm, k, rows));
+        }
+    };
+
+    /* Number of points whose nearest kept point is found in parallel before they are checked in order */
+    private static final int BLOCK_SIZE = 1024;
+
+    private final String description;
+
+    PrototypeSelection(String description) {
+        this.description = description;
+    }
+
+    /**
+     * Selects the points of a training set to keep
+     *
+     * @param dataSet the training set
+     * @param vdm the metric built on the training set
+     * @param k the number of neighbors the classifier votes with
+     * @return the positions of the points to keep, in order
+     */
+    public int[] select(EncodedDataSet dataSet, ValueDifferenceMetric vdm, int k) {
+        return select(dataSet, vdm, k, IntStream.range(0, dataSet.size()).toArray());
+    }
+
+    /**
+     * Selects the points to keep from some of the points of a training set
+     *
+     * @param rows the positions of the points to select from, in order
+     * @return the positions of the points to keep, in order
+     */
+    abstract int[] select(EncodedDataSet dataSet, ValueDifferenceMetric vdm, int k, int[] rows);
+
+    /**
+     * Condenses the given points. Each pass is split into blocks. The nearest point kept before a block is
+     * found for every point of the block in parallel, and then the points of the block are checked in order
+     * against it and the points kept since the block began, so the same points are kept as by checking every
+     * point in order.
+     */
+    private static int[] condense(EncodedDataSet dataSet, ValueDifferenceMetric vdm, int[] rows) {
+        if (rows.length == 0) {
+            return rows;
+        }
+        boolean[] kept = new boolean[rows.length];
+        int[] store = new int[rows.length];
+        int stored = 0;
+        kept[0] = true;
+        store[stored++] = rows[0];
+
+        int[] nearestRows = new int[Math.min(BLOCK_SIZE, rows.length)];
+        double[] nearestDistances = new double[nearestRows.length];
+        boolean added;
+        do {
+            added = false;
+            for (int from = 0; from < rows.length; from += BLOCK_SIZE) {
+                int to = Math.min(from + BLOCK_SIZE, rows.length);
+                int blockFrom = from;
+                int storedBefore = stored;
+                IntStream.range(from, to).parallel().forEach(i -> {
+                    if (!kept[i]) {
+                        nearest(dataSet, vdm, dataSet.row(rows[i]), store, 0, storedBefore,
+                                nearestRows, nearestDistances, i - blockFrom);
+                    }
+                });
+                for (int i = from; i < to; i++) {
+                    if (kept[i]) {
+                        continue;
+                    }
+                    nearest(dataSet, vdm, dataSet.row(rows[i]), store, storedBefore, stored,
+                            nearestRows, nearestDistances, i - from);
+                    if (dataSet.classId(nearestRows[i - from]) != dataSet.classId(rows[i])) {
+                        kept[i] = true;
+                        store[stored++] = rows[i];
+                        added = true;
+                    }
+                }
+            }
+        } while (added);
+
+        int[] selected = new int[stored];
+        for (int i = 0, s = 0; i < rows.length; i++) {
+            if (kept[i]) {
+                selected[s++] = rows[i];
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Finds the nearest of a range of kept points to a query, breaking ties by row, starting from the nearest
+     * found so far unless the range starts at the first kept point
+     *
+     * @param codes the value codes of the query
+     * @param store the rows of the kept points
+     * @param from the first kept point to measure
+     * @param to the kept point after the last to measure
+     * @param nearestRows the nearest row found for each query of the block
+     * @param nearestDistances the distance to the nearest row found for each query of the block
+     * @param slot the position of the query in its block
+     */
+    private static void nearest(EncodedDataSet dataSet, ValueDifferenceMetric vdm, int[] codes, int[] store,
+                                int from, int to, int[] nearestRows, double[] nearestDistances, int slot) {
+        int nearestRow = from == 0 ? -1 : nearestRows[slot];
+        double nearestDistance = from == 0 ? Double.POSITIVE_INFINITY : nearestDistances[slot];
+        for (int s = from; s < to; s++) {
+            double distance = vdm.calculateDistance(dataSet, store[s], codes);
+            if (distance < nearestDistance || (distance == nearestDistance && store[s] < nearestRow)) {
+                nearestDistance = distance;
+                nearestRow = store[s];
+            }
+        }
+        nearestRows[slot] = nearestRow;
+        nearestDistances[slot] = nearestDistance;
+    }
+
+    /**
+     * Edits the given points, finding the neighbors of each point in parallel. A point is kept if its class
+     * is among those with the most votes, so ties don't drop points.
+     */
+    private static int[] edit(EncodedDataSet dataSet, ValueDifferenceMetric vdm, int k, int[] rows) {
+        if (rows.length <= k) {
+            return rows;
+        }
+        int numClasses = dataSet.numClasses();
+        boolean[] kept = new boolean[rows.length];
+        IntStream.range(0, rows.length).parallel().forEach(i -> {
+            int[] codes = dataSet.row(rows[i]);
+            KNearestNeighbors.Neighbors nearest = new KNearestNeighbors.Neighbors(k, numClasses);
+            for (int row : rows) {
+                if (row != rows[i]) {
+                    nearest.offer(row, vdm.calculateDistance(dataSet, row, codes));
+                }
+            }
+            int[] votes = nearest.votes;
+            for (int n = 0; n < nearest.size; n++) {
+                votes[dataSet.classId(nearest.rows[n])]++;
+            }
+            kept[i] = votes[dataSet.classId(rows[i])] == Arrays.stream(votes).max().getAsInt();
+        });
+
+        int[] selected = new int[rows.length];
+        int s = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (kept[i]) {
+                selected[s++] = rows[i];
+            }
+        }
+        return Arrays.copyOf(selected, s);
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
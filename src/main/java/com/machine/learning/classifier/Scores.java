@@ -0,0 +1,57 @@
+package com.machine.learning.classifier;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helpers for turning the internal scores of a classifier into class probabilities
+ */
+final class Scores {
+    private Scores() {
+    }
+
+    /**
+     * Converts unnormalized log probabilities into probabilities that sum to 1, in place. Subtracting the largest
+     * log probability before exponentiating keeps products of many small probabilities from underflowing.
+     *
+     * @param logScores log probability of each class, indexed by class id, where any value that isn't finite,
+     *                  such as negative infinity, means impossible
+     * @return the same array, holding the probability of each class, or all zeros if every class is impossible
+     */
+    static double[] fromLogScores(double[] logScores) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double logScore : logScores) {
+            if (Double.isFinite(logScore)) {
+                max = Math.max(max, logScore);
+            }
+        }
+        if (max == Double.NEGATIVE_INFINITY) {
+            Arrays.fill(logScores, 0.0);
+            return logScores;
+        }
+
+        double sum = 0.0;
+        for (int i = 0; i < logScores.length; i++) {
+            logScores[i] = Double.isFinite(logScores[i]) ? Math.exp(logScores[i] - max) : 0.0;
+            sum += logScores[i];
+        }
+        for (int i = 0; i < logScores.length; i++) {
+            logScores[i] /= sum;
+        }
+        return logScores;
+    }
+
+    /**
+     * @param classLabels the labels of the classes, indexed by class id
+     * @param classLabel a predicted class label
+     * @return scores with 1 for the given class and 0 for every other class
+     */
+    static double[] oneHot(List<String> classLabels, String classLabel) {
+        double[] scores = new double[classLabels.size()];
+        int classId = classLabels.indexOf(classLabel);
+        if (classId >= 0) {
+            scores[classId] = 1.0;
+        }
+        return scores;
+    }
+}
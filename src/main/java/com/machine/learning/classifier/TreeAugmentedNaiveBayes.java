@@ -1,15 +1,20 @@
 package com.machine.learning.classifier;
 
 import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.SufficientStatistics;
+import com.machine.learning.model.ValueDictionary;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class TreeAugmentedNaiveBayes implements Classifier {
     /* Constants for smoothing, assumes some number of possible missing points and a rate of
@@ -18,21 +23,369 @@ public class TreeAugmentedNaiveBayes implements Classifier {
     private static final double MISSING_POINT_RATE = 0.1;
     private static final double ATTRIBUTE_OCCURANCE_RATE = 0.03;
 
-    /* Counters for classes, attributes, and pairs of attributes */
-    private Map<String, AtomicInteger> classCounts;
-    private Map<String, AtomicInteger> attributeCounts;
-    private Map<String, AtomicInteger> attributePairCounts;
+    /**
+     * The counts and tree gathered in training. A model is never changed after it is published, so any
+     * number of threads can classify with it while training, an update, or updateTree builds the next one.
+     */
+    private static final class Model {
+	/* Dictionaries used to encode the training data */
+	final ValueDictionary[] attributeDictionaries;
+	final ValueDictionary classDictionary;
+
+	/* Counters for classes, attributes, and pairs of attributes, indexed by codes.
+	   attributeCounts is indexed by [attribute][value][class], and attributePairCounts[i][j]
+	   (for i < j) is a flat table indexed by (valueI * cardinality(j) + valueJ) * numClasses + class */
+	final int[] classCounts;
+	final int[][][] attributeCounts;
+	final int[][][] attributePairCounts;
+
+	/* The codes of all attribute values observed in training, indexed by attribute number */
+	final List<int[]> attributeValues;
+
+	/* The ids of all class labels observed in training */
+	final int[] classLabels;
+
+	/* The calculated maximum spanning tree, indexed by attribute number, or null if it hasn't been computed */
+	final List<Tree> attributeTree;
+
+	final int numPoints, numAttributes, numClasses;
+
+	Model(ValueDictionary[] attributeDictionaries, ValueDictionary classDictionary, int[] classCounts,
+	      int[][][] attributeCounts, int[][][] attributePairCounts, int numPoints, List<Tree> attributeTree) {
+	    this.attributeDictionaries = attributeDictionaries;
+	    this.classDictionary = classDictionary;
+	    this.classCounts = classCounts;
+	    this.attributeCounts = attributeCounts;
+	    this.attributePairCounts = attributePairCounts;
+	    this.numPoints = numPoints;
+	    this.numAttributes = attributeDictionaries.length;
+	    this.numClasses = classCounts.length;
+	    this.attributeValues = observedValues();
+	    this.classLabels = observedClasses();
+	    this.attributeTree = attributeTree;
+	}
 
-    /* The set of all attribute values */
-    private List<Set<String>> attributeValues;
+	/**
+	 * @param tree the tree to classify with
+	 * @return a model with the same counts as this one and the given tree
+	 */
+	Model withTree(List<Tree> tree) {
+	    return new Model(attributeDictionaries, classDictionary, classCounts, attributeCounts,
+			     attributePairCounts, numPoints, tree);
+	}
 
-    /* The set of all class labels */
-    private Set<String> classLabels;
+	/**
+	 * Collects the codes of the values each attribute took in the training data.
+	 *
+	 * @return the observed value codes, indexed by attribute number
+	 */
+	private List<int[]> observedValues() {
+	    List<int[]> observed = new ArrayList<>();
+	    for (int i = 0; i < numAttributes; i++) {
+		List<Integer> values = new ArrayList<>();
+		for (int value = 0; value < attributeCounts[i].length; value++) {
+		    for (int classId = 0; classId < numClasses; classId++) {
+			if (attributeCounts[i][value][classId] > 0) {
+			    values.add(value);
+			    break;
+			}
+		    }
+		}
+		observed.add(values.stream().mapToInt(Integer::intValue).toArray());
+	    }
+	    return Collections.unmodifiableList(observed);
+	}
 
-    /* The calculated maximum spanning tree, indexed by attribute number */
-    private List<Tree> attributeTree;
-    
-    private int numPoints, numAttributes;
+	/**
+	 * Collects the ids of the classes that occur in the training data.
+	 *
+	 * @return the observed class ids
+	 */
+	private int[] observedClasses() {
+	    List<Integer> observed = new ArrayList<>();
+	    for (int classId = 0; classId < numClasses; classId++) {
+		if (classCounts[classId] > 0) {
+		    observed.add(classId);
+		}
+	    }
+	    return observed.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/* Convenience methods for getting counts, giving 0 for values that weren't in the training data */
+	int getClassCount(int classId) {
+	    return classCounts[classId];
+	}
+
+	int getAttributeCount(int attributeNum, int attributeValue, int classId) {
+	    if (!isCounted(attributeNum, attributeValue)) {
+		return 0;
+	    }
+	    return attributeCounts[attributeNum][attributeValue][classId];
+	}
+
+	int getAttributePairCount(int attributeNumI, int attributeValueI,
+				  int attributeNumJ, int attributeValueJ, int classId) {
+	    if (attributeNumI > attributeNumJ) {
+		int temp = attributeNumI;
+		attributeNumI = attributeNumJ;
+		attributeNumJ = temp;
+		temp = attributeValueI;
+		attributeValueI = attributeValueJ;
+		attributeValueJ = temp;
+	    }
+	    if (!isCounted(attributeNumI, attributeValueI) || !isCounted(attributeNumJ, attributeValueJ)) {
+		return 0;
+	    }
+	    int cardinalityJ = attributeCounts[attributeNumJ].length;
+	    return attributePairCounts[attributeNumI][attributeNumJ][(attributeValueI * cardinalityJ + attributeValueJ) * numClasses + classId];
+	}
+
+	boolean isCounted(int attributeNum, int attributeValue) {
+	    return attributeValue >= 0 && attributeValue < attributeCounts[attributeNum].length;
+	}
+
+	/**
+	 * Compute the maximum spanning tree over the complete graph connecting all of the
+	 * attributes in the data set, using the conditional mutual information between
+	 * each pair of attributes as weights.
+	 *
+	 * Implementation is Prim's algorithm, using the fact that each node is added to
+	 * the reached set only once to build the tree structure with attribute 0 as the
+	 * root node.
+	 *
+	 * @return a maximum spanning tree over the mutual information between attributes,
+	 *         as a list indexed by attribute number
+	 */
+	List<Tree> computeTree() {
+	    PriorityQueue<Edge> edges = new PriorityQueue<Edge>();
+	    for(int i = 1; i < numAttributes; i++) {
+		edges.add(new Edge(0, i, mutualInformation(0, i)));
+	    }
+
+	    Set<Integer> reachedNodes = new HashSet<>();
+	    reachedNodes.add(0);
+
+	    List<Tree> spanningSubTrees = new ArrayList<>();
+	    for(int i = 0; i < numAttributes; i++) {
+		spanningSubTrees.add(new Tree(i));
+	    }
+
+	    while(reachedNodes.size() < numAttributes) {
+		Edge nextEdge = edges.poll();
+
+		if (reachedNodes.contains(nextEdge.j)) {
+		    continue;
+		}
+		reachedNodes.add(nextEdge.j);
+		spanningSubTrees.get(nextEdge.j).parent = spanningSubTrees.get(nextEdge.i);
+
+		for(int nextI = 0; nextI < numAttributes; nextI++) {
+		    if(!reachedNodes.contains(nextI)) {
+			edges.add(new Edge(nextEdge.j, nextI, mutualInformation(nextEdge.j, nextI)));
+		    }
+		}
+	    }
+	    return Collections.unmodifiableList(spanningSubTrees);
+	}
+
+	/**
+	 * Calculates the conditional mutual informatoin between two attribute variables,
+	 * given the class variable.
+	 *
+	 * @param attributeI the position of the first attribute
+	 * @param attributeJ the position of the second attribute
+	 * @return the conditional mutual information between the two attributes given the class
+	 */
+	private Double mutualInformation(int attributeI, int attributeJ) {
+	    int[] attributeIValues = attributeValues.get(attributeI);
+	    int[] attributeJValues = attributeValues.get(attributeJ);
+
+	    double sum = 0.0;
+	    for (int classLabel : classLabels) {
+		for (int attrI : attributeIValues) {
+		    for (int attrJ : attributeJValues) {
+			int pairCount = getAttributePairCount(attributeI, attrI, attributeJ, attrJ, classLabel);
+			int attrICount = getAttributeCount(attributeI, attrI, classLabel);
+			int attrJCount = getAttributeCount(attributeJ, attrJ, classLabel);
+			int classCount = getClassCount(classLabel);
+
+			double pairProb = (double)pairCount / numPoints;
+			double pairProbClass = (double)pairCount / classCount;
+			double attrIProbClass = (double)attrICount / classCount;
+			double attrJProbClass = (double)attrJCount / classCount;
+
+			sum += pairProb * (Math.log(pairProbClass) - Math.log(attrIProbClass) - Math.log(attrJProbClass));
+		    }
+		}
+	    }
+
+	    return sum;
+	}
+
+	/**
+	 * Classify an encoded data point based on the tree built from training data.
+	 *
+	 * @param dataPoint the attribute value codes of the point to classify
+	 * @return the predicted class label for the data point
+	 */
+	String classify(int[] dataPoint) {
+	    int bestClassLabel = ValueDictionary.UNSEEN;
+	    double bestProb = Double.NEGATIVE_INFINITY;
+
+	    //calculate the log likelihood of each class label, and take the best class
+	    for (int classLabel : classLabels) {
+		double prob = logLikelihood(dataPoint, classLabel);
+		if (prob > bestProb) {
+		    bestProb = prob;
+		    bestClassLabel = classLabel;
+		}
+	    }
+	    return classDictionary.decode(bestClassLabel);
+	}
+
+	/**
+	 * Computes the posterior probability of each class for an encoded point
+	 *
+	 * @param dataPoint the attribute value codes of the point to score
+	 * @return the probability of each class, indexed by class id
+	 */
+	double[] classScores(int[] dataPoint) {
+	    double[] logProbs = new double[numClasses];
+	    Arrays.fill(logProbs, Double.NEGATIVE_INFINITY);
+	    for (int classLabel : classLabels) {
+		logProbs[classLabel] = logLikelihood(dataPoint, classLabel);
+	    }
+	    return Scores.fromLogScores(logProbs);
+	}
+
+	/**
+	 * Calculates the unnormalized log probability of a class for an encoded point
+	 *
+	 * @param dataPoint the attribute value codes of the point
+	 * @param classLabel the class id
+	 * @return log P(class) plus the log conditional probability of each attribute value
+	 */
+	private double logLikelihood(int[] dataPoint, int classLabel) {
+	    //start with the prior probability
+	    double prob = Math.log((double)getClassCount(classLabel) / numPoints);
+
+	    //factor in the conditional probabilities for each attribute
+	    for (int i = 0; i < numAttributes; i++) {
+		Tree attributeNode = attributeTree.get(i);
+		int parentValue = attributeNode.parent == null ? dataPoint[i] : dataPoint[attributeNode.parent.attributeNum];
+		prob += logFactor(i, dataPoint[i], parentValue, classLabel);
+	    }
+	    return prob;
+	}
+
+	/**
+	 * Classifies a block of rows encoded with this model's dictionaries, one attribute column at a time.
+	 *
+	 * @param dataSet data holding the rows to classify
+	 * @param rows positions of the rows to classify
+	 * @return the class label of each row, in the same order as the rows
+	 */
+	String[] classify(EncodedDataSet dataSet, int[] rows) {
+	    int numLabels = classLabels.length;
+	    double[] probs = new double[rows.length * numLabels];
+	    for (int l = 0; l < numLabels; l++) {
+		double prior = Math.log((double)getClassCount(classLabels[l]) / numPoints);
+		for (int r = 0; r < rows.length; r++) {
+		    probs[r * numLabels + l] = prior;
+		}
+	    }
+
+	    for (int i = 0; i < numAttributes; i++) {
+		Tree attributeNode = attributeTree.get(i);
+		int parent = attributeNode.parent == null ? i : attributeNode.parent.attributeNum;
+		int cardinality = attributeCounts[i].length;
+		int parentCardinality = attributeNode.parent == null ? 1 : attributeCounts[parent].length;
+
+		if ((long) cardinality * parentCardinality > rows.length) {
+		    //More combinations of values than rows, so computing terms per row is cheaper
+		    for (int r = 0; r < rows.length; r++) {
+			int value = dataSet.value(rows[r], i);
+			int parentValue = dataSet.value(rows[r], parent);
+			for (int l = 0; l < numLabels; l++) {
+			    probs[r * numLabels + l] += logFactor(i, value, parentValue, classLabels[l]);
+			}
+		    }
+		    continue;
+		}
+
+		double[] terms = new double[cardinality * parentCardinality * numLabels];
+		for (int value = 0; value < cardinality; value++) {
+		    for (int p = 0; p < parentCardinality; p++) {
+			int parentValue = attributeNode.parent == null ? value : p;
+			for (int l = 0; l < numLabels; l++) {
+			    terms[(value * parentCardinality + p) * numLabels + l] =
+				logFactor(i, value, parentValue, classLabels[l]);
+			}
+		    }
+		}
+
+		for (int r = 0; r < rows.length; r++) {
+		    int p = attributeNode.parent == null ? 0 : dataSet.value(rows[r], parent);
+		    int offset = (dataSet.value(rows[r], i) * parentCardinality + p) * numLabels;
+		    for (int l = 0; l < numLabels; l++) {
+			probs[r * numLabels + l] += terms[offset + l];
+		    }
+		}
+	    }
+
+	    String[] predictions = new String[rows.length];
+	    for (int r = 0; r < rows.length; r++) {
+		int bestClassLabel = ValueDictionary.UNSEEN;
+		double bestProb = Double.NEGATIVE_INFINITY;
+		for (int l = 0; l < numLabels; l++) {
+		    if (probs[r * numLabels + l] > bestProb) {
+			bestProb = probs[r * numLabels + l];
+			bestClassLabel = classLabels[l];
+		    }
+		}
+		predictions[r] = classDictionary.decode(bestClassLabel);
+	    }
+	    return predictions;
+	}
+
+	/**
+	 * Calculates the log of the conditional probability of an attribute value given the class,
+	 * and given the value of the attribute's parent in the tree if it has one.
+	 *
+	 * @param i the position of the attribute
+	 * @param attributeValue the code of the attribute value
+	 * @param parentValue the code of the parent attribute's value, ignored for the root attribute
+	 * @param classLabel the class id
+	 * @return log P(a_i | class) for the root, otherwise log P(a_i | a_parent, class)
+	 */
+	private double logFactor(int i, int attributeValue, int parentValue, int classLabel) {
+	    final int numClassPoints = getClassCount(classLabel);
+	    double unseenPoints = numClassPoints * MISSING_POINT_RATE;
+	    Tree attributeNode = attributeTree.get(i);
+
+	    if (attributeNode.parent == null) {
+		//If there is only one parent, calculate P(a_i | class)
+		int attrCount = getAttributeCount(i, attributeValue, classLabel);
+		return Math.log((attrCount + unseenPoints * ATTRIBUTE_OCCURANCE_RATE) /
+				(numClassPoints + unseenPoints));
+	    }
+
+	    //Otherwise, calculate P(a_i | a_parent, class)
+	    int attrParent = attributeNode.parent.attributeNum;
+	    int parentAttrCount = getAttributeCount(attrParent, parentValue, classLabel);
+	    int attrPairCount = getAttributePairCount(i, attributeValue,
+						      attrParent, parentValue, classLabel);
+	    if (attrPairCount == 0) {
+		int attrCount = getAttributeCount(i, attributeValue, classLabel);
+		return Math.log((attrCount + unseenPoints * ATTRIBUTE_OCCURANCE_RATE) /
+				(numClassPoints + unseenPoints));
+	    }
+	    return Math.log((attrPairCount + unseenPoints * ATTRIBUTE_OCCURANCE_RATE) /
+			    (parentAttrCount + unseenPoints));
+	}
+    }
+
+    private volatile Model model;
 
     /**
      * Trains a TAN model with the given data.
@@ -48,191 +401,251 @@ public class TreeAugmentedNaiveBayes implements Classifier {
 	    return;
 	}
 
-	numPoints = dataPoints.size();
-	numAttributes = dataPoints.get(0).getData().get().size();
-
-	initCounts();
-	
-	for (DataPoint point : dataPoints) {
-	    countPoint(point.getData().get(), point.getClassLabel().get());
-	}
-
-	attributeTree = computeTree();
+	train(EncodedDataSet.encode(dataPoints));
     }
 
     /**
-     * Resets and initializes the data structures for counting attributes and classes.
+     * Trains a TAN model directly from encoded data, counting shards of the data on the fork-join pool if
+     * there are enough points. The new model replaces the previous one once its tree is computed, so
+     * classification running on other threads is never interrupted.
+     *
+     * @param dataSet the encoded points used to train
      */
-    private void initCounts() {
-	classCounts = new HashMap<>();
-	attributeCounts = new HashMap<>();
-	attributePairCounts = new HashMap<>();
-
-	classLabels = new HashSet<>();
-	attributeValues = new ArrayList<>();
-	for (int i = 0; i < numAttributes; i++) {
-	    attributeValues.add(new HashSet<String>());
+    @Override
+    public void train(EncodedDataSet dataSet) {
+	if(dataSet.size() == 0) {
+	    return;
 	}
+
+	train(SufficientStatistics.count(dataSet, true));
     }
 
     /**
-     * Counts the point's class, attributes, and pairs of attributes.
+     * Trains a TAN model from counts, such as the merged counts of shards of the training data that were
+     * counted separately. The counts must include every pair of attributes.
      *
-     * @param dataPoint the point to count
-     * @param classLabel the class label associated with the data point
+     * @param statistics the counts of the training data
      */
-    private void countPoint(List dataPoint, String classLabel) {
-	countClass(classLabel);
-
-	for (int i = 0; i < numAttributes; i++) {
-	    countAttribute(i, (String)dataPoint.get(i), classLabel);
-	    for (int j = i + 1; j < numAttributes; j++) {
-		countAttributePair(i, (String)dataPoint.get(i),
-				   j, (String)dataPoint.get(j), classLabel);
-	    }
+    public synchronized void train(SufficientStatistics statistics) {
+	if (!statistics.hasPairs()) {
+	    throw new IllegalArgumentException("TAN needs the counts of every pair of attributes");
+	}
+	if(statistics.getNumPoints() == 0) {
+	    return;
 	}
-    }
 
-    /* Convenience methods for getting and incrementing counts */
-    private void countClass(String classLabel) {
-	count(classCounts, classLabel);
-	classLabels.add(classLabel);
+	//the model never changes its counters, so it shares them with the statistics
+	Model counted = new Model(statistics.getAttributeDictionaries(), statistics.getClassDictionary(),
+				  statistics.getClassCounts(), statistics.getAttributeClassCounts(),
+				  statistics.getAttributePairCounts(), statistics.getNumPoints(), null);
+	model = counted.withTree(counted.computeTree());
     }
 
-    private void countAttribute(int attributeNum, String attributeValue, String classLabel) {
-	count(attributeCounts, attributeNum + "," + attributeValue + "," + classLabel);
-	attributeValues.get(attributeNum).add(attributeValue);
+    @Override
+    public void train(EncodedDataSet dataSet, SufficientStatistics statistics) {
+	train(statistics);
     }
 
-    private void countAttributePair(int attributeNumI, String attributeValueI,
-				    int attributeNumJ, String attributeValueJ, String classLabel) {
-	count(attributePairCounts, (attributeNumI + "," + attributeNumJ + "," +
-				    attributeValueI + "," + attributeValueJ + "," + classLabel));
+    @Override
+    public boolean trainsFromCounts() {
+	return true;
     }
 
-    private int getClassCount(String classLabel) {
-	return getCount(classCounts, classLabel);
+    @Override
+    public boolean countsAttributePairs() {
+	return true;
     }
 
-    private int getAttributeCount(int attributeNum, String attributeValue, String classLabel) {
-	return getCount(attributeCounts, attributeNum + "," + attributeValue + "," + classLabel);
+    @Override
+    public boolean isIncremental() {
+	return true;
     }
 
-    private int getAttributePairCount(int attributeNumI, String attributeValueI,
-				       int attributeNumJ, String attributeValueJ, String classLabel) {
-	if (attributeNumI > attributeNumJ) {
-	    int temp = attributeNumI;
-	    attributeNumI = attributeNumJ;
-	    attributeNumJ = temp;
-	}
-	return getCount(attributePairCounts, (attributeNumI + "," + attributeNumJ + "," +
-					      attributeValueI + "," + attributeValueJ + "," + classLabel));
+    /**
+     * Adds the counts of the given points to the model, growing the counters for values and classes that
+     * weren't seen before. The tree isn't recomputed until updateTree is called, so classification keeps using
+     * the previous tree with the new counts.
+     *
+     * @param dataSet the points to add
+     */
+    @Override
+    public void add(EncodedDataSet dataSet) {
+	update(dataSet, 1);
     }
 
     /**
-     * Counts a specified quantity in a specified map, creating a new counting
-     * object if the quantity hasn't yet been added to the map.
+     * Subtracts the counts of the given points from the model. The points must have been trained on or added.
+     * The tree isn't recomputed until updateTree is called.
      *
-     * @param counts the map holding counters
-     * @param key the name of the quantity to increment
+     * @param dataSet the points to remove
+     * @throws IllegalArgumentException if a point was never counted, in which case nothing is removed
      */
-    private void count(Map<String, AtomicInteger> counts, String key) {
-	if(!counts.containsKey(key)) {
-	    counts.put(key, new AtomicInteger());
-	}
-	counts.get(key).incrementAndGet();
+    @Override
+    public void remove(EncodedDataSet dataSet) {
+	update(dataSet, -1);
     }
 
     /**
-     * Returns the specified quantity from a map, giving 0 if the quantity hasn't
-     * been added to the map.
-     *
-     * @param counts the map holding counters
-     * @param key the name of the quantity to retrieve
+     * Recomputes the maximum spanning tree from the current counts, after points have been added or removed.
      */
-    private int getCount(Map<String, AtomicInteger> counts, String key) {
-	if(!counts.containsKey(key)) {
-	    return 0;
+    public synchronized void updateTree() {
+	Model current = model;
+	if (current != null) {
+	    model = current.withTree(current.computeTree());
 	}
-	return counts.get(key).intValue();
     }
 
     /**
-     * Compute the maximum spanning tree over the complete graph connecting all of the
-     * attributes in the data set, using the conditional mutual information between 
-     * each pair of attributes as weights.
+     * Adds or subtracts the counts of the given points, including the counts of every pair of attributes.
+     * The counters of the current model are copied, grown to fit new values and classes, and updated, and the
+     * result is published as a new model that keeps the current tree.
      *
-     * Implementation is Prim's algorithm, using the fact that each node is added to
-     * the reached set only once to build the tree structure with attribute 0 as the
-     * root node.
-     *
-     * @return a maximum spanning tree over the mutual information between attributes,
-     *         as a list indexed by attribute number
+     * @param dataSet the points to count
+     * @param delta 1 to add the points, -1 to remove them
      */
-    private List<Tree> computeTree() {
-	PriorityQueue<Edge> edges = new PriorityQueue<Edge>();
-	for(int i = 1; i < numAttributes; i++) {
-	    edges.add(new Edge(0, i, mutualInformation(0, i)));
+    private synchronized void update(EncodedDataSet dataSet, int delta) {
+	Model current = model;
+	ValueDictionary[] attributeDictionaries;
+	ValueDictionary classDictionary;
+	if (current == null) {
+	    attributeDictionaries = new ValueDictionary[dataSet.numAttributes()];
+	    for (int i = 0; i < attributeDictionaries.length; i++) {
+		attributeDictionaries[i] = new ValueDictionary();
+	    }
+	    classDictionary = new ValueDictionary();
+	} else {
+	    attributeDictionaries = current.attributeDictionaries;
+	    classDictionary = current.classDictionary;
 	}
-
-	Set<Integer> reachedNodes = new HashSet<>();
-	reachedNodes.add(0);
-
-	List<Tree> spanningSubTrees = new ArrayList<>();
-	for(int i = 0; i < numAttributes; i++) {
-	    spanningSubTrees.add(new Tree(i));
+	int numAttributes = attributeDictionaries.length;
+
+	int[][] codes = new int[dataSet.size()][];
+	int[] classIds = new int[dataSet.size()];
+	if (dataSet.usesDictionaries(attributeDictionaries) && dataSet.getClassDictionary() == classDictionary) {
+	    for (int row = 0; row < dataSet.size(); row++) {
+		codes[row] = dataSet.row(row);
+		classIds[row] = dataSet.classId(row);
+	    }
+	} else {
+	    // Dictionaries that already hold a model's values are never added to, new values go into copies
+	    boolean copied = current == null;
+	    for (int row = 0; row < dataSet.size(); row++) {
+		List<String> values = dataSet.getRow(row);
+		codes[row] = ValueDictionary.encodeRow(attributeDictionaries, values);
+		classIds[row] = classDictionary.code(dataSet.getClassLabel(row));
+		boolean unseen = classIds[row] == ValueDictionary.UNSEEN;
+		for (int code : codes[row]) {
+		    unseen |= code == ValueDictionary.UNSEEN;
+		}
+		if (!unseen) {
+		    continue;
+		}
+		if (delta < 0) {
+		    throw new IllegalArgumentException("Can't remove " + values + ", which was never added");
+		}
+		if (!copied) {
+		    attributeDictionaries = ValueDictionary.copy(attributeDictionaries);
+		    classDictionary = classDictionary.copy();
+		    copied = true;
+		}
+		for (int i = 0; i < numAttributes; i++) {
+		    codes[row][i] = attributeDictionaries[i].encode(values.get(i));
+		}
+		classIds[row] = classDictionary.encode(dataSet.getClassLabel(row));
+	    }
 	}
-	
-	while(reachedNodes.size() < numAttributes) {
-	    Edge nextEdge = edges.poll();
 
-	    if (reachedNodes.contains(nextEdge.j)) {
-		continue;
+	int numClasses = classDictionary.size();
+	int[] cardinalities = new int[numAttributes];
+	for (int i = 0; i < numAttributes; i++) {
+	    cardinalities[i] = attributeDictionaries[i].size();
+	}
+	int[] classCounts = new int[numClasses];
+	int[][][] attributeCounts = new int[numAttributes][][];
+	int[][][] attributePairCounts = new int[numAttributes][numAttributes][];
+	for (int i = 0; i < numAttributes; i++) {
+	    attributeCounts[i] = new int[cardinalities[i]][numClasses];
+	    for (int j = i + 1; j < numAttributes; j++) {
+		attributePairCounts[i][j] = new int[cardinalities[i] * cardinalities[j] * numClasses];
 	    }
-	    reachedNodes.add(nextEdge.j);
-	    spanningSubTrees.get(nextEdge.j).parent = spanningSubTrees.get(nextEdge.i);
+	}
+	if (current != null) {
+	    copyCounts(current, classCounts, attributeCounts, attributePairCounts);
+	}
 
-	    for(int nextI = 0; nextI < numAttributes; nextI++) {
-		if(!reachedNodes.contains(nextI)) {
-		    edges.add(new Edge(nextEdge.j, nextI, mutualInformation(nextEdge.j, nextI)));
+	for (int row = 0; row < codes.length; row++) {
+	    int classId = classIds[row];
+	    // A point made of seen values can still never have been added, which shows as a count below 0
+	    boolean negative = (classCounts[classId] += delta) < 0;
+	    for (int i = 0; i < numAttributes; i++) {
+		int valueI = codes[row][i];
+		negative |= (attributeCounts[i][valueI][classId] += delta) < 0;
+		for (int j = i + 1; j < numAttributes; j++) {
+		    int pair = (valueI * cardinalities[j] + codes[row][j]) * numClasses + classId;
+		    negative |= (attributePairCounts[i][j][pair] += delta) < 0;
 		}
 	    }
+	    if (negative) {
+		throw new IllegalArgumentException("Can't remove " + dataSet.getRow(row) + ", which was never added");
+	    }
 	}
-	return spanningSubTrees;
+
+	int numPoints = (current == null ? 0 : current.numPoints) + delta * dataSet.size();
+	model = new Model(attributeDictionaries, classDictionary, classCounts, attributeCounts, attributePairCounts,
+			  numPoints, current == null ? null : current.attributeTree);
     }
 
     /**
-     * Calculates the conditional mutual informatoin between two attribute variables,
-     * given the class variable.
+     * Copies the counts of a model into counters that are at least as large, which may have room for more
+     * values and classes. New counters are left at 0.
      *
-     * @param attributeI the position of the first attribute
-     * @param attributeJ the position of the second attribute
-     * @return the conditional mutual information between the two attributes given the class
+     * @param source the model to copy from
+     * @param classCounts the class counters to copy into
+     * @param attributeCounts the attribute counters to copy into
+     * @param attributePairCounts the attribute pair counters to copy into
      */
-    private Double mutualInformation(int attributeI, int attributeJ) {
-	Set<String> attributeIValues = attributeValues.get(attributeI);
-	Set<String> attributeJValues = attributeValues.get(attributeJ);
-
-	double sum = 0.0;
-	for (String classLabel : classLabels) {
-	    for (String attrI : attributeIValues) {
-		for (String attrJ : attributeJValues) {
-		    int pairCount = getAttributePairCount(attributeI, attrI, attributeJ, attrJ, classLabel);
-		    int attrICount = getAttributeCount(attributeI, attrI, classLabel);
-		    int attrJCount = getAttributeCount(attributeJ, attrJ, classLabel);
-		    int classCount = getClassCount(classLabel);
-
-		    double pairProb = (double)pairCount / numPoints;
-		    double pairProbClass = (double)pairCount / classCount;
-		    double attrIProbClass = (double)attrICount / classCount;
-		    double attrJProbClass = (double)attrJCount / classCount;
-
-		    sum += pairProb * (Math.log(pairProbClass) - Math.log(attrIProbClass) - Math.log(attrJProbClass));
+    private static void copyCounts(Model source, int[] classCounts, int[][][] attributeCounts,
+				   int[][][] attributePairCounts) {
+	int oldNumClasses = source.numClasses;
+	int newNumClasses = classCounts.length;
+	System.arraycopy(source.classCounts, 0, classCounts, 0, oldNumClasses);
+	for (int i = 0; i < source.numAttributes; i++) {
+	    for (int value = 0; value < source.attributeCounts[i].length; value++) {
+		System.arraycopy(source.attributeCounts[i][value], 0, attributeCounts[i][value], 0, oldNumClasses);
+	    }
+	}
+	for (int i = 0; i < source.numAttributes; i++) {
+	    for (int j = i + 1; j < source.numAttributes; j++) {
+		int[] oldCounts = source.attributePairCounts[i][j];
+		int oldCardinalityJ = source.attributeCounts[j].length;
+		int newCardinalityJ = attributeCounts[j].length;
+		for (int valueI = 0; valueI < source.attributeCounts[i].length; valueI++) {
+		    for (int valueJ = 0; valueJ < oldCardinalityJ; valueJ++) {
+			System.arraycopy(oldCounts, (valueI * oldCardinalityJ + valueJ) * oldNumClasses,
+					 attributePairCounts[i][j], (valueI * newCardinalityJ + valueJ) * newNumClasses,
+					 oldNumClasses);
+		    }
 		}
 	    }
 	}
+    }
 
-	return sum;
+    /**
+     * Gets the current model, computing its tree first if it was built by add without training
+     *
+     * @return a model with a tree
+     */
+    private Model classifyingModel() {
+	Model current = model;
+	if (current.attributeTree != null) {
+	    return current;
+	}
+	synchronized (this) {
+	    if (model.attributeTree == null) {
+		updateTree();
+	    }
+	    return model;
+	}
     }
 
     /**
@@ -246,55 +659,146 @@ public class TreeAugmentedNaiveBayes implements Classifier {
      * @return the predicted class label for the data point
      */
     public String classify(List dataPoint) {
-	String bestClassLabel = null;
-	double bestProb = Double.NEGATIVE_INFINITY;
+	Model current = classifyingModel();
+	return current.classify(ValueDictionary.encodeRow(current.attributeDictionaries, dataPoint));
+    }
 
-	//calculate the log likelihood of each class label, and take the best class
-	for (String classLabel : classLabels) {
-	    final int numClassPoints = getClassCount(classLabel);
-	    
-	    //start with the prior probability
-	    double prob = Math.log((double)numClassPoints / numPoints);
+    @Override
+    public String classify(EncodedDataSet dataSet, int row) {
+	Model current = classifyingModel();
+	if (!dataSet.usesDictionaries(current.attributeDictionaries)) {
+	    return current.classify(ValueDictionary.encodeRow(current.attributeDictionaries, dataSet.getRow(row)));
+	}
+	return current.classify(dataSet.row(row));
+    }
 
-	    //factor in the conditional probabilities for each attribute
+    @Override
+    public List<String> getClassLabels() {
+	Model current = model;
+	return current == null ? Collections.emptyList() : current.classDictionary.getValues();
+    }
+
+    /**
+     * Computes the posterior probability of each class for a data point, normalized to sum to 1.
+     * Classes that didn't occur in training get a probability of 0.
+     *
+     * @param dataPoint the point to score
+     * @return the probability of each class, indexed by class id as in getClassLabels
+     */
+    @Override
+    public double[] classScores(List dataPoint) {
+	Model current = classifyingModel();
+	return current.classScores(ValueDictionary.encodeRow(current.attributeDictionaries, dataPoint));
+    }
+
+    @Override
+    public double[] classScores(EncodedDataSet dataSet, int row) {
+	Model current = classifyingModel();
+	if (!dataSet.usesDictionaries(current.attributeDictionaries)) {
+	    return current.classScores(ValueDictionary.encodeRow(current.attributeDictionaries, dataSet.getRow(row)));
+	}
+	return current.classScores(dataSet.row(row));
+    }
+
+    /**
+     * Classifies a block of rows, one attribute column at a time. The log probability each attribute
+     * contributes to each class is tabulated once per block by value (and parent value), so the inner
+     * loop only looks up and adds terms.
+     *
+     * @param dataSet data holding the rows to classify
+     * @param rows positions of the rows to classify
+     * @return the class label of each row, in the same order as the rows
+     */
+    @Override
+    public String[] classify(EncodedDataSet dataSet, int[] rows) {
+	Model current = classifyingModel();
+	if (!dataSet.usesDictionaries(current.attributeDictionaries)) {
+	    return Classifier.super.classify(dataSet, rows);
+	}
+	return current.classify(dataSet, rows);
+    }
+
+    /**
+     * Writes the dictionaries, counts and tree of the trained model for a model snapshot
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream can't be written
+     */
+    void writeModel(DataOutputStream out) throws IOException {
+	Model current = model;
+	if (current == null) {
+	    throw new IllegalStateException(this + " hasn't been trained");
+	}
+	ModelSnapshot.writeDictionaries(out, current.attributeDictionaries);
+	ModelSnapshot.writeDictionary(out, current.classDictionary);
+	out.writeInt(current.numPoints);
+	ModelSnapshot.writeInts(out, current.classCounts);
+	for (int i = 0; i < current.numAttributes; i++) {
+	    out.writeInt(current.attributeCounts[i].length);
+	    for (int[] counts : current.attributeCounts[i]) {
+		ModelSnapshot.writeInts(out, counts);
+	    }
+	}
+	for (int i = 0; i < current.numAttributes; i++) {
+	    for (int j = i + 1; j < current.numAttributes; j++) {
+		ModelSnapshot.writeInts(out, current.attributePairCounts[i][j]);
+	    }
+	}
+
+	//the tree is written as the parent of each attribute, or -1 for the root
+	out.writeBoolean(current.attributeTree != null);
+	if (current.attributeTree != null) {
+	    for (Tree attributeNode : current.attributeTree) {
+		out.writeInt(attributeNode.parent == null ? -1 : attributeNode.parent.attributeNum);
+	    }
+	}
+    }
+
+    /**
+     * Reads a trained model written by writeModel
+     *
+     * @param in the buffer positioned at the model
+     * @return a classifier holding the model
+     */
+    static TreeAugmentedNaiveBayes readModel(ByteBuffer in) {
+	ValueDictionary[] attributeDictionaries = ModelSnapshot.readDictionaries(in);
+	ValueDictionary classDictionary = ModelSnapshot.readDictionary(in);
+	int numAttributes = attributeDictionaries.length;
+	int numPoints = in.getInt();
+	int[] classCounts = ModelSnapshot.readInts(in);
+	int[][][] attributeCounts = new int[numAttributes][][];
+	for (int i = 0; i < numAttributes; i++) {
+	    attributeCounts[i] = new int[in.getInt()][];
+	    for (int value = 0; value < attributeCounts[i].length; value++) {
+		attributeCounts[i][value] = ModelSnapshot.readInts(in);
+	    }
+	}
+	int[][][] attributePairCounts = new int[numAttributes][numAttributes][];
+	for (int i = 0; i < numAttributes; i++) {
+	    for (int j = i + 1; j < numAttributes; j++) {
+		attributePairCounts[i][j] = ModelSnapshot.readInts(in);
+	    }
+	}
+
+	List<Tree> attributeTree = null;
+	if (in.get() != 0) {
+	    List<Tree> nodes = new ArrayList<>();
 	    for (int i = 0; i < numAttributes; i++) {
-		Tree attributeNode = attributeTree.get(i);
-		String attributeValue = (String)dataPoint.get(i);
-
-		if (attributeNode.parent == null) {
-		    //If there is only one parent, calculate P(a_i | class)		    
-		    int attrCount = getAttributeCount(i, attributeValue, classLabel);
-		    double unseenPoints = numClassPoints * MISSING_POINT_RATE;
-		    prob += Math.log((attrCount + unseenPoints * ATTRIBUTE_OCCURANCE_RATE) /
-				      (numClassPoints + unseenPoints));
-		} else {
-		    //Otherwise, calculate P(a_i | a_parent, class)
-		    int attrParent = attributeNode.parent.attributeNum;
-		    String parentValue = (String)dataPoint.get(attrParent);
-
-		    int parentAttrCount = getAttributeCount(attrParent, parentValue, classLabel);
-		    int attrPairCount = getAttributePairCount(i, attributeValue,
-							      attrParent, parentValue, classLabel);
-		    double unseenPoints = numClassPoints * MISSING_POINT_RATE;
-		    if (attrPairCount == 0) {
-			int attrCount = getAttributeCount(i, attributeValue, classLabel);
-			prob += Math.log((attrCount + unseenPoints * ATTRIBUTE_OCCURANCE_RATE) /
-					 (numClassPoints + unseenPoints));
-		    } else {
-			prob += Math.log((attrPairCount + unseenPoints * ATTRIBUTE_OCCURANCE_RATE) /
-					 (parentAttrCount + unseenPoints));
-		    }
-		}
+		nodes.add(new Tree(i));
 	    }
-	    
-	    if (prob > bestProb) {
-		bestProb = prob;
-		bestClassLabel = classLabel;
+	    for (int i = 0; i < numAttributes; i++) {
+		int parent = in.getInt();
+		nodes.get(i).parent = parent < 0 ? null : nodes.get(parent);
 	    }
+	    attributeTree = Collections.unmodifiableList(nodes);
 	}
-	return bestClassLabel;
+
+	TreeAugmentedNaiveBayes classifier = new TreeAugmentedNaiveBayes();
+	classifier.model = new Model(attributeDictionaries, classDictionary, classCounts, attributeCounts,
+				     attributePairCounts, numPoints, attributeTree);
+	return classifier;
     }
-    
+
     @Override
     public String toString() {
 		return "TreeAugmentedNaiveBayes";
@@ -0,0 +1,189 @@
+package com.machine.learning.classifier;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.util.ValueDifferenceMetric;
+
+import java.util.Random;
+
+/**
+ * A vantage point tree over the rows of a training set, for finding the nearest neighbors of a query without
+ * measuring the distance to every row.
+ *
+ * Each node picks a vantage row and splits the rest of its rows in half by their distance to it. The VDM distance
+ * obeys the triangle inequality, so the distance from a query to any row in a half is at least the gap between the
+ * query's distance to the vantage row and the range of distances in that half. A half is skipped only when that
+ * bound is strictly larger than the distance to the kth nearest row found so far, so rows that tie with the kth
+ * nearest are still measured, and the search finds exactly the rows a full scan would.
+ */
+final class VantagePointTree implements NeighborIndex {
+    /* Ranges of at most this many rows are scanned rather than split */
+    private static final int LEAF_SIZE = 8;
+
+    /* Allowance for rounding error in the computed distances when applying the triangle inequality */
+    private static final double SLACK = 1e-9;
+
+    private final EncodedDataSet trainingData;
+    private final ValueDifferenceMetric vdm;
+
+    /* The training rows, ordered so that each node covers a range whose first row is its vantage row, followed by
+       its near half and then its far half */
+    private final int[] rows;
+
+    /* For the node whose vantage row is at each position, the least and greatest distance from the vantage row to
+       the rows in its near half and in its far half */
+    private final double[] nearMin;
+    private final double[] nearMax;
+    private final double[] farMin;
+    private final double[] farMax;
+
+    /**
+     * Builds a tree over every row of a training set
+     *
+     * @param trainingData the training points
+     * @param vdm the metric built on the training points
+     */
+    VantagePointTree(EncodedDataSet trainingData, ValueDifferenceMetric vdm) {
+        this.trainingData = trainingData;
+        this.vdm = vdm;
+        int size = trainingData.size();
+        rows = new int[size];
+        for (int row = 0; row < size; row++) {
+            rows[row] = row;
+        }
+        nearMin = new double[size];
+        nearMax = new double[size];
+        farMin = new double[size];
+        farMax = new double[size];
+        build(0, size, new double[size], new Random(size));
+    }
+
+    /**
+     * Arranges a range of rows into a node and its subtrees
+     *
+     * @param from the position of the first row in the range
+     * @param to the position after the last row in the range
+     * @param distances scratch for the distances to the vantage row, indexed by position
+     * @param random chooses the vantage rows
+     */
+    private void build(int from, int to, double[] distances, Random random) {
+        if (to - from <= LEAF_SIZE) {
+            return;
+        }
+        swap(rows, distances, from, from + random.nextInt(to - from));
+        int[] vantage = trainingData.row(rows[from]);
+        for (int i = from + 1; i < to; i++) {
+            distances[i] = vdm.calculateDistance(trainingData, rows[i], vantage);
+        }
+        int middle = middle(from, to);
+        select(distances, from + 1, to, middle);
+
+        nearMin[from] = Double.POSITIVE_INFINITY;
+        farMin[from] = Double.POSITIVE_INFINITY;
+        for (int i = from + 1; i < to; i++) {
+            if (i < middle) {
+                nearMin[from] = Math.min(nearMin[from], distances[i]);
+                nearMax[from] = Math.max(nearMax[from], distances[i]);
+            } else {
+                farMin[from] = Math.min(farMin[from], distances[i]);
+                farMax[from] = Math.max(farMax[from], distances[i]);
+            }
+        }
+        build(from + 1, middle, distances, random);
+        build(middle, to, distances, random);
+    }
+
+    /**
+     * @return the position where the far half of the node covering the given range starts
+     */
+    private static int middle(int from, int to) {
+        return from + 1 + (to - from - 1) / 2;
+    }
+
+    /**
+     * Partially orders a range of rows by distance, so that the rows before the nth position are no further than
+     * the row at it, and the rows after it no nearer
+     *
+     * @param distances the distance of the row at each position
+     * @param from the position of the first row in the range
+     * @param to the position after the last row in the range
+     * @param nth the position to order around
+     */
+    private void select(double[] distances, int from, int to, int nth) {
+        while (to - from > 1) {
+            double pivot = distances[(from + to) >>> 1];
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (distances[i] < pivot) {
+                    i++;
+                }
+                while (distances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(rows, distances, i++, j--);
+                }
+            }
+            if (nth <= j) {
+                to = j + 1;
+            } else if (nth >= i) {
+                from = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(int[] rows, double[] distances, int i, int j) {
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+
+    @Override
+    public int search(int[] codes, KNearestNeighbors.Neighbors nearest) {
+        return search(codes, 0, rows.length, nearest);
+    }
+
+    private int search(int[] codes, int from, int to, KNearestNeighbors.Neighbors nearest) {
+        if (to - from <= LEAF_SIZE) {
+            for (int i = from; i < to; i++) {
+                nearest.offer(rows[i], vdm.calculateDistance(trainingData, rows[i], codes));
+            }
+            return to - from;
+        }
+        double distance = vdm.calculateDistance(trainingData, rows[from], codes);
+        nearest.offer(rows[from], distance);
+
+        // Search the half the query falls in first, as it is likelier to hold the nearest rows
+        int middle = middle(from, to);
+        int measured = 1;
+        if (distance <= (nearMax[from] + farMin[from]) / 2) {
+            measured += searchHalf(codes, from + 1, middle, distance, nearMin[from], nearMax[from], nearest);
+            measured += searchHalf(codes, middle, to, distance, farMin[from], farMax[from], nearest);
+        } else {
+            measured += searchHalf(codes, middle, to, distance, farMin[from], farMax[from], nearest);
+            measured += searchHalf(codes, from + 1, middle, distance, nearMin[from], nearMax[from], nearest);
+        }
+        return measured;
+    }
+
+    /**
+     * Searches one half of a node, unless none of its rows can be among the nearest neighbors
+     *
+     * @param distance the distance from the query to the node's vantage row
+     * @param min the least distance from the vantage row to a row in the half
+     * @param max the greatest distance from the vantage row to a row in the half
+     */
+    private int searchHalf(int[] codes, int from, int to, double distance, double min, double max,
+                           KNearestNeighbors.Neighbors nearest) {
+        double lowerBound = Math.max(distance - max, min - distance);
+        if (lowerBound > nearest.bound() + SLACK) {
+            return 0;
+        }
+        return search(codes, from, to, nearest);
+    }
+}
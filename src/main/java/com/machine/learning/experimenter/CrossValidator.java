@@ -2,17 +2,23 @@ package com.machine.learning.experimenter;
 
 import com.github.rschmitt.dynamicobject.DynamicObject;
 import com.machine.learning.classifier.Classifier;
+import com.machine.learning.classifier.KNearestNeighbors;
 import com.machine.learning.model.DataModel;
 import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
 import com.machine.learning.model.Result;
+import com.machine.learning.model.SufficientStatistics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 public class CrossValidator {
     private Classifier classifier;
-    private List<List<DataPoint>> folds;
+    private EncodedDataSet data;
+    private int[][] folds;
+    private boolean shareDistances;
 
     /**
      * Performs cross validation on all of the data
@@ -22,9 +28,34 @@ public class CrossValidator {
      * @param numberOfFolds Number of folds to test with
      */
     public CrossValidator(Classifier classifier, DataModel dataModel, Integer numberOfFolds) {
+        this(classifier, dataModel.encode(), numberOfFolds);
+    }
+
+    /**
+     * Performs cross validation on all of the encoded data
+     *
+     * @param classifier Algorithm to test
+     * @param data Data to test on
+     * @param numberOfFolds Number of folds to test with
+     */
+    public CrossValidator(Classifier classifier, EncodedDataSet data, Integer numberOfFolds) {
+        this(classifier, data, numberOfFolds, false);
+    }
+
+    /**
+     * Performs cross validation on all of the encoded data
+     *
+     * @param classifier Algorithm to test
+     * @param data Data to test on
+     * @param numberOfFolds Number of folds to test with
+     * @param shareDistances Whether k-Nearest-Neighbors should measure distances once for every fold with one
+     *                       metric built on all of the data, rather than training a metric for each fold
+     */
+    public CrossValidator(Classifier classifier, EncodedDataSet data, Integer numberOfFolds, boolean shareDistances) {
         this.classifier = classifier;
-        List<DataPoint> data = dataModel.getData().orElse(new ArrayList<>());
-        this.folds = createFolds(data, numberOfFolds);
+        this.data = data;
+        this.folds = createFolds(data.size(), numberOfFolds);
+        this.shareDistances = shareDistances;
     }
 
     /**
@@ -50,6 +81,31 @@ public class CrossValidator {
         return folds;
     }
 
+    /**
+     * Creates the folds to test with as row positions, split the same way as createFolds splits a list
+     *
+     * @param size number of rows to split
+     * @param numberOfFolds number of folds to create
+     * @return the row positions in each fold
+     */
+    public int[][] createFolds(int size, Integer numberOfFolds) {
+        int segmentSize = size/numberOfFolds;
+        int remainder = size - segmentSize*numberOfFolds;
+        int[][] folds = new int[numberOfFolds][];
+        for (int i = 0; i < numberOfFolds; i++) {
+            folds[i] = new int[segmentSize + (i < remainder ? 1 : 0)];
+            for (int j = 0; j < segmentSize; j++) {
+                folds[i][j] = segmentSize*i + j;
+            }
+        }
+
+        for (int i = segmentSize*numberOfFolds, c = 0; i < size; i++, c++) {
+            folds[c][segmentSize] = i;
+        }
+
+        return folds;
+    }
+
     /**
      * Evaluates the data using k-fold-cross-validation
      * @return Result of k-fold-cross-validation
@@ -57,25 +113,130 @@ public class CrossValidator {
     public Result evaluate() {
         System.out.println("Performing K-Fold cross validation on " +classifier);
         List<Double> results = new ArrayList<>();
-        for (int i = 0; i < folds.size(); i++) {
-            List<DataPoint> trainingData = new ArrayList<>();
-            for (int j = 0; j < folds.size(); j++) {
-                if (j != i) {
-                    trainingData.addAll(folds.get(j));
-                }
+        SufficientStatistics counts = countAll();
+        for (int i = 0; i < folds.length; i++) {
+            train(i, counts);
+            String[] predictions = classifier.classify(data, folds[i]);
+            results.add(accuracy(folds[i], predictions));
+        }
+        return summarize(results);
+    }
+
+    /**
+     * Evaluates k-Nearest-Neighbors for several values of k in one pass over the folds. The classifier is trained
+     * once per fold, and the neighbors of each test point are found once and shared by every k, so each k is
+     * scored as if it had been evaluated with its own classifier.
+     *
+     * If distances are shared, the classifier isn't trained on each fold. Instead the distance between each pair
+     * of points is measured once, with a metric built on all of the data, which KNearestNeighbors.classifyFolds
+     * describes.
+     *
+     * @param ks the values of k to evaluate, each no more than the k of the classifier being validated,
+     *           which must be a KNearestNeighbors
+     * @return Result of k-fold-cross-validation for each k, in the same order as ks
+     */
+    public List<Result> evaluate(int[] ks) {
+        if (!(classifier instanceof KNearestNeighbors)) {
+            throw new IllegalArgumentException(classifier + " can't be evaluated for several values of k");
+        }
+        KNearestNeighbors nearestNeighbors = (KNearestNeighbors) classifier;
+        System.out.println("Performing K-Fold cross validation on " + classifier + " for k in " + Arrays.toString(ks));
+        List<List<Double>> results = new ArrayList<>();
+        for (int j = 0; j < ks.length; j++) {
+            results.add(new ArrayList<>());
+        }
+        String[][][] sharedPredictions = shareDistances ? nearestNeighbors.classifyFolds(data, folds, ks) : null;
+        SufficientStatistics counts = shareDistances ? null : countAll();
+        for (int i = 0; i < folds.length; i++) {
+            String[][] predictions;
+            if (shareDistances) {
+                predictions = sharedPredictions[i];
+            } else {
+                train(i, counts);
+                predictions = nearestNeighbors.classify(data, folds[i], ks);
             }
+            for (int j = 0; j < ks.length; j++) {
+                results.get(j).add(accuracy(folds[i], predictions[j]));
+            }
+        }
+
+        List<Result> summaries = new ArrayList<>();
+        for (List<Double> kResults : results) {
+            summaries.add(summarize(kResults));
+        }
+        return summaries;
+    }
+
+    /**
+     * Counts all of the data once, if the classifier trains from counts, so that the counts of each fold's
+     * training data can be found by subtracting the counts of the fold
+     *
+     * @return the counts of all of the data, or null if the classifier doesn't train from counts
+     */
+    private SufficientStatistics countAll() {
+        if (!classifier.trainsFromCounts()) {
+            return null;
+        }
+        return SufficientStatistics.count(data, classifier.countsAttributePairs());
+    }
 
+    /**
+     * Trains the classifier on every fold but one. If the data was counted, the counts of the training folds
+     * are the counts of all of the data minus the counts of the tested fold, which are exactly what counting
+     * the training folds would give, at the cost of counting only the tested fold.
+     *
+     * @param testFold the number of the fold being tested
+     * @param counts the counts of all of the data, or null to train on the points alone
+     */
+    private void train(int testFold, SufficientStatistics counts) {
+        EncodedDataSet trainingData = data.subset(trainingRows(testFold));
+        if (counts == null) {
             classifier.train(trainingData);
-            int numCorrect = 0;
-            for (DataPoint datapoint : folds.get(i)) {
-                if (classifier.classify(datapoint.getData().get()).equals(datapoint.getClassLabel().orElse(""))) {
-                    numCorrect++;
-                }
+        } else {
+            SufficientStatistics foldCounts =
+                SufficientStatistics.count(data.subset(folds[testFold]), classifier.countsAttributePairs());
+            classifier.train(trainingData, counts.subtract(foldCounts));
+        }
+    }
+
+    /**
+     * @param testFold the number of the fold being tested
+     * @return the row positions of every other fold
+     */
+    private int[] trainingRows(int testFold) {
+        int[] trainingRows = new int[data.size() - folds[testFold].length];
+        int t = 0;
+        for (int j = 0; j < folds.length; j++) {
+            if (j != testFold) {
+                System.arraycopy(folds[j], 0, trainingRows, t, folds[j].length);
+                t += folds[j].length;
             }
+        }
+        return trainingRows;
+    }
 
-            results.add((double)numCorrect/(double)folds.get(i).size());
+    /**
+     * @param fold the row positions that were classified
+     * @param predictions the predicted class of each row
+     * @return the fraction of rows that were classified correctly
+     */
+    private double accuracy(int[] fold, String[] predictions) {
+        int numCorrect = 0;
+        for (int j = 0; j < fold.length; j++) {
+            if (data.getClassLabel(fold[j]).equals(predictions[j])) {
+                numCorrect++;
+            }
         }
+        return (double)numCorrect/(double)fold.length;
+    }
 
+    /**
+     * Averages the accuracy of each fold, with a 95% confidence interval
+     *
+     * @param results the accuracy of each fold
+     * @return the formatted average and confidence interval
+     */
+    private Result summarize(List<Double> results) {
         double average = 0D;
         for (Double result : results) {
             average += result;
@@ -0,0 +1,266 @@
+package com.machine.learning.experimenter;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+import com.machine.learning.model.DataModel;
+import com.machine.learning.model.EncodedDataSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Resolves data sets by name, loading them on a background I/O thread ahead of when they are needed.
+ *
+ * Acquiring a data set starts loading the next few data sets in the catalog, so their files are read and
+ * preprocessed while the current one is being evaluated. A data set becomes resident, and counts against the
+ * memory budget, as soon as it is loaded, whether or not it has been acquired yet. Released and prefetched data
+ * sets stay resident until the data sets held by the catalog exceed the memory budget, at which point the least
+ * recently used ones are evicted and reloaded if they are acquired again. Data sets that are acquired and not yet
+ * released are never evicted, and nothing is prefetched while the catalog is already at its budget.
+ */
+public class DatasetCatalog implements AutoCloseable {
+    public static final long DEFAULT_MEMORY_BUDGET = 512L << 20;
+    public static final int DEFAULT_PREFETCH = 1;
+
+    /**
+     * A data set held by the catalog. Only the encoded data is kept, so the data model it was loaded from, with
+     * its data points, can be collected as soon as it has been encoded.
+     */
+    public static final class Dataset {
+        private final String name;
+        private final EncodedDataSet data;
+
+        Dataset(String name, EncodedDataSet data) {
+            this.name = name;
+            this.data = data;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public EncodedDataSet getData() {
+            return data;
+        }
+    }
+
+    private final List<String> names;
+    private final Function<String, DataModel> loader;
+    private final long memoryBudget;
+    private final int prefetch;
+    private final ExecutorService ioExecutor;
+
+    /* Data sets being loaded, by name */
+    private final Map<String, CompletableFuture<Dataset>> loading = new HashMap<>();
+
+    /* Loaded data sets in least to most recently used order, and how many callers hold each of them */
+    private final LinkedHashMap<String, Dataset> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> holds = new HashMap<>();
+    private long residentBytes;
+
+    /**
+     * Creates a catalog of data files, loaded with DataModel.fromFile
+     *
+     * @param files the paths of the data files, in the order they will be acquired
+     * @param memoryBudget number of bytes of data sets to keep resident once they are released
+     * @param prefetch number of data sets to load ahead of the one being acquired
+     */
+    public DatasetCatalog(List<String> files, long memoryBudget, int prefetch) {
+        this(files, file -> DynamicObject.newInstance(DataModel.class).fromFile(file), memoryBudget, prefetch);
+    }
+
+    /**
+     * Creates a catalog
+     *
+     * @param names the names of the data sets, in the order they will be acquired
+     * @param loader loads the data model with a given name
+     * @param memoryBudget number of bytes of data sets to keep resident once they are released
+     * @param prefetch number of data sets to load ahead of the one being acquired
+     */
+    public DatasetCatalog(List<String> names, Function<String, DataModel> loader, long memoryBudget, int prefetch) {
+        this.names = new ArrayList<>(names);
+        this.loader = loader;
+        this.memoryBudget = memoryBudget;
+        this.prefetch = prefetch;
+        this.ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dataset-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a catalog of data models that are already loaded, which are never evicted
+     *
+     * @param dataModels the data models, each with a distinct name
+     * @return the catalog
+     */
+    public static DatasetCatalog of(List<DataModel> dataModels) {
+        Map<String, DataModel> byName = new LinkedHashMap<>();
+        for (DataModel dataModel : dataModels) {
+            byName.put(dataModel.getName().orElse(""), dataModel);
+        }
+        return new DatasetCatalog(new ArrayList<>(byName.keySet()), byName::get, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * @return the names of the data sets, in catalog order
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Gets a data set, waiting for it to load if it isn't resident, and starts loading the data sets that
+     * follow it. The data set stays resident until it is released.
+     *
+     * @param name the name of the data set
+     * @return the data set
+     */
+    public Dataset acquire(String name) {
+        CompletableFuture<Dataset> future;
+        synchronized (this) {
+            Dataset dataset = resident.get(name);
+            if (dataset != null) {
+                hold(name);
+                prefetchAfter(name);
+                return dataset;
+            }
+            future = load(name);
+            prefetchAfter(name);
+        }
+
+        Dataset dataset;
+        try {
+            dataset = future.join();
+        } catch (RuntimeException ex) {
+            synchronized (this) {
+                loading.remove(name, future);
+            }
+            throw ex;
+        }
+        synchronized (this) {
+            // The data set may have been evicted between loading and being held here, if it didn't fit
+            loading.remove(name, future);
+            admit(name, dataset);
+            hold(name);
+            evict();
+        }
+        return dataset;
+    }
+
+    /**
+     * Marks a data set as no longer in use, so that it can be evicted
+     *
+     * @param name the name of the data set
+     */
+    public synchronized void release(String name) {
+        Integer count = holds.get(name);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            holds.put(name, count - 1);
+        } else {
+            holds.remove(name);
+        }
+        evict();
+    }
+
+    /**
+     * @return the number of bytes held by resident data sets
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @param name the name of the data set
+     * @return whether the data set is loaded and resident
+     */
+    public synchronized boolean isResident(String name) {
+        return resident.containsKey(name);
+    }
+
+    @Override
+    public void close() {
+        ioExecutor.shutdownNow();
+    }
+
+    private void hold(String name) {
+        holds.merge(name, 1, Integer::sum);
+    }
+
+    private CompletableFuture<Dataset> load(String name) {
+        CompletableFuture<Dataset> future = loading.get(name);
+        if (future == null) {
+            CompletableFuture<Dataset> loaded = CompletableFuture.supplyAsync(() -> {
+                EncodedDataSet data = loader.apply(name).encode();
+                data.load();
+                return new Dataset(name, data);
+            }, ioExecutor);
+            loading.put(name, loaded);
+            loaded.whenComplete((dataset, ex) -> loaded(name, loaded, dataset));
+            future = loaded;
+        }
+        return future;
+    }
+
+    /**
+     * Makes a data set resident as soon as it has loaded, so a prefetched data set counts against the budget and
+     * can be evicted before anyone acquires it
+     *
+     * @param name the name of the data set
+     * @param future the load that finished
+     * @param dataset the data set, or null if it failed to load
+     */
+    private synchronized void loaded(String name, CompletableFuture<Dataset> future, Dataset dataset) {
+        if (loading.remove(name, future) && dataset != null) {
+            admit(name, dataset);
+            evict();
+        }
+    }
+
+    /**
+     * Makes a data set resident if it isn't already, counting its bytes, and marks it as the most recently used
+     */
+    private void admit(String name, Dataset dataset) {
+        if (resident.get(name) == null) {
+            resident.put(name, dataset);
+            residentBytes += dataset.getData().byteSize();
+        }
+    }
+
+    private void prefetchAfter(String name) {
+        int position = names.indexOf(name);
+        if (position < 0 || residentBytes >= memoryBudget) {
+            return;
+        }
+        for (int i = position + 1; i <= position + prefetch && i < names.size(); i++) {
+            if (!resident.containsKey(names.get(i))) {
+                load(names.get(i));
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used data sets that aren't in use until the resident data sets fit the budget
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Dataset>> iterator = resident.entrySet().iterator();
+        while (residentBytes > memoryBudget && iterator.hasNext()) {
+            Map.Entry<String, Dataset> entry = iterator.next();
+            if (!holds.containsKey(entry.getKey())) {
+                residentBytes -= entry.getValue().getData().byteSize();
+                iterator.remove();
+            }
+        }
+    }
+}
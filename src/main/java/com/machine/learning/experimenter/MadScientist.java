@@ -2,14 +2,19 @@ package com.machine.learning.experimenter;
 
 import com.github.rschmitt.dynamicobject.DynamicObject;
 import com.machine.learning.classifier.Classifier;
+import com.machine.learning.classifier.KNearestNeighbors;
 import com.machine.learning.model.DataModel;
 import com.machine.learning.model.Result;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class MadScientist {
     private Result results;
+    private boolean shareDistances;
 
     /**
      * Creates a MadScientist
@@ -18,32 +23,119 @@ public class MadScientist {
      * @param classifiers List of classifiers to evaluate
      */
     public MadScientist(List<DataModel> dataModels, List<Classifier> classifiers) {
+        try (DatasetCatalog catalog = DatasetCatalog.of(dataModels)) {
+            results = evaluate(catalog, classifiers);
+        }
+    }
+
+    /**
+     * Creates a MadScientist that evaluates every classifier on one data set of the catalog before moving
+     * on to the next, so the catalog can load the next data set while the current one is evaluated
+     *
+     * @param catalog Catalog of data sets to evaluate
+     * @param classifiers List of classifiers to evaluate
+     */
+    public MadScientist(DatasetCatalog catalog, List<Classifier> classifiers) {
+        this(catalog, classifiers, false);
+    }
+
+    /**
+     * Creates a MadScientist that evaluates every classifier on one data set of the catalog before moving
+     * on to the next
+     *
+     * @param catalog Catalog of data sets to evaluate
+     * @param classifiers List of classifiers to evaluate
+     * @param shareDistances Whether to evaluate k-Nearest-Neighbors with distances measured once for every fold,
+     *                       by a metric built on the whole data set, rather than a metric trained on each fold
+     */
+    public MadScientist(DatasetCatalog catalog, List<Classifier> classifiers, boolean shareDistances) {
+        this.shareDistances = shareDistances;
+        results = evaluate(catalog, classifiers);
+    }
+
+    private Result evaluate(DatasetCatalog catalog, List<Classifier> classifiers) {
         StringBuilder stringBuilder = new StringBuilder("\\begin{table}[!h]\n\\begin{tabular}{c|c|c|c|c|c|}\n");
-        for (DataModel dataModel: dataModels) {
+        for (String name : catalog.getNames()) {
             stringBuilder
                     .append(" & ")
-                    .append(dataModel.getName().get().split("\\.")[0].split("-")[0]);
+                    .append(name.split("\\.")[0].split("-")[0]);
         }
 
         stringBuilder.append("\\\\\n");
         stringBuilder.append("\\hline\n");
         Collections.sort(classifiers, (x, y) -> x.toString().compareTo(y.toString()));
+
+        Map<Classifier, StringBuilder> rows = new LinkedHashMap<>();
+        for (Classifier classifier : classifiers) {
+            rows.put(classifier, new StringBuilder(classifier.toString()));
+        }
+
+        // The k-Nearest-Neighbors classifiers that keep every training point only differ by how many neighbors
+        // vote, so they're evaluated together
+        List<KNearestNeighbors> nearestNeighbors = new ArrayList<>();
         for (Classifier classifier : classifiers) {
-            System.out.println("Testing classifier: " + classifier);
-            stringBuilder.append(classifier);
-            for (DataModel dataModel : dataModels) {
-                System.out.println("Testing data set: " + dataModel.getName().get());
-                stringBuilder.append(" & ");
-                String result = new CrossValidator(classifier, dataModel, 10).evaluate().getResults();
-                stringBuilder.append(result);
-                stringBuilder.append("\\%");
+            if (isEvaluatedTogether(classifier)) {
+                nearestNeighbors.add((KNearestNeighbors) classifier);
+            }
+        }
+
+        for (String name : catalog.getNames()) {
+            System.out.println("Testing data set: " + name);
+            DatasetCatalog.Dataset dataset = catalog.acquire(name);
+            try {
+                for (Classifier classifier : classifiers) {
+                    if (isEvaluatedTogether(classifier)) {
+                        continue;
+                    }
+                    System.out.println("Testing classifier: " + classifier);
+                    String result = new CrossValidator(classifier, dataset.getData(), 10).evaluate().getResults();
+                    rows.get(classifier).append(" & ").append(result).append("\\%");
+                }
+                if (!nearestNeighbors.isEmpty()) {
+                    evaluateNearestNeighbors(nearestNeighbors, dataset, rows);
+                }
+            } finally {
+                catalog.release(name);
             }
+        }
+
+        for (StringBuilder row : rows.values()) {
+            stringBuilder.append(row);
             stringBuilder.append("\\\\\n");
             stringBuilder.append("\\hline\n");
         }
         stringBuilder.append("\\end{tabular}\n\\end{table}");
 
-        results = DynamicObject.newInstance(Result.class).withResults(stringBuilder.toString());
+        return DynamicObject.newInstance(Result.class).withResults(stringBuilder.toString());
+    }
+
+    private static boolean isEvaluatedTogether(Classifier classifier) {
+        return classifier instanceof KNearestNeighbors && ((KNearestNeighbors) classifier).getReduction() == null;
+    }
+
+    /**
+     * Evaluates several k-Nearest-Neighbors classifiers at once, finding the neighbors of each test point with the
+     * classifier with the largest k and letting each classifier vote with its share of them
+     *
+     * @param nearestNeighbors the classifiers to evaluate
+     * @param dataset the data set to evaluate them on
+     * @param rows the rows of the results table, by classifier
+     */
+    private void evaluateNearestNeighbors(List<KNearestNeighbors> nearestNeighbors, DatasetCatalog.Dataset dataset,
+                                          Map<Classifier, StringBuilder> rows) {
+        KNearestNeighbors widest = nearestNeighbors.get(0);
+        int[] ks = new int[nearestNeighbors.size()];
+        for (int i = 0; i < ks.length; i++) {
+            ks[i] = nearestNeighbors.get(i).getK();
+            if (ks[i] > widest.getK()) {
+                widest = nearestNeighbors.get(i);
+            }
+        }
+        System.out.println("Testing classifiers: " + nearestNeighbors);
+        List<Result> results = new CrossValidator(widest, dataset.getData(), 10, shareDistances).evaluate(ks);
+        for (int i = 0; i < ks.length; i++) {
+            rows.get(nearestNeighbors.get(i)).append(" & ").append(results.get(i).getResults()).append("\\%");
+        }
     }
 
     /**
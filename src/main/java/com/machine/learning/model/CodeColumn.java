@@ -0,0 +1,140 @@
+package com.machine.learning.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * A column of non-negative codes stored with the fewest bytes per code that fit the largest code,
+ * either on the heap or in a memory-mapped file.
+ */
+final class CodeColumn {
+    private ByteBuffer buffer;
+    private int width;
+    private final int size;
+
+    private CodeColumn(ByteBuffer buffer, int width, int size) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.width = width;
+        this.size = size;
+    }
+
+    /**
+     * Allocates a heap column, one byte wide to start with
+     *
+     * @param size number of codes in the column
+     * @return the column, filled with zeros
+     */
+    static CodeColumn allocate(int size) {
+        return allocate(size, 1);
+    }
+
+    /**
+     * Allocates a heap column
+     *
+     * @param size number of codes in the column
+     * @param width the number of bytes per code to start with
+     * @return the column, filled with zeros
+     */
+    static CodeColumn allocate(int size, int width) {
+        return new CodeColumn(ByteBuffer.allocate(size * width), width, size);
+    }
+
+    /**
+     * Wraps a buffer that already holds codes
+     *
+     * @param buffer the codes, starting at position 0
+     * @param width the number of bytes per code
+     * @param size number of codes in the column
+     * @return the column
+     */
+    static CodeColumn wrap(ByteBuffer buffer, int width, int size) {
+        return new CodeColumn(buffer, width, size);
+    }
+
+    /**
+     * @param row the position of the code
+     * @return the code
+     */
+    int get(int row) {
+        switch (width) {
+            case 1:
+                return buffer.get(row) & 0xFF;
+            case 2:
+                return buffer.getShort(row << 1) & 0xFFFF;
+            default:
+                return buffer.getInt(row << 2);
+        }
+    }
+
+    /**
+     * Stores a code, widening the column first if the code doesn't fit
+     *
+     * @param row the position of the code
+     * @param code the code to store
+     */
+    void set(int row, int code) {
+        if (widthFor(code) > width) {
+            widen(widthFor(code));
+        }
+        switch (width) {
+            case 1:
+                buffer.put(row, (byte) code);
+                break;
+            case 2:
+                buffer.putShort(row << 1, (short) code);
+                break;
+            default:
+                buffer.putInt(row << 2, code);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int width() {
+        return width;
+    }
+
+    /**
+     * @return a read-only view of the stored bytes, for writing the column out
+     */
+    ByteBuffer bytes() {
+        ByteBuffer bytes = buffer.asReadOnlyBuffer();
+        bytes.clear().limit(size * width);
+        return bytes;
+    }
+
+    /**
+     * Reads a memory-mapped column into physical memory, so later reads don't wait on the disk.
+     * Heap columns are already in memory.
+     */
+    void load() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).load();
+        }
+    }
+
+    /**
+     * @param code a code to store
+     * @return the number of bytes needed to store the code
+     */
+    static int widthFor(int code) {
+        if (code <= 0xFF) {
+            return 1;
+        } else if (code <= 0xFFFF) {
+            return 2;
+        }
+        return 4;
+    }
+
+    private void widen(int newWidth) {
+        CodeColumn wider = allocate(size, newWidth);
+        for (int row = 0; row < size; row++) {
+            wider.set(row, get(row));
+        }
+        buffer = wider.buffer;
+        width = newWidth;
+    }
+}
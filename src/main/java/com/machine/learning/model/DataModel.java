@@ -2,21 +2,23 @@ package com.machine.learning.model;
 
 import com.github.rschmitt.dynamicobject.DynamicObject;
 import com.github.rschmitt.dynamicobject.Key;
+import com.machine.learning.preprocessing.CsvIngester;
+import com.machine.learning.preprocessing.Discretizer;
+import com.machine.learning.preprocessing.ImputationReport;
+import com.machine.learning.preprocessing.MissingValueImputer;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 public interface DataModel extends DynamicObject<DataModel> {
     @Key("name")
@@ -37,29 +39,109 @@ public interface DataModel extends DynamicObject<DataModel> {
      */
     Optional<List<DataPoint>> getData();
 
+    @Key("snapshot")
     /**
-     * Creates a com.machine.learning.model.DataModel object from the data at the given path
+     * Setter for the path of a binary snapshot holding the preprocessed data
+     */
+    DataModel withSnapshot(String snapshot);
+
+    @Key("snapshot")
+    /**
+     * Getter for the path of a binary snapshot holding the preprocessed data
+     */
+    Optional<String> getSnapshot();
+
+    /**
+     * Creates a com.machine.learning.model.DataModel object from the data at the given path.
+     * The path is read from the filesystem if it exists there, otherwise from the classpath.
+     * Paths ending in .gz are decompressed while they are read.
+     *
+     * The returned model holds the data points in memory. Caching can be turned on with -Dsnapshot.cache=true or
+     * --cache-snapshots, in which case the file is preprocessed out of core into a snapshot keyed by the file's
+     * fingerprint, as by fromFileOutOfCore, and while the file is unchanged later calls return a model backed by
+     * the snapshot without reading the file again.
      *
      *  @param filePath path to file
      */
     default DataModel fromFile(String filePath) {
-        try (InputStream resource = Thread
-                .currentThread()
-                .getContextClassLoader()
-                .getResourceAsStream(filePath)) {
-            List<String> doc = new BufferedReader(new InputStreamReader(resource, StandardCharsets.UTF_8))
-                    .lines().collect(Collectors.toList());
-	    System.out.println("Preprocessing " + filePath);
-            List<DataPoint> processedData = preprocessData(doc);
-            return DynamicObject.newInstance(DataModel.class)
-		.withName(filePath)
-		.withData(processedData);
-
-        } catch (java.io.IOException ex) {
+        String fingerprint = DataSnapshot.isCacheEnabled() ? DataSnapshot.fingerprint(filePath) : null;
+        if (fingerprint != null) {
+            Path cachedSnapshot = DataSnapshot.cachePath(filePath, fingerprint);
+            if (Files.isRegularFile(cachedSnapshot)) {
+                System.out.println("Loading " + filePath + " from snapshot " + cachedSnapshot);
+                return DynamicObject.newInstance(DataModel.class)
+                    .withName(filePath)
+                    .withSnapshot(cachedSnapshot.toString());
+            }
+            return fromFileOutOfCore(filePath, cachedSnapshot);
+        }
+
+        CsvIngester ingester = new CsvIngester();
+        Path path = Paths.get(filePath);
+        List<String[]> rows;
+        try {
+            if (Files.isRegularFile(path)) {
+                rows = ingester.read(path);
+            } else {
+                try (InputStream resource = Thread
+                        .currentThread()
+                        .getContextClassLoader()
+                        .getResourceAsStream(filePath)) {
+                    if (resource == null) {
+                        System.err.println("File " + filePath + " does not exist");
+                        return DynamicObject.newInstance(DataModel.class);
+                    }
+                    rows = ingester.read(resource, CsvIngester.isGzip(filePath));
+                }
+            }
+        } catch (IOException ex) {
             ex.printStackTrace();
+            return DynamicObject.newInstance(DataModel.class);
         }
 
-        return DynamicObject.newInstance(DataModel.class);
+        System.out.println(ingester.getReport());
+	System.out.println("Preprocessing " + filePath);
+        List<String[]> processedRows = preprocessFields(rows, MissingValueImputer.DEFAULT_SEED);
+        return DynamicObject.newInstance(DataModel.class)
+            .withName(filePath)
+            .withData(toDataPoints(processedRows));
+    }
+
+    /**
+     * Creates a disk-backed com.machine.learning.model.DataModel from the data at the given path, writing its
+     * snapshot to DataSnapshot.snapshotPath
+     *
+     * @param filePath path to file
+     */
+    default DataModel fromFileOutOfCore(String filePath) {
+        return fromFileOutOfCore(filePath, DataSnapshot.snapshotPath(filePath));
+    }
+
+    /**
+     * Creates a disk-backed com.machine.learning.model.DataModel from the data at the given path, for data sets
+     * larger than the heap. The file is streamed twice and preprocessed one chunk at a time straight into a
+     * snapshot, as by SnapshotBuilder, so its rows are never all held in memory. The returned model's getData is
+     * empty; it holds the snapshot path, and its columns are memory-mapped as they are used by encode.
+     *
+     * @param filePath path to file
+     * @param snapshot where to write the snapshot, replacing any snapshot already there
+     */
+    default DataModel fromFileOutOfCore(String filePath, Path snapshot) {
+        System.out.println("Preprocessing " + filePath + " out of core into " + snapshot);
+        ImputationReport report;
+        try {
+            report = SnapshotBuilder.build(filePath, snapshot, MissingValueImputer.DEFAULT_SEED);
+        } catch (NoSuchFileException ex) {
+            System.err.println("File " + filePath + " does not exist");
+            return DynamicObject.newInstance(DataModel.class);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return DynamicObject.newInstance(DataModel.class);
+        }
+        System.out.println(report);
+        return DynamicObject.newInstance(DataModel.class)
+            .withName(filePath)
+            .withSnapshot(snapshot.toString());
     }
 
     /**
@@ -69,26 +151,118 @@ public interface DataModel extends DynamicObject<DataModel> {
      *
      */
      default List<DataPoint> preprocessData(List<String> data) {
-        List<DataPoint> dataModel = new ArrayList<DataPoint>(data.size());
-
+        List<String[]> rows = new ArrayList<>(data.size());
         for (String dataRow : data) {
-            List<String> dataModelRow = Arrays.asList(parseString(dataRow));
-            if(dataModelRow.size() > 0) {
-                dataModel.add(DynamicObject.newInstance(DataPoint.class).fromData(dataModelRow));
+            rows.add(parseString(dataRow));
+        }
+        return preprocessRows(rows);
+    }
+
+    /**
+     * Runs pre-processing steps on rows that have already been split into fields. The first row holds the
+     * discretization parameters. Missing values are imputed and attributes discretized on the raw fields,
+     * so every point is built once at the end.
+     *
+     * @param rows to preprocess
+     * @return the preprocessed data
+     */
+    default List<DataPoint> preprocessRows(List<String[]> rows) {
+        return preprocessRows(rows, MissingValueImputer.DEFAULT_SEED);
+    }
+
+    /**
+     * Runs pre-processing steps on rows that have already been split into fields. The first row holds the
+     * discretization parameters.
+     *
+     * @param rows to preprocess
+     * @param seed seed for sampling missing values, so that runs are reproducible
+     * @return the preprocessed data
+     */
+    default List<DataPoint> preprocessRows(List<String[]> rows, long seed) {
+        return toDataPoints(preprocessFields(rows, seed));
+    }
+
+    /**
+     * Imputes missing values and discretizes attributes in rows of fields, without building data points.
+     * The first row holds the discretization parameters and is dropped from the result.
+     *
+     * @param rows to preprocess, which are changed in place
+     * @param seed seed for sampling missing values, so that runs are reproducible
+     * @return the preprocessed data rows
+     */
+    default List<String[]> preprocessFields(List<String[]> rows, long seed) {
+        List<String[]> dataRows = new ArrayList<>(rows.size());
+        for (String[] dataRow : rows) {
+            if (dataRow.length > 0) {
+                dataRows.add(dataRow);
             }
         }
+        if (dataRows.isEmpty()) {
+            return dataRows;
+        }
 
-	List<String> discretizationParams = dataModel.remove(0).getData().get();
+        String[] header = dataRows.remove(0);
+        List<String> discretizationParams = Arrays.asList(header).subList(0, Math.max(header.length - 1, 0));
+        int numColumns = dataRows.isEmpty() ? 0 : dataRows.get(0).length;
 
 	System.out.println("Generating missing values...");
-	dataModel = generateMissing(dataModel);
+	ImputationReport report = new MissingValueImputer(seed).impute(dataRows, numColumns);
+	System.out.println(report);
+	for (int column = 0; column < numColumns; column++) {
+	    if (report.isUnfillable(column)) {
+		System.err.println("Column " + column + " has no observed values, leaving it missing");
+	    }
+	}
 
 	System.out.println("Discretizing data...");
-	dataModel = discretize(dataModel, discretizationParams);
+	if (!dataRows.isEmpty()) {
+	    new Discretizer().fitAndApply(dataRows, discretizationParams);
+	}
+        return dataRows;
+    }
 
+    /**
+     * Builds a data point from each row of fields. Each row is copied once, into a DataRow, and holds a single
+     * DataPoint, where DataPoint.fromData would copy it again into a second one.
+     *
+     * @param rows the rows, with the class label last
+     * @return the data points
+     */
+    default List<DataPoint> toDataPoints(List<String[]> rows) {
+        List<DataPoint> dataModel = new ArrayList<DataPoint>(rows.size());
+        for (String[] dataRow : rows) {
+            dataModel.add(DataRow.fromFields(dataRow).toDataPoint());
+        }
         return dataModel;
     }
 
+    /**
+     * Runs the pre-processing steps on data and dictionary-encodes the result
+     *
+     * @param data to preprocess
+     * @return the preprocessed data as an encoded data set
+     */
+    default EncodedDataSet preprocessEncoded(List<String> data) {
+        return EncodedDataSet.encode(preprocessData(data));
+    }
+
+    /**
+     * Dictionary-encodes the data held by this model. Models backed by a snapshot map the
+     * snapshot instead of encoding their data points.
+     *
+     * @return the data as an encoded data set
+     */
+    default EncodedDataSet encode() {
+        if (getSnapshot().isPresent()) {
+            try {
+                return DataSnapshot.open(Paths.get(getSnapshot().get()));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return EncodedDataSet.encode(getData().orElse(new ArrayList<>()));
+    }
+
     /**
      * Converts a string to an int []
      * @param toParse String to change to int []
@@ -99,40 +273,39 @@ public interface DataModel extends DynamicObject<DataModel> {
     }
 
     /**
-     * Discretizes the data in the given row
+     * Discretizes the data in the given row, using equal width bins for every column
+     * not marked with "=" in the discretization parameters
      *
      * @param dataRow to discretize
      */
     default List<DataPoint> discretize(List<DataPoint> dataRow, List<String> discretizationParams) {
+        return discretize(dataRow, discretizationParams, new Discretizer());
+    }
+
+    /**
+     * Discretizes the data in the given row with the given discretizer. Each point is copied once,
+     * no matter how many of its attributes are discretized.
+     *
+     * @param dataRow to discretize
+     * @param discretizationParams one parameter per attribute, where "=" marks attributes to leave alone
+     * @param discretizer discretizer to fit to the data
+     */
+    default List<DataPoint> discretize(List<DataPoint> dataRow, List<String> discretizationParams,
+                                       Discretizer discretizer) {
 	if (dataRow.size() == 0) {
 	    return dataRow;
 	}
-	int numAttributes = dataRow.get(0).getData().get().size();
-
-	final int NUM_BUCKETS = 10;
-
-	for (int i = 0; i < numAttributes; i++) {
-	    if (discretizationParams.get(i).equals("=")) {
-		continue;
-	    }
-
-	    Double min = Double.MAX_VALUE;
-	    Double max = Double.MIN_VALUE;
 
-	    for (int j = 0; j < dataRow.size(); j++) {
-		Double num = asNumber((String)dataRow.get(j).getData().get().get(i));
-		min = Math.min(min, num);
-		max = Math.max(max, num);
-	    }
+	List<String[]> rows = new ArrayList<>(dataRow.size());
+	for (DataPoint dataPoint : dataRow) {
+	    List data = dataPoint.getData().get();
+	    rows.add((String[]) data.toArray(new String[data.size()]));
+	}
 
-	    max += 0.001;
+	discretizer.fitAndApply(rows, discretizationParams);
 
-	    for (int j = 0; j < dataRow.size(); j++) {
-		Double num = asNumber((String)dataRow.get(j).getData().get().get(i));
-		List<String> modifiedData = new ArrayList(dataRow.get(j).getData().get());
-		modifiedData.set(i, Integer.toString((int)((num - min) * NUM_BUCKETS / (max - min))));
-		dataRow.set(j, dataRow.get(j).withData(modifiedData));
-	    }	    
+	for (int j = 0; j < dataRow.size(); j++) {
+	    dataRow.set(j, dataRow.get(j).withData(Arrays.asList(rows.get(j))));
 	}
 
         return dataRow;
@@ -152,30 +325,49 @@ public interface DataModel extends DynamicObject<DataModel> {
      * @return the data with missing values generated
      */
     default List<DataPoint> generateMissing(List<DataPoint> dataPoints) {
+        return generateMissing(dataPoints, MissingValueImputer.DEFAULT_SEED);
+    }
+
+    /**
+     * Generates missing values by sampling from the values observed in the same column.
+     * Only points that had missing values are replaced.
+     *
+     * @param dataPoints to generate missing data for
+     * @param seed seed for sampling missing values, so that runs are reproducible
+     * @return the data with missing values generated
+     */
+    default List<DataPoint> generateMissing(List<DataPoint> dataPoints, long seed) {
+        if (dataPoints.isEmpty()) {
+            return dataPoints;
+        }
+
+        List<String[]> rows = new ArrayList<>(dataPoints.size());
+        int numColumns = 0;
+        for (DataPoint dataPoint : dataPoints) {
+            List data = dataPoint.getData().get();
+            rows.add((String[]) data.toArray(new String[data.size()]));
+            numColumns = Math.max(numColumns, data.size());
+        }
+
+        new MissingValueImputer(seed).impute(rows, numColumns);
+
         for (int i = 0; i < dataPoints.size(); i++) {
-            DataPoint dataPoint = dataPoints.get(i);
-            for (int j = 0; j < dataPoint.getData().get().size(); j++) {
-                String value = (String) dataPoint.getData().get().get(j);
-                while ("?".equals(value)) {
-                    List<String> fixedDataPoint = new ArrayList<>(dataPoint.getData().get());
-                    List<String> randomDataPoint = dataPoints.get((int)(Math.random() * dataPoints.size())).getData().get();
-                    value = randomDataPoint.get(j);
-                    fixedDataPoint.set(j, value);
-                    dataPoint = dataPoint.withData(fixedDataPoint);
-                    dataPoints.set(i, dataPoint);
-                }
+            List<String> fixed = Arrays.asList(rows.get(i));
+            if (!fixed.equals(dataPoints.get(i).getData().get())) {
+                dataPoints.set(i, dataPoints.get(i).withData(fixed));
             }
         }
         return dataPoints;
     }
 
     /**
-     * Save file as EDN
+     * Save file as EDN. Prefer saveSnapshot, which is much faster to write and to load.
      *
      * @param fileName File name to save file as
      */
     default void save(String fileName) {
-        String serializedData = DynamicObject.serialize(this);
+        DataModel toSave = getData().isPresent() ? this : withData(encode().toDataPoints());
+        String serializedData = DynamicObject.serialize(toSave);
         PrintWriter pw = null;
         try {
             File file = new File("edn");
@@ -193,6 +385,37 @@ public interface DataModel extends DynamicObject<DataModel> {
         }
     }
 
+    /**
+     * Save the data as a binary snapshot in the snapshot directory
+     *
+     * @param fileName File name to save file as
+     */
+    default void saveSnapshot(String fileName) {
+        try {
+            DataSnapshot.write(encode(), Paths.get(DataSnapshot.cacheDirectory(), fileName));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Load a binary snapshot from the snapshot directory. The snapshot is memory-mapped,
+     * so its data is only read as it is used.
+     *
+     * @param fileName File to load from
+     * @return datamodel backed by the snapshot
+     */
+    default DataModel loadSnapshot(String fileName) {
+        Path path = Paths.get(DataSnapshot.cacheDirectory(), fileName);
+        if (!Files.isRegularFile(path)) {
+            System.err.println("File does not exist");
+            return DynamicObject.newInstance(DataModel.class);
+        }
+        return DynamicObject.newInstance(DataModel.class)
+            .withName(fileName)
+            .withSnapshot(path.toString());
+    }
+
     /**
      * Load file from EDN
      *
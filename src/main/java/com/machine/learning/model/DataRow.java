@@ -0,0 +1,109 @@
+package com.machine.learning.model;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable data point with direct field access, for the paths that handle points one at a time.
+ *
+ * Unlike DataPoint, reading the data or class label of a row is a field read, with no map lookup or Optional
+ * wrapping, and a row can't change once it is built, so it can be handed between threads as it is. Rows to be
+ * classified have no class label. Rows convert to DataPoint for training and serialization.
+ */
+public final class DataRow {
+    private final List<String> data;
+    private final String classLabel;
+
+    /**
+     * @param values the attribute values, which are owned by the row from now on
+     * @param classLabel the class label, or null if the row is to be classified
+     */
+    private DataRow(String[] values, String classLabel) {
+        this.data = Collections.unmodifiableList(Arrays.asList(values));
+        this.classLabel = classLabel;
+    }
+
+    /**
+     * Creates a row from the fields of a line of a data file, where the last field is the class label
+     *
+     * @param fields the attribute values followed by the class label, which aren't modified
+     * @return the row
+     */
+    public static DataRow fromFields(String[] fields) {
+        return new DataRow(Arrays.copyOf(fields, fields.length - 1), fields[fields.length - 1]);
+    }
+
+    /**
+     * Creates a row to be classified
+     *
+     * @param data the attribute values, which are copied
+     * @return the row, without a class label
+     */
+    public static DataRow unlabeled(List<String> data) {
+        return new DataRow(data.toArray(new String[data.size()]), null);
+    }
+
+    /**
+     * @return the attribute values, as an unmodifiable list
+     */
+    public List<String> getData() {
+        return data;
+    }
+
+    /**
+     * @param attributeNum the position of the attribute
+     * @return the value of the attribute
+     */
+    public String get(int attributeNum) {
+        return data.get(attributeNum);
+    }
+
+    /**
+     * @return the number of attributes
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * @return the class label, or null if the row is to be classified
+     */
+    public String getClassLabel() {
+        return classLabel;
+    }
+
+    /**
+     * @return the row as a DataPoint, for training and serialization
+     */
+    public DataPoint toDataPoint() {
+        return DynamicObject.newInstance(DataPoint.class)
+                .withClass(classLabel)
+                .withData(data);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof DataRow)) {
+            return false;
+        }
+        DataRow otherRow = (DataRow) other;
+        return data.equals(otherRow.data) && Objects.equals(classLabel, otherRow.classLabel);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * data.hashCode() + Objects.hashCode(classLabel);
+    }
+
+    @Override
+    public String toString() {
+        return classLabel == null ? data.toString() : data + " -> " + classLabel;
+    }
+}
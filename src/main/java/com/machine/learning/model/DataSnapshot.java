@@ -0,0 +1,353 @@
+package com.machine.learning.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reads and writes encoded data sets as binary, columnar snapshot files.
+ *
+ * A snapshot starts with a header holding the dictionaries and the position of every column, followed by the
+ * columns themselves, each stored with the same one, two or four bytes per code as in memory. Opening a snapshot
+ * only reads the header; the columns are memory-mapped and paged in by the operating system as they are used.
+ */
+public final class DataSnapshot {
+    private static final int MAGIC = 0x4D4C4453;
+    private static final int VERSION = 2;
+
+    /* Bumped whenever preprocessing changes, so that cached snapshots of old results aren't reused */
+    private static final int PREPROCESSING_VERSION = 3;
+
+    private DataSnapshot() {
+    }
+
+    /**
+     * @return the directory that fromFile caches snapshots in, set with -Dsnapshot.dir
+     */
+    public static String cacheDirectory() {
+        return System.getProperty("snapshot.dir", "snapshots");
+    }
+
+    /**
+     * @return whether fromFile caches snapshots, which is off unless turned on with -Dsnapshot.cache=true
+     */
+    public static boolean isCacheEnabled() {
+        return Boolean.parseBoolean(System.getProperty("snapshot.cache", "false"));
+    }
+
+    /**
+     * Writes a snapshot of an encoded data set. The snapshot is written to a temporary file first and then moved
+     * into place, so readers never see a partly written snapshot.
+     *
+     * @param dataSet the data to write
+     * @param file the file to write to
+     * @throws IOException if the file can't be written
+     */
+    public static void write(EncodedDataSet dataSet, Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            write(dataSet, channel, 0);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a snapshot of an encoded data set into part of a larger file, such as a model snapshot. Column
+     * positions are stored relative to the start of the snapshot, so it reads back the same wherever it is placed.
+     *
+     * @param dataSet the data to write
+     * @param channel the file to write to
+     * @param position where in the file the snapshot starts, which should be a multiple of 8
+     * @return the position just after the end of the snapshot
+     * @throws IOException if the file can't be written
+     */
+    public static long write(EncodedDataSet dataSet, FileChannel channel, long position) throws IOException {
+        if (dataSet.isView()) {
+            dataSet = dataSet.compact();
+        }
+        int numColumns = dataSet.numAttributes() + 1;
+        byte[] dictionaries = dictionaryBytes(dataSet.getAttributeDictionaries(), dataSet.getClassDictionary());
+
+        int[] widths = new int[numColumns];
+        for (int column = 0; column < numColumns; column++) {
+            widths[column] = column(dataSet, column).width();
+        }
+        long[] offsets = new long[numColumns];
+        long end = layColumns(headerLength(dictionaries.length, numColumns), dataSet.size(), widths, offsets);
+
+        writeFully(channel, header(dataSet.size(), dictionaries, widths, offsets), position);
+        for (int column = 0; column < numColumns; column++) {
+            writeFully(channel, column(dataSet, column).bytes(), position + offsets[column]);
+        }
+        return position + end;
+    }
+
+    /**
+     * @param dictionaryLength the number of bytes the dictionaries are written in
+     * @param numColumns the number of columns, counting the class column
+     * @return the number of bytes in the header of a snapshot
+     */
+    static int headerLength(int dictionaryLength, int numColumns) {
+        // magic, version, header length, rows, attributes, dictionaries, then a width and offset per column
+        return 5 * Integer.BYTES + dictionaryLength + numColumns * (Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Places the columns of a snapshot one after another, each starting on a multiple of 8 bytes
+     *
+     * @param headerLength the number of bytes before the first column
+     * @param numRows the number of codes in each column
+     * @param widths the number of bytes per code of each column
+     * @param offsets filled with where each column starts, relative to the start of the snapshot
+     * @return the length of the snapshot
+     */
+    static long layColumns(long headerLength, int numRows, int[] widths, long[] offsets) {
+        long offset = align(headerLength);
+        for (int column = 0; column < widths.length; column++) {
+            offsets[column] = offset;
+            offset = align(offset + (long) numRows * widths[column]);
+        }
+        return offset;
+    }
+
+    /**
+     * @return the dictionaries of a data set, written as they appear in a snapshot header
+     */
+    static byte[] dictionaryBytes(ValueDictionary[] attributeDictionaries, ValueDictionary classDictionary)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dictionaries = new DataOutputStream(bytes);
+        for (ValueDictionary dictionary : attributeDictionaries) {
+            writeDictionary(dictionaries, dictionary);
+        }
+        writeDictionary(dictionaries, classDictionary);
+        dictionaries.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Builds the header of a snapshot. Columns may start after the end of the header, so a header can be written
+     * into space reserved for a longer one.
+     *
+     * @param numRows the number of rows
+     * @param dictionaries the dictionaries, from dictionaryBytes
+     * @param widths the number of bytes per code of each column, with the class column last
+     * @param offsets where each column starts, relative to the start of the snapshot
+     * @return the header, ready to be written
+     */
+    static ByteBuffer header(int numRows, byte[] dictionaries, int[] widths, long[] offsets) {
+        int headerLength = headerLength(dictionaries.length, widths.length);
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        header.putInt(MAGIC).putInt(VERSION).putInt(headerLength)
+                .putInt(numRows).putInt(widths.length - 1)
+                .put(dictionaries);
+        for (int column = 0; column < widths.length; column++) {
+            header.putInt(widths[column]).putLong(offsets[column]);
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Opens a snapshot, reading its dictionaries and memory-mapping its columns
+     *
+     * @param file the snapshot to open
+     * @return the encoded data set backed by the file
+     * @throws IOException if the file can't be read or isn't a snapshot
+     */
+    public static EncodedDataSet open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return open(channel, 0);
+        } catch (IOException ex) {
+            throw new IOException(file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Opens a snapshot stored in part of a larger file. The columns stay mapped after the channel is closed.
+     *
+     * @param channel the file holding the snapshot
+     * @param position where in the file the snapshot starts
+     * @return the encoded data set backed by the file
+     * @throws IOException if the file can't be read or doesn't hold a snapshot at the position
+     */
+    public static EncodedDataSet open(FileChannel channel, long position) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(3 * Integer.BYTES);
+        readFully(channel, prefix, position);
+        prefix.flip();
+        if (prefix.getInt() != MAGIC) {
+            throw new IOException("not a data snapshot");
+        }
+        int version = prefix.getInt();
+        if (version != VERSION) {
+            throw new IOException("snapshot version " + version + ", expected " + VERSION);
+        }
+        ByteBuffer header = ByteBuffer.allocate(prefix.getInt());
+        readFully(channel, header, position);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.array()));
+        in.skipBytes(3 * Integer.BYTES);
+        int numRows = in.readInt();
+        int numAttributes = in.readInt();
+
+        ValueDictionary[] attributeDictionaries = new ValueDictionary[numAttributes];
+        for (int attr = 0; attr < numAttributes; attr++) {
+            attributeDictionaries[attr] = readDictionary(in);
+        }
+        ValueDictionary classDictionary = readDictionary(in);
+
+        CodeColumn[] columns = new CodeColumn[numAttributes + 1];
+        for (int column = 0; column < columns.length; column++) {
+            int width = in.readInt();
+            long offset = in.readLong();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position + offset, (long) numRows * width);
+            columns[column] = CodeColumn.wrap(mapped, width, numRows);
+        }
+
+        CodeColumn[] attributeColumns = new CodeColumn[numAttributes];
+        System.arraycopy(columns, 0, attributeColumns, 0, numAttributes);
+        return new EncodedDataSet(attributeDictionaries, classDictionary, attributeColumns, columns[numAttributes]);
+    }
+
+    /**
+     * Computes a fingerprint of a source file from its location, size and modification time, so that a cached
+     * snapshot is only reused while the source is unchanged. Files on disk are looked up before classpath resources.
+     *
+     * @param filePath the path to the source file
+     * @return the fingerprint, or null if the source can't be found
+     */
+    public static String fingerprint(String filePath) {
+        String description;
+        try {
+            Path path = Paths.get(filePath);
+            if (Files.isRegularFile(path)) {
+                description = path.toAbsolutePath() + "|" + Files.size(path) + "|" + Files.getLastModifiedTime(path).toMillis();
+            } else {
+                URL resource = Thread.currentThread().getContextClassLoader().getResource(filePath);
+                if (resource == null) {
+                    return null;
+                }
+                URLConnection connection = resource.openConnection();
+                description = resource + "|" + connection.getContentLengthLong() + "|" + connection.getLastModified();
+                connection.getInputStream().close();
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+        description += "|" + VERSION + "|" + PREPROCESSING_VERSION;
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(description.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param filePath the path to the source file
+     * @return where fromFileOutOfCore writes the snapshot of the source file unless told otherwise
+     */
+    public static Path snapshotPath(String filePath) {
+        return Paths.get(cacheDirectory(), fileName(filePath) + ".snapshot");
+    }
+
+    /**
+     * @param filePath the path to the source file
+     * @param fingerprint the fingerprint of the source file
+     * @return where fromFile caches the snapshot of the source file
+     */
+    public static Path cachePath(String filePath, String fingerprint) {
+        return Paths.get(cacheDirectory(), fileName(filePath) + "-" + fingerprint + ".snapshot");
+    }
+
+    private static String fileName(String filePath) {
+        return Paths.get(filePath).getFileName().toString().replaceAll("[^A-Za-z0-9.-]", "_");
+    }
+
+    private static CodeColumn column(EncodedDataSet dataSet, int column) {
+        return column < dataSet.numAttributes() ? dataSet.column(column) : dataSet.classColumn();
+    }
+
+    private static void writeDictionary(DataOutputStream out, ValueDictionary dictionary) throws IOException {
+        out.writeInt(dictionary.size());
+        for (String value : dictionary.getValues()) {
+            writeString(out, value);
+        }
+    }
+
+    private static ValueDictionary readDictionary(DataInputStream in) throws IOException {
+        ValueDictionary dictionary = new ValueDictionary();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            dictionary.encode(readString(in));
+        }
+        return dictionary;
+    }
+
+    /**
+     * Writes a string as its length in bytes followed by its UTF-8 bytes. Unlike writeUTF, this has no limit of
+     * 64KB on the length of the string.
+     *
+     * @param out the stream to write to
+     * @param value the string to write
+     * @throws IOException if the stream can't be written
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString
+     *
+     * @param in the stream to read from
+     * @return the string
+     * @throws IOException if the stream can't be read
+     */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of snapshot");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.machine.learning.model;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dictionary-encoded, column-oriented form of a list of data points.
+ *
+ * Every attribute is stored as a column of codes into a per-attribute value dictionary,
+ * and every class label as a code into a class dictionary, so classifiers can count and compare
+ * values with array lookups instead of string hashing. Each column uses one, two or four bytes
+ * per code depending on how many distinct values it holds.
+ *
+ * Subsets are views that share the columns of the data set they were taken from, so a data set backed
+ * by a memory-mapped snapshot can be split into folds without reading its columns onto the heap.
+ */
+public final class EncodedDataSet {
+    private final ValueDictionary[] attributeDictionaries;
+    private final ValueDictionary classDictionary;
+
+    /* Attribute codes, indexed by attribute and then by row */
+    private final CodeColumn[] columns;
+    private final CodeColumn classIds;
+
+    /* Positions in the columns of the rows of this data set, or null if every row of the columns is included */
+    private final int[] rowIndex;
+
+    EncodedDataSet(ValueDictionary[] attributeDictionaries, ValueDictionary classDictionary,
+                   CodeColumn[] columns, CodeColumn classIds) {
+        this(attributeDictionaries, classDictionary, columns, classIds, null);
+    }
+
+    private EncodedDataSet(ValueDictionary[] attributeDictionaries, ValueDictionary classDictionary,
+                           CodeColumn[] columns, CodeColumn classIds, int[] rowIndex) {
+        this.attributeDictionaries = attributeDictionaries;
+        this.classDictionary = classDictionary;
+        this.columns = columns;
+        this.classIds = classIds;
+        this.rowIndex = rowIndex;
+    }
+
+    /**
+     * Encodes a list of data points, building the dictionaries from the values they contain
+     *
+     * @param dataPoints the points to encode
+     * @return the encoded data set
+     */
+    public static EncodedDataSet encode(List<DataPoint> dataPoints) {
+        int numAttributes = dataPoints.isEmpty() ? 0 : dataPoints.get(0).getData().get().size();
+        ValueDictionary[] attributeDictionaries = new ValueDictionary[numAttributes];
+        for (int i = 0; i < numAttributes; i++) {
+            attributeDictionaries[i] = new ValueDictionary();
+        }
+        ValueDictionary classDictionary = new ValueDictionary();
+
+        CodeColumn[] columns = new CodeColumn[numAttributes];
+        for (int i = 0; i < numAttributes; i++) {
+            columns[i] = CodeColumn.allocate(dataPoints.size());
+        }
+        CodeColumn classIds = CodeColumn.allocate(dataPoints.size());
+        for (int row = 0; row < dataPoints.size(); row++) {
+            DataPoint dataPoint = dataPoints.get(row);
+            List data = dataPoint.getData().get();
+            for (int i = 0; i < numAttributes; i++) {
+                columns[i].set(row, attributeDictionaries[i].encode(String.valueOf(data.get(i))));
+            }
+            classIds.set(row, classDictionary.encode(dataPoint.getClassLabel().orElse("")));
+        }
+
+        return new EncodedDataSet(attributeDictionaries, classDictionary, columns, classIds);
+    }
+
+    /**
+     * Encodes rows of fields straight from preprocessing, without building data points. The last field
+     * of each row is the class label.
+     *
+     * @param rows the rows to encode
+     * @return the encoded data set
+     */
+    public static EncodedDataSet encodeRows(List<String[]> rows) {
+        int numAttributes = rows.isEmpty() ? 0 : rows.get(0).length - 1;
+        ValueDictionary[] attributeDictionaries = new ValueDictionary[numAttributes];
+        for (int i = 0; i < numAttributes; i++) {
+            attributeDictionaries[i] = new ValueDictionary();
+        }
+        ValueDictionary classDictionary = new ValueDictionary();
+
+        CodeColumn[] columns = new CodeColumn[numAttributes];
+        for (int i = 0; i < numAttributes; i++) {
+            columns[i] = CodeColumn.allocate(rows.size());
+        }
+        CodeColumn classIds = CodeColumn.allocate(rows.size());
+        for (int row = 0; row < rows.size(); row++) {
+            String[] fields = rows.get(row);
+            for (int i = 0; i < numAttributes; i++) {
+                columns[i].set(row, attributeDictionaries[i].encode(fields[i]));
+            }
+            classIds.set(row, classDictionary.encode(fields[numAttributes]));
+        }
+
+        return new EncodedDataSet(attributeDictionaries, classDictionary, columns, classIds);
+    }
+
+    /**
+     * Creates a view of the given rows of this data set. The columns and dictionaries are shared, so codes
+     * from the subset mean the same thing as codes from this data set and no codes are copied.
+     *
+     * @param rows the positions of the rows to keep
+     * @return the data set made of the given rows
+     */
+    public EncodedDataSet subset(int[] rows) {
+        int[] subsetIndex = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            subsetIndex[i] = physicalRow(rows[i]);
+        }
+        return new EncodedDataSet(attributeDictionaries, classDictionary, columns, classIds, subsetIndex);
+    }
+
+    /**
+     * @return whether this data set is a view of some of the rows of its columns
+     */
+    public boolean isView() {
+        return rowIndex != null;
+    }
+
+    /**
+     * Copies the rows of this data set into new heap columns, so that it no longer refers to the
+     * columns it was taken from
+     *
+     * @return a data set holding its own copy of the codes
+     */
+    public EncodedDataSet compact() {
+        CodeColumn[] compactColumns = new CodeColumn[columns.length];
+        for (int attr = 0; attr < columns.length; attr++) {
+            compactColumns[attr] = copy(columns[attr]);
+        }
+        return new EncodedDataSet(attributeDictionaries, classDictionary, compactColumns, copy(classIds));
+    }
+
+    private CodeColumn copy(CodeColumn column) {
+        CodeColumn copy = CodeColumn.allocate(size(), column.width());
+        for (int row = 0; row < size(); row++) {
+            copy.set(row, column.get(physicalRow(row)));
+        }
+        return copy;
+    }
+
+    private int physicalRow(int row) {
+        return rowIndex == null ? row : rowIndex[row];
+    }
+
+    public int size() {
+        return rowIndex == null ? classIds.size() : rowIndex.length;
+    }
+
+    public int numAttributes() {
+        return columns.length;
+    }
+
+    public int numClasses() {
+        return classDictionary.size();
+    }
+
+    /**
+     * @param attributeNum the position of the attribute
+     * @return the number of distinct values the attribute takes
+     */
+    public int cardinality(int attributeNum) {
+        return attributeDictionaries[attributeNum].size();
+    }
+
+    /**
+     * @param row the position of the row
+     * @param attributeNum the position of the attribute
+     * @return the code of the attribute value in the given row
+     */
+    public int value(int row, int attributeNum) {
+        return columns[attributeNum].get(physicalRow(row));
+    }
+
+    /**
+     * @param row the position of the row
+     * @return the code of the class label of the given row
+     */
+    public int classId(int row) {
+        return classIds.get(physicalRow(row));
+    }
+
+    /**
+     * @param row the position of the row
+     * @return the codes of all attribute values in the given row
+     */
+    public int[] row(int row) {
+        int[] codes = new int[columns.length];
+        int position = physicalRow(row);
+        for (int attr = 0; attr < columns.length; attr++) {
+            codes[attr] = columns[attr].get(position);
+        }
+        return codes;
+    }
+
+    /**
+     * @param row the position of the row
+     * @return the decoded attribute values of the given row
+     */
+    public List<String> getRow(int row) {
+        List<String> values = new ArrayList<>(columns.length);
+        int position = physicalRow(row);
+        for (int attr = 0; attr < columns.length; attr++) {
+            values.add(attributeDictionaries[attr].decode(columns[attr].get(position)));
+        }
+        return values;
+    }
+
+    /**
+     * @param row the position of the row
+     * @return the decoded class label of the given row
+     */
+    public String getClassLabel(int row) {
+        return classDictionary.decode(classIds.get(physicalRow(row)));
+    }
+
+    /**
+     * Encodes attribute values with this data set's dictionaries
+     *
+     * @param values the attribute values to encode
+     * @return the codes of the values, with ValueDictionary.UNSEEN for unknown values
+     */
+    public int[] encodeRow(List values) {
+        return ValueDictionary.encodeRow(attributeDictionaries, values);
+    }
+
+    /**
+     * @return a copy of the array of attribute dictionaries, indexed by attribute
+     */
+    public ValueDictionary[] getAttributeDictionaries() {
+        return attributeDictionaries.clone();
+    }
+
+    public ValueDictionary getClassDictionary() {
+        return classDictionary;
+    }
+
+    /**
+     * Checks whether this data set was encoded with exactly the given dictionaries, in which case its codes
+     * can be used directly by a model built from them.
+     *
+     * @param dictionaries the attribute dictionaries to compare against
+     * @return whether every attribute uses the same dictionary instance
+     */
+    public boolean usesDictionaries(ValueDictionary[] dictionaries) {
+        if (dictionaries == null || dictionaries.length != attributeDictionaries.length) {
+            return false;
+        }
+        for (int i = 0; i < dictionaries.length; i++) {
+            if (dictionaries[i] != attributeDictionaries[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of bytes taken by the columns backing this data set, on the heap or mapped
+     */
+    public long byteSize() {
+        long bytes = (long) classIds.size() * classIds.width();
+        for (CodeColumn column : columns) {
+            bytes += (long) column.size() * column.width();
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads every memory-mapped column into physical memory now instead of on first use,
+     * so the disk reads can overlap with other work
+     */
+    public void load() {
+        for (CodeColumn column : columns) {
+            column.load();
+        }
+        classIds.load();
+    }
+
+    /**
+     * @param attributeNum the position of the attribute
+     * @return the column backing the attribute, which holds more rows than this data set if it is a view
+     */
+    CodeColumn column(int attributeNum) {
+        return columns[attributeNum];
+    }
+
+    CodeColumn classColumn() {
+        return classIds;
+    }
+
+    /**
+     * Decodes the data set back into data points
+     *
+     * @return the rows of the data set as data points
+     */
+    public List<DataPoint> toDataPoints() {
+        List<DataPoint> dataPoints = new ArrayList<>(size());
+        for (int row = 0; row < size(); row++) {
+            dataPoints.add(DynamicObject.newInstance(DataPoint.class)
+                    .withData(getRow(row))
+                    .withClass(getClassLabel(row)));
+        }
+        return dataPoints;
+    }
+}
@@ -0,0 +1,273 @@
+package com.machine.learning.model;
+
+import com.machine.learning.preprocessing.CsvIngester;
+import com.machine.learning.preprocessing.DiscretizationModel;
+import com.machine.learning.preprocessing.Discretizer;
+import com.machine.learning.preprocessing.ImputationReport;
+import com.machine.learning.preprocessing.MissingValueImputer;
+import com.machine.learning.preprocessing.SampledImputer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Preprocesses a data file straight into a snapshot without holding its rows in memory, so data sets larger than
+ * the heap can be cross validated from a memory-mapped snapshot.
+ *
+ * The file is streamed twice, one chunk of rows at a time. The first pass samples the observed values of every
+ * column for imputation, summarizes the numeric columns to fit their bins, and counts the rows and the distinct
+ * values of the other columns, which bounds the width of every column. The second pass imputes, discretizes and
+ * encodes each chunk, and writes its codes straight to their place in the snapshot. The header is written last,
+ * into space reserved for the largest the dictionaries could be.
+ */
+public final class SnapshotBuilder {
+    private final String filePath;
+    private final long seed;
+    private final CsvIngester ingester;
+    private final Discretizer discretizer = new Discretizer();
+
+    /* Whether the current pass has seen the first row, which holds the discretization parameters */
+    private boolean headerSeen;
+    private List<String> discretizationParams = Collections.emptyList();
+    private int numColumns = -1;
+    private int numRows;
+
+    /* Gathered by the first pass */
+    private SampledImputer imputer;
+    private Discretizer.Fitting fitting;
+    private Set<String>[] distinct;
+
+    /* Laid out between the passes, and filled by the second */
+    private DiscretizationModel discretization;
+    private ValueDictionary[] dictionaries;
+    private int[] widths;
+    private long[] offsets;
+    private FileChannel channel;
+    private int written;
+
+    private SnapshotBuilder(String filePath, long seed, CsvIngester ingester) {
+        this.filePath = filePath;
+        this.seed = seed;
+        this.ingester = ingester;
+    }
+
+    /**
+     * Preprocesses a data file into a snapshot. The file is read from the filesystem if it exists there, otherwise
+     * from the classpath, as by DataModel.fromFile. Missing values are drawn from a sample of the observed values
+     * of their column, which holds all of them unless the column is very large.
+     *
+     * @param filePath the path of the data file, whose first row holds the discretization parameters
+     * @param file the snapshot to write, which is replaced at once when it is complete
+     * @param seed seed for sampling missing values, so that runs are reproducible
+     * @return the number of values imputed in each column
+     * @throws IOException if the data file can't be read, or the snapshot can't be written
+     */
+    public static ImputationReport build(String filePath, Path file, long seed) throws IOException {
+        return build(filePath, file, seed, new CsvIngester());
+    }
+
+    /**
+     * Preprocesses a data file into a snapshot, reading it with the given ingester
+     */
+    static ImputationReport build(String filePath, Path file, long seed, CsvIngester ingester) throws IOException {
+        return new SnapshotBuilder(filePath, seed, ingester).build(file);
+    }
+
+    private ImputationReport build(Path file) throws IOException {
+        stream(this::observe);
+        if (numColumns < 0) {
+            // Without any rows, the snapshot holds an empty class column, as EncodedDataSet.encodeRows does
+            discretizationParams = Collections.emptyList();
+            start(1);
+        }
+        discretization = fitting.finish();
+        layOut();
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel output = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel = output;
+                headerSeen = false;
+                stream(this::write);
+                if (written != numRows) {
+                    throw new IOException(filePath + " changed while it was being read");
+                }
+
+                ValueDictionary[] attributeDictionaries = Arrays.copyOf(dictionaries, numColumns - 1);
+                byte[] dictionaryBytes = DataSnapshot.dictionaryBytes(attributeDictionaries,
+                        dictionaries[numColumns - 1]);
+                DataSnapshot.writeFully(output, DataSnapshot.header(numRows, dictionaryBytes, widths, offsets), 0);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            channel = null;
+            Files.deleteIfExists(temp);
+        }
+        return imputer.getReport();
+    }
+
+    private void stream(CsvIngester.ChunkConsumer chunks) throws IOException {
+        Path path = Paths.get(filePath);
+        if (Files.isRegularFile(path)) {
+            ingester.stream(path, chunks);
+            return;
+        }
+        try (InputStream resource = Thread.currentThread().getContextClassLoader().getResourceAsStream(filePath)) {
+            if (resource == null) {
+                throw new NoSuchFileException(filePath);
+            }
+            ingester.stream(resource, CsvIngester.isGzip(filePath), chunks);
+        }
+    }
+
+    /**
+     * Drops the first row of the file from the chunk it is in, keeping its discretization parameters, and checks
+     * that every other row has as many fields as the first of them
+     */
+    private List<String[]> dataRows(List<String[]> chunk) throws IOException {
+        List<String[]> rows = chunk;
+        if (!headerSeen) {
+            headerSeen = true;
+            String[] header = chunk.get(0);
+            discretizationParams = Arrays.asList(header).subList(0, Math.max(header.length - 1, 0));
+            rows = chunk.subList(1, chunk.size());
+        }
+        if (!rows.isEmpty() && numColumns < 0) {
+            start(rows.get(0).length);
+        }
+        for (String[] row : rows) {
+            if (row.length != numColumns) {
+                throw new IOException(filePath + " has a row of " + row.length + " fields, expected " + numColumns);
+            }
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void start(int numColumns) {
+        this.numColumns = numColumns;
+        imputer = new SampledImputer(seed, numColumns);
+        fitting = discretizer.startFit(numColumns, discretizationParams);
+        distinct = new Set[numColumns];
+        for (int column = 0; column < numColumns; column++) {
+            if (!isNumeric(column)) {
+                distinct[column] = new HashSet<>();
+            }
+        }
+    }
+
+    /**
+     * @return whether the column is discretized, matching the columns Discretizer fits bins to
+     */
+    private boolean isNumeric(int column) {
+        return column < discretizationParams.size() && !Discretizer.DISCRETE.equals(discretizationParams.get(column));
+    }
+
+    /**
+     * Gathers what the first pass needs from a chunk of rows
+     */
+    private void observe(List<String[]> chunk) throws IOException {
+        List<String[]> rows = dataRows(chunk);
+        if (rows.isEmpty()) {
+            return;
+        }
+        if ((long) numRows + rows.size() > Integer.MAX_VALUE) {
+            throw new IOException(filePath + " has more than " + Integer.MAX_VALUE + " rows");
+        }
+        numRows += rows.size();
+        imputer.observe(rows);
+        fitting.add(rows);
+        IntStream.range(0, numColumns).filter(column -> distinct[column] != null).parallel().forEach(column -> {
+            for (String[] row : rows) {
+                if (!MissingValueImputer.MISSING.equals(row[column])) {
+                    distinct[column].add(row[column]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Chooses the width of every column from the most values it can hold, and places the columns after space for
+     * the largest header those values could need
+     */
+    private void layOut() {
+        ImputationReport report = imputer.getReport();
+        dictionaries = new ValueDictionary[numColumns];
+        widths = new int[numColumns];
+        offsets = new long[numColumns];
+        int dictionaryLength = 0;
+        for (int column = 0; column < numColumns; column++) {
+            dictionaries[column] = new ValueDictionary();
+
+            // A column with nothing to impute from keeps its missing values
+            int values = report.isUnfillable(column) ? 1 : 0;
+            dictionaryLength += Integer.BYTES + (values == 0 ? 0 : valueLength(MissingValueImputer.MISSING));
+            if (distinct[column] != null) {
+                values += distinct[column].size();
+                for (String value : distinct[column]) {
+                    dictionaryLength += valueLength(value);
+                }
+            } else {
+                int numBins = discretization.getBins(column).numBins();
+                values += numBins;
+                for (int bin = 0; bin < numBins; bin++) {
+                    dictionaryLength += valueLength(Integer.toString(bin));
+                }
+            }
+            widths[column] = CodeColumn.widthFor(Math.max(values - 1, 0));
+        }
+        distinct = null;
+        DataSnapshot.layColumns(DataSnapshot.headerLength(dictionaryLength, numColumns), numRows, widths, offsets);
+    }
+
+    private static int valueLength(String value) {
+        return Integer.BYTES + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Imputes, discretizes and encodes a chunk of rows, working on the columns in parallel, and writes the codes of
+     * each column after the codes written for the chunks before it
+     */
+    private void write(List<String[]> chunk) throws IOException {
+        List<String[]> rows = dataRows(chunk);
+        if (rows.isEmpty()) {
+            return;
+        }
+        if ((long) written + rows.size() > numRows) {
+            throw new IOException(filePath + " changed while it was being read");
+        }
+        imputer.impute(rows);
+        discretization.apply(rows);
+
+        CodeColumn[] codes = new CodeColumn[numColumns];
+        IntStream.range(0, numColumns).parallel().forEach(column -> {
+            codes[column] = CodeColumn.allocate(rows.size(), widths[column]);
+            for (int row = 0; row < rows.size(); row++) {
+                codes[column].set(row, dictionaries[column].encode(rows.get(row)[column]));
+            }
+        });
+        for (int column = 0; column < numColumns; column++) {
+            if (codes[column].width() != widths[column]) {
+                throw new IOException(filePath + " changed while it was being read");
+            }
+            DataSnapshot.writeFully(channel, codes[column].bytes(),
+                    offsets[column] + (long) written * widths[column]);
+        }
+        written += rows.size();
+    }
+}
@@ -0,0 +1,478 @@
+package com.machine.learning.model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * The counts that NaiveBayes, TreeAugmentedNaiveBayes and the ValueDifferenceMetric are trained from: the
+ * occurences of each class, of each attribute value with each class and, optionally, of each pair of attribute
+ * values with each class. Counts are plain sums, so a data set can be counted in shards, on the fork-join pool or
+ * in separate processes, and the shards merged into the counts of the whole.
+ *
+ * Statistics are never changed once they are counted or merged, so the arrays they hold are shared rather than
+ * copied and must not be modified.
+ */
+public final class SufficientStatistics {
+    /* Fewest rows worth counting in a shard of their own */
+    public static final int MIN_SHARD_SIZE = 1 << 14;
+
+    /* Number of shards per fork-join worker that a data set is split into when counting in parallel */
+    private static final int SHARDS_PER_WORKER = 4;
+
+    private final ValueDictionary[] attributeDictionaries;
+    private final ValueDictionary classDictionary;
+    private final int numPoints;
+
+    /* Occurences of each class, indexed by class id */
+    private final int[] classCounts;
+
+    /* Occurences of each attribute value with each class, indexed by attribute, value code and class id */
+    private final int[][][] attributeClassCounts;
+
+    /* Co-occurences of the values of two attributes with each class, or null if pairs weren't counted.
+       attributePairCounts[i][j] (for i < j) is a flat table indexed by
+       (valueI * cardinality(j) + valueJ) * numClasses + class */
+    private final int[][][] attributePairCounts;
+
+    private SufficientStatistics(ValueDictionary[] attributeDictionaries, ValueDictionary classDictionary,
+                                 int numPoints, int[] classCounts, int[][][] attributeClassCounts,
+                                 int[][][] attributePairCounts) {
+        this.attributeDictionaries = attributeDictionaries;
+        this.classDictionary = classDictionary;
+        this.numPoints = numPoints;
+        this.classCounts = classCounts;
+        this.attributeClassCounts = attributeClassCounts;
+        this.attributePairCounts = attributePairCounts;
+    }
+
+    /**
+     * Counts a data set, splitting it into shards that are counted on the fork-join pool and then merged
+     *
+     * @param dataSet the encoded points to count
+     * @param pairs whether to count each pair of attribute values
+     * @return the counts of every point
+     */
+    public static SufficientStatistics count(EncodedDataSet dataSet, boolean pairs) {
+        int workers = ForkJoinPool.getCommonPoolParallelism();
+        int shards = Math.min(dataSet.size() / MIN_SHARD_SIZE, workers * SHARDS_PER_WORKER);
+        if (workers <= 1 || shards <= 1) {
+            return count(dataSet, 0, dataSet.size(), pairs);
+        }
+        return IntStream.range(0, shards).parallel()
+            .mapToObj(shard -> count(dataSet, (int) ((long) dataSet.size() * shard / shards),
+                                     (int) ((long) dataSet.size() * (shard + 1) / shards), pairs))
+            .reduce(SufficientStatistics::merge)
+            .get();
+    }
+
+    /**
+     * Counts a range of rows on the calling thread, one attribute column at a time
+     *
+     * @param dataSet the encoded points to count
+     * @param from the first row to count
+     * @param to the row after the last row to count
+     * @param pairs whether to count each pair of attribute values
+     * @return the counts of the rows
+     */
+    public static SufficientStatistics count(EncodedDataSet dataSet, int from, int to, boolean pairs) {
+        int numAttributes = dataSet.numAttributes();
+        int numClasses = dataSet.numClasses();
+        int[] cardinalities = new int[numAttributes];
+        for (int i = 0; i < numAttributes; i++) {
+            cardinalities[i] = dataSet.cardinality(i);
+        }
+        int[] classCounts = new int[numClasses];
+        int[][][] attributeClassCounts = allocateAttributeClassCounts(cardinalities, numClasses);
+        int[][][] attributePairCounts = pairs ? allocateAttributePairCounts(cardinalities, numClasses) : null;
+
+        int size = to - from;
+        int[] classIds = new int[size];
+        for (int r = 0; r < size; r++) {
+            classIds[r] = dataSet.classId(from + r);
+            classCounts[classIds[r]]++;
+        }
+        int[] valuesI = new int[size];
+        for (int i = 0; i < numAttributes; i++) {
+            int[][] counts = attributeClassCounts[i];
+            for (int r = 0; r < size; r++) {
+                valuesI[r] = dataSet.value(from + r, i);
+                counts[valuesI[r]][classIds[r]]++;
+            }
+            if (!pairs) {
+                continue;
+            }
+            for (int j = i + 1; j < numAttributes; j++) {
+                int[] pairCounts = attributePairCounts[i][j];
+                for (int r = 0; r < size; r++) {
+                    int valueJ = dataSet.value(from + r, j);
+                    pairCounts[(valuesI[r] * cardinalities[j] + valueJ) * numClasses + classIds[r]]++;
+                }
+            }
+        }
+        return new SufficientStatistics(dataSet.getAttributeDictionaries(), dataSet.getClassDictionary(),
+                                        to - from, classCounts, attributeClassCounts, attributePairCounts);
+    }
+
+    private static int[][][] allocateAttributeClassCounts(int[] cardinalities, int numClasses) {
+        int[][][] attributeClassCounts = new int[cardinalities.length][][];
+        for (int i = 0; i < cardinalities.length; i++) {
+            attributeClassCounts[i] = new int[cardinalities[i]][numClasses];
+        }
+        return attributeClassCounts;
+    }
+
+    private static int[][][] allocateAttributePairCounts(int[] cardinalities, int numClasses) {
+        int[][][] attributePairCounts = new int[cardinalities.length][cardinalities.length][];
+        for (int i = 0; i < cardinalities.length; i++) {
+            for (int j = i + 1; j < cardinalities.length; j++) {
+                attributePairCounts[i][j] = new int[cardinalities[i] * cardinalities[j] * numClasses];
+            }
+        }
+        return attributePairCounts;
+    }
+
+    /**
+     * Adds these counts to another set of counts. Counts from shards of one data set share its dictionaries and
+     * are summed code by code. Counts from data encoded elsewhere, such as another process, are matched by value,
+     * and values or classes only the other counts saw are added to copies of these dictionaries.
+     *
+     * @param other the counts to add, over the same attributes
+     * @return the combined counts, with pairs only if both counted them
+     */
+    public SufficientStatistics merge(SufficientStatistics other) {
+        int numAttributes = attributeClassCounts.length;
+        if (other.attributeClassCounts.length != numAttributes) {
+            throw new IllegalArgumentException("Can't merge counts of " + numAttributes + " attributes with counts of "
+                                               + other.attributeClassCounts.length);
+        }
+
+        ValueDictionary[] mergedAttributeDictionaries = attributeDictionaries;
+        ValueDictionary mergedClassDictionary = classDictionary;
+        int[][] valueMaps = new int[numAttributes][];
+        int[] classMap;
+        boolean shared = other.classDictionary == classDictionary;
+        for (int i = 0; i < numAttributes && shared; i++) {
+            shared = other.attributeDictionaries[i] == attributeDictionaries[i];
+        }
+        if (shared) {
+            for (int i = 0; i < numAttributes; i++) {
+                valueMaps[i] = identity(Math.max(cardinality(i), other.cardinality(i)));
+            }
+            classMap = identity(Math.max(numClasses(), other.numClasses()));
+        } else {
+            // Copies keep every code of the originals, so only the other counts' codes need mapping
+            mergedAttributeDictionaries = ValueDictionary.copy(attributeDictionaries);
+            mergedClassDictionary = classDictionary.copy();
+            for (int i = 0; i < numAttributes; i++) {
+                valueMaps[i] = map(other.attributeDictionaries[i], other.cardinality(i),
+                                   mergedAttributeDictionaries[i]);
+            }
+            classMap = map(other.classDictionary, other.numClasses(), mergedClassDictionary);
+        }
+
+        int numClasses = numClasses();
+        for (int classId : classMap) {
+            numClasses = Math.max(numClasses, classId + 1);
+        }
+        int[] cardinalities = new int[numAttributes];
+        for (int i = 0; i < numAttributes; i++) {
+            cardinalities[i] = cardinality(i);
+            for (int value : valueMaps[i]) {
+                cardinalities[i] = Math.max(cardinalities[i], value + 1);
+            }
+        }
+        boolean pairs = attributePairCounts != null && other.attributePairCounts != null;
+
+        int[] classCounts = new int[numClasses];
+        int[][][] attributeClassCounts = allocateAttributeClassCounts(cardinalities, numClasses);
+        int[][][] attributePairCounts = pairs ? allocateAttributePairCounts(cardinalities, numClasses) : null;
+        int[][] ownValueMaps = new int[numAttributes][];
+        for (int i = 0; i < numAttributes; i++) {
+            ownValueMaps[i] = identity(cardinality(i));
+        }
+        addInto(classCounts, attributeClassCounts, attributePairCounts, cardinalities, ownValueMaps,
+                identity(numClasses()), 1);
+        other.addInto(classCounts, attributeClassCounts, attributePairCounts, cardinalities, valueMaps, classMap, 1);
+
+        return new SufficientStatistics(mergedAttributeDictionaries, mergedClassDictionary,
+                                        numPoints + other.numPoints, classCounts, attributeClassCounts,
+                                        attributePairCounts);
+    }
+
+    /**
+     * Takes the counts of some of the points counted here away from these counts, such as the counts of a held
+     * out fold from the counts of a whole data set. The result is exactly what counting the remaining points
+     * would give.
+     *
+     * @param other the counts of points that were counted here, with the same dictionaries
+     * @return the counts of the remaining points, with pairs only if both counted them
+     */
+    public SufficientStatistics subtract(SufficientStatistics other) {
+        int numAttributes = attributeClassCounts.length;
+        boolean shared = other.classDictionary == classDictionary && other.numClasses() <= numClasses()
+            && other.attributeClassCounts.length == numAttributes;
+        for (int i = 0; i < numAttributes && shared; i++) {
+            shared = other.attributeDictionaries[i] == attributeDictionaries[i]
+                && other.cardinality(i) <= cardinality(i);
+        }
+        if (!shared) {
+            throw new IllegalArgumentException("Can only subtract counts taken with the same dictionaries");
+        }
+
+        int[] cardinalities = new int[numAttributes];
+        int[][] valueMaps = new int[numAttributes][];
+        for (int i = 0; i < numAttributes; i++) {
+            cardinalities[i] = cardinality(i);
+            valueMaps[i] = identity(other.cardinality(i));
+        }
+        int[] classCounts = this.classCounts.clone();
+        int[][][] attributeClassCounts = new int[numAttributes][][];
+        for (int i = 0; i < numAttributes; i++) {
+            attributeClassCounts[i] = new int[cardinalities[i]][];
+            for (int value = 0; value < cardinalities[i]; value++) {
+                attributeClassCounts[i][value] = this.attributeClassCounts[i][value].clone();
+            }
+        }
+        int[][][] attributePairCounts = null;
+        if (this.attributePairCounts != null && other.attributePairCounts != null) {
+            attributePairCounts = new int[numAttributes][numAttributes][];
+            for (int i = 0; i < numAttributes; i++) {
+                for (int j = i + 1; j < numAttributes; j++) {
+                    attributePairCounts[i][j] = this.attributePairCounts[i][j].clone();
+                }
+            }
+        }
+        other.addInto(classCounts, attributeClassCounts, attributePairCounts, cardinalities, valueMaps,
+                      identity(other.numClasses()), -1);
+
+        return new SufficientStatistics(attributeDictionaries, classDictionary, numPoints - other.numPoints,
+                                        classCounts, attributeClassCounts, attributePairCounts);
+    }
+
+    /**
+     * Adds these counts to counters at least as large, translating codes
+     *
+     * @param cardinalities the number of values of each attribute in the counters
+     * @param valueMaps the code in the counters of each of these counts' value codes, by attribute
+     * @param classMap the class id in the counters of each of these counts' class ids
+     * @param sign 1 to add the counts, -1 to subtract them
+     */
+    private void addInto(int[] classCounts, int[][][] attributeClassCounts, int[][][] attributePairCounts,
+                         int[] cardinalities, int[][] valueMaps, int[] classMap, int sign) {
+        int targetNumClasses = classCounts.length;
+        for (int classId = 0; classId < numClasses(); classId++) {
+            classCounts[classMap[classId]] += sign * this.classCounts[classId];
+        }
+        for (int i = 0; i < cardinalities.length; i++) {
+            for (int value = 0; value < cardinality(i); value++) {
+                int[] counts = this.attributeClassCounts[i][value];
+                int[] target = attributeClassCounts[i][valueMaps[i][value]];
+                for (int classId = 0; classId < counts.length; classId++) {
+                    target[classMap[classId]] += sign * counts[classId];
+                }
+            }
+        }
+        if (attributePairCounts == null) {
+            return;
+        }
+        for (int i = 0; i < cardinalities.length; i++) {
+            for (int j = i + 1; j < cardinalities.length; j++) {
+                int[] counts = this.attributePairCounts[i][j];
+                int[] target = attributePairCounts[i][j];
+                int cardinalityJ = cardinality(j);
+                for (int valueI = 0; valueI < cardinality(i); valueI++) {
+                    for (int valueJ = 0; valueJ < cardinalityJ; valueJ++) {
+                        int offset = (valueI * cardinalityJ + valueJ) * numClasses();
+                        int targetOffset = (valueMaps[i][valueI] * cardinalities[j] + valueMaps[j][valueJ])
+                            * targetNumClasses;
+                        for (int classId = 0; classId < numClasses(); classId++) {
+                            target[targetOffset + classMap[classId]] += sign * counts[offset + classId];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int[] identity(int size) {
+        return IntStream.range(0, size).toArray();
+    }
+
+    /**
+     * @param from the dictionary the codes were assigned by
+     * @param size the number of codes to map
+     * @param to the dictionary to map them into, which is added to
+     * @return the code in the second dictionary of each code of the first
+     */
+    private static int[] map(ValueDictionary from, int size, ValueDictionary to) {
+        int[] map = new int[size];
+        for (int code = 0; code < size; code++) {
+            map[code] = to.encode(from.decode(code));
+        }
+        return map;
+    }
+
+    /**
+     * Writes the counts and the dictionaries they are indexed by, so counts taken in another process can be
+     * read back and merged
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream can't be written
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(attributeDictionaries.length);
+        for (int i = 0; i < attributeDictionaries.length; i++) {
+            writeDictionary(out, attributeDictionaries[i], cardinality(i));
+        }
+        writeDictionary(out, classDictionary, numClasses());
+        out.writeInt(numPoints);
+        writeInts(out, classCounts);
+        for (int[][] valueCounts : attributeClassCounts) {
+            for (int[] counts : valueCounts) {
+                writeInts(out, counts);
+            }
+        }
+        out.writeBoolean(attributePairCounts != null);
+        if (attributePairCounts != null) {
+            for (int i = 0; i < attributePairCounts.length; i++) {
+                for (int j = i + 1; j < attributePairCounts.length; j++) {
+                    writeInts(out, attributePairCounts[i][j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads counts written by write
+     *
+     * @param in the stream to read from
+     * @return the counts, indexed by dictionaries of their own
+     * @throws IOException if the stream can't be read
+     */
+    public static SufficientStatistics read(DataInputStream in) throws IOException {
+        ValueDictionary[] attributeDictionaries = new ValueDictionary[in.readInt()];
+        for (int i = 0; i < attributeDictionaries.length; i++) {
+            attributeDictionaries[i] = readDictionary(in);
+        }
+        ValueDictionary classDictionary = readDictionary(in);
+        int numPoints = in.readInt();
+        int[] classCounts = readInts(in);
+        int[][][] attributeClassCounts = new int[attributeDictionaries.length][][];
+        for (int i = 0; i < attributeDictionaries.length; i++) {
+            attributeClassCounts[i] = new int[attributeDictionaries[i].size()][];
+            for (int value = 0; value < attributeClassCounts[i].length; value++) {
+                attributeClassCounts[i][value] = readInts(in);
+            }
+        }
+        int[][][] attributePairCounts = null;
+        if (in.readBoolean()) {
+            attributePairCounts = new int[attributeDictionaries.length][attributeDictionaries.length][];
+            for (int i = 0; i < attributeDictionaries.length; i++) {
+                for (int j = i + 1; j < attributeDictionaries.length; j++) {
+                    attributePairCounts[i][j] = readInts(in);
+                }
+            }
+        }
+        return new SufficientStatistics(attributeDictionaries, classDictionary, numPoints, classCounts,
+                                        attributeClassCounts, attributePairCounts);
+    }
+
+    private static void writeDictionary(DataOutputStream out, ValueDictionary dictionary, int size)
+            throws IOException {
+        out.writeInt(size);
+        for (int code = 0; code < size; code++) {
+            DataSnapshot.writeString(out, dictionary.decode(code));
+        }
+    }
+
+    private static ValueDictionary readDictionary(DataInputStream in) throws IOException {
+        ValueDictionary dictionary = new ValueDictionary();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            dictionary.encode(DataSnapshot.readString(in));
+        }
+        return dictionary;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    public ValueDictionary[] getAttributeDictionaries() {
+        return attributeDictionaries;
+    }
+
+    public ValueDictionary getClassDictionary() {
+        return classDictionary;
+    }
+
+    /**
+     * @return the number of points counted
+     */
+    public int getNumPoints() {
+        return numPoints;
+    }
+
+    public int numAttributes() {
+        return attributeClassCounts.length;
+    }
+
+    /**
+     * @return the number of classes counted, which the dictionary may have since grown past
+     */
+    public int numClasses() {
+        return classCounts.length;
+    }
+
+    /**
+     * @param attributeNum the position of the attribute
+     * @return the number of values of the attribute counted, which its dictionary may have since grown past
+     */
+    public int cardinality(int attributeNum) {
+        return attributeClassCounts[attributeNum].length;
+    }
+
+    /**
+     * @return the occurences of each class, indexed by class id
+     */
+    public int[] getClassCounts() {
+        return classCounts;
+    }
+
+    /**
+     * @return the occurences of each attribute value with each class, indexed by attribute, value code and class id
+     */
+    public int[][][] getAttributeClassCounts() {
+        return attributeClassCounts;
+    }
+
+    /**
+     * @return whether each pair of attribute values was counted
+     */
+    public boolean hasPairs() {
+        return attributePairCounts != null;
+    }
+
+    /**
+     * @return the co-occurences of each pair of attribute values with each class, where the table for attributes
+     *         i and j (for i &lt; j) is indexed by (valueI * cardinality(j) + valueJ) * numClasses + class id, or
+     *         null if pairs weren't counted
+     */
+    public int[][][] getAttributePairCounts() {
+        return attributePairCounts;
+    }
+}
@@ -0,0 +1,110 @@
+package com.machine.learning.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the distinct values of a single column to dense integer codes, in the order they were first seen.
+ */
+public final class ValueDictionary {
+    /* Code given to values that are not in the dictionary */
+    public static final int UNSEEN = -1;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * Returns the code for the given value, adding it to the dictionary if it hasn't been seen before
+     *
+     * @param value the value to encode
+     * @return the code for the value
+     */
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * Looks up the code for the given value without adding it to the dictionary
+     *
+     * @param value the value to look up
+     * @return the code for the value, or UNSEEN if the value isn't in the dictionary
+     */
+    public int code(Object value) {
+        Integer code = codes.get(value);
+        return code == null ? UNSEEN : code;
+    }
+
+    /**
+     * Returns the value for the given code
+     *
+     * @param code the code to decode
+     * @return the value for the code, or null if the code is UNSEEN
+     */
+    public String decode(int code) {
+        return code == UNSEEN ? null : values.get(code);
+    }
+
+    /**
+     * @return the number of distinct values in the dictionary
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @return the values in the dictionary, indexed by code
+     */
+    public List<String> getValues() {
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @return a new dictionary holding the same values with the same codes, which can be added to
+     * without changing this one
+     */
+    public ValueDictionary copy() {
+        ValueDictionary copy = new ValueDictionary();
+        for (String value : values) {
+            copy.encode(value);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies an array of dictionaries
+     *
+     * @param dictionaries the dictionaries to copy
+     * @return a copy of each dictionary, in the same order
+     */
+    public static ValueDictionary[] copy(ValueDictionary[] dictionaries) {
+        ValueDictionary[] copies = new ValueDictionary[dictionaries.length];
+        for (int i = 0; i < dictionaries.length; i++) {
+            copies[i] = dictionaries[i].copy();
+        }
+        return copies;
+    }
+
+    /**
+     * Encodes a row of attribute values with one dictionary per attribute, without adding to the dictionaries
+     *
+     * @param dictionaries the dictionaries for each attribute
+     * @param row the attribute values to encode
+     * @return the codes for the row, with UNSEEN for values that aren't in the dictionaries
+     */
+    public static int[] encodeRow(ValueDictionary[] dictionaries, List row) {
+        int[] codes = new int[dictionaries.length];
+        for (int i = 0; i < dictionaries.length; i++) {
+            codes[i] = dictionaries[i].code(row.get(i));
+        }
+        return codes;
+    }
+}
@@ -0,0 +1,21 @@
+package com.machine.learning.preprocessing;
+
+/**
+ * Chooses the bin boundaries for a numeric column from a summary of its values
+ */
+public interface BinningStrategy {
+    /**
+     * Fits bins to a column
+     *
+     * @param summary the summary of the column's values
+     * @return the fitted bins
+     */
+    Bins fit(ColumnSummary summary);
+
+    /**
+     * @return whether fit needs a quantile sketch of the column, which is more expensive to collect than min and max
+     */
+    default boolean needsSketch() {
+        return false;
+    }
+}
@@ -0,0 +1,19 @@
+package com.machine.learning.preprocessing;
+
+/**
+ * Bin boundaries fitted to a single numeric column
+ */
+public interface Bins {
+    /**
+     * Finds the bin a value falls in. Values outside of the fitted range go in the first or last bin.
+     *
+     * @param value the value to bin
+     * @return the bin number, from 0 to numBins() - 1
+     */
+    int bin(double value);
+
+    /**
+     * @return the number of bins
+     */
+    int numBins();
+}
@@ -0,0 +1,67 @@
+package com.machine.learning.preprocessing;
+
+/**
+ * Statistics about a numeric column gathered in a single pass, which can be merged across partitions of the rows
+ */
+public class ColumnSummary {
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private long count;
+    private final QuantileSketch sketch;
+
+    /**
+     * @param withSketch whether to also keep a quantile sketch of the values
+     */
+    public ColumnSummary(boolean withSketch) {
+        sketch = withSketch ? new QuantileSketch() : null;
+    }
+
+    /**
+     * Adds a value to the summary
+     *
+     * @param value the value to add
+     */
+    public void add(double value) {
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        count++;
+        if (sketch != null) {
+            sketch.add(value);
+        }
+    }
+
+    /**
+     * Adds all of the values summarized by another summary to this one
+     *
+     * @param other the summary to merge in
+     * @return this summary
+     */
+    public ColumnSummary merge(ColumnSummary other) {
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        count += other.count;
+        if (sketch != null && other.sketch != null) {
+            sketch.merge(other.sketch);
+        }
+        return this;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the quantile sketch of the values, or null if the summary wasn't asked to keep one
+     */
+    public QuantileSketch getSketch() {
+        return sketch;
+    }
+}
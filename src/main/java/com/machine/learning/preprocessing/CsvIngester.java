@@ -0,0 +1,280 @@
+package com.machine.learning.preprocessing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads comma separated files by streaming fixed size chunks through NIO and parsing the chunks in parallel.
+ *
+ * Only a bounded number of chunks are held as raw bytes at any time, so memory use is dominated by the parsed
+ * rows rather than by the text of the file. Rows are returned in file order. Files too large to hold as rows can
+ * be streamed instead, handing each chunk's rows to a callback in file order.
+ */
+public class CsvIngester {
+    /**
+     * Receives the rows of a file one chunk at a time
+     */
+    public interface ChunkConsumer {
+        /**
+         * @param rows the fields of the non-empty lines of the next chunk, in file order
+         * @throws IOException if the rows can't be handled
+         */
+        void accept(List<String[]> rows) throws IOException;
+    }
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+    private final Executor executor;
+
+    private IngestReport report = new IngestReport(0, 0, 0);
+
+    /**
+     * Creates an ingester that parses on the common fork-join pool
+     */
+    public CsvIngester() {
+        this(DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an ingester
+     *
+     * @param chunkSize number of bytes to read before handing a chunk off to be parsed
+     * @param executor executor used to parse chunks
+     */
+    public CsvIngester(int chunkSize, Executor executor) {
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.maxChunksInFlight = 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Reads a file from disk, decompressing it first if its name ends in .gz
+     *
+     * @param path the file to read
+     * @return the fields of every non-empty line
+     * @throws IOException if the file can't be read
+     */
+    public List<String[]> read(Path path) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        stream(path, rows::addAll);
+        return rows;
+    }
+
+    /**
+     * Streams a file from disk, decompressing it first if its name ends in .gz
+     *
+     * @param path the file to read
+     * @param chunks receives the rows of each chunk
+     * @throws IOException if the file can't be read, or the rows can't be handled
+     */
+    public void stream(Path path, ChunkConsumer chunks) throws IOException {
+        if (isGzip(path.toString())) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(path), 1 << 16)) {
+                stream(Channels.newChannel(in), chunks);
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            stream(channel, chunks);
+        }
+    }
+
+    /**
+     * Reads a stream, such as a classpath resource
+     *
+     * @param in the stream to read
+     * @param gzip whether the stream is gzip compressed
+     * @return the fields of every non-empty line
+     * @throws IOException if the stream can't be read
+     */
+    public List<String[]> read(InputStream in, boolean gzip) throws IOException {
+        return read(Channels.newChannel(gzip ? new GZIPInputStream(in, 1 << 16) : in));
+    }
+
+    /**
+     * Streams a stream, such as a classpath resource
+     *
+     * @param in the stream to read
+     * @param gzip whether the stream is gzip compressed
+     * @param chunks receives the rows of each chunk
+     * @throws IOException if the stream can't be read, or the rows can't be handled
+     */
+    public void stream(InputStream in, boolean gzip, ChunkConsumer chunks) throws IOException {
+        stream(Channels.newChannel(gzip ? new GZIPInputStream(in, 1 << 16) : in), chunks);
+    }
+
+    /**
+     * Reads every line from a channel. Chunks are cut at the last newline they contain, and the partial
+     * line left over is carried into the next chunk.
+     *
+     * @param channel the channel to read
+     * @return the fields of every non-empty line
+     * @throws IOException if the channel can't be read
+     */
+    public List<String[]> read(ReadableByteChannel channel) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        stream(channel, rows::addAll);
+        return rows;
+    }
+
+    /**
+     * Streams every line from a channel, handing the rows of each chunk to a callback on the calling thread as
+     * soon as the chunk and every chunk before it have been parsed
+     *
+     * @param channel the channel to read
+     * @param chunks receives the rows of each chunk
+     * @throws IOException if the channel can't be read, or the rows can't be handled
+     */
+    public void stream(ReadableByteChannel channel, ChunkConsumer chunks) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        long rows = 0;
+        Deque<CompletableFuture<List<String[]>>> pending = new ArrayDeque<>();
+
+        ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+        boolean eof = false;
+        while (!eof) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                eof = true;
+            } else {
+                bytes += read;
+                if (buffer.hasRemaining()) {
+                    continue;
+                }
+            }
+
+            int end = eof ? buffer.position() : lastNewline(buffer);
+            if (end < 0) {
+                // A single line is longer than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+                continue;
+            }
+
+            byte[] chunk = new byte[end];
+            buffer.flip();
+            buffer.get(chunk);
+            buffer.compact();
+
+            while (pending.size() >= maxChunksInFlight) {
+                rows += handle(pending.poll().join(), chunks);
+            }
+            pending.add(CompletableFuture.supplyAsync(() -> parseChunk(chunk), executor));
+        }
+
+        while (!pending.isEmpty()) {
+            rows += handle(pending.poll().join(), chunks);
+        }
+
+        report = new IngestReport(rows, bytes, System.nanoTime() - start);
+    }
+
+    private static int handle(List<String[]> rows, ChunkConsumer chunks) throws IOException {
+        if (!rows.isEmpty()) {
+            chunks.accept(rows);
+        }
+        return rows.size();
+    }
+
+    /**
+     * @return the throughput of the most recent read
+     */
+    public IngestReport getReport() {
+        return report;
+    }
+
+    /**
+     * Finds the end of the last complete line in the buffer
+     *
+     * @param buffer buffer in write mode
+     * @return the number of bytes up to and including the last newline, or -1 if there is no newline
+     */
+    private static int lastNewline(ByteBuffer buffer) {
+        byte[] array = buffer.array();
+        for (int i = buffer.position() - 1; i >= 0; i--) {
+            if (array[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits a chunk made of whole lines into fields. Repeated field values within the chunk share a single
+     * String instance, which keeps the heap small for discrete data.
+     *
+     * @param chunk the bytes of one or more complete lines
+     * @return the fields of every non-empty line in the chunk
+     */
+    static List<String[]> parseChunk(byte[] chunk) {
+        String text = new String(chunk, StandardCharsets.UTF_8);
+        Map<String, String> distinct = new HashMap<>();
+        List<String[]> rows = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+
+        int lineStart = 0;
+        while (lineStart < text.length()) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = text.length();
+            }
+            int contentEnd = lineEnd;
+            if (contentEnd > lineStart && text.charAt(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+
+            if (contentEnd > lineStart) {
+                fields.clear();
+                int fieldStart = lineStart;
+                for (int i = lineStart; i <= contentEnd; i++) {
+                    if (i == contentEnd || text.charAt(i) == ',') {
+                        String field = text.substring(fieldStart, i);
+                        String shared = distinct.putIfAbsent(field, field);
+                        fields.add(shared == null ? field : shared);
+                        fieldStart = i + 1;
+                    }
+                }
+                // Match String.split, which drops trailing empty fields
+                while (!fields.isEmpty() && fields.get(fields.size() - 1).isEmpty()) {
+                    fields.remove(fields.size() - 1);
+                }
+                if (!fields.isEmpty()) {
+                    rows.add(fields.toArray(new String[fields.size()]));
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return rows;
+    }
+
+    /**
+     * @param name a file or resource name
+     * @return whether the name marks gzip compressed content
+     */
+    public static boolean isGzip(String name) {
+        return name.endsWith(".gz");
+    }
+}
@@ -0,0 +1,88 @@
+package com.machine.learning.preprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Bins fitted to the numeric columns of a data set, which can discretize new rows without
+ * looking at the training data again
+ */
+public class DiscretizationModel {
+    /* Fitted bins per column, null for columns that are left alone */
+    private final Bins[] bins;
+
+    /* Bin labels, cached so that discretizing doesn't create a new string per value */
+    private final String[][] labels;
+
+    public DiscretizationModel(Bins[] bins) {
+        this.bins = bins;
+        this.labels = new String[bins.length][];
+        for (int column = 0; column < bins.length; column++) {
+            if (bins[column] != null) {
+                labels[column] = new String[bins[column].numBins()];
+                for (int bin = 0; bin < labels[column].length; bin++) {
+                    labels[column][bin] = Integer.toString(bin);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discretizes rows in place, working on the numeric columns in parallel
+     *
+     * @param rows the rows to discretize
+     */
+    public void apply(List<String[]> rows) {
+        IntStream.range(0, bins.length)
+                .filter(column -> bins[column] != null)
+                .parallel()
+                .forEach(column -> {
+                    for (String[] row : rows) {
+                        row[column] = label(column, row[column]);
+                    }
+                });
+    }
+
+    /**
+     * Discretizes a single row
+     *
+     * @param row the attribute values to discretize
+     * @return a copy of the row with numeric values replaced by their bin numbers
+     */
+    public List<String> discretize(List<String> row) {
+        List<String> discretized = new ArrayList<>(row);
+        for (int column = 0; column < bins.length && column < row.size(); column++) {
+            if (bins[column] != null) {
+                discretized.set(column, label(column, row.get(column)));
+            }
+        }
+        return discretized;
+    }
+
+    /**
+     * @param column the position of the column
+     * @return the bins fitted to the column, or null if the column is left alone
+     */
+    public Bins getBins(int column) {
+        return column < bins.length ? bins[column] : null;
+    }
+
+    private String label(int column, String value) {
+        return labels[column][bins[column].bin(asNumber(value))];
+    }
+
+    /**
+     * Parses a numeric value
+     *
+     * @param value the value to parse
+     * @return the parsed value
+     */
+    static double asNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Can't discretize non-numeric value " + value, nfe);
+        }
+    }
+}
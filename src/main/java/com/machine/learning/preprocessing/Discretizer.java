@@ -0,0 +1,156 @@
+package com.machine.learning.preprocessing;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Fits bins to the numeric columns of a data set. Columns are summarized in one fused, parallel pass over the
+ * rows, and the fitted model can then discretize the training rows and any new rows. Data sets too large to hold
+ * in memory can be summarized one chunk of rows at a time instead.
+ */
+public class Discretizer {
+    /* Number of buckets used for each numeric column unless told otherwise */
+    public static final int NUM_BUCKETS = 10;
+
+    /* Marks a column that is already discrete in the discretization parameters */
+    public static final String DISCRETE = "=";
+
+    /* Number of rows each parallel task summarizes */
+    private static final int ROWS_PER_TASK = 4096;
+
+    private final BinningStrategy strategy;
+
+    /**
+     * Creates a discretizer that uses equal width binning with NUM_BUCKETS bins
+     */
+    public Discretizer() {
+        this(new EqualWidthBinning(NUM_BUCKETS));
+    }
+
+    /**
+     * @param strategy strategy used to fit bins to each numeric column
+     */
+    public Discretizer(BinningStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Fits bins to every column not marked as discrete
+     *
+     * @param rows the rows to fit to, which aren't modified
+     * @param discretizationParams one parameter per column, where DISCRETE marks columns to leave alone
+     * @return the fitted model
+     */
+    public DiscretizationModel fit(List<String[]> rows, List<String> discretizationParams) {
+        int numColumns = rows.isEmpty() ? 0 : rows.get(0).length;
+        Fitting fitting = startFit(numColumns, discretizationParams);
+        fitting.add(rows);
+        return fitting.finish();
+    }
+
+    /**
+     * Starts fitting bins to rows that are summarized one chunk at a time
+     *
+     * @param numColumns the number of columns in each row
+     * @param discretizationParams one parameter per column, where DISCRETE marks columns to leave alone
+     * @return the fitting, to add the chunks to
+     */
+    public Fitting startFit(int numColumns, List<String> discretizationParams) {
+        int[] numericColumns = IntStream.range(0, Math.min(numColumns, discretizationParams.size()))
+                .filter(i -> !DISCRETE.equals(discretizationParams.get(i)))
+                .toArray();
+        return new Fitting(Math.min(numColumns, discretizationParams.size()), numericColumns);
+    }
+
+    /**
+     * Summaries of the numeric columns of the rows seen so far. Missing values are skipped, so that the bins can
+     * be fitted before they are imputed.
+     */
+    public final class Fitting {
+        private final int numColumns;
+        private final int[] numericColumns;
+        private ColumnSummary[] summaries;
+
+        private Fitting(int numColumns, int[] numericColumns) {
+            this.numColumns = numColumns;
+            this.numericColumns = numericColumns;
+        }
+
+        /**
+         * Summarizes a chunk of rows, splitting it between parallel tasks
+         *
+         * @param rows the rows to add, which aren't modified
+         */
+        public void add(List<String[]> rows) {
+            int numTasks = (rows.size() + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+            ColumnSummary[] chunk = IntStream.range(0, numTasks)
+                    .parallel()
+                    .mapToObj(task -> summarize(rows, numericColumns,
+                            task * ROWS_PER_TASK, Math.min(rows.size(), (task + 1) * ROWS_PER_TASK)))
+                    .reduce(Discretizer::merge)
+                    .orElse(null);
+            if (summaries == null) {
+                summaries = chunk;
+            } else if (chunk != null) {
+                summaries = merge(summaries, chunk);
+            }
+        }
+
+        /**
+         * @return the model fitted to every row added
+         */
+        public DiscretizationModel finish() {
+            ColumnSummary[] fitted = summaries == null ? emptySummaries(numericColumns.length) : summaries;
+            Bins[] bins = new Bins[numColumns];
+            for (int i = 0; i < numericColumns.length; i++) {
+                bins[numericColumns[i]] = strategy.fit(fitted[i]);
+            }
+            return new DiscretizationModel(bins);
+        }
+    }
+
+    /**
+     * Fits bins to the rows and replaces the numeric values in the rows with their bin numbers
+     *
+     * @param rows the rows to discretize in place
+     * @param discretizationParams one parameter per column, where DISCRETE marks columns to leave alone
+     * @return the fitted model, for discretizing new rows
+     */
+    public DiscretizationModel fitAndApply(List<String[]> rows, List<String> discretizationParams) {
+        DiscretizationModel model = fit(rows, discretizationParams);
+        model.apply(rows);
+        return model;
+    }
+
+    /**
+     * Summarizes every numeric column over a range of rows in a single pass
+     */
+    private ColumnSummary[] summarize(List<String[]> rows, int[] numericColumns, int from, int to) {
+        ColumnSummary[] summaries = emptySummaries(numericColumns.length);
+        for (int row = from; row < to; row++) {
+            String[] values = rows.get(row);
+            for (int i = 0; i < numericColumns.length; i++) {
+                String value = values[numericColumns[i]];
+                if (!MissingValueImputer.MISSING.equals(value)) {
+                    summaries[i].add(DiscretizationModel.asNumber(value));
+                }
+            }
+        }
+        return summaries;
+    }
+
+    private ColumnSummary[] emptySummaries(int numColumns) {
+        ColumnSummary[] summaries = new ColumnSummary[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            summaries[i] = new ColumnSummary(strategy.needsSketch());
+        }
+        return summaries;
+    }
+
+    private static ColumnSummary[] merge(ColumnSummary[] a, ColumnSummary[] b) {
+        for (int i = 0; i < a.length; i++) {
+            a[i].merge(b[i]);
+        }
+        return a;
+    }
+}
@@ -0,0 +1,62 @@
+package com.machine.learning.preprocessing;
+
+import java.util.Arrays;
+
+/**
+ * Splits a column into bins holding roughly the same number of values each, using cut points read
+ * from a quantile sketch of the column
+ */
+public class EqualFrequencyBinning implements BinningStrategy {
+    private final int numBins;
+
+    /**
+     * @param numBins the number of bins to split each column into
+     */
+    public EqualFrequencyBinning(int numBins) {
+        this.numBins = numBins;
+    }
+
+    @Override
+    public Bins fit(ColumnSummary summary) {
+        double[] cutPoints = new double[numBins - 1];
+        for (int i = 1; i < numBins; i++) {
+            cutPoints[i - 1] = summary.getSketch().quantile((double) i / numBins);
+        }
+        // Heavily repeated values can produce the same cut point twice, or a cut point at the maximum, which
+        // would leave an empty bin since values equal to a cut point go in the lower bin
+        double max = summary.getMax();
+        return new QuantileBins(Arrays.stream(cutPoints).filter(cutPoint -> cutPoint < max).distinct().toArray());
+    }
+
+    @Override
+    public boolean needsSketch() {
+        return true;
+    }
+
+    /**
+     * Bins separated by sorted cut points, where a value equal to a cut point goes in the lower bin, so a cut
+     * point at a heavily repeated minimum still separates that value from the rest
+     */
+    public static class QuantileBins implements Bins {
+        private final double[] cutPoints;
+
+        public QuantileBins(double[] cutPoints) {
+            this.cutPoints = cutPoints;
+        }
+
+        @Override
+        public int bin(double value) {
+            int position = Arrays.binarySearch(cutPoints, value);
+            return position >= 0 ? position : -position - 1;
+        }
+
+        @Override
+        public int numBins() {
+            return cutPoints.length + 1;
+        }
+
+        public double[] getCutPoints() {
+            return cutPoints.clone();
+        }
+    }
+}
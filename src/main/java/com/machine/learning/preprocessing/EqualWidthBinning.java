@@ -0,0 +1,57 @@
+package com.machine.learning.preprocessing;
+
+/**
+ * Splits the range between a column's minimum and maximum into bins of equal width
+ */
+public class EqualWidthBinning implements BinningStrategy {
+    /* Added to the maximum so that the largest value falls inside the last bin */
+    private static final double MAX_PADDING = 0.001;
+
+    private final int numBins;
+
+    /**
+     * @param numBins the number of bins to split each column into
+     */
+    public EqualWidthBinning(int numBins) {
+        this.numBins = numBins;
+    }
+
+    @Override
+    public Bins fit(ColumnSummary summary) {
+        return new EqualWidthBins(summary.getMin(), summary.getMax() + MAX_PADDING, numBins);
+    }
+
+    /**
+     * Bins of equal width between a minimum and maximum
+     */
+    public static class EqualWidthBins implements Bins {
+        private final double min;
+        private final double max;
+        private final int numBins;
+
+        public EqualWidthBins(double min, double max, int numBins) {
+            this.min = min;
+            this.max = max;
+            this.numBins = numBins;
+        }
+
+        @Override
+        public int bin(double value) {
+            int bin = (int)((value - min) * numBins / (max - min));
+            return Math.max(0, Math.min(numBins - 1, bin));
+        }
+
+        @Override
+        public int numBins() {
+            return numBins;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.machine.learning.preprocessing;
+
+/**
+ * Number of missing values imputed in each column
+ */
+public final class ImputationReport {
+    private final int[] imputed;
+    private final boolean[] unfillable;
+
+    /**
+     * @param imputed number of values imputed in each column
+     * @param unfillable whether each column had missing values but no observed values to sample from
+     */
+    public ImputationReport(int[] imputed, boolean[] unfillable) {
+        this.imputed = imputed;
+        this.unfillable = unfillable;
+    }
+
+    /**
+     * @param column the position of the column
+     * @return the number of values imputed in the column
+     */
+    public int getImputed(int column) {
+        return imputed[column];
+    }
+
+    /**
+     * @return the number of values imputed over all columns
+     */
+    public int getTotal() {
+        int total = 0;
+        for (int count : imputed) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @param column the position of the column
+     * @return whether the column had only missing values, which were left in place
+     */
+    public boolean isUnfillable(int column) {
+        return unfillable[column];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder("Imputed " + getTotal() + " values");
+        for (int column = 0; column < imputed.length; column++) {
+            if (imputed[column] > 0) {
+                stringBuilder.append(", column ").append(column).append(": ").append(imputed[column]);
+            } else if (unfillable[column]) {
+                stringBuilder.append(", column ").append(column).append(": no observed values");
+            }
+        }
+        return stringBuilder.toString();
+    }
+}
@@ -0,0 +1,47 @@
+package com.machine.learning.preprocessing;
+
+/**
+ * Throughput of a single ingestion run, used to size ingestion nodes
+ */
+public final class IngestReport {
+    private final long rows;
+    private final long bytes;
+    private final long nanos;
+
+    /**
+     * @param rows number of rows parsed
+     * @param bytes number of uncompressed bytes parsed
+     * @param nanos wall clock time taken, in nanoseconds
+     */
+    public IngestReport(long rows, long bytes, long nanos) {
+        this.rows = rows;
+        this.bytes = bytes;
+        this.nanos = nanos;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public double getSeconds() {
+        return nanos / 1e9;
+    }
+
+    public double rowsPerSecond() {
+        return nanos == 0 ? 0 : rows / getSeconds();
+    }
+
+    public double megabytesPerSecond() {
+        return nanos == 0 ? 0 : bytes / (1024.0 * 1024.0) / getSeconds();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Read %d rows (%.1f MB) in %.3f s: %.0f rows/s, %.1f MB/s",
+                rows, bytes / (1024.0 * 1024.0), getSeconds(), rowsPerSecond(), megabytesPerSecond());
+    }
+}
@@ -0,0 +1,74 @@
+package com.machine.learning.preprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Fills in missing values by sampling from the values observed in the same column.
+ *
+ * Each column gets its own pool of observed values and its own random stream derived from the seed, so the
+ * columns can be filled in parallel and the result only depends on the seed, not on thread scheduling.
+ */
+public class MissingValueImputer {
+    /* Value used to mark a missing value in the data files */
+    public static final String MISSING = "?";
+
+    public static final long DEFAULT_SEED = 0x5EEDL;
+
+    private final long seed;
+
+    public MissingValueImputer() {
+        this(DEFAULT_SEED);
+    }
+
+    /**
+     * @param seed seed for sampling replacement values
+     */
+    public MissingValueImputer(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Replaces every missing value in the given columns, in place
+     *
+     * @param rows the rows to fill in
+     * @param numColumns the number of leading columns to fill in
+     * @return the number of values imputed in each column
+     */
+    public ImputationReport impute(List<String[]> rows, int numColumns) {
+        int[] imputed = new int[numColumns];
+        boolean[] unfillable = new boolean[numColumns];
+        IntStream.range(0, numColumns).parallel().forEach(column -> {
+            List<String> observed = new ArrayList<>();
+            int missing = 0;
+            for (String[] row : rows) {
+                if (column >= row.length) {
+                    continue;
+                }
+                if (MISSING.equals(row[column])) {
+                    missing++;
+                } else {
+                    observed.add(row[column]);
+                }
+            }
+            if (missing == 0) {
+                return;
+            }
+            if (observed.isEmpty()) {
+                unfillable[column] = true;
+                return;
+            }
+
+            SplittableRandom random = new SplittableRandom(seed + column * 0x9E3779B97F4A7C15L);
+            for (String[] row : rows) {
+                if (column < row.length && MISSING.equals(row[column])) {
+                    row[column] = observed.get(random.nextInt(observed.size()));
+                }
+            }
+            imputed[column] = missing;
+        });
+        return new ImputationReport(imputed, unfillable);
+    }
+}
@@ -0,0 +1,143 @@
+package com.machine.learning.preprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming, mergeable approximation of the distribution of a column, in the style of the KLL sketch.
+ *
+ * Values are buffered in levels, where every value at level h stands for 2^h original values. When a level fills up
+ * it is sorted and every other value is promoted to the next level, so the sketch holds O(k log(n / k)) values and
+ * answers quantile queries with a rank error of roughly 1 / k.
+ */
+public class QuantileSketch {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final List<double[]> levels = new ArrayList<>();
+    private final List<Integer> levelSizes = new ArrayList<>();
+    private long count;
+
+    /* Alternates which half of a level is promoted, so compaction doesn't consistently favor high or low values */
+    private int compactions;
+
+    public QuantileSketch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of values each level holds before it is compacted
+     */
+    public QuantileSketch(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds a value to the sketch
+     *
+     * @param value the value to add
+     */
+    public void add(double value) {
+        addToLevel(0, value);
+        count++;
+    }
+
+    /**
+     * Adds every value summarized by another sketch to this one
+     *
+     * @param other the sketch to merge in
+     */
+    public void merge(QuantileSketch other) {
+        for (int level = 0; level < other.levels.size(); level++) {
+            double[] values = other.levels.get(level);
+            for (int i = 0; i < other.levelSizes.get(level); i++) {
+                addToLevel(level, values[i]);
+            }
+        }
+        count += other.count;
+    }
+
+    /**
+     * @return the number of values added to the sketch
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimates the value at a given rank
+     *
+     * @param fraction the rank as a fraction of the number of values, between 0 and 1
+     * @return the estimated value at the rank, or NaN if the sketch is empty
+     */
+    public double quantile(double fraction) {
+        int numValues = 0;
+        for (int size : levelSizes) {
+            numValues += size;
+        }
+        if (numValues == 0) {
+            return Double.NaN;
+        }
+
+        double[] values = new double[numValues];
+        long[] weights = new long[numValues];
+        int position = 0;
+        for (int level = 0; level < levels.size(); level++) {
+            for (int i = 0; i < levelSizes.get(level); i++) {
+                values[position] = levels.get(level)[i];
+                weights[position++] = 1L << level;
+            }
+        }
+
+        Integer[] order = new Integer[numValues];
+        for (int i = 0; i < numValues; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        long totalWeight = 0;
+        for (long weight : weights) {
+            totalWeight += weight;
+        }
+        double targetWeight = fraction * totalWeight;
+        long cumulativeWeight = 0;
+        for (int i : order) {
+            cumulativeWeight += weights[i];
+            if (cumulativeWeight >= targetWeight) {
+                return values[i];
+            }
+        }
+        return values[order[numValues - 1]];
+    }
+
+    private void addToLevel(int level, double value) {
+        while (levels.size() <= level) {
+            levels.add(new double[capacity]);
+            levelSizes.add(0);
+        }
+        int size = levelSizes.get(level);
+        levels.get(level)[size] = value;
+        levelSizes.set(level, size + 1);
+        if (size + 1 == capacity) {
+            compact(level);
+        }
+    }
+
+    /**
+     * Sorts a full level and promotes every other value to the next level
+     *
+     * @param level the level to compact
+     */
+    private void compact(int level) {
+        double[] values = levels.get(level);
+        int size = levelSizes.get(level);
+        Arrays.sort(values, 0, size);
+        levelSizes.set(level, 0);
+
+        int offset = compactions++ % 2;
+        for (int i = offset; i < size; i += 2) {
+            addToLevel(level + 1, values[i]);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.machine.learning.preprocessing;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Fills in missing values in data read one chunk at a time, for data sets too large to hold in memory.
+ *
+ * The data is read twice. While it is first read, each column keeps a uniform sample of a bounded number of the
+ * values observed in it, and while it is read again, missing values are replaced by values drawn from the samples.
+ * A column with no more observed values than the sample holds keeps all of them, in order, and is filled exactly as
+ * MissingValueImputer fills it with the same seed.
+ */
+public class SampledImputer {
+    public static final int DEFAULT_POOL_SIZE = 1 << 16;
+
+    /* Spreads the random streams of neighboring columns apart, as MissingValueImputer does */
+    private static final long COLUMN_STRIDE = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+    private final int poolSize;
+    private final String[][] pools;
+    private final long[] observed;
+    private final int[] missing;
+
+    /* Chooses which observed values replace earlier ones in each column's sample */
+    private final SplittableRandom[] sampling;
+
+    /* Draws the replacement values for each column */
+    private final SplittableRandom[] filling;
+
+    private final int[] imputed;
+
+    /**
+     * @param seed seed for sampling replacement values
+     * @param numColumns the number of leading columns to fill in
+     */
+    public SampledImputer(long seed, int numColumns) {
+        this(seed, numColumns, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param seed seed for sampling replacement values
+     * @param numColumns the number of leading columns to fill in
+     * @param poolSize the most observed values kept for each column
+     */
+    public SampledImputer(long seed, int numColumns, int poolSize) {
+        this.seed = seed;
+        this.poolSize = poolSize;
+        pools = new String[numColumns][];
+        observed = new long[numColumns];
+        missing = new int[numColumns];
+        sampling = new SplittableRandom[numColumns];
+        filling = new SplittableRandom[numColumns];
+        imputed = new int[numColumns];
+        for (int column = 0; column < numColumns; column++) {
+            sampling[column] = new SplittableRandom(~seed + column * COLUMN_STRIDE);
+        }
+    }
+
+    /**
+     * Samples the observed values of a chunk of rows and counts its missing values, working on the columns in
+     * parallel. Chunks have to be observed in the order they are imputed in.
+     *
+     * @param rows the rows to sample, which aren't modified
+     */
+    public void observe(List<String[]> rows) {
+        IntStream.range(0, pools.length).parallel().forEach(column -> {
+            for (String[] row : rows) {
+                if (column >= row.length) {
+                    continue;
+                }
+                if (MissingValueImputer.MISSING.equals(row[column])) {
+                    missing[column]++;
+                } else {
+                    sample(column, row[column]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces every missing value in a chunk of rows, in place, working on the columns in parallel
+     *
+     * @param rows the rows to fill in
+     */
+    public void impute(List<String[]> rows) {
+        IntStream.range(0, pools.length).parallel().forEach(column -> {
+            if (missing[column] == 0 || observed[column] == 0) {
+                return;
+            }
+            if (filling[column] == null) {
+                filling[column] = new SplittableRandom(seed + column * COLUMN_STRIDE);
+            }
+            int size = (int) Math.min(observed[column], poolSize);
+            for (String[] row : rows) {
+                if (column < row.length && MissingValueImputer.MISSING.equals(row[column])) {
+                    row[column] = pools[column][filling[column].nextInt(size)];
+                    imputed[column]++;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of values imputed in each column so far, and the columns with only missing values
+     */
+    public ImputationReport getReport() {
+        boolean[] unfillable = new boolean[pools.length];
+        for (int column = 0; column < pools.length; column++) {
+            unfillable[column] = missing[column] > 0 && observed[column] == 0;
+        }
+        return new ImputationReport(imputed.clone(), unfillable);
+    }
+
+    /**
+     * Offers an observed value to a column's sample, keeping every value seen with the same probability
+     */
+    private void sample(int column, String value) {
+        long seen = observed[column]++;
+        if (seen < poolSize) {
+            // Samples grow as values are seen, so columns with few observed values stay small
+            if (pools[column] == null) {
+                pools[column] = new String[Math.min(poolSize, 16)];
+            } else if (seen == pools[column].length) {
+                pools[column] = Arrays.copyOf(pools[column], (int) Math.min(poolSize, 2 * seen));
+            }
+            pools[column][(int) seen] = value;
+        } else {
+            long slot = sampling[column].nextLong(seen + 1);
+            if (slot < poolSize) {
+                pools[column][(int) slot] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.machine.learning.server;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * HTTP endpoints for classifying with the served models and reporting their latency and throughput.
+ *
+ * Classification requests are answered asynchronously, so request threads aren't held while a request waits
+ * to be batched.
+ */
+@RestController
+@RequestMapping("/models")
+public class InferenceController {
+    private final ModelRegistry models;
+
+    @Autowired
+    public InferenceController(ModelRegistry models) {
+        this.models = models;
+    }
+
+    /**
+     * @return the names of the served models
+     */
+    @RequestMapping(method = RequestMethod.GET)
+    public List<String> listModels() {
+        return models.getNames();
+    }
+
+    /**
+     * Classifies a single data point
+     *
+     * @param name the name of the model
+     * @param dataPoint the attribute values of the point
+     * @return the class label, as {"class": label}
+     */
+    @RequestMapping(value = "/{name}/classify", method = RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<Object>> classify(@PathVariable("name") String name,
+                                                              @RequestBody List<String> dataPoint) {
+        MicroBatcher batcher = models.get(name);
+        if (batcher == null) {
+            return CompletableFuture.completedFuture(notFound(name));
+        }
+        return batcher.submit(dataPoint).handle((classLabel, ex) -> ex == null
+                ? ResponseEntity.ok(Collections.singletonMap("class", classLabel))
+                : failure(ex));
+    }
+
+    /**
+     * Classifies several data points
+     *
+     * @param name the name of the model
+     * @param dataPoints the attribute values of each point
+     * @return the class labels in the same order as the points, as {"classes": [labels]}
+     */
+    @RequestMapping(value = "/{name}/classify/bulk", method = RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<Object>> classifyAll(@PathVariable("name") String name,
+                                                                 @RequestBody List<List<String>> dataPoints) {
+        MicroBatcher batcher = models.get(name);
+        if (batcher == null) {
+            return CompletableFuture.completedFuture(notFound(name));
+        }
+        return batcher.submitAll(dataPoints).handle((classLabels, ex) -> ex == null
+                ? ResponseEntity.ok(Collections.singletonMap("classes", classLabels))
+                : failure(ex));
+    }
+
+    /**
+     * @param name the name of the model
+     * @return the p50 and p99 latency, throughput and mean batch size of the model
+     */
+    @RequestMapping(value = "/{name}/stats", method = RequestMethod.GET)
+    public ResponseEntity<Object> stats(@PathVariable("name") String name) {
+        MicroBatcher batcher = models.get(name);
+        if (batcher == null) {
+            return notFound(name);
+        }
+        return ResponseEntity.ok(batcher.getStats().toMap());
+    }
+
+    /**
+     * @return the stats of every model, by name
+     */
+    @RequestMapping(value = "/stats", method = RequestMethod.GET)
+    public Map<String, Object> allStats() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        for (String name : models.getNames()) {
+            report.put(name, models.get(name).getStats().toMap());
+        }
+        return report;
+    }
+
+    private static ResponseEntity<Object> notFound(String name) {
+        return ResponseEntity.status(404).body(Collections.singletonMap("error", "No model named " + name));
+    }
+
+    /**
+     * A point the classifier can't handle fails on its own with a runtime exception, which is the client's
+     * fault. A model that has stopped being served, or an error in the server, is not.
+     *
+     * @param ex why classification failed
+     * @return 400 for a bad data point, 503 for a model that is no longer served, or 500 otherwise
+     */
+    private static ResponseEntity<Object> failure(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        int status = cause instanceof IllegalStateException ? 503 : cause instanceof RuntimeException ? 400 : 500;
+        return ResponseEntity.status(status).body(Collections.singletonMap("error", String.valueOf(cause)));
+    }
+}
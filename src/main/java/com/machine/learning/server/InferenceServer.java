@@ -0,0 +1,42 @@
+package com.machine.learning.server;
+
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+
+import java.util.Collections;
+
+/**
+ * Serves trained classifiers over HTTP, on the embedded server provided by the Spring Boot web starter.
+ *
+ * POST a JSON array of attribute values to /models/{name}/classify, or an array of them to
+ * /models/{name}/classify/bulk, and GET /models/stats for the p50 and p99 latency and throughput of each model.
+ */
+@SpringBootApplication
+public class InferenceServer {
+    public static final int DEFAULT_PORT = 8080;
+
+    /**
+     * Starts the server. It runs until the returned context is closed, which also stops the models' batchers.
+     *
+     * @param models the models to serve
+     * @param port the port to listen on, or 0 for any free port
+     * @return the running application context
+     */
+    public static ConfigurableApplicationContext start(ModelRegistry models, int port) {
+        SpringApplication application = new SpringApplication(InferenceServer.class);
+        application.setBannerMode(Banner.Mode.OFF);
+        application.setDefaultProperties(Collections.singletonMap("server.port", port));
+        application.addInitializers(context -> {
+            context.getBeanFactory().registerSingleton("modelRegistry", models);
+            context.addApplicationListener(event -> {
+                if (event instanceof ContextClosedEvent) {
+                    models.close();
+                }
+            });
+        });
+        return application.run();
+    }
+}
@@ -0,0 +1,98 @@
+package com.machine.learning.server;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks the latency and throughput of the requests served by a model.
+ *
+ * Percentiles are taken over a sliding window of the most recent requests, so they follow changes in load,
+ * while the request count and throughput cover everything since the stats were created.
+ */
+public class LatencyStats {
+    public static final int DEFAULT_WINDOW = 10000;
+
+    private final long[] latencies;
+    private final long startNanos = System.nanoTime();
+    private long requests;
+    private long batches;
+
+    public LatencyStats() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window the number of recent requests to take percentiles over
+     */
+    public LatencyStats(int window) {
+        this.latencies = new long[window];
+    }
+
+    /**
+     * Records a served request
+     *
+     * @param latencyNanos the time from receiving the request to answering it
+     */
+    public synchronized void recordRequest(long latencyNanos) {
+        latencies[(int) (requests % latencies.length)] = latencyNanos;
+        requests++;
+    }
+
+    /**
+     * Records a batch of requests passed to the classifier together
+     */
+    public synchronized void recordBatch() {
+        batches++;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in milliseconds that the given percentage of recent requests were answered within,
+     *         or 0 if there haven't been any requests
+     */
+    public double getLatencyMillis(double percentile) {
+        long[] window;
+        synchronized (this) {
+            window = Arrays.copyOf(latencies, (int) Math.min(requests, latencies.length));
+        }
+        if (window.length == 0) {
+            return 0;
+        }
+        Arrays.sort(window);
+        int rank = (int) Math.ceil(percentile / 100 * window.length) - 1;
+        return window[Math.max(rank, 0)] / 1e6;
+    }
+
+    /**
+     * @return the number of requests answered per second since the stats were created
+     */
+    public synchronized double getThroughput() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? requests / seconds : 0;
+    }
+
+    /**
+     * @return the mean number of requests in each batch passed to the classifier
+     */
+    public synchronized double getMeanBatchSize() {
+        return batches > 0 ? (double) requests / batches : 0;
+    }
+
+    /**
+     * @return the stats as a map, for reporting as JSON
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("requests", getRequests());
+        report.put("throughputPerSecond", getThroughput());
+        report.put("p50Millis", getLatencyMillis(50));
+        report.put("p99Millis", getLatencyMillis(99));
+        report.put("meanBatchSize", getMeanBatchSize());
+        return report;
+    }
+}
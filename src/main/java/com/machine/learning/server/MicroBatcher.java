@@ -0,0 +1,191 @@
+package com.machine.learning.server;
+
+import com.machine.learning.classifier.Classifier;
+import com.machine.learning.model.DataRow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent classification requests for one classifier into batches.
+ *
+ * Requests are queued, and a dispatcher thread takes the first waiting request, then keeps collecting requests
+ * until the batch is full or the maximum delay has passed since the first one, and classifies the whole batch in
+ * one call. Under light load a request waits at most the maximum delay; under heavy load batches fill up and go
+ * out without waiting.
+ */
+public class MicroBatcher implements AutoCloseable {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final long DEFAULT_MAX_DELAY_MICROS = 1000;
+
+    /**
+     * A data point waiting to be classified. The point is copied into an immutable row when it is submitted, so
+     * that the dispatcher thread never reads a list the caller may still be changing.
+     */
+    private static final class Request {
+        final DataRow dataPoint;
+        final long startNanos;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Request(List<String> dataPoint) {
+            this.dataPoint = DataRow.unlabeled(dataPoint);
+            this.startNanos = System.nanoTime();
+        }
+    }
+
+    private final Classifier classifier;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final LatencyStats stats = new LatencyStats();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    /**
+     * Creates a batcher and starts its dispatcher thread
+     *
+     * @param name the name of the model, used to name the dispatcher thread
+     * @param classifier the trained classifier
+     * @param maxBatchSize the most requests to classify in one call, with a minimum of 1
+     * @param maxDelayMicros the longest time to hold a request while waiting for more to batch with it
+     */
+    public MicroBatcher(String name, Classifier classifier, int maxBatchSize, long maxDelayMicros) {
+        this.classifier = classifier;
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(maxDelayMicros, 0));
+        this.dispatcher = new Thread(this::dispatch, "batcher-" + name);
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queues a data point to be classified
+     *
+     * @param dataPoint the attribute values of the point, which are copied before this returns
+     * @return the class label, once the batch holding the point has been classified, or a failed future if the
+     * batcher has been closed
+     */
+    public CompletableFuture<String> submit(List<String> dataPoint) {
+        Request request = new Request(dataPoint);
+        if (closed) {
+            request.result.completeExceptionally(notServed());
+            return request.result;
+        }
+        queue.add(request);
+        // If close raced with the add, the dispatcher may already have drained the queue for the last time
+        if (closed && queue.remove(request)) {
+            request.result.completeExceptionally(notServed());
+        }
+        return request.result;
+    }
+
+    /**
+     * Queues several data points to be classified. The points may be split across batches.
+     *
+     * @param dataPoints the attribute values of each point
+     * @return the class labels in the same order as the points, once every point has been classified
+     */
+    public CompletableFuture<List<String>> submitAll(List<List<String>> dataPoints) {
+        List<CompletableFuture<String>> results = new ArrayList<>(dataPoints.size());
+        for (List<String> dataPoint : dataPoints) {
+            results.add(submit(dataPoint));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<String> classLabels = new ArrayList<>(results.size());
+            for (CompletableFuture<String> result : results) {
+                classLabels.add(result.join());
+            }
+            return classLabels;
+        });
+    }
+
+    public LatencyStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Stops the dispatcher. Requests that haven't been classified yet fail, and so do requests submitted later.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                while (batch.size() < maxBatchSize) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+                try {
+                    classify(batch);
+                } catch (Throwable ex) {
+                    // Fail whatever the batch left unanswered rather than letting the dispatcher die with it
+                    for (Request request : batch) {
+                        request.result.completeExceptionally(ex);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            queue.drainTo(batch);
+            for (Request request : batch) {
+                request.result.completeExceptionally(notServed());
+            }
+        }
+    }
+
+    private static IllegalStateException notServed() {
+        return new IllegalStateException("The model is no longer being served");
+    }
+
+    /**
+     * Classifies a batch in one call. If the call fails, which a single malformed data point is enough to cause,
+     * the points are classified one at a time so that only the bad ones fail.
+     *
+     * @param batch the requests to answer
+     */
+    private void classify(List<Request> batch) {
+        List<List<String>> dataPoints = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            dataPoints.add(request.dataPoint.getData());
+        }
+        stats.recordBatch();
+
+        List<String> classLabels;
+        try {
+            classLabels = classifier.classifyAll(dataPoints);
+        } catch (RuntimeException ex) {
+            for (Request request : batch) {
+                try {
+                    complete(request, classifier.classify(request.dataPoint.getData()));
+                } catch (RuntimeException rowEx) {
+                    request.result.completeExceptionally(rowEx);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            complete(batch.get(i), classLabels.get(i));
+        }
+    }
+
+    private void complete(Request request, String classLabel) {
+        stats.recordRequest(System.nanoTime() - request.startNanos);
+        request.result.complete(classLabel);
+    }
+}
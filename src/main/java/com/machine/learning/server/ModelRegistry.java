@@ -0,0 +1,73 @@
+package com.machine.learning.server;
+
+import com.machine.learning.classifier.Classifier;
+import com.machine.learning.classifier.ModelSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The trained classifiers served by the inference server, each behind its own micro-batcher, by name.
+ */
+public class ModelRegistry implements AutoCloseable {
+    private final Map<String, MicroBatcher> batchers = new LinkedHashMap<>();
+
+    /**
+     * Creates a registry of classifiers
+     *
+     * @param classifiers the trained classifiers by name
+     * @param maxBatchSize the most requests to classify in one call
+     * @param maxDelayMicros the longest time to hold a request while waiting for more to batch with it
+     */
+    public ModelRegistry(Map<String, Classifier> classifiers, int maxBatchSize, long maxDelayMicros) {
+        for (Map.Entry<String, Classifier> entry : classifiers.entrySet()) {
+            batchers.put(entry.getKey(), new MicroBatcher(entry.getKey(), entry.getValue(), maxBatchSize, maxDelayMicros));
+        }
+    }
+
+    /**
+     * Loads model snapshots, naming each model after its file without the extension
+     *
+     * @param files the paths of the model snapshots
+     * @param maxBatchSize the most requests to classify in one call
+     * @param maxDelayMicros the longest time to hold a request while waiting for more to batch with it
+     * @return the registry
+     * @throws IOException if a snapshot can't be loaded
+     */
+    public static ModelRegistry load(List<String> files, int maxBatchSize, long maxDelayMicros) throws IOException {
+        Map<String, Classifier> classifiers = new LinkedHashMap<>();
+        for (String file : files) {
+            Path path = Paths.get(file);
+            String name = path.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+            classifiers.put(name, ModelSnapshot.open(path));
+        }
+        return new ModelRegistry(classifiers, maxBatchSize, maxDelayMicros);
+    }
+
+    /**
+     * @return the names of the models, in the order they were registered
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(batchers.keySet());
+    }
+
+    /**
+     * @param name the name of the model
+     * @return the batcher for the model, or null if there is no model with the name
+     */
+    public MicroBatcher get(String name) {
+        return batchers.get(name);
+    }
+
+    @Override
+    public void close() {
+        for (MicroBatcher batcher : batchers.values()) {
+            batcher.close();
+        }
+    }
+}
@@ -1,109 +1,392 @@
 package com.machine.learning.util;
 
 import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.SufficientStatistics;
+import com.machine.learning.model.ValueDictionary;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class ValueDifferenceMetric {
-    private static final AtomicInteger ZERO = new AtomicInteger(0);
+    /* Most entries in one attribute's table of value differences. Attributes with more values are compared from their class rates. */
+    static final int MAX_TABLE_ENTRIES = 1 << 16;
 
-    /* Counts all of the occurences of attributes and attribute-classes */
-    List<Map<String, AtomicInteger>> attributeCount;
-    List<Map<String, Map<String, AtomicInteger>>> attributeClassCount;
+    /* Dictionaries used to encode the training data, indexed by attribute. They're never changed once published:
+       add encodes new values into copies and publishes those when the update is complete. */
+    private volatile ValueDictionary[] attributeDictionaries;
+    private volatile ValueDictionary classDictionary;
 
-    /* Caches the calculated distance between two attributes */
-    List<Map<String, Double>> attributeDistance;
+    /* Counts all of the occurences of attributes and attribute-classes, indexed by attribute, value code and class id */
+    int[][] attributeCount;
+    int[][][] attributeClassCount;
+
+    /* Rate of occurance of each class for each attribute value, indexed the same way as attributeClassCount */
+    double[][][] attributeClassRate;
+
+    /* Differences between the values of each attribute, rebuilt from the class rates whenever the counts change */
+    private volatile DifferenceTables tables;
+
+    private int numAttributes, numClasses;
 
-    /* Set of observed classes in data*/
-    Set<String> classLabels;
-    
-    private int numAttributes;
-    
     /**
      * Creates a value difference metric that can compute the difference between two
      * points based on the occurance rates of classes on each attribute value.
      */
     public ValueDifferenceMetric(List<DataPoint> dataPoints) {
-        if (dataPoints.size() > 0) {
-            numAttributes = dataPoints.get(0).getData().get().size();
+        this(EncodedDataSet.encode(dataPoints));
+    }
+
+    /**
+     * Creates a value difference metric from dictionary-encoded points, which are counted in shards on the
+     * fork-join pool if there are enough of them.
+     *
+     * @param dataSet the encoded points to count class occurances on
+     */
+    public ValueDifferenceMetric(EncodedDataSet dataSet) {
+        this(SufficientStatistics.count(dataSet, false));
+    }
+
+    /**
+     * Creates a value difference metric from counts, such as the merged counts of several shards of the
+     * training data.
+     *
+     * @param statistics the counts of the training data
+     */
+    public ValueDifferenceMetric(SufficientStatistics statistics) {
+        numAttributes = statistics.numAttributes();
+        numClasses = statistics.numClasses();
+        attributeDictionaries = statistics.getAttributeDictionaries();
+        classDictionary = statistics.getClassDictionary();
+
+        // The counts are updated in place by add and remove, so they're copied from the statistics
+        int[][][] counts = statistics.getAttributeClassCounts();
+        attributeCount = new int[numAttributes][];
+        attributeClassCount = new int[numAttributes][][];
+        for (int i = 0; i < numAttributes; i++) {
+            attributeCount[i] = new int[counts[i].length];
+            attributeClassCount[i] = new int[counts[i].length][];
+            for (int value = 0; value < counts[i].length; value++) {
+                attributeClassCount[i][value] = counts[i][value].clone();
+                for (int count : counts[i][value]) {
+                    attributeCount[i][value] += count;
+                }
+            }
         }
-        makeAttributeLists();
-        
-        for (DataPoint dataPoint : dataPoints) {
-            String classLabel = dataPoint.getClassLabel().get();
-            List attributes = dataPoint.getData().get();
 
-            for (int attrNum = 0; attrNum < attributes.size(); attrNum++) {
-                String attributeValue = (String)attributes.get(attrNum);
+        computeClassRates();
+        tables = new DifferenceTables(attributeClassRate);
+    }
 
-                ensureAttributeClass(attrNum, attributeValue, classLabel);
-                attributeCount.get(attrNum).get(attributeValue).incrementAndGet();
-                attributeClassCount.get(attrNum).get(attributeValue).get(classLabel).incrementAndGet();
+    /**
+     * Recreates a value difference metric from counts taken from another metric, such as one read back from
+     * a model snapshot.
+     *
+     * @param attributeDictionaries the dictionaries the counts are indexed by, one per attribute
+     * @param classDictionary the dictionary of class labels
+     * @param attributeClassCount the occurences of each class for each attribute value, indexed by attribute,
+     *                            value code and class id
+     */
+    public ValueDifferenceMetric(ValueDictionary[] attributeDictionaries, ValueDictionary classDictionary,
+                                 int[][][] attributeClassCount) {
+        this.numAttributes = attributeDictionaries.length;
+        this.numClasses = classDictionary.size();
+        this.attributeDictionaries = attributeDictionaries;
+        this.classDictionary = classDictionary;
+        this.attributeClassCount = attributeClassCount;
+
+        attributeCount = new int[numAttributes][];
+        for (int i = 0; i < numAttributes; i++) {
+            attributeCount[i] = new int[attributeClassCount[i].length];
+            for (int value = 0; value < attributeCount[i].length; value++) {
+                for (int count : attributeClassCount[i][value]) {
+                    attributeCount[i][value] += count;
+                }
             }
+        }
 
-            classLabels.add(classLabel);
+        computeClassRates();
+        tables = new DifferenceTables(attributeClassRate);
+    }
+
+    /**
+     * Divides the class counts for each attribute value by the number of occurances of the value,
+     * so that attribute differences don't need to divide. Values that never occured get a rate of 0
+     * for every class.
+     */
+    private void computeClassRates() {
+        attributeClassRate = new double[numAttributes][][];
+        for (int i = 0; i < numAttributes; i++) {
+            attributeClassRate[i] = new double[attributeCount[i].length][numClasses];
+            for (int value = 0; value < attributeCount[i].length; value++) {
+                computeClassRate(i, value);
+            }
         }
     }
 
     /**
-     * Initializes the data structures for caculating VDM
+     * Recomputes the class rates of a single attribute value from its counts
+     *
+     * @param attrNum the position of the attribute
+     * @param value the code of the attribute value
      */
-    private void makeAttributeLists() {
-        attributeCount = new ArrayList<>();
-        attributeClassCount = new ArrayList<>();
-        attributeDistance = new ArrayList<>();
+    private void computeClassRate(int attrNum, int value) {
+        int valueOccurances = Math.max(attributeCount[attrNum][value], 1);
+        double[] rates = attributeClassRate[attrNum][value];
+        for (int classId = 0; classId < numClasses; classId++) {
+            rates[classId] = (double) attributeClassCount[attrNum][value][classId] / valueOccurances;
+        }
+    }
 
-        for (int i = 0; i < numAttributes; i++) {
-            attributeCount.add(new HashMap<String, AtomicInteger>());
-            attributeClassCount.add(new HashMap<String, Map<String, AtomicInteger>>());
-            attributeDistance.add(new HashMap<String, Double>());
+    /**
+     * Adds the class occurances of the given points to the metric. Only the class rates of the attribute values
+     * in the new points are recomputed, unless a new class appears, which changes the length of every rate vector.
+     * Updates are serialized, and other threads can keep computing distances and encoding points while one runs.
+     *
+     * @param dataSet the points to add
+     */
+    public void add(EncodedDataSet dataSet) {
+        update(dataSet, 1);
+    }
+
+    /**
+     * Subtracts the class occurances of the given points from the metric. The points must have been counted before.
+     *
+     * @param dataSet the points to remove
+     * @throws IllegalArgumentException if a point was never counted, in which case nothing is removed
+     */
+    public void remove(EncodedDataSet dataSet) {
+        update(dataSet, -1);
+    }
+
+    /**
+     * Adds or subtracts the class occurances of the given points
+     *
+     * @param dataSet the points to count
+     * @param delta 1 to add the points, -1 to remove them
+     */
+    private synchronized void update(EncodedDataSet dataSet, int delta) {
+        ValueDictionary[] dictionaries = attributeDictionaries;
+        ValueDictionary classes = classDictionary;
+        boolean sharedCodes = dataSet.usesDictionaries(dictionaries) && dataSet.getClassDictionary() == classes;
+        if (!sharedCodes && delta > 0) {
+            // Other threads may be encoding points with the published dictionaries, so new values go into copies,
+            // which also leaves the training data's dictionaries unchanged
+            dictionaries = ValueDictionary.copy(dictionaries);
+            classes = classes.copy();
+        }
+        int[][] codes = new int[dataSet.size()][];
+        int[] classIds = new int[dataSet.size()];
+        for (int row = 0; row < dataSet.size(); row++) {
+            if (sharedCodes) {
+                codes[row] = dataSet.row(row);
+                classIds[row] = dataSet.classId(row);
+            } else {
+                List<String> values = dataSet.getRow(row);
+                codes[row] = new int[numAttributes];
+                for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                    codes[row][attrNum] = updateCode(dictionaries[attrNum], values.get(attrNum), delta);
+                }
+                classIds[row] = updateCode(classes, dataSet.getClassLabel(row), delta);
+            }
         }
 
-        classLabels = new HashSet<>();
+        boolean newClasses = classes.size() > numClasses;
+        growCounts(dictionaries, classes);
+        applyCounts(codes, classIds, delta);
+        if (delta < 0) {
+            // A point made of seen values can still never have been added, which shows as a count below 0
+            int row = firstNegativeRow(codes, classIds);
+            if (row >= 0) {
+                applyCounts(codes, classIds, -delta);
+                throw new IllegalArgumentException("Can't remove " + dataSet.getRow(row) + ", which was never added");
+            }
+        }
+
+        if (newClasses) {
+            computeClassRates();
+        } else {
+            for (int[] rowCodes : codes) {
+                for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                    computeClassRate(attrNum, rowCodes[attrNum]);
+                }
+            }
+        }
+        tables = new DifferenceTables(attributeClassRate);
+        attributeDictionaries = dictionaries;
+        classDictionary = classes;
+    }
+
+    /**
+     * Adds delta to the counts of the values and classes of the given points
+     *
+     * @param codes the value codes of each point
+     * @param classIds the class id of each point
+     * @param delta 1 to add the points, -1 to remove them
+     */
+    private void applyCounts(int[][] codes, int[] classIds, int delta) {
+        for (int row = 0; row < codes.length; row++) {
+            for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                attributeCount[attrNum][codes[row][attrNum]] += delta;
+                attributeClassCount[attrNum][codes[row][attrNum]][classIds[row]] += delta;
+            }
+        }
+    }
+
+    /**
+     * @param codes the value codes of each point
+     * @param classIds the class id of each point
+     * @return the first point with a count below 0, or -1 if there isn't one
+     */
+    private int firstNegativeRow(int[][] codes, int[] classIds) {
+        for (int row = 0; row < codes.length; row++) {
+            for (int attrNum = 0; attrNum < numAttributes; attrNum++) {
+                if (attributeClassCount[attrNum][codes[row][attrNum]][classIds[row]] < 0) {
+                    return row;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the code of a value being added or removed, adding new values to the dictionary
+     *
+     * @param dictionary the dictionary of the attribute or class label, which is a private copy if delta is 1
+     * @param value the value
+     * @param delta 1 if the value is being added, -1 if it is being removed
+     * @return the code of the value
+     */
+    private static int updateCode(ValueDictionary dictionary, String value, int delta) {
+        int code = dictionary.code(value);
+        if (code != ValueDictionary.UNSEEN) {
+            return code;
+        }
+        if (delta < 0) {
+            throw new IllegalArgumentException("Can't remove " + value + ", which was never added");
+        }
+        return dictionary.encode(value);
     }
 
     /**
-     * Ensures that the given attribute value can be counted, and the class label can
-     * be counted for the given class label.
+     * Grows the counters and rates to fit every value and class in the dictionaries. New counters start at 0.
      *
-     * @param attributeNum the position of the provided attribute value
-     * @param attributeValue the attribute value to be ensured is countable
-     * @param classLabel the class label associated with the data point containing the attribute value
+     * @param dictionaries the attribute dictionaries the counters must fit
+     * @param classes the class dictionary the counters must fit
      */
-    private void ensureAttributeClass(int attributeNum, String attributeValue, String classLabel) {
-        if (!attributeCount.get(attributeNum).containsKey(attributeValue)) {
-            attributeCount.get(attributeNum).put(attributeValue, new AtomicInteger());
-            attributeClassCount.get(attributeNum).put(attributeValue, new HashMap<String, AtomicInteger>());
+    private void growCounts(ValueDictionary[] dictionaries, ValueDictionary classes) {
+        int newNumClasses = classes.size();
+        for (int i = 0; i < numAttributes; i++) {
+            int cardinality = dictionaries[i].size();
+            if (attributeCount[i].length < cardinality) {
+                attributeCount[i] = Arrays.copyOf(attributeCount[i], cardinality);
+                attributeClassCount[i] = Arrays.copyOf(attributeClassCount[i], cardinality);
+                attributeClassRate[i] = Arrays.copyOf(attributeClassRate[i], cardinality);
+            }
+            for (int value = 0; value < cardinality; value++) {
+                if (attributeClassCount[i][value] == null) {
+                    attributeClassCount[i][value] = new int[newNumClasses];
+                    attributeClassRate[i][value] = new double[newNumClasses];
+                } else if (attributeClassCount[i][value].length < newNumClasses) {
+                    attributeClassCount[i][value] = Arrays.copyOf(attributeClassCount[i][value], newNumClasses);
+                }
+            }
+        }
+        if (newNumClasses > numClasses) {
+            numClasses = newNumClasses;
         }
+    }
+
+    /**
+     * Encodes a point with the dictionaries this metric was built from
+     *
+     * @param point the attribute values to encode
+     * @return the value codes for the point, with ValueDictionary.UNSEEN for values that weren't in training
+     */
+    public int[] encode(List point) {
+        return ValueDictionary.encodeRow(attributeDictionaries, point);
+    }
 
-        if (!attributeClassCount.get(attributeNum).get(attributeValue).containsKey(classLabel)) {
-            attributeClassCount.get(attributeNum).get(attributeValue).put(classLabel, new AtomicInteger());
+    /**
+     * @return the class dictionary this metric was built from
+     */
+    public ValueDictionary getClassDictionary() {
+        return classDictionary;
+    }
+
+    /**
+     * @return a copy of the occurences of each class for each attribute value, indexed by attribute,
+     * value code and class id
+     */
+    public synchronized int[][][] getAttributeClassCounts() {
+        int[][][] counts = new int[numAttributes][][];
+        for (int i = 0; i < numAttributes; i++) {
+            counts[i] = new int[attributeClassCount[i].length][];
+            for (int value = 0; value < counts[i].length; value++) {
+                counts[i][value] = attributeClassCount[i][value].clone();
+            }
         }
+        return counts;
+    }
+
+    /**
+     * @return the attribute dictionaries this metric was built from
+     */
+    public ValueDictionary[] getAttributeDictionaries() {
+        return attributeDictionaries.clone();
     }
 
     /**
      * Calculate the distance between two data points based on the VDM between each of the attributes.
      * Uses euclidean distance (p=2) for each attribute distance.
-     * 
+     *
      * @param pointA the first point
      * @param pointB the second point
      * @return the distance between the two points, using the VDM to compare attributes
+     * @throws IllegalArgumentException if the points have different numbers of attributes
      */
     public double calculateDistance(List<String> pointA, List<String> pointB) {
+        if (pointA.size() != pointB.size()) {
+            throw new IllegalArgumentException("Can't compare " + pointA + " with " + pointB
+                    + ", which have different numbers of attributes");
+        }
+        return calculateDistance(encode(pointA), encode(pointB));
+    }
+
+    /**
+     * Calculate the distance between two encoded data points based on the VDM between each of the attributes.
+     *
+     * @param pointA the value codes of the first point
+     * @param pointB the value codes of the second point
+     * @return the distance between the two points, using the VDM to compare attributes
+     */
+    public double calculateDistance(int[] pointA, int[] pointB) {
+        DifferenceTables current = tables;
+        double sum = 0.0;
+        for (int i = 0; i < pointA.length; i++) {
+            double difference = current.difference(i, pointA[i], pointB[i]);
+            sum += difference * difference;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Calculate the distance between a row of an encoded data set and an encoded point, reading the row's
+     * codes straight from the data set's columns.
+     *
+     * @param dataSet the data holding the first point, encoded with this metric's dictionaries
+     * @param row the position of the first point in the data set
+     * @param point the value codes of the second point
+     * @return the distance between the two points, using the VDM to compare attributes
+     */
+    public double calculateDistance(EncodedDataSet dataSet, int row, int[] point) {
+        DifferenceTables current = tables;
         double sum = 0.0;
-	if(pointA.size() != pointB.size())
-	    System.out.println(pointA + " " + pointB + "!");
-        for (int i = 0; i < pointA.size(); i++) {
-            sum += Math.pow(attributeDifference(i, pointA.get(i), pointB.get(i)), 2);
+        for (int i = 0; i < point.length; i++) {
+            double difference = current.difference(i, dataSet.value(row, i), point[i]);
+            sum += difference * difference;
         }
-        return Math.pow(sum, 1 / 2.0);
+        return Math.sqrt(sum);
     }
 
     private static final double Q = 1;
@@ -118,32 +401,101 @@ public class ValueDifferenceMetric {
      * @param the value difference metric distance between the two attribute values
      */
     public double attributeDifference(int attributeNum, String valueA, String valueB) {
-        if (valueA.compareTo(valueB) > 0) {
-            String temp = valueA;
-            valueA = valueB;
-            valueB = temp;
-        }
-        String pairName = valueA + "," + valueB;
-        
-        if (!attributeDistance.get(attributeNum).containsKey(pairName)) {
-            Map<String, AtomicInteger> classOccurancesA = attributeClassCount.get(attributeNum).getOrDefault(valueA,
-													     Collections.emptyMap());
-            Map<String, AtomicInteger> classOccurancesB = attributeClassCount.get(attributeNum).getOrDefault(valueB,
-													     Collections.emptyMap());
-            int valueOccurancesA = attributeCount.get(attributeNum).getOrDefault(valueA, new AtomicInteger(1)).intValue();
-            int valueOccurancesB = attributeCount.get(attributeNum).getOrDefault(valueB, new AtomicInteger(1)).intValue();
-
-            double sum = 0.0;
-            for (String classLabel : classLabels) {
-                double diff = (classOccurancesA.getOrDefault(classLabel, ZERO).doubleValue() / valueOccurancesA -
-                               classOccurancesB.getOrDefault(classLabel, ZERO).doubleValue() / valueOccurancesB);
-                sum += Math.pow(Math.abs(diff), Q);
-            }
-            double res =  Math.pow(sum, 1 / Q);
-
-            attributeDistance.get(attributeNum).put(pairName, res);
-        }
-        
-        return attributeDistance.get(attributeNum).get(pairName);           
+        ValueDictionary dictionary = attributeDictionaries[attributeNum];
+        return attributeDifference(attributeNum, dictionary.code(valueA), dictionary.code(valueB));
+    }
+
+    /**
+     * Calculates the value difference metric between two encoded attribute values.
+     *
+     * @param attributeNum the position of the attribute value in the data point
+     * @param valueA the code of the first attribute value
+     * @param valueB the code of the second attribute value
+     * @return the value difference metric distance between the two attribute values
+     */
+    public double attributeDifference(int attributeNum, int valueA, int valueB) {
+        return tables.difference(attributeNum, valueA, valueB);
+    }
+
+    /**
+     * Calculates the value difference metric between two class rate vectors
+     *
+     * @param classRatesA the rate of occurance of each class for the first value
+     * @param classRatesB the rate of occurance of each class for the second value
+     * @return the value difference metric distance between the two values
+     */
+    private static double rateDifference(double[] classRatesA, double[] classRatesB) {
+        double sum = 0.0;
+        for (int classId = 0; classId < classRatesA.length; classId++) {
+            double diff = classRatesA[classId] - classRatesB[classId];
+            sum += Math.pow(Math.abs(diff), Q);
+        }
+        return Math.pow(sum, 1 / Q);
+    }
+
+    /**
+     * The difference between every pair of values of each attribute, so that comparing two points is only array
+     * lookups. Each attribute's table is indexed by valueA * width + valueB, where the last value of the attribute
+     * stands for every value that wasn't seen in training. Tables are never changed once built, so any number of
+     * threads can compute distances while points are added to or removed from the metric.
+     */
+    private static final class DifferenceTables {
+        /* The number of values of each attribute, counting the one that stands for unseen values */
+        final int[] widths;
+
+        /* The table for each attribute, or null if the attribute has too many values for a table */
+        final double[][] differences;
+
+        /* The class rates of the attributes that have no table, with the unseen value last */
+        final double[][][] classRates;
+
+        DifferenceTables(double[][][] attributeClassRate) {
+            int numAttributes = attributeClassRate.length;
+            widths = new int[numAttributes];
+            differences = new double[numAttributes][];
+            classRates = new double[numAttributes][][];
+            for (int i = 0; i < numAttributes; i++) {
+                int numClasses = attributeClassRate[i].length == 0 ? 0 : attributeClassRate[i][0].length;
+                int width = attributeClassRate[i].length + 1;
+                double[][] rates = Arrays.copyOf(attributeClassRate[i], width);
+                rates[width - 1] = new double[numClasses];
+
+                widths[i] = width;
+                if ((long) width * width > MAX_TABLE_ENTRIES) {
+                    for (int value = 0; value < width - 1; value++) {
+                        rates[value] = rates[value].clone();
+                    }
+                    classRates[i] = rates;
+                    continue;
+                }
+                double[] table = new double[width * width];
+                for (int valueA = 0; valueA < width; valueA++) {
+                    for (int valueB = valueA + 1; valueB < width; valueB++) {
+                        double difference = rateDifference(rates[valueA], rates[valueB]);
+                        table[valueA * width + valueB] = difference;
+                        table[valueB * width + valueA] = difference;
+                    }
+                }
+                differences[i] = table;
+            }
+        }
+
+        double difference(int attributeNum, int valueA, int valueB) {
+            if (valueA == valueB) {
+                return 0.0;
+            }
+            int width = widths[attributeNum];
+            if (valueA < 0 || valueA >= width) {
+                valueA = width - 1;
+            }
+            if (valueB < 0 || valueB >= width) {
+                valueB = width - 1;
+            }
+            double[] table = differences[attributeNum];
+            if (table != null) {
+                return table[valueA * width + valueB];
+            }
+            return rateDifference(classRates[attributeNum][valueA], classRates[attributeNum][valueB]);
+        }
     }
 }
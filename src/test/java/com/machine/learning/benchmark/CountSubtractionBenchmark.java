@@ -0,0 +1,66 @@
+package com.machine.learning.benchmark;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.SufficientStatistics;
+
+import java.util.Random;
+
+/**
+ * Measures how long finding the counts of every cross validation training set takes by counting each training
+ * set, and by counting all of the data once and subtracting the counts of each fold, for several numbers of
+ * folds. Run with the number of rows, which defaults to 200000.
+ */
+public class CountSubtractionBenchmark {
+    private static final int[] FOLDS = {5, 10, 50};
+
+    public static void main(String... args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        EncodedDataSet data = EncodedDataSet.encodeRows(NearestNeighborsBenchmark.generate(size, new Random(42)));
+        System.out.printf("%d rows, %d attributes%n", size, data.numAttributes());
+        System.out.printf("%-8s %-6s %14s %14s %10s%n", "pairs", "folds", "counting ms", "subtracting ms", "speedup");
+        for (boolean pairs : new boolean[] {false, true}) {
+            for (int numberOfFolds : FOLDS) {
+                int[][] folds = new int[numberOfFolds][];
+                int[][] training = new int[numberOfFolds][];
+                for (int i = 0; i < numberOfFolds; i++) {
+                    int from = (int) ((long) size * i / numberOfFolds);
+                    int to = (int) ((long) size * (i + 1) / numberOfFolds);
+                    folds[i] = new int[to - from];
+                    training[i] = new int[size - folds[i].length];
+                    for (int row = 0, t = 0; row < size; row++) {
+                        if (row >= from && row < to) {
+                            folds[i][row - from] = row;
+                        } else {
+                            training[i][t++] = row;
+                        }
+                    }
+                }
+                // warm up each before timing
+                counting(data, training, pairs);
+                subtracting(data, folds, pairs);
+
+                long start = System.nanoTime();
+                counting(data, training, pairs);
+                double countingMillis = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                subtracting(data, folds, pairs);
+                double subtractingMillis = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-8s %-6d %14.0f %14.0f %9.2fx%n", pairs, numberOfFolds, countingMillis,
+                                  subtractingMillis, countingMillis / subtractingMillis);
+            }
+        }
+    }
+
+    private static void counting(EncodedDataSet data, int[][] training, boolean pairs) {
+        for (int[] rows : training) {
+            SufficientStatistics.count(data.subset(rows), pairs);
+        }
+    }
+
+    private static void subtracting(EncodedDataSet data, int[][] folds, boolean pairs) {
+        SufficientStatistics full = SufficientStatistics.count(data, pairs);
+        for (int[] rows : folds) {
+            full.subtract(SufficientStatistics.count(data.subset(rows), pairs));
+        }
+    }
+}
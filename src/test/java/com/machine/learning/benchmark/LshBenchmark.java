@@ -0,0 +1,107 @@
+package com.machine.learning.benchmark;
+
+import com.machine.learning.classifier.KNearestNeighbors;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.util.ValueDifferenceMetric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how many of the true nearest neighbors approximate kNN finds with locality-sensitive hashing, and how
+ * quickly, for several numbers of tables, hashes per table and bucket widths. A neighbor counts as found when it
+ * is no further from the query than the kth nearest training point, so ties at the kth distance aren't counted
+ * as misses. Run with the number of reference rows, which defaults to 100000.
+ */
+public class LshBenchmark {
+    private static final int QUERIES = 200;
+    private static final int K = 5;
+
+    /* tables, hashes per table, bucket width */
+    private static final double[][] SETTINGS = {
+        {1, 2, 1.0}, {4, 2, 1.0}, {8, 2, 1.0}, {4, 4, 1.0}, {8, 4, 1.0}, {16, 4, 1.0}, {8, 4, 0.5}, {16, 6, 0.5}
+    };
+
+    public static void main(String... args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random random = new Random(42);
+        EncodedDataSet reference = EncodedDataSet.encodeRows(NearestNeighborsBenchmark.generate(size, random));
+        EncodedDataSet queries = EncodedDataSet.encodeRows(NearestNeighborsBenchmark.generate(QUERIES, random));
+        List<List<String>> queryRows = new ArrayList<>();
+        for (int row = 0; row < queries.size(); row++) {
+            queryRows.add(queries.getRow(row));
+        }
+
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(reference);
+        double[] kthDistances = new double[QUERIES];
+        for (int query = 0; query < QUERIES; query++) {
+            kthDistances[query] = kthDistance(reference, vdm, vdm.encode(queryRows.get(query)));
+        }
+
+        KNearestNeighbors exact = new KNearestNeighbors(K, Integer.MAX_VALUE);
+        exact.train(reference);
+        String[] exactLabels = new String[QUERIES];
+        for (int i = 0; i < 20; i++) {
+            exact.classify(queryRows.get(i));
+        }
+        long start = System.nanoTime();
+        for (int query = 0; query < QUERIES; query++) {
+            exactLabels[query] = exact.classify(queryRows.get(query));
+        }
+        double exactMicros = (System.nanoTime() - start) / 1e3 / QUERIES;
+
+        System.out.printf("%d reference rows, %d queries, k = %d, exact scan %.0f us per query%n",
+                          size, QUERIES, K, exactMicros);
+        System.out.printf("%-7s %-7s %-6s %10s %12s %12s %10s %10s%n",
+                          "tables", "hashes", "width", "recall@k", "candidates", "us/query", "speedup", "agreement");
+        for (double[] setting : SETTINGS) {
+            KNearestNeighbors approximate =
+                KNearestNeighbors.approximate(K, (int) setting[0], (int) setting[1], setting[2]);
+            approximate.train(reference);
+            for (int i = 0; i < 20; i++) {
+                approximate.classify(queryRows.get(i));
+            }
+
+            long evaluations = approximate.getDistanceEvaluations();
+            start = System.nanoTime();
+            int agreed = 0;
+            for (int query = 0; query < QUERIES; query++) {
+                if (approximate.classify(queryRows.get(query)).equals(exactLabels[query])) {
+                    agreed++;
+                }
+            }
+            double micros = (System.nanoTime() - start) / 1e3 / QUERIES;
+            double candidates = (double) (approximate.getDistanceEvaluations() - evaluations) / QUERIES;
+
+            double recall = 0.0;
+            for (int query = 0; query < QUERIES; query++) {
+                int[] codes = vdm.encode(queryRows.get(query));
+                int hits = 0;
+                for (int row : approximate.neighbors(queryRows.get(query))) {
+                    if (vdm.calculateDistance(reference, row, codes) <= kthDistances[query]) {
+                        hits++;
+                    }
+                }
+                recall += (double) hits / K;
+            }
+
+            System.out.printf("%-7d %-7d %-6.2f %10.3f %12.0f %12.0f %9.2fx %10.3f%n",
+                              (int) setting[0], (int) setting[1], setting[2], recall / QUERIES, candidates,
+                              micros, exactMicros / micros, (double) agreed / QUERIES);
+        }
+    }
+
+    /**
+     * @return the distance from the query to its kth nearest reference point
+     */
+    private static double kthDistance(EncodedDataSet reference, ValueDifferenceMetric vdm, int[] codes) {
+        double[] distances = new double[reference.size()];
+        for (int row = 0; row < distances.length; row++) {
+            distances[row] = vdm.calculateDistance(reference, row, codes);
+        }
+        Arrays.sort(distances);
+        return distances[Math.min(K, distances.length) - 1];
+    }
+}
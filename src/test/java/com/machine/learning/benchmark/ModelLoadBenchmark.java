@@ -0,0 +1,90 @@
+package com.machine.learning.benchmark;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+import com.machine.learning.classifier.Classifier;
+import com.machine.learning.classifier.ID3;
+import com.machine.learning.classifier.KNearestNeighbors;
+import com.machine.learning.classifier.ModelSnapshot;
+import com.machine.learning.classifier.NaiveBayes;
+import com.machine.learning.classifier.TreeAugmentedNaiveBayes;
+import com.machine.learning.model.DataModel;
+import com.machine.learning.model.EncodedDataSet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Compares how long it takes to get a classifier ready to classify by retraining it from its data set
+ * against loading it from a model snapshot. Run with the names of data files to use, or none for the
+ * bundled data sets.
+ */
+public class ModelLoadBenchmark {
+    private static final int RUNS = 50;
+
+    private static final List<String> DEFAULT_FILES = Arrays.asList(
+        "breast-cancer-wisconsin.data.txt",
+        "glass.data.txt",
+        "house-votes-84.data.txt",
+        "iris.data.txt",
+        "soybean-small.data.txt"
+    );
+
+    public static void main(String... args) throws IOException {
+        List<String> files = args.length > 0 ? Arrays.asList(args) : DEFAULT_FILES;
+        List<Supplier<Classifier>> classifiers = Arrays.asList(
+            NaiveBayes::new, TreeAugmentedNaiveBayes::new, ID3::new, () -> new KNearestNeighbors(5));
+
+        System.out.printf("%-34s %-24s %10s %12s %12s %14s%n",
+                          "data set", "classifier", "bytes", "train ms", "load ms", "first query us");
+        for (String file : files) {
+            EncodedDataSet data = DynamicObject.newInstance(DataModel.class).fromFile(file).encode();
+            for (Supplier<Classifier> factory : classifiers) {
+                Path snapshot = Files.createTempFile("model", ".snapshot");
+                try {
+                    run(file, data, factory, snapshot);
+                } finally {
+                    Files.delete(snapshot);
+                }
+            }
+        }
+    }
+
+    private static void run(String file, EncodedDataSet data, Supplier<Classifier> factory, Path snapshot)
+            throws IOException {
+        long[] trainTimes = new long[RUNS];
+        Classifier trained = null;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            trained = factory.get();
+            trained.train(data);
+            trainTimes[run] = System.nanoTime() - start;
+        }
+        ModelSnapshot.write(trained, snapshot);
+
+        long[] loadTimes = new long[RUNS];
+        long[] queryTimes = new long[RUNS];
+        List<String> query = data.getRow(0);
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            Classifier loaded = ModelSnapshot.open(snapshot);
+            loadTimes[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            loaded.classify(query);
+            queryTimes[run] = System.nanoTime() - start;
+        }
+
+        System.out.printf("%-34s %-24s %10d %12.3f %12.3f %14.1f%n", file, trained, Files.size(snapshot),
+                          median(trainTimes) / 1e6, median(loadTimes) / 1e6, median(queryTimes) / 1e3);
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
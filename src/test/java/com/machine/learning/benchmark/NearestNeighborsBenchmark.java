@@ -0,0 +1,152 @@
+package com.machine.learning.benchmark;
+
+import com.machine.learning.classifier.KNearestNeighbors;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.util.ValueDifferenceMetric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Measures kNN queries per second on a large synthetic reference set, comparing the classifier's bounded-heap
+ * selection and array vote tally with sorting every training point and tallying votes in a map, which is
+ * how neighbors used to be found, and the classifier's serial scan with its parallel scan. Run with the number
+ * of reference rows, which defaults to 100000.
+ */
+public class NearestNeighborsBenchmark {
+    private static final int ATTRIBUTES = 10;
+    private static final int VALUES = 6;
+    private static final int CLASSES = 4;
+    private static final int QUERIES = 200;
+    private static final int[] KS = {1, 5, 15};
+
+    public static void main(String... args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random random = new Random(42);
+        EncodedDataSet reference = EncodedDataSet.encodeRows(generate(size, random));
+        EncodedDataSet queries = EncodedDataSet.encodeRows(generate(QUERIES, random));
+        List<List<String>> queryRows = new ArrayList<>();
+        for (int row = 0; row < queries.size(); row++) {
+            queryRows.add(queries.getRow(row));
+        }
+
+        System.out.printf("%d reference rows, %d queries%n", size, QUERIES);
+        System.out.printf("%-4s %14s %14s %10s %14s %10s%n",
+                          "k", "sort qps", "heap qps", "speedup", "parallel qps", "speedup");
+        for (int k : KS) {
+            SortingNearestNeighbors sorting = new SortingNearestNeighbors(reference, k);
+            KNearestNeighbors heap = new KNearestNeighbors(k, Integer.MAX_VALUE);
+            heap.train(reference);
+            KNearestNeighbors parallel = new KNearestNeighbors(k, 0);
+            parallel.train(reference);
+
+            // warm up each before timing
+            for (int i = 0; i < 20; i++) {
+                sorting.classify(queryRows.get(i));
+                heap.classify(queryRows.get(i));
+                parallel.classify(queryRows.get(i));
+            }
+            double sortQps = queriesPerSecond(queryRows, sorting::classify);
+            double heapQps = queriesPerSecond(queryRows, heap::classify);
+            double parallelQps = queriesPerSecond(queryRows, parallel::classify);
+            System.out.printf("%-4d %14.1f %14.1f %9.2fx %14.1f %9.2fx%n",
+                              k, sortQps, heapQps, heapQps / sortQps, parallelQps, parallelQps / heapQps);
+        }
+    }
+
+    private static double queriesPerSecond(List<List<String>> queries,
+                                           Function<List<String>, String> classify) {
+        long start = System.nanoTime();
+        for (List<String> query : queries) {
+            classify.apply(query);
+        }
+        return queries.size() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Generates rows whose attribute values lean towards their class, so that neighbors are informative
+     */
+    static List<String[]> generate(int size, Random random) {
+        List<String[]> rows = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            int classId = random.nextInt(CLASSES);
+            String[] fields = new String[ATTRIBUTES + 1];
+            for (int attr = 0; attr < ATTRIBUTES; attr++) {
+                int value = random.nextInt(3) == 0 ? random.nextInt(VALUES) : (classId + attr) % VALUES;
+                fields[attr] = "v" + value;
+            }
+            fields[ATTRIBUTES] = "c" + classId;
+            rows.add(fields);
+        }
+        return rows;
+    }
+
+    /**
+     * The previous way of finding neighbors: sort every training point by distance, then count the votes of
+     * the first k in a map
+     */
+    private static class SortingNearestNeighbors {
+        private final EncodedDataSet trainingData;
+        private final ValueDifferenceMetric vdm;
+        private final int k;
+        private final List<Point> points = new ArrayList<>();
+
+        private static class Point implements Comparable<Point> {
+            final int row;
+            final String clazz;
+            double distance;
+
+            Point(int row, String clazz) {
+                this.row = row;
+                this.clazz = clazz;
+            }
+
+            @Override
+            public int compareTo(Point other) {
+                return Double.compare(distance, other.distance);
+            }
+        }
+
+        SortingNearestNeighbors(EncodedDataSet trainingData, int k) {
+            this.trainingData = trainingData;
+            this.vdm = new ValueDifferenceMetric(trainingData);
+            this.k = k;
+            for (int row = 0; row < trainingData.size(); row++) {
+                points.add(new Point(row, trainingData.getClassLabel(row)));
+            }
+        }
+
+        String classify(List<String> query) {
+            int[] codes = vdm.encode(query);
+            for (Point point : points) {
+                point.distance = vdm.calculateDistance(trainingData, point.row, codes);
+            }
+            Collections.sort(points);
+
+            Map<String, AtomicInteger> votes = new HashMap<>();
+            for (int i = 0; i < k; i++) {
+                votes.computeIfAbsent(points.get(i).clazz, label -> new AtomicInteger()).incrementAndGet();
+            }
+            int max = 0;
+            List<String> winners = new ArrayList<>();
+            for (Map.Entry<String, AtomicInteger> entry : votes.entrySet()) {
+                int count = entry.getValue().get();
+                if (count > max) {
+                    max = count;
+                    winners.clear();
+                    winners.add(entry.getKey());
+                } else if (count == max) {
+                    winners.add(entry.getKey());
+                }
+            }
+            Collections.shuffle(winners);
+            return winners.get(0);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.machine.learning.benchmark;
+
+import com.machine.learning.classifier.KNearestNeighbors;
+import com.machine.learning.classifier.PrototypeSelection;
+import com.machine.learning.model.EncodedDataSet;
+
+import java.util.Random;
+
+/**
+ * Measures how much each prototype selection shrinks a synthetic training set, how long it takes, and how the
+ * accuracy and speed of kNN on held out points change compared with keeping every training point. Run with the
+ * number of training rows, which defaults to 20000.
+ */
+public class PrototypeSelectionBenchmark {
+    private static final int TEST_ROWS = 2000;
+    private static final int[] KS = {1, 5};
+
+    public static void main(String... args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Random random = new Random(42);
+        EncodedDataSet data = EncodedDataSet.encodeRows(NearestNeighborsBenchmark.generate(size + TEST_ROWS, random));
+        int[] trainingRows = new int[size];
+        int[] testRows = new int[TEST_ROWS];
+        for (int row = 0; row < size + TEST_ROWS; row++) {
+            if (row < size) {
+                trainingRows[row] = row;
+            } else {
+                testRows[row - size] = row;
+            }
+        }
+        EncodedDataSet training = data.subset(trainingRows);
+
+        System.out.printf("%d training rows, %d test rows%n", size, TEST_ROWS);
+        System.out.printf("%-3s %-22s %10s %8s %12s %10s %12s%n",
+                          "k", "selection", "kept", "shrink", "select ms", "accuracy", "test ms");
+        for (int k : KS) {
+            report(new KNearestNeighbors(k), "none", training, data, testRows);
+            for (PrototypeSelection reduction : PrototypeSelection.values()) {
+                report(new KNearestNeighbors(k, reduction), reduction.toString(), training, data, testRows);
+            }
+        }
+    }
+
+    private static void report(KNearestNeighbors classifier, String selection, EncodedDataSet training,
+                               EncodedDataSet data, int[] testRows) {
+        long start = System.nanoTime();
+        classifier.train(training);
+        double trainMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        String[] predictions = classifier.classify(data, testRows);
+        double testMillis = (System.nanoTime() - start) / 1e6;
+        int correct = 0;
+        for (int i = 0; i < testRows.length; i++) {
+            if (data.getClassLabel(testRows[i]).equals(predictions[i])) {
+                correct++;
+            }
+        }
+        System.out.printf("%-3d %-22s %10d %7.1fx %12.0f %10.3f %12.0f%n",
+                          classifier.getK(), selection, classifier.getReferenceSize(),
+                          (double) training.size() / classifier.getReferenceSize(), trainMillis,
+                          (double) correct / testRows.length, testMillis);
+    }
+}
@@ -0,0 +1,43 @@
+package com.machine.learning.benchmark;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.SufficientStatistics;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how long counting the training statistics of NaiveBayes and the ValueDifferenceMetric (without
+ * pairs) and of TreeAugmentedNaiveBayes (with pairs) takes on one thread, and split into shards counted on the
+ * fork-join pool and merged. Run with the number of rows, which defaults to 2000000, and set
+ * java.util.concurrent.ForkJoinPool.common.parallelism to try other numbers of workers.
+ */
+public class ShardedTrainingBenchmark {
+    private static final int REPEATS = 5;
+
+    public static void main(String... args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        EncodedDataSet data = EncodedDataSet.encodeRows(NearestNeighborsBenchmark.generate(size, new Random(42)));
+        System.out.printf("%d rows, %d attributes, %d fork-join workers%n",
+                          size, data.numAttributes(), ForkJoinPool.getCommonPoolParallelism());
+        System.out.printf("%-8s %14s %14s %10s%n", "pairs", "one thread ms", "sharded ms", "speedup");
+        for (boolean pairs : new boolean[] {false, true}) {
+            // warm up each before timing
+            SufficientStatistics.count(data, 0, size, pairs);
+            SufficientStatistics.count(data, pairs);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < REPEATS; i++) {
+                SufficientStatistics.count(data, 0, size, pairs);
+            }
+            double serialMillis = (System.nanoTime() - start) / 1e6 / REPEATS;
+            start = System.nanoTime();
+            for (int i = 0; i < REPEATS; i++) {
+                SufficientStatistics.count(data, pairs);
+            }
+            double shardedMillis = (System.nanoTime() - start) / 1e6 / REPEATS;
+            System.out.printf("%-8s %14.0f %14.0f %9.2fx%n",
+                              pairs, serialMillis, shardedMillis, serialMillis / shardedMillis);
+        }
+    }
+}
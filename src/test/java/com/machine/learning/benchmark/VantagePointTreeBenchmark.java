@@ -0,0 +1,68 @@
+package com.machine.learning.benchmark;
+
+import com.machine.learning.classifier.KNearestNeighbors;
+import com.machine.learning.model.EncodedDataSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares kNN queries that scan every reference point with queries that search a vantage point tree, by the
+ * number of distances measured and the latency per query, as the reference set grows. Run with the reference
+ * set sizes to try, which default to 1000, 10000 and 100000.
+ */
+public class VantagePointTreeBenchmark {
+    private static final int K = 5;
+    private static final int QUERIES = 200;
+
+    public static void main(String... args) {
+        int[] sizes = {1000, 10000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.printf("%-10s %12s %14s %14s %12s %12s %10s%n", "rows", "build ms",
+                          "scan dist/q", "tree dist/q", "scan us/q", "tree us/q", "speedup");
+        for (int size : sizes) {
+            Random random = new Random(42);
+            EncodedDataSet reference = EncodedDataSet.encodeRows(NearestNeighborsBenchmark.generate(size, random));
+            EncodedDataSet queries = EncodedDataSet.encodeRows(NearestNeighborsBenchmark.generate(QUERIES, random));
+            List<List<String>> queryRows = new ArrayList<>();
+            for (int row = 0; row < queries.size(); row++) {
+                queryRows.add(queries.getRow(row));
+            }
+
+            KNearestNeighbors scanning = new KNearestNeighbors(K, Integer.MAX_VALUE, false);
+            scanning.train(reference);
+            long start = System.nanoTime();
+            KNearestNeighbors indexed = new KNearestNeighbors(K, Integer.MAX_VALUE, true);
+            indexed.train(reference);
+            double buildMillis = (System.nanoTime() - start) / 1e6;
+
+            double scanMicros = microsPerQuery(scanning, queryRows);
+            double treeMicros = microsPerQuery(indexed, queryRows);
+            System.out.printf("%-10d %12.1f %14.1f %14.1f %12.1f %12.1f %9.2fx%n", size, buildMillis,
+                              (double) scanning.getDistanceEvaluations() / (2 * QUERIES),
+                              (double) indexed.getDistanceEvaluations() / (2 * QUERIES),
+                              scanMicros, treeMicros, scanMicros / treeMicros);
+        }
+    }
+
+    /**
+     * Classifies every query twice, and times the second pass
+     */
+    private static double microsPerQuery(KNearestNeighbors classifier, List<List<String>> queries) {
+        for (List<String> query : queries) {
+            classifier.classify(query);
+        }
+        long start = System.nanoTime();
+        for (List<String> query : queries) {
+            classifier.classify(query);
+        }
+        return (System.nanoTime() - start) / 1e3 / queries.size();
+    }
+}
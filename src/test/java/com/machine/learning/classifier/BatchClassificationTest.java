@@ -0,0 +1,50 @@
+package com.machine.learning.classifier;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.TestData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class BatchClassificationTest {
+    private static EncodedDataSet data;
+    private static int[] trainingRows;
+    private static int[] testRows;
+
+    @BeforeClass
+    public static void setupData() {
+        data = TestData.houseVotes();
+        trainingRows = TestData.trainingRows(data);
+        testRows = TestData.testRows(data);
+    }
+
+    private void assertBatchMatchesRows(Classifier classifier) {
+        classifier.train(data.subset(trainingRows));
+        String[] batch = classifier.classify(data, testRows);
+        String[] single = new String[testRows.length];
+        for (int i = 0; i < testRows.length; i++) {
+            single[i] = classifier.classify(data, testRows[i]);
+        }
+        assertThat(Arrays.asList(batch), is(equalTo(Arrays.asList(single))));
+    }
+
+    @Test
+    public void testNaiveBayes() {
+        assertBatchMatchesRows(new NaiveBayes());
+    }
+
+    @Test
+    public void testTreeAugmentedNaiveBayes() {
+        assertBatchMatchesRows(new TreeAugmentedNaiveBayes());
+    }
+
+    @Test
+    public void testID3() {
+        assertBatchMatchesRows(new ID3());
+    }
+}
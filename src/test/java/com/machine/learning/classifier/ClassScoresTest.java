@@ -0,0 +1,130 @@
+package com.machine.learning.classifier;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.TestData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+public class ClassScoresTest {
+    private static EncodedDataSet data;
+    private static int[] trainingRows;
+
+    @BeforeClass
+    public static void setupData() {
+        data = TestData.houseVotes();
+        trainingRows = TestData.trainingRows(data);
+    }
+
+    private static List<Classifier> classifiers() {
+        return Arrays.asList(new NaiveBayes(), new TreeAugmentedNaiveBayes(), new KNearestNeighbors(1), new ID3());
+    }
+
+    /**
+     * Checks that scores are a distribution over the classifier's classes, and that the best of them is the class
+     * the classifier picks
+     */
+    private static void assertScoresMatch(Classifier classifier, double[] scores, String classLabel) {
+        assertThat(classifier.toString(), scores.length, is(equalTo(classifier.getClassLabels().size())));
+
+        double sum = 0.0;
+        int best = 0;
+        for (int classId = 0; classId < scores.length; classId++) {
+            sum += scores[classId];
+            if (scores[classId] > scores[best]) {
+                best = classId;
+            }
+        }
+        assertThat(classifier.toString(), sum, is(closeTo(1.0, 1e-9)));
+        assertThat(classifier.toString(), classifier.getClassLabels().get(best), is(equalTo(classLabel)));
+    }
+
+    private void assertScoresMatchClassify(Classifier classifier) {
+        classifier.train(data.subset(trainingRows));
+        for (int row : TestData.testRows(data)) {
+            assertScoresMatch(classifier, classifier.classScores(data, row), classifier.classify(data, row));
+        }
+    }
+
+    @Test
+    public void testNaiveBayes() {
+        assertScoresMatchClassify(new NaiveBayes());
+    }
+
+    @Test
+    public void testTreeAugmentedNaiveBayes() {
+        assertScoresMatchClassify(new TreeAugmentedNaiveBayes());
+    }
+
+    @Test
+    public void testKNearestNeighbors() {
+        assertScoresMatchClassify(new KNearestNeighbors(1));
+    }
+
+    @Test
+    public void testID3() {
+        assertScoresMatchClassify(new ID3());
+    }
+
+    @Test
+    public void testClassMissingFromTraining() {
+        // The subset shares the class dictionary, so it knows about class2 without having any of its points
+        EncodedDataSet all = EncodedDataSet.encodeRows(TestData.generate(300, 4, 9));
+        int missing = all.getClassDictionary().code("class2");
+        for (Classifier classifier : classifiers()) {
+            classifier.train(all.subset(TestData.rowsWithout(all, "class2")));
+            for (int row = 0; row < all.size(); row++) {
+                double[] scores = classifier.classScores(all, row);
+                assertScoresMatch(classifier, scores, classifier.classify(all, row));
+                assertThat(classifier.toString(), scores[missing], is(equalTo(0.0)));
+            }
+        }
+    }
+
+    @Test
+    public void testUnseenValues() {
+        for (Classifier classifier : classifiers()) {
+            classifier.train(data.subset(trainingRows));
+            for (int row : TestData.testRows(data)) {
+                List<String> values = TestData.withUnseenValue(data, row);
+                assertScoresMatch(classifier, classifier.classScores(values), classifier.classify(values));
+            }
+        }
+    }
+
+    @Test
+    public void testNaiveBayesDoesNotUnderflowOnWideRows() {
+        // The product of this many probabilities is far smaller than the smallest double
+        Random random = new Random(3);
+        List<String[]> rows = new ArrayList<>();
+        for (int row = 0; row < 200; row++) {
+            int classId = random.nextInt(2);
+            String[] fields = new String[1001];
+            for (int attr = 0; attr < 1000; attr++) {
+                fields[attr] = "v" + (random.nextInt(4) == 0 ? classId : random.nextInt(4));
+            }
+            fields[1000] = "c" + classId;
+            rows.add(fields);
+        }
+        EncodedDataSet wide = EncodedDataSet.encodeRows(rows);
+        NaiveBayes classifier = new NaiveBayes();
+        classifier.train(wide);
+        int correct = 0;
+        for (int row = 0; row < wide.size(); row++) {
+            String classLabel = classifier.classify(wide, row);
+            assertThat(classLabel, is(notNullValue()));
+            correct += classLabel.equals(wide.getClassLabel(row)) ? 1 : 0;
+        }
+        assertThat(correct > wide.size() * 0.9, is(true));
+    }
+}
@@ -0,0 +1,117 @@
+package com.machine.learning.classifier;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.TestData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class ConcurrentClassificationTest {
+    private static final int THREADS = 4;
+
+    private static EncodedDataSet data;
+    private static int[] trainingRows;
+
+    @BeforeClass
+    public static void setupData() {
+        data = TestData.houseVotes();
+        trainingRows = TestData.trainingRows(data);
+    }
+
+    /**
+     * Classifies every row of the data set on several threads at once
+     *
+     * @param classifier the trained classifier
+     * @return the labels found by each thread
+     */
+    private List<List<String>> classifyConcurrently(Classifier classifier) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                futures.add(executor.submit(() -> {
+                    List<String> labels = new ArrayList<>();
+                    for (int row = 0; row < data.size(); row++) {
+                        labels.add(classifier.classify(data, row));
+                    }
+                    return labels;
+                }));
+            }
+            List<List<String>> results = new ArrayList<>();
+            for (Future<List<String>> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertConcurrentMatchesSequential(Classifier classifier) throws Exception {
+        classifier.train(data.subset(trainingRows));
+        List<String> sequential = new ArrayList<>();
+        for (int row = 0; row < data.size(); row++) {
+            sequential.add(classifier.classify(data, row));
+        }
+        for (List<String> labels : classifyConcurrently(classifier)) {
+            assertThat(labels, is(equalTo(sequential)));
+        }
+    }
+
+    @Test
+    public void testNaiveBayes() throws Exception {
+        assertConcurrentMatchesSequential(new NaiveBayes());
+    }
+
+    @Test
+    public void testTreeAugmentedNaiveBayes() throws Exception {
+        assertConcurrentMatchesSequential(new TreeAugmentedNaiveBayes());
+    }
+
+    @Test
+    public void testID3() throws Exception {
+        assertConcurrentMatchesSequential(new ID3());
+    }
+
+    @Test
+    public void testKNearestNeighbors() throws Exception {
+        // Two classes and an odd number of voters, so votes can't tie and no label is picked at random
+        assertConcurrentMatchesSequential(new KNearestNeighbors(3));
+    }
+
+    @Test
+    public void testUpdateWhileClassifying() throws Exception {
+        NaiveBayes classifier = new NaiveBayes();
+        classifier.train(data.subset(trainingRows));
+        int[] newRows = TestData.testRows(data);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<List<String>>> classified = executor.submit(() -> classifyConcurrently(classifier));
+            for (int i = 0; i < 20; i++) {
+                classifier.add(data.subset(newRows));
+                classifier.remove(data.subset(newRows));
+            }
+            for (List<String> labels : classified.get()) {
+                assertThat(labels.size(), is(equalTo(data.size())));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        NaiveBayes retrained = new NaiveBayes();
+        retrained.train(data.subset(trainingRows));
+        assertThat(Arrays.asList(classifier.classify(data, newRows)),
+                   is(equalTo(Arrays.asList(retrained.classify(data, newRows)))));
+    }
+}
@@ -0,0 +1,155 @@
+package com.machine.learning.classifier;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.SufficientStatistics;
+import com.machine.learning.model.TestData;
+import com.machine.learning.util.ValueDifferenceMetric;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class IncrementalTrainingTest {
+    private static EncodedDataSet data;
+    private static EncodedDataSet firstHalf;
+    private static EncodedDataSet secondHalf;
+
+    @BeforeClass
+    public static void setupData() {
+        data = TestData.houseVotes();
+        firstHalf = data.subset(TestData.rows(0, data.size() / 2));
+        secondHalf = data.subset(TestData.rows(data.size() / 2, data.size()));
+    }
+
+    private void assertSameScores(Classifier expected, Classifier actual) {
+        for (int row = 0; row < data.size(); row++) {
+            double[] expectedScores = expected.classScores(data, row);
+            double[] actualScores = actual.classScores(data, row);
+            for (int classId = 0; classId < expectedScores.length; classId++) {
+                assertThat(actualScores[classId], is(closeTo(expectedScores[classId], 1e-9)));
+            }
+        }
+    }
+
+    @Test
+    public void testNaiveBayesAddAndRemove() {
+        NaiveBayes full = new NaiveBayes();
+        full.train(data);
+        NaiveBayes incremental = new NaiveBayes();
+        incremental.train(firstHalf);
+        incremental.add(secondHalf);
+        assertSameScores(full, incremental);
+
+        NaiveBayes half = new NaiveBayes();
+        half.train(firstHalf);
+        incremental.remove(secondHalf);
+        assertSameScores(half, incremental);
+    }
+
+    @Test
+    public void testNaiveBayesFromNothing() {
+        NaiveBayes full = new NaiveBayes();
+        full.train(data);
+        NaiveBayes incremental = new NaiveBayes();
+        incremental.add(data.toDataPoints());
+        for (int row = 0; row < data.size(); row++) {
+            assertThat(incremental.classify(data.getRow(row)), is(equalTo(full.classify(data, row))));
+        }
+    }
+
+    @Test
+    public void testTreeAugmentedNaiveBayesAdd() {
+        TreeAugmentedNaiveBayes full = new TreeAugmentedNaiveBayes();
+        full.train(data);
+        TreeAugmentedNaiveBayes incremental = new TreeAugmentedNaiveBayes();
+        incremental.train(firstHalf);
+        incremental.add(secondHalf);
+        incremental.updateTree();
+        assertSameScores(full, incremental);
+    }
+
+    @Test
+    public void testNewValuesAreCounted() {
+        NaiveBayes naiveBayes = new NaiveBayes();
+        naiveBayes.train(firstHalf);
+        List<String> values = TestData.withUnseenValue(data, 0);
+        DataPoint dataPoint = DynamicObject.newInstance(DataPoint.class).withData(values).withClass("independent");
+        naiveBayes.add(Arrays.asList(dataPoint, dataPoint, dataPoint));
+        assertThat(naiveBayes.getClassLabels().contains("independent"), is(true));
+        assertThat(naiveBayes.classify(values), is(equalTo("independent")));
+        assertThat(data.getClassDictionary().code("independent"), is(equalTo(-1)));
+    }
+
+    /**
+     * Removes a point made only of values and classes the classifier has seen, but never together
+     */
+    private void assertRemovingUnaddedPointFails(Classifier classifier) {
+        EncodedDataSet trained = EncodedDataSet.encodeRows(Arrays.asList(
+            new String[] {"x", "u", "p"},
+            new String[] {"y", "v", "q"}));
+        classifier.train(trained);
+        double[] before = classifier.classScores(trained, 0);
+        try {
+            classifier.remove(EncodedDataSet.encodeRows(
+                Collections.singletonList(new String[] {"x", "u", "q"})));
+            throw new AssertionError("Expected removing a point that was never added to fail");
+        } catch (IllegalArgumentException ex) {
+            assertThat(classifier.classScores(trained, 0), is(equalTo(before)));
+        }
+    }
+
+    @Test
+    public void testNaiveBayesRemovingUnaddedPointFails() {
+        assertRemovingUnaddedPointFails(new NaiveBayes());
+    }
+
+    @Test
+    public void testTreeAugmentedNaiveBayesRemovingUnaddedPointFails() {
+        assertRemovingUnaddedPointFails(new TreeAugmentedNaiveBayes());
+    }
+
+    @Test
+    public void testValueDifferenceMetricAdd() {
+        ValueDifferenceMetric full = new ValueDifferenceMetric(data);
+        ValueDifferenceMetric incremental = new ValueDifferenceMetric(firstHalf);
+        incremental.add(secondHalf);
+        for (int row = 1; row < data.size(); row++) {
+            assertThat(incremental.calculateDistance(data.row(row), data.row(0)),
+                    is(closeTo(full.calculateDistance(data.row(row), data.row(0)), 1e-9)));
+        }
+    }
+
+    @Test
+    public void testTrainFromMergedShards() {
+        SufficientStatistics merged = SufficientStatistics.count(firstHalf, true)
+            .merge(SufficientStatistics.count(secondHalf, true));
+
+        NaiveBayes fullNaiveBayes = new NaiveBayes();
+        fullNaiveBayes.train(data);
+        NaiveBayes shardedNaiveBayes = new NaiveBayes();
+        shardedNaiveBayes.train(merged);
+        assertSameScores(fullNaiveBayes, shardedNaiveBayes);
+
+        TreeAugmentedNaiveBayes fullTan = new TreeAugmentedNaiveBayes();
+        fullTan.train(data);
+        TreeAugmentedNaiveBayes shardedTan = new TreeAugmentedNaiveBayes();
+        shardedTan.train(merged);
+        assertSameScores(fullTan, shardedTan);
+
+        ValueDifferenceMetric fullMetric = new ValueDifferenceMetric(data);
+        ValueDifferenceMetric shardedMetric = new ValueDifferenceMetric(merged);
+        for (int row = 1; row < data.size(); row++) {
+            assertThat(shardedMetric.calculateDistance(data.row(row), data.row(0)),
+                    is(equalTo(fullMetric.calculateDistance(data.row(row), data.row(0)))));
+        }
+    }
+}
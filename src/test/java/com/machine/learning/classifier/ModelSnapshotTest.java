@@ -0,0 +1,129 @@
+package com.machine.learning.classifier;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.TestData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ModelSnapshotTest {
+    private static EncodedDataSet data;
+    private static int[] trainingRows;
+
+    @BeforeClass
+    public static void setupData() {
+        data = TestData.houseVotes();
+        trainingRows = TestData.trainingRows(data);
+    }
+
+    private Classifier reload(Classifier classifier) throws IOException {
+        Path file = Files.createTempFile("model", ".snapshot");
+        try {
+            ModelSnapshot.write(classifier, file);
+            return ModelSnapshot.open(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private void assertReloadedMatches(Classifier classifier) throws IOException {
+        classifier.train(data.subset(trainingRows));
+        Classifier loaded = reload(classifier);
+        assertThat(loaded.toString(), is(equalTo(classifier.toString())));
+        assertThat(loaded.getClassLabels(), is(equalTo(classifier.getClassLabels())));
+        for (int row = 0; row < data.size(); row++) {
+            assertThat(loaded.classify(data.getRow(row)), is(equalTo(classifier.classify(data.getRow(row)))));
+            assertThat(loaded.classScores(data.getRow(row)), is(equalTo(classifier.classScores(data.getRow(row)))));
+        }
+    }
+
+    @Test
+    public void testNaiveBayes() throws IOException {
+        assertReloadedMatches(new NaiveBayes());
+    }
+
+    @Test
+    public void testTreeAugmentedNaiveBayes() throws IOException {
+        assertReloadedMatches(new TreeAugmentedNaiveBayes());
+    }
+
+    @Test
+    public void testID3() throws IOException {
+        assertReloadedMatches(new ID3());
+    }
+
+    @Test
+    public void testKNearestNeighbors() throws IOException {
+        // Votes between tied classes are random, so compare the vote fractions
+        Classifier classifier = new KNearestNeighbors(5);
+        classifier.train(data.subset(trainingRows));
+        Classifier loaded = reload(classifier);
+        assertThat(loaded.toString(), is(equalTo(classifier.toString())));
+        for (int row = 0; row < data.size(); row++) {
+            assertThat(Arrays.toString(loaded.classScores(data.getRow(row))),
+                       is(equalTo(Arrays.toString(classifier.classScores(data.getRow(row))))));
+        }
+    }
+
+    private KNearestNeighbors assertReloadedScoresMatch(KNearestNeighbors classifier) throws IOException {
+        // Votes between tied classes are random, so compare the vote fractions
+        classifier.train(data.subset(trainingRows));
+        KNearestNeighbors loaded = (KNearestNeighbors) reload(classifier);
+        assertThat(loaded.toString(), is(equalTo(classifier.toString())));
+        assertThat(loaded.getReduction(), is(classifier.getReduction()));
+        assertThat(loaded.getReferenceSize(), is(classifier.getReferenceSize()));
+        for (int row = 0; row < data.size(); row++) {
+            assertThat(Arrays.toString(loaded.classScores(data.getRow(row))),
+                       is(equalTo(Arrays.toString(classifier.classScores(data.getRow(row))))));
+        }
+        return loaded;
+    }
+
+    @Test
+    public void testIndexedKNearestNeighbors() throws IOException {
+        KNearestNeighbors loaded = assertReloadedScoresMatch(new KNearestNeighbors(5, Integer.MAX_VALUE, true));
+        assertThat(loaded.getIndex(), is(instanceOf(VantagePointTree.class)));
+    }
+
+    @Test
+    public void testApproximateKNearestNeighbors() throws IOException {
+        KNearestNeighbors loaded = assertReloadedScoresMatch(KNearestNeighbors.approximate(5, 4, 2, 0.5));
+        assertThat(loaded.getIndex(), is(instanceOf(LocalitySensitiveHashIndex.class)));
+    }
+
+    @Test
+    public void testReducedKNearestNeighbors() throws IOException {
+        KNearestNeighbors classifier = new KNearestNeighbors(5, PrototypeSelection.CONDENSED);
+        KNearestNeighbors loaded = assertReloadedScoresMatch(classifier);
+        assertThat(loaded.getReduction(), is(PrototypeSelection.CONDENSED));
+        assertThat(loaded.getReferenceSize(), is(lessThan(trainingRows.length)));
+        assertThat(loaded.getIndex(), is(nullValue()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteRejectsUntrainedClassifier() throws IOException {
+        reload(new NaiveBayes());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenRejectsOtherFiles() throws IOException {
+        Path file = Files.createTempFile("model", ".snapshot");
+        try {
+            Files.write(file, "not a snapshot".getBytes());
+            ModelSnapshot.open(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
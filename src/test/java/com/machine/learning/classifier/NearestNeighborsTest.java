@@ -0,0 +1,363 @@
+package com.machine.learning.classifier;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.TestData;
+import com.machine.learning.util.ValueDifferenceMetric;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class NearestNeighborsTest {
+    private static EncodedDataSet data;
+
+    @BeforeClass
+    public static void setupData() {
+        data = TestData.houseVotes();
+    }
+
+    /**
+     * Finds the k nearest rows by sorting every row on distance, then row
+     */
+    private static int[] sortedNearest(double[] distances, int k) {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < distances.length; row++) {
+            rows.add(row);
+        }
+        Collections.sort(rows, (a, b) -> distances[a] != distances[b]
+                ? Double.compare(distances[a], distances[b])
+                : Integer.compare(a, b));
+        int[] nearest = new int[Math.min(k, rows.size())];
+        for (int i = 0; i < nearest.length; i++) {
+            nearest[i] = rows.get(i);
+        }
+        Arrays.sort(nearest);
+        return nearest;
+    }
+
+    private static int[] heapNearest(double[] distances, int[] order, int k) {
+        KNearestNeighbors.Neighbors neighbors = new KNearestNeighbors.Neighbors(k, 2);
+        for (int row : order) {
+            neighbors.offer(row, distances[row]);
+        }
+        int[] nearest = Arrays.copyOf(neighbors.rows, neighbors.size);
+        Arrays.sort(nearest);
+        return nearest;
+    }
+
+    @Test
+    public void testHeapFindsSameRowsAsSorting() {
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(data);
+        int[] order = new int[data.size()];
+        for (int row = 0; row < order.length; row++) {
+            order[row] = row;
+        }
+        for (int query = 0; query < data.size(); query += 7) {
+            double[] distances = new double[data.size()];
+            for (int row = 0; row < data.size(); row++) {
+                distances[row] = vdm.calculateDistance(data, row, data.row(query));
+            }
+            for (int k : new int[] {1, 3, 15}) {
+                assertThat(heapNearest(distances, order, k), is(equalTo(sortedNearest(distances, k))));
+            }
+        }
+    }
+
+    @Test
+    public void testTiesBrokenByRowWhateverTheOrder() {
+        double[] distances = new double[50];
+        for (int row = 0; row < distances.length; row++) {
+            distances[row] = row % 4;
+        }
+        int[] order = new int[distances.length];
+        for (int row = 0; row < order.length; row++) {
+            order[row] = order.length - 1 - row;
+        }
+        Random random = new Random(7);
+        for (int shuffle = 0; shuffle < 10; shuffle++) {
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int row = order[i];
+                order[i] = order[j];
+                order[j] = row;
+            }
+            assertThat(heapNearest(distances, order, 5), is(equalTo(new int[] {0, 4, 8, 12, 16})));
+        }
+    }
+
+    @Test
+    public void testParallelScanFindsSameNeighbors() {
+        for (int k : new int[] {1, 5, 15}) {
+            KNearestNeighbors serial = new KNearestNeighbors(k, Integer.MAX_VALUE);
+            KNearestNeighbors parallel = new KNearestNeighbors(k, 0);
+            serial.train(data);
+            parallel.train(data);
+            for (int row = 0; row < data.size(); row++) {
+                assertThat(parallel.classScores(data, row), is(equalTo(serial.classScores(data, row))));
+            }
+        }
+    }
+
+    private static void assertTreeMatchesScan(EncodedDataSet trainingData, EncodedDataSet queries) {
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(trainingData);
+        VantagePointTree tree = new VantagePointTree(trainingData, vdm);
+        for (int k : new int[] {1, 5, 15}) {
+            KNearestNeighbors.Neighbors scanned = new KNearestNeighbors.Neighbors(k, 0);
+            KNearestNeighbors.Neighbors searched = new KNearestNeighbors.Neighbors(k, 0);
+            for (int query = 0; query < queries.size(); query++) {
+                int[] codes = vdm.encode(queries.getRow(query));
+                scanned.clear();
+                for (int row = 0; row < trainingData.size(); row++) {
+                    scanned.offer(row, vdm.calculateDistance(trainingData, row, codes));
+                }
+                searched.clear();
+                tree.search(codes, searched);
+
+                int[] expected = Arrays.copyOf(scanned.rows, scanned.size);
+                int[] actual = Arrays.copyOf(searched.rows, searched.size);
+                Arrays.sort(expected);
+                Arrays.sort(actual);
+                assertThat(actual, is(equalTo(expected)));
+            }
+        }
+    }
+
+    @Test
+    public void testTreeFindsSameNeighborsAsScan() {
+        assertTreeMatchesScan(data, data);
+    }
+
+    @Test
+    public void testTreeFindsSameNeighborsWithTiesAndUnseenValues() {
+        Random random = new Random(11);
+        List<String[]> rows = new ArrayList<>();
+        for (int row = 0; row < 2000; row++) {
+            int classId = random.nextInt(3);
+            rows.add(new String[] {"a" + random.nextInt(3), "b" + (classId + random.nextInt(2)), "c" + classId});
+        }
+        List<String[]> queries = new ArrayList<>();
+        for (int query = 0; query < 50; query++) {
+            queries.add(new String[] {"a" + random.nextInt(5), "b" + random.nextInt(5), "c0"});
+        }
+        assertTreeMatchesScan(EncodedDataSet.encodeRows(rows), EncodedDataSet.encodeRows(queries));
+    }
+
+    @Test
+    public void testIndexedClassifierMatchesScan() {
+        KNearestNeighbors scanning = new KNearestNeighbors(5, Integer.MAX_VALUE, false);
+        KNearestNeighbors indexed = new KNearestNeighbors(5, Integer.MAX_VALUE, true);
+        scanning.train(data);
+        indexed.train(data);
+        for (int row = 0; row < data.size(); row++) {
+            assertThat(indexed.classScores(data, row), is(equalTo(scanning.classScores(data, row))));
+        }
+        assertThat(scanning.getDistanceEvaluations(), is(equalTo((long) data.size() * data.size())));
+        assertThat(indexed.getDistanceEvaluations() < scanning.getDistanceEvaluations(), is(true));
+    }
+
+    /**
+     * @return the fraction of the rows found that are no further from the query than its kth nearest row
+     */
+    private static double recall(ValueDifferenceMetric vdm, int[] codes, int[] found, int k) {
+        double[] distances = new double[data.size()];
+        for (int row = 0; row < data.size(); row++) {
+            distances[row] = vdm.calculateDistance(data, row, codes);
+        }
+        double kth = 0.0;
+        for (int row : sortedNearest(distances, k)) {
+            kth = Math.max(kth, distances[row]);
+        }
+        int hits = 0;
+        for (int row : found) {
+            if (distances[row] <= kth) {
+                hits++;
+            }
+        }
+        return (double) hits / k;
+    }
+
+    @Test
+    public void testApproximateClassifierFindsMostNeighbors() {
+        int k = 5;
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(data);
+        KNearestNeighbors approximate = KNearestNeighbors.approximate(k, 8, 2, 1.0);
+        approximate.train(data);
+        double recall = 0.0;
+        for (int row = 0; row < data.size(); row++) {
+            int[] found = approximate.neighbors(data.getRow(row));
+            assertThat(found.length, is(equalTo(k)));
+            recall += recall(vdm, data.row(row), found, k);
+        }
+        assertThat(recall / data.size() > 0.9, is(true));
+        assertThat(approximate.getDistanceEvaluations() < (long) data.size() * data.size(), is(true));
+    }
+
+    @Test
+    public void testApproximateClassifierAlwaysFindsKNeighbors() {
+        // Buckets so narrow that queries rarely share one with enough rows
+        KNearestNeighbors approximate = KNearestNeighbors.approximate(15, 1, 8, 1e-3);
+        approximate.train(data);
+        for (int row = 0; row < data.size(); row += 5) {
+            assertThat(approximate.neighbors(data.getRow(row)).length, is(equalTo(15)));
+        }
+    }
+
+    /**
+     * Condenses a data set by checking every point in order against the points kept so far
+     */
+    private static int[] condenseInOrder(EncodedDataSet dataSet, ValueDifferenceMetric vdm) {
+        List<Integer> store = new ArrayList<>(Collections.singletonList(0));
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (int row = 1; row < dataSet.size(); row++) {
+                if (store.contains(row)) {
+                    continue;
+                }
+                int nearest = -1;
+                double nearestDistance = Double.POSITIVE_INFINITY;
+                for (int kept : store) {
+                    double distance = vdm.calculateDistance(dataSet, kept, dataSet.row(row));
+                    if (distance < nearestDistance || (distance == nearestDistance && kept < nearest)) {
+                        nearest = kept;
+                        nearestDistance = distance;
+                    }
+                }
+                if (dataSet.classId(nearest) != dataSet.classId(row)) {
+                    store.add(row);
+                    added = true;
+                }
+            }
+        }
+        return store.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    @Test
+    public void testCondensingMatchesCheckingInOrder() {
+        Random random = new Random(5);
+        List<String[]> rows = new ArrayList<>();
+        for (int row = 0; row < 2500; row++) {
+            int classId = random.nextInt(3);
+            rows.add(new String[] {"a" + random.nextInt(4), "b" + (classId + random.nextInt(3)), "c" + classId});
+        }
+        for (EncodedDataSet dataSet : new EncodedDataSet[] {data, EncodedDataSet.encodeRows(rows)}) {
+            ValueDifferenceMetric vdm = new ValueDifferenceMetric(dataSet);
+            int[] condensed = PrototypeSelection.CONDENSED.select(dataSet, vdm, 1);
+            assertThat(condensed, is(equalTo(condenseInOrder(dataSet, vdm))));
+            assertThat(condensed.length < dataSet.size(), is(true));
+        }
+    }
+
+    @Test
+    public void testEditingDropsPointsTheirNeighborsOutvote() {
+        int k = 3;
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(data);
+        List<Integer> expected = new ArrayList<>();
+        for (int row = 0; row < data.size(); row++) {
+            double[] distances = new double[data.size()];
+            for (int other = 0; other < data.size(); other++) {
+                distances[other] = vdm.calculateDistance(data, other, data.row(row));
+            }
+            distances[row] = Double.POSITIVE_INFINITY;
+            int agree = 0;
+            for (int neighbor : sortedNearest(distances, k)) {
+                agree += data.classId(neighbor) == data.classId(row) ? 1 : 0;
+            }
+            // Two classes and an odd k, so the point's class wins or loses outright
+            if (agree * 2 > k) {
+                expected.add(row);
+            }
+        }
+        int[] edited = PrototypeSelection.EDITED.select(data, vdm, k);
+        assertThat(edited, is(equalTo(expected.stream().mapToInt(Integer::intValue).toArray())));
+        assertThat(edited.length < data.size(), is(true));
+    }
+
+    @Test
+    public void testReducedClassifierKeepsFewerPoints() {
+        KNearestNeighbors full = new KNearestNeighbors(1);
+        full.train(data);
+        for (PrototypeSelection reduction : PrototypeSelection.values()) {
+            KNearestNeighbors reduced = new KNearestNeighbors(1, reduction);
+            reduced.train(data);
+            assertThat(reduced.getReferenceSize() < full.getReferenceSize(), is(true));
+            int agree = 0;
+            for (int row = 0; row < data.size(); row++) {
+                agree += reduced.classify(data, row).equals(full.classify(data, row)) ? 1 : 0;
+            }
+            assertThat(agree > data.size() * 0.9, is(true));
+        }
+    }
+
+    /**
+     * Classifies each point of each fold by sorting every point of the other folds on distance, then row, with a
+     * metric built on all of the data
+     */
+    private static String[][][] sortedFoldPredictions(int[][] folds, int[] ks) {
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(data);
+        String[][][] predictions = new String[folds.length][ks.length][];
+        for (int fold = 0; fold < folds.length; fold++) {
+            for (int j = 0; j < ks.length; j++) {
+                predictions[fold][j] = new String[folds[fold].length];
+            }
+            for (int i = 0; i < folds[fold].length; i++) {
+                double[] distances = new double[data.size()];
+                for (int row = 0; row < data.size(); row++) {
+                    distances[row] = vdm.calculateDistance(data, row, data.row(folds[fold][i]));
+                }
+                List<Integer> others = new ArrayList<>();
+                for (int otherFold = 0; otherFold < folds.length; otherFold++) {
+                    if (otherFold != fold) {
+                        for (int row : folds[otherFold]) {
+                            others.add(row);
+                        }
+                    }
+                }
+                Collections.sort(others, (a, b) -> distances[a] != distances[b]
+                        ? Double.compare(distances[a], distances[b])
+                        : Integer.compare(a, b));
+                for (int j = 0; j < ks.length; j++) {
+                    int votes = 0;
+                    for (int n = 0; n < ks[j]; n++) {
+                        votes += data.classId(others.get(n)) == 0 ? 1 : -1;
+                    }
+                    predictions[fold][j][i] = data.getClassDictionary().decode(votes > 0 ? 0 : 1);
+                }
+            }
+        }
+        return predictions;
+    }
+
+    @Test
+    public void testClassifyFoldsMatchesSortingOtherFolds() {
+        // Two classes and odd values of k, so votes can't tie
+        int[][] folds = new int[5][];
+        for (int fold = 0; fold < folds.length; fold++) {
+            folds[fold] = new int[data.size() / folds.length];
+            for (int i = 0; i < folds[fold].length; i++) {
+                folds[fold][i] = i * folds.length + fold;
+            }
+        }
+        int[] ks = {1, 5, 9};
+        String[][][] expected = sortedFoldPredictions(folds, ks);
+        KNearestNeighbors classifier = new KNearestNeighbors(9);
+        assertThat(classifier.classifyFolds(data, folds, ks), is(equalTo(expected)));
+        assertThat(classifier.classifyFolds(data, folds, ks, 0), is(equalTo(expected)));
+        // Without room to share distances, each fold is searched with the classifier's index
+        assertThat(new KNearestNeighbors(9, Integer.MAX_VALUE, true).classifyFolds(data, folds, ks, 0),
+                   is(equalTo(expected)));
+    }
+
+    @Test
+    public void testFewerRowsThanK() {
+        assertThat(heapNearest(new double[] {0.5, 0.25}, new int[] {0, 1}, 5), is(equalTo(new int[] {0, 1})));
+    }
+}
@@ -1,10 +1,16 @@
 package com.machine.learning.experimenter;
 
 import com.github.rschmitt.dynamicobject.DynamicObject;
+import com.machine.learning.classifier.Classifier;
 import com.machine.learning.classifier.ClassifierDefault;
+import com.machine.learning.classifier.KNearestNeighbors;
+import com.machine.learning.classifier.NaiveBayes;
+import com.machine.learning.classifier.TreeAugmentedNaiveBayes;
 import com.machine.learning.model.DataModel;
 import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
 import com.machine.learning.model.Result;
+import com.machine.learning.model.TestData;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -15,6 +21,7 @@ import java.util.List;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 
 
 public class CrossValidatorTest {
@@ -52,4 +59,106 @@ public class CrossValidatorTest {
 
         assertThat(inOrder, is(false));
     }
+
+    @Test
+    public void testEvaluateSeveralKs() {
+        // Two classes and odd values of k, so votes can't tie and results don't depend on random tie-breaks
+        EncodedDataSet data = TestData.houseVotes();
+        int[] ks = {1, 3, 7, 15};
+        List<Result> results = new CrossValidator(new KNearestNeighbors(15), data, 10).evaluate(ks);
+        assertThat(results.size(), is(equalTo(ks.length)));
+        for (int i = 0; i < ks.length; i++) {
+            Result separate = new CrossValidator(new KNearestNeighbors(ks[i]), data, 10).evaluate();
+            assertThat(results.get(i), is(equalTo(separate)));
+        }
+    }
+
+    @Test
+    public void testSharedDistancesCloseToExact() {
+        EncodedDataSet data = TestData.houseVotes();
+        int[] ks = {1, 5, 15};
+        List<Result> exact = new CrossValidator(new KNearestNeighbors(15), data, 10, false).evaluate(ks);
+        List<Result> shared = new CrossValidator(new KNearestNeighbors(15), data, 10, true).evaluate(ks);
+        for (int i = 0; i < ks.length; i++) {
+            assertThat(Math.abs(accuracy(shared.get(i)) - accuracy(exact.get(i))), is(lessThan(2.0)));
+        }
+    }
+
+    @Test
+    public void testSubtractedCountsMatchCountingEachFold() {
+        EncodedDataSet data = TestData.houseVotes();
+        for (int numberOfFolds : new int[] {2, 10}) {
+            assertThat(new CrossValidator(new NaiveBayes(), data, numberOfFolds).evaluate(),
+                       is(equalTo(new CrossValidator(new CountingEachFold(new NaiveBayes()), data, numberOfFolds).evaluate())));
+            assertThat(new CrossValidator(new TreeAugmentedNaiveBayes(), data, numberOfFolds).evaluate(),
+                       is(equalTo(new CrossValidator(new CountingEachFold(new TreeAugmentedNaiveBayes()), data,
+                                                     numberOfFolds).evaluate())));
+        }
+        // The metric kNN measures distances with is built from the counts, and odd k with two classes can't tie
+        assertThat(new CrossValidator(new KNearestNeighbors(5), data, 10).evaluate(),
+                   is(equalTo(new CrossValidator(new CountingEachFold(new KNearestNeighbors(5)), data, 10).evaluate())));
+    }
+
+    @Test
+    public void testSubtractedCountsLeaveOneOut() {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            rows.add(new String[] {"a" + i % 3, "b" + i % 4, "c" + (i * 7) % 5, "class" + (i % 3 == 0 ? 0 : i % 2)});
+        }
+        EncodedDataSet data = EncodedDataSet.encodeRows(rows);
+        assertThat(new CrossValidator(new NaiveBayes(), data, data.size()).evaluate(),
+                   is(equalTo(new CrossValidator(new CountingEachFold(new NaiveBayes()), data, data.size()).evaluate())));
+        assertThat(new CrossValidator(new TreeAugmentedNaiveBayes(), data, data.size()).evaluate(),
+                   is(equalTo(new CrossValidator(new CountingEachFold(new TreeAugmentedNaiveBayes()), data,
+                                                 data.size()).evaluate())));
+    }
+
+    /**
+     * Trains the classifier it wraps on the training points alone, so cross validation counts every training set
+     * from scratch instead of subtracting each fold's counts from the counts of all of the data
+     */
+    private static class CountingEachFold implements Classifier {
+        private final Classifier classifier;
+
+        CountingEachFold(Classifier classifier) {
+            this.classifier = classifier;
+        }
+
+        @Override
+        public void train(List<DataPoint> dataPoints) {
+            classifier.train(dataPoints);
+        }
+
+        @Override
+        public void train(EncodedDataSet dataSet) {
+            classifier.train(dataSet);
+        }
+
+        @Override
+        public String classify(List dataPoint) {
+            return classifier.classify(dataPoint);
+        }
+
+        @Override
+        public String classify(EncodedDataSet dataSet, int row) {
+            return classifier.classify(dataSet, row);
+        }
+
+        @Override
+        public String[] classify(EncodedDataSet dataSet, int[] rows) {
+            return classifier.classify(dataSet, rows);
+        }
+
+        @Override
+        public String toString() {
+            return classifier.toString();
+        }
+    }
+
+    /**
+     * @return the average accuracy from a formatted result, as a percentage
+     */
+    private static double accuracy(Result result) {
+        return Double.parseDouble(result.getResults().substring(1).split(" ")[0]);
+    }
 }
@@ -0,0 +1,103 @@
+package com.machine.learning.experimenter;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+import com.machine.learning.model.DataModel;
+import com.machine.learning.model.DataPoint;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class DatasetCatalogTest {
+    private DataModel dataModel(String name) {
+        List<DataPoint> data = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            data.add(DynamicObject.newInstance(DataPoint.class).fromData(Arrays.asList(name, "x", "yes")));
+        }
+        return DynamicObject.newInstance(DataModel.class).withName(name).withData(data);
+    }
+
+    @Test
+    public void testPrefetchAndEvict() {
+        AtomicInteger loads = new AtomicInteger();
+        try (DatasetCatalog catalog = new DatasetCatalog(Arrays.asList("a", "b"), name -> {
+            loads.incrementAndGet();
+            return dataModel(name);
+        }, 18, 1)) {
+            DatasetCatalog.Dataset a = catalog.acquire("a");
+            assertThat(a.getData().getRow(0), is(equalTo(Arrays.asList("a", "x"))));
+            catalog.release("a");
+            assertThat(catalog.isResident("a"), is(true));
+
+            // b was prefetched, and the two of them fit the budget
+            DatasetCatalog.Dataset b = catalog.acquire("b");
+            assertThat(b.getData().getRow(0), is(equalTo(Arrays.asList("b", "x"))));
+            assertThat(loads.get(), is(equalTo(2)));
+            assertThat(catalog.isResident("a"), is(true));
+            assertThat(catalog.getResidentBytes(), is(equalTo(18L)));
+        }
+    }
+
+    @Test
+    public void testPrefetchedDataSetsCountAgainstBudget() {
+        AtomicInteger loads = new AtomicInteger();
+        try (DatasetCatalog catalog = new DatasetCatalog(Arrays.asList("a", "b", "c", "d"), name -> {
+            loads.incrementAndGet();
+            return dataModel(name);
+        }, 20, 2)) {
+            catalog.acquire("a");
+            // Loads run one at a time in order, so b and c have been prefetched by the time d is loaded
+            catalog.acquire("d");
+            assertThat(loads.get(), is(equalTo(4)));
+            // a and d are held, so the prefetched data sets that no longer fit have been dropped
+            assertThat(catalog.getResidentBytes(), is(equalTo(18L)));
+            assertThat(catalog.isResident("b"), is(false));
+            assertThat(catalog.isResident("c"), is(false));
+
+            // b was dropped, so it is loaded again, and c may be prefetched again after it
+            catalog.acquire("b");
+            assertThat(loads.get(), is(greaterThanOrEqualTo(5)));
+            assertThat(catalog.getResidentBytes(), is(equalTo(27L)));
+        }
+    }
+
+    @Test
+    public void testDataModelIsNotKeptAfterLoading() throws InterruptedException {
+        List<WeakReference<DataModel>> loaded = new ArrayList<>();
+        try (DatasetCatalog catalog = new DatasetCatalog(Arrays.asList("a"), name -> {
+            DataModel dataModel = dataModel(name);
+            loaded.add(new WeakReference<>(dataModel));
+            return dataModel;
+        }, Long.MAX_VALUE, 0)) {
+            DatasetCatalog.Dataset a = catalog.acquire("a");
+            for (int attempt = 0; attempt < 50 && loaded.get(0).get() != null; attempt++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertThat(loaded.get(0).get(), is(nullValue()));
+            assertThat(a.getData().getRow(0), is(equalTo(Arrays.asList("a", "x"))));
+            assertThat(catalog.isResident("a"), is(true));
+        }
+    }
+
+    @Test
+    public void testHeldDataSetsAreNotEvicted() {
+        try (DatasetCatalog catalog = new DatasetCatalog(Arrays.asList("a", "b"), this::dataModel, 0, 0)) {
+            catalog.acquire("a");
+            catalog.acquire("b");
+            assertThat(catalog.isResident("a"), is(true));
+            catalog.release("a");
+            assertThat(catalog.isResident("a"), is(false));
+            assertThat(catalog.isResident("b"), is(true));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.machine.learning.model;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class DataRowTest {
+    @Test
+    public void testFromFields() {
+        String[] fields = {"a", "b", "yes"};
+        DataRow dataRow = DataRow.fromFields(fields);
+        fields[0] = "changed";
+        assertThat(dataRow.getData(), is(equalTo(Arrays.asList("a", "b"))));
+        assertThat(dataRow.get(1), is(equalTo("b")));
+        assertThat(dataRow.size(), is(equalTo(2)));
+        assertThat(dataRow.getClassLabel(), is(equalTo("yes")));
+    }
+
+    @Test
+    public void testUnlabeledCopiesValues() {
+        List<String> values = new ArrayList<>(Arrays.asList("a", "b"));
+        DataRow dataRow = DataRow.unlabeled(values);
+        values.clear();
+        assertThat(dataRow.getData(), is(equalTo(Arrays.asList("a", "b"))));
+        assertThat(dataRow.getClassLabel(), is(nullValue()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testDataIsUnmodifiable() {
+        DataRow.fromFields(new String[] {"a", "b", "yes"}).getData().set(0, "changed");
+    }
+
+    @Test
+    public void testToDataPointMatchesFromData() {
+        DataPoint expected = DynamicObject.newInstance(DataPoint.class).fromData(Arrays.asList("a", "b", "yes"));
+        DataPoint actual = DataRow.fromFields(new String[] {"a", "b", "yes"}).toDataPoint();
+        assertThat(actual.getData().get(), is(equalTo(expected.getData().get())));
+        assertThat(actual.getClassLabel(), is(equalTo(expected.getClassLabel())));
+        assertThat(actual, is(equalTo(expected)));
+    }
+}
@@ -0,0 +1,120 @@
+package com.machine.learning.model;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+public class DataSnapshotTest {
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        List<DataPoint> dataPoints = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // The first attribute needs two bytes per code, the second only one
+            dataPoints.add(DynamicObject.newInstance(DataPoint.class)
+                    .fromData(Arrays.asList("id" + i, Integer.toString(i % 3), i % 2 == 0 ? "even" : "odd")));
+        }
+        EncodedDataSet dataSet = EncodedDataSet.encode(dataPoints);
+
+        Path file = Files.createTempFile("data", ".snapshot");
+        try {
+            DataSnapshot.write(dataSet, file);
+            EncodedDataSet loaded = DataSnapshot.open(file);
+
+            assertThat(loaded.size(), is(equalTo(1000)));
+            assertThat(loaded.numAttributes(), is(equalTo(2)));
+            assertThat(loaded.cardinality(0), is(equalTo(1000)));
+            for (int row = 0; row < dataSet.size(); row++) {
+                assertThat(loaded.getRow(row), is(equalTo(dataSet.getRow(row))));
+                assertThat(loaded.getClassLabel(row), is(equalTo(dataSet.getClassLabel(row))));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenRejectsOtherFiles() throws IOException {
+        Path file = Files.createTempFile("data", ".snapshot");
+        try {
+            Files.write(file, "not a snapshot".getBytes());
+            DataSnapshot.open(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testWriteLongValues() throws IOException {
+        // writeUTF can't write strings of more than 64KB
+        String longValue = String.join("", Collections.nCopies(70000, "\u00e9"));
+        EncodedDataSet dataSet = EncodedDataSet.encodeRows(Arrays.asList(
+            new String[] {longValue, "yes"},
+            new String[] {"short", "no"}
+        ));
+        Path file = Files.createTempFile("data", ".snapshot");
+        try {
+            DataSnapshot.write(dataSet, file);
+            EncodedDataSet loaded = DataSnapshot.open(file);
+            assertThat(loaded.getRow(0), is(equalTo(dataSet.getRow(0))));
+            assertThat(loaded.getClassLabel(1), is(equalTo("no")));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFromFileKeepsDataWithoutCaching() {
+        DataModel model = DynamicObject.newInstance(DataModel.class).fromFile("iris.data.txt");
+        assertThat(model.getSnapshot().isPresent(), is(false));
+        assertThat(model.getData().get().size(), is(equalTo(model.encode().size())));
+    }
+
+    @Test
+    public void testFromFileCachesInSnapshotDirectory() throws IOException {
+        EncodedDataSet expected = DynamicObject.newInstance(DataModel.class).fromFile("iris.data.txt").encode();
+        Path directory = Files.createTempDirectory("snapshots");
+        String previousDirectory = System.setProperty("snapshot.dir", directory.toString());
+        String previousCache = System.setProperty("snapshot.cache", "true");
+        try {
+            DataModel written = DynamicObject.newInstance(DataModel.class).fromFile("iris.data.txt");
+            DataModel cached = DynamicObject.newInstance(DataModel.class).fromFile("iris.data.txt");
+            assertThat(written.getSnapshot().get(), startsWith(directory.toString()));
+            assertThat(cached.getSnapshot(), is(equalTo(written.getSnapshot())));
+            EncodedDataSet loaded = cached.encode();
+            assertThat(loaded.size(), is(equalTo(expected.size())));
+            for (int row = 0; row < loaded.size(); row++) {
+                assertThat(loaded.getRow(row), is(equalTo(expected.getRow(row))));
+            }
+        } finally {
+            restore("snapshot.dir", previousDirectory);
+            restore("snapshot.cache", previousCache);
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void restore(String key, String value) {
+        if (value == null) {
+            System.clearProperty(key);
+        } else {
+            System.setProperty(key, value);
+        }
+    }
+}
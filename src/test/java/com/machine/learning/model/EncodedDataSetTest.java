@@ -0,0 +1,74 @@
+package com.machine.learning.model;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class EncodedDataSetTest {
+    private List<DataPoint> dataPoints() {
+        List<DataPoint> dataPoints = new ArrayList<>();
+        dataPoints.add(DynamicObject.newInstance(DataPoint.class).fromData(Arrays.asList("a", "x", "yes")));
+        dataPoints.add(DynamicObject.newInstance(DataPoint.class).fromData(Arrays.asList("b", "x", "no")));
+        dataPoints.add(DynamicObject.newInstance(DataPoint.class).fromData(Arrays.asList("a", "y", "yes")));
+        return dataPoints;
+    }
+
+    @Test
+    public void testEncode() {
+        EncodedDataSet dataSet = EncodedDataSet.encode(dataPoints());
+        assertThat(dataSet.size(), is(equalTo(3)));
+        assertThat(dataSet.numAttributes(), is(equalTo(2)));
+        assertThat(dataSet.numClasses(), is(equalTo(2)));
+        assertThat(dataSet.cardinality(0), is(equalTo(2)));
+        assertThat(dataSet.value(2, 0), is(equalTo(dataSet.value(0, 0))));
+        assertThat(dataSet.classId(2), is(equalTo(dataSet.classId(0))));
+        assertThat(dataSet.getRow(1), is(equalTo(Arrays.asList("b", "x"))));
+        assertThat(dataSet.getClassLabel(1), is(equalTo("no")));
+    }
+
+    @Test
+    public void testEncodeRowWithUnseenValue() {
+        EncodedDataSet dataSet = EncodedDataSet.encode(dataPoints());
+        int[] codes = dataSet.encodeRow(Arrays.asList("b", "z"));
+        assertThat(codes[0], is(equalTo(dataSet.value(1, 0))));
+        assertThat(codes[1], is(equalTo(ValueDictionary.UNSEEN)));
+    }
+
+    @Test
+    public void testSubsetSharesDictionaries() {
+        EncodedDataSet dataSet = EncodedDataSet.encode(dataPoints());
+        EncodedDataSet subset = dataSet.subset(new int[]{2, 1});
+        assertThat(subset.size(), is(equalTo(2)));
+        assertThat(subset.getRow(0), is(equalTo(Arrays.asList("a", "y"))));
+        assertThat(subset.usesDictionaries(dataSet.getAttributeDictionaries()), is(true));
+        assertThat(EncodedDataSet.encode(dataPoints()).usesDictionaries(dataSet.getAttributeDictionaries()), is(false));
+    }
+
+    @Test
+    public void testSubsetOfSubset() {
+        EncodedDataSet subset = EncodedDataSet.encode(dataPoints()).subset(new int[]{2, 1}).subset(new int[]{1});
+        assertThat(subset.isView(), is(true));
+        assertThat(subset.getRow(0), is(equalTo(Arrays.asList("b", "x"))));
+        assertThat(subset.getClassLabel(0), is(equalTo("no")));
+
+        EncodedDataSet compacted = subset.compact();
+        assertThat(compacted.isView(), is(false));
+        assertThat(compacted.getRow(0), is(equalTo(Arrays.asList("b", "x"))));
+    }
+
+    @Test
+    public void testEncodeRows() {
+        List<String[]> rows = Arrays.asList(new String[]{"a", "x", "yes"}, new String[]{"b", "x", "no"});
+        EncodedDataSet dataSet = EncodedDataSet.encodeRows(rows);
+        assertThat(dataSet.numAttributes(), is(equalTo(2)));
+        assertThat(dataSet.getRow(1), is(equalTo(Arrays.asList("b", "x"))));
+        assertThat(dataSet.getClassLabel(0), is(equalTo("yes")));
+    }
+}
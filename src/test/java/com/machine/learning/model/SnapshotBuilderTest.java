@@ -0,0 +1,93 @@
+package com.machine.learning.model;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+import com.machine.learning.preprocessing.CsvIngester;
+import com.machine.learning.preprocessing.MissingValueImputer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class SnapshotBuilderTest {
+    private static final String[] DATA_FILES = {
+        "breast-cancer-wisconsin.data.txt",
+        "glass.data.txt",
+        TestData.HOUSE_VOTES,
+        "iris.data.txt",
+        "soybean-small.data.txt"
+    };
+
+    private static EncodedDataSet build(String filePath, Path file, int chunkSize) throws IOException {
+        SnapshotBuilder.build(filePath, file, MissingValueImputer.DEFAULT_SEED,
+                new CsvIngester(chunkSize, ForkJoinPool.commonPool()));
+        return DataSnapshot.open(file);
+    }
+
+    @Test
+    public void testMatchesPreprocessingInMemory() throws IOException {
+        Path directory = Files.createTempDirectory("snapshots");
+        try {
+            for (String filePath : DATA_FILES) {
+                EncodedDataSet expected = DynamicObject.newInstance(DataModel.class).fromFile(filePath).encode();
+                // Small chunks, so that each file is streamed as many of them
+                Path file = directory.resolve(filePath + ".snapshot");
+                EncodedDataSet actual = build(filePath, file, 256);
+
+                assertThat(filePath, actual.size(), is(equalTo(expected.size())));
+                assertThat(filePath, actual.numAttributes(), is(equalTo(expected.numAttributes())));
+                for (int attr = 0; attr < expected.numAttributes(); attr++) {
+                    assertThat(filePath, actual.getAttributeDictionaries()[attr].getValues(),
+                               is(equalTo(expected.getAttributeDictionaries()[attr].getValues())));
+                }
+                assertThat(filePath, actual.getClassDictionary().getValues(),
+                           is(equalTo(expected.getClassDictionary().getValues())));
+                for (int row = 0; row < expected.size(); row++) {
+                    assertThat(filePath, Arrays.toString(actual.row(row)),
+                               is(equalTo(Arrays.toString(expected.row(row)))));
+                    assertThat(filePath, actual.classId(row), is(equalTo(expected.classId(row))));
+                }
+                Files.delete(file);
+            }
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testFromFileOutOfCore() throws IOException {
+        Path directory = Files.createTempDirectory("snapshots");
+        Path file = directory.resolve("votes.snapshot");
+        try {
+            DataModel model = DynamicObject.newInstance(DataModel.class).fromFileOutOfCore(TestData.HOUSE_VOTES, file);
+            assertThat(model.getData().isPresent(), is(false));
+            assertThat(model.getSnapshot().get(), is(equalTo(file.toString())));
+            EncodedDataSet expected = TestData.houseVotes();
+            EncodedDataSet actual = model.encode();
+            for (int row = 0; row < expected.size(); row++) {
+                assertThat(actual.getRow(row), is(equalTo(expected.getRow(row))));
+                assertThat(actual.getClassLabel(row), is(equalTo(expected.getClassLabel(row))));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void testMissingFile() throws IOException {
+        Path directory = Files.createTempDirectory("snapshots");
+        try {
+            SnapshotBuilder.build("no-such-file.data.txt", directory.resolve("missing.snapshot"), 0);
+        } finally {
+            Files.delete(directory);
+        }
+    }
+}
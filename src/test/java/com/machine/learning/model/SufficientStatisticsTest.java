@@ -0,0 +1,150 @@
+package com.machine.learning.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class SufficientStatisticsTest {
+
+    /**
+     * Keys each count by the values and class it counts, so counts indexed by different dictionaries compare
+     */
+    private static Map<String, Integer> byValue(SufficientStatistics statistics) {
+        Map<String, Integer> counts = new HashMap<>();
+        ValueDictionary[] dictionaries = statistics.getAttributeDictionaries();
+        ValueDictionary classes = statistics.getClassDictionary();
+        for (int classId = 0; classId < statistics.numClasses(); classId++) {
+            put(counts, classes.decode(classId), statistics.getClassCounts()[classId]);
+        }
+        for (int i = 0; i < statistics.numAttributes(); i++) {
+            for (int value = 0; value < statistics.cardinality(i); value++) {
+                for (int classId = 0; classId < statistics.numClasses(); classId++) {
+                    put(counts, i + "=" + dictionaries[i].decode(value) + "|" + classes.decode(classId),
+                        statistics.getAttributeClassCounts()[i][value][classId]);
+                }
+            }
+        }
+        if (statistics.hasPairs()) {
+            for (int i = 0; i < statistics.numAttributes(); i++) {
+                for (int j = i + 1; j < statistics.numAttributes(); j++) {
+                    int[] pairCounts = statistics.getAttributePairCounts()[i][j];
+                    for (int valueI = 0; valueI < statistics.cardinality(i); valueI++) {
+                        for (int valueJ = 0; valueJ < statistics.cardinality(j); valueJ++) {
+                            for (int classId = 0; classId < statistics.numClasses(); classId++) {
+                                int offset = (valueI * statistics.cardinality(j) + valueJ) * statistics.numClasses();
+                                put(counts, i + "=" + dictionaries[i].decode(valueI) + "," + j + "="
+                                    + dictionaries[j].decode(valueJ) + "|" + classes.decode(classId),
+                                    pairCounts[offset + classId]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static void put(Map<String, Integer> counts, String key, int count) {
+        if (count != 0) {
+            counts.put(key, count);
+        }
+    }
+
+    @Test
+    public void testShardsMergeToCountOfWhole() {
+        EncodedDataSet data = EncodedDataSet.encodeRows(TestData.generate(1000, 5, 1));
+        SufficientStatistics whole = SufficientStatistics.count(data, 0, data.size(), true);
+        SufficientStatistics merged = SufficientStatistics.count(data, 0, 300, true)
+            .merge(SufficientStatistics.count(data, 300, 301, true))
+            .merge(SufficientStatistics.count(data, 301, data.size(), true));
+        assertThat(merged.getNumPoints(), is(equalTo(data.size())));
+        assertThat(merged.getAttributeDictionaries(), is(equalTo(data.getAttributeDictionaries())));
+        assertThat(merged.getClassCounts(), is(equalTo(whole.getClassCounts())));
+        assertThat(merged.getAttributeClassCounts(), is(equalTo(whole.getAttributeClassCounts())));
+        assertThat(merged.getAttributePairCounts(), is(equalTo(whole.getAttributePairCounts())));
+    }
+
+    @Test
+    public void testMergeCountsEncodedSeparately() {
+        List<String[]> rows = TestData.generate(1000, 5, 2);
+        // The second shard sees values and a class that the first never does
+        List<String[]> more = TestData.generate(500, 8, 3);
+        more.add(new String[] {"a-new", "b-new", "c-new", "class-new"});
+        List<String[]> all = new ArrayList<>(rows);
+        all.addAll(more);
+
+        SufficientStatistics merged = SufficientStatistics.count(EncodedDataSet.encodeRows(rows), true)
+            .merge(SufficientStatistics.count(EncodedDataSet.encodeRows(more), true));
+        SufficientStatistics whole = SufficientStatistics.count(EncodedDataSet.encodeRows(all), true);
+        assertThat(merged.getNumPoints(), is(equalTo(all.size())));
+        assertThat(byValue(merged), is(equalTo(byValue(whole))));
+    }
+
+    @Test
+    public void testMergeWithoutPairs() {
+        EncodedDataSet data = EncodedDataSet.encodeRows(TestData.generate(100, 4, 4));
+        SufficientStatistics merged = SufficientStatistics.count(data, 0, 50, true)
+            .merge(SufficientStatistics.count(data, 50, 100, false));
+        assertThat(merged.hasPairs(), is(false));
+        assertThat(byValue(merged), is(equalTo(byValue(SufficientStatistics.count(data, false)))));
+    }
+
+    @Test
+    public void testSubtractFoldLeavesCountOfRest() {
+        EncodedDataSet data = EncodedDataSet.encodeRows(TestData.generate(1000, 5, 6));
+        int[] fold = new int[100];
+        int[] rest = new int[data.size() - fold.length];
+        for (int row = 0; row < data.size(); row++) {
+            if (row % 10 == 3) {
+                fold[row / 10] = row;
+            } else {
+                rest[row - row / 10 - (row % 10 > 3 ? 1 : 0)] = row;
+            }
+        }
+        SufficientStatistics full = SufficientStatistics.count(data, true);
+        SufficientStatistics difference = full.subtract(SufficientStatistics.count(data.subset(fold), true));
+        SufficientStatistics counted = SufficientStatistics.count(data.subset(rest), true);
+        assertThat(difference.getNumPoints(), is(equalTo(rest.length)));
+        assertThat(difference.getClassCounts(), is(equalTo(counted.getClassCounts())));
+        assertThat(difference.getAttributeClassCounts(), is(equalTo(counted.getAttributeClassCounts())));
+        assertThat(difference.getAttributePairCounts(), is(equalTo(counted.getAttributePairCounts())));
+        // The full counts are left as they were, so every fold can be subtracted from them
+        assertThat(byValue(full), is(equalTo(byValue(SufficientStatistics.count(data, true)))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubtractCountsEncodedSeparately() {
+        SufficientStatistics.count(EncodedDataSet.encodeRows(TestData.generate(100, 4, 7)), false)
+            .subtract(SufficientStatistics.count(EncodedDataSet.encodeRows(TestData.generate(10, 4, 8)), false));
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        EncodedDataSet data = EncodedDataSet.encodeRows(TestData.generate(500, 6, 5));
+        SufficientStatistics statistics = SufficientStatistics.count(data, true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        statistics.write(new DataOutputStream(bytes));
+        SufficientStatistics read =
+            SufficientStatistics.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertThat(byValue(read), is(equalTo(byValue(statistics))));
+
+        // Counts read back from another process merge with counts taken here
+        Map<String, Integer> doubled = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : byValue(statistics).entrySet()) {
+            doubled.put(entry.getKey(), entry.getValue() * 2);
+        }
+        assertThat(byValue(statistics.merge(read)), is(equalTo(doubled)));
+    }
+}
@@ -0,0 +1,88 @@
+package com.machine.learning.model;
+
+import com.github.rschmitt.dynamicobject.DynamicObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Data sets and row selections shared by the tests
+ */
+public final class TestData {
+    public static final String HOUSE_VOTES = "house-votes-84.data.txt";
+
+    private TestData() {
+    }
+
+    /**
+     * Loads the house votes data set, which has two classes, so odd numbers of kNN voters can't tie
+     *
+     * @return the encoded data set
+     */
+    public static EncodedDataSet houseVotes() {
+        return DynamicObject.newInstance(DataModel.class).fromFile(HOUSE_VOTES).encode();
+    }
+
+    /**
+     * @return the rows from one row up to, but not including, another
+     */
+    public static int[] rows(int from, int to) {
+        return IntStream.range(from, to).toArray();
+    }
+
+    /**
+     * @return the first three quarters of the rows of a data set
+     */
+    public static int[] trainingRows(EncodedDataSet data) {
+        return rows(0, data.size() * 3 / 4);
+    }
+
+    /**
+     * @return the rows of a data set after its training rows
+     */
+    public static int[] testRows(EncodedDataSet data) {
+        return rows(data.size() * 3 / 4, data.size());
+    }
+
+    /**
+     * @return the rows of a data set that aren't of the given class
+     */
+    public static int[] rowsWithout(EncodedDataSet data, String classLabel) {
+        return IntStream.range(0, data.size()).filter(row -> !data.getClassLabel(row).equals(classLabel)).toArray();
+    }
+
+    /**
+     * @return the values of a row, with the value of its first attribute replaced by one the data set hasn't seen
+     */
+    public static List<String> withUnseenValue(EncodedDataSet data, int row) {
+        List<String> values = data.getRow(row);
+        values.set(0, "never-seen");
+        return values;
+    }
+
+    /**
+     * Generates rows of three attributes and three classes. The first attribute is independent of the class, the
+     * second matches it half the time and the third has only two values.
+     *
+     * @param size the number of rows
+     * @param cardinality the number of values of the first two attributes
+     * @param seed the seed of the values
+     * @return the rows, with the class last
+     */
+    public static List<String[]> generate(int size, int cardinality, long seed) {
+        Random random = new Random(seed);
+        List<String[]> rows = new ArrayList<>();
+        for (int row = 0; row < size; row++) {
+            int classId = random.nextInt(3);
+            rows.add(new String[] {
+                "a" + random.nextInt(cardinality),
+                "b" + (random.nextBoolean() ? classId : random.nextInt(cardinality)),
+                "c" + random.nextInt(2),
+                "class" + classId
+            });
+        }
+        return rows;
+    }
+}
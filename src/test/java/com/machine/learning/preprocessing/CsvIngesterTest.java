@@ -0,0 +1,52 @@
+package com.machine.learning.preprocessing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class CsvIngesterTest {
+    private static final String CSV = "!,=,=\n1.5,a,yes\r\n2.5,b,no\n\n3.5,a,yes";
+
+    private void assertRows(List<String[]> rows) {
+        assertThat(rows.size(), is(equalTo(4)));
+        assertThat(Arrays.asList(rows.get(0)), is(equalTo(Arrays.asList("!", "=", "="))));
+        assertThat(Arrays.asList(rows.get(1)), is(equalTo(Arrays.asList("1.5", "a", "yes"))));
+        assertThat(Arrays.asList(rows.get(3)), is(equalTo(Arrays.asList("3.5", "a", "yes"))));
+    }
+
+    @Test
+    public void testReadAcrossChunkBoundaries() throws IOException {
+        Path file = Files.createTempFile("ingest", ".data.txt");
+        try {
+            Files.write(file, CSV.getBytes(StandardCharsets.UTF_8));
+            CsvIngester ingester = new CsvIngester(4, ForkJoinPool.commonPool());
+            assertRows(ingester.read(file));
+            assertThat(ingester.getReport().getRows(), is(equalTo(4L)));
+            assertThat(ingester.getReport().getBytes(), is(equalTo((long) CSV.length())));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testReadGzip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(CSV.getBytes(StandardCharsets.UTF_8));
+        }
+        assertRows(new CsvIngester().read(new ByteArrayInputStream(bytes.toByteArray()), true));
+    }
+}
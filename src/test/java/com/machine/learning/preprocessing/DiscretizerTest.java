@@ -0,0 +1,86 @@
+package com.machine.learning.preprocessing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class DiscretizerTest {
+    private List<String[]> rows() {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            rows.add(new String[]{Double.toString(i / 10.0), i % 2 == 0 ? "even" : "odd"});
+        }
+        return rows;
+    }
+
+    @Test
+    public void testEqualWidth() {
+        List<String[]> rows = rows();
+        new Discretizer().fitAndApply(rows, Arrays.asList("!", "="));
+        assertThat(rows.get(0)[0], is(equalTo("0")));
+        assertThat(rows.get(55)[0], is(equalTo("5")));
+        assertThat(rows.get(100)[0], is(equalTo("9")));
+        assertThat(rows.get(3)[1], is(equalTo("odd")));
+    }
+
+    @Test
+    public void testReuseFittedModel() {
+        DiscretizationModel model = new Discretizer().fit(rows(), Arrays.asList("!", "="));
+        assertThat(model.discretize(Arrays.asList("2.5", "odd")), is(equalTo(Arrays.asList("2", "odd"))));
+        assertThat(model.discretize(Arrays.asList("-4", "odd")), is(equalTo(Arrays.asList("0", "odd"))));
+        assertThat(model.discretize(Arrays.asList("40", "odd")), is(equalTo(Arrays.asList("9", "odd"))));
+    }
+
+    @Test
+    public void testEqualFrequency() {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(new String[]{Double.toString(i * i)});
+        }
+        new Discretizer(new EqualFrequencyBinning(4)).fitAndApply(rows, Arrays.asList("!"));
+        int[] binSizes = new int[4];
+        for (String[] row : rows) {
+            binSizes[Integer.parseInt(row[0])]++;
+        }
+        for (int binSize : binSizes) {
+            assertThat((double) binSize, is(closeTo(250, 25)));
+        }
+    }
+
+    @Test
+    public void testEqualFrequencySkewedColumn() {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 900; i++) {
+            rows.add(new String[]{"1"});
+        }
+        for (int i = 901; i < 1000; i++) {
+            rows.add(new String[]{Integer.toString(i)});
+        }
+        DiscretizationModel model = new Discretizer(new EqualFrequencyBinning(10)).fit(rows, Arrays.asList("!"));
+        // Most of the quantiles are the repeated minimum, which must still separate it from the larger values
+        assertThat(model.getBins(0).numBins(), is(equalTo(2)));
+        assertThat(model.discretize(Arrays.asList("1")), is(equalTo(Arrays.asList("0"))));
+        assertThat(model.discretize(Arrays.asList("950")), is(equalTo(Arrays.asList("1"))));
+    }
+
+    @Test
+    public void testQuantileSketch() {
+        QuantileSketch sketch = new QuantileSketch(64);
+        QuantileSketch other = new QuantileSketch(64);
+        for (int i = 0; i < 50000; i++) {
+            sketch.add(i);
+            other.add(i + 50000);
+        }
+        sketch.merge(other);
+        assertThat(sketch.getCount(), is(equalTo(100000L)));
+        assertThat(sketch.quantile(0.5), is(closeTo(50000, 3000)));
+        assertThat(sketch.quantile(0.9), is(closeTo(90000, 3000)));
+    }
+}
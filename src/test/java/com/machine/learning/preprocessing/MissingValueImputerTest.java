@@ -0,0 +1,81 @@
+package com.machine.learning.preprocessing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isOneOf;
+
+public class MissingValueImputerTest {
+    private List<String[]> rows() {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            rows.add(new String[]{i % 5 == 0 ? "?" : i % 2 == 0 ? "a" : "b", "?", i % 3 == 0 ? "?" : "x"});
+        }
+        return rows;
+    }
+
+    @Test
+    public void testImpute() {
+        List<String[]> rows = rows();
+        ImputationReport report = new MissingValueImputer(7).impute(rows, 3);
+        assertThat(report.getImputed(0), is(equalTo(10)));
+        assertThat(report.getImputed(1), is(equalTo(0)));
+        assertThat(report.getImputed(2), is(equalTo(17)));
+        assertThat(report.getTotal(), is(equalTo(27)));
+        assertThat(report.isUnfillable(1), is(true));
+        for (String[] row : rows) {
+            assertThat(row[0], isOneOf("a", "b"));
+            assertThat(row[1], is(equalTo("?")));
+            assertThat(row[2], is(equalTo("x")));
+        }
+    }
+
+    @Test
+    public void testSameSeedSameResult() {
+        List<String[]> first = rows();
+        List<String[]> second = rows();
+        new MissingValueImputer(42).impute(first, 3);
+        new MissingValueImputer(42).impute(second, 3);
+        for (int i = 0; i < first.size(); i++) {
+            assertThat(first.get(i), is(equalTo(second.get(i))));
+        }
+    }
+
+    @Test
+    public void testSampledImputerMatchesWhenPoolHoldsAllValues() {
+        List<String[]> expected = rows();
+        new MissingValueImputer(42).impute(expected, 3);
+
+        List<String[]> rows = rows();
+        SampledImputer imputer = new SampledImputer(42, 3);
+        imputer.observe(rows.subList(0, 20));
+        imputer.observe(rows.subList(20, rows.size()));
+        imputer.impute(rows.subList(0, 20));
+        imputer.impute(rows.subList(20, rows.size()));
+        for (int i = 0; i < rows.size(); i++) {
+            assertThat(rows.get(i), is(equalTo(expected.get(i))));
+        }
+        assertThat(imputer.getReport().getTotal(), is(equalTo(27)));
+        assertThat(imputer.getReport().isUnfillable(1), is(true));
+    }
+
+    @Test
+    public void testSampledImputerDrawsFromObservedValues() {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(new String[]{i % 10 == 0 ? "?" : "v" + (i % 7)});
+        }
+        SampledImputer imputer = new SampledImputer(3, 1, 4);
+        imputer.observe(rows);
+        imputer.impute(rows);
+        for (String[] row : rows) {
+            assertThat(row[0], isOneOf("v0", "v1", "v2", "v3", "v4", "v5", "v6"));
+        }
+        assertThat(imputer.getReport().getImputed(0), is(equalTo(100)));
+    }
+}
@@ -0,0 +1,130 @@
+package com.machine.learning.server;
+
+import com.machine.learning.classifier.Classifier;
+import com.machine.learning.classifier.NaiveBayes;
+import com.machine.learning.model.DataPoint;
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.TestData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class MicroBatcherTest {
+    private static EncodedDataSet data;
+    private static NaiveBayes classifier;
+
+    @BeforeClass
+    public static void setupClassifier() {
+        data = TestData.houseVotes();
+        classifier = new NaiveBayes();
+        classifier.train(data);
+    }
+
+    @Test
+    public void testBatchedLabelsMatchClassify() throws Exception {
+        try (MicroBatcher batcher = new MicroBatcher("votes", classifier, 16, 5000)) {
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (int row = 0; row < data.size(); row++) {
+                results.add(batcher.submit(data.getRow(row)));
+            }
+            for (int row = 0; row < data.size(); row++) {
+                assertThat(results.get(row).get(), is(equalTo(classifier.classify(data.getRow(row)))));
+            }
+
+            LatencyStats stats = batcher.getStats();
+            assertThat(stats.getRequests(), is(equalTo((long) data.size())));
+            assertThat(stats.getMeanBatchSize(), is(greaterThan(1.0)));
+            assertThat(stats.getMeanBatchSize(), is(lessThanOrEqualTo(16.0)));
+        }
+    }
+
+    @Test
+    public void testSubmitAllKeepsOrder() throws Exception {
+        try (MicroBatcher batcher = new MicroBatcher("votes", classifier, 8, 1000)) {
+            List<List<String>> dataPoints = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            for (int row = 0; row < 50; row++) {
+                dataPoints.add(data.getRow(row));
+                expected.add(classifier.classify(data.getRow(row)));
+            }
+            assertThat(batcher.submitAll(dataPoints).get(), is(equalTo(expected)));
+        }
+    }
+
+    @Test
+    public void testMalformedPointOnlyFailsItself() throws Exception {
+        try (MicroBatcher batcher = new MicroBatcher("votes", classifier, 64, 5000)) {
+            CompletableFuture<String> good = batcher.submit(data.getRow(0));
+            CompletableFuture<String> bad = batcher.submit(Collections.singletonList("y"));
+            assertThat(good.get(), is(equalTo(classifier.classify(data.getRow(0)))));
+            try {
+                bad.get();
+                throw new AssertionError("Expected the malformed point to fail");
+            } catch (ExecutionException ex) {
+                assertThat(ex.getCause(), is(instanceOf(IndexOutOfBoundsException.class)));
+            }
+        }
+    }
+
+    @Test
+    public void testPointIsCopiedWhenSubmitted() throws Exception {
+        try (MicroBatcher batcher = new MicroBatcher("votes", classifier, 64, 5000)) {
+            List<String> dataPoint = data.getRow(0);
+            CompletableFuture<String> result = batcher.submit(dataPoint);
+            // The batch is still waiting for more points, so the classifier hasn't read the list yet
+            dataPoint.clear();
+            assertThat(result.get(), is(equalTo(classifier.classify(data.getRow(0)))));
+        }
+    }
+
+    @Test
+    public void testSubmitAfterCloseFails() throws Exception {
+        MicroBatcher batcher = new MicroBatcher("votes", classifier, 16, 1000);
+        batcher.close();
+        try {
+            batcher.submit(data.getRow(0)).get(1, TimeUnit.SECONDS);
+            throw new AssertionError("Expected a request to a closed batcher to fail");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), is(instanceOf(IllegalStateException.class)));
+        }
+    }
+
+    @Test
+    public void testErrorFailsBatchAndKeepsServing() throws Exception {
+        Classifier failing = new Classifier() {
+            @Override
+            public void train(List<DataPoint> dataPoints) {
+            }
+
+            @Override
+            public String classify(List dataPoint) {
+                if ("fail".equals(dataPoint.get(0))) {
+                    throw new AssertionError("classifier failed");
+                }
+                return "ok";
+            }
+        };
+        try (MicroBatcher batcher = new MicroBatcher("failing", failing, 16, 1000)) {
+            try {
+                batcher.submit(Collections.singletonList("fail")).get(1, TimeUnit.SECONDS);
+                throw new IllegalStateException("Expected the failing batch to fail");
+            } catch (ExecutionException ex) {
+                assertThat(ex.getCause(), is(instanceOf(AssertionError.class)));
+            }
+            assertThat(batcher.submit(Collections.singletonList("pass")).get(1, TimeUnit.SECONDS), is(equalTo("ok")));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.machine.learning.util;
+
+import com.machine.learning.model.EncodedDataSet;
+import com.machine.learning.model.TestData;
+import com.machine.learning.model.ValueDictionary;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class ValueDifferenceMetricTest {
+
+    /**
+     * Computes the difference between two values straight from the class counts
+     */
+    private static double expectedDifference(int[][] valueClassCounts, int valueA, int valueB) {
+        double sum = 0.0;
+        for (int classId = 0; classId < valueClassCounts[0].length; classId++) {
+            sum += Math.abs(rate(valueClassCounts, valueA, classId) - rate(valueClassCounts, valueB, classId));
+        }
+        return sum;
+    }
+
+    private static double rate(int[][] valueClassCounts, int value, int classId) {
+        if (value < 0 || value >= valueClassCounts.length) {
+            return 0.0;
+        }
+        int total = Arrays.stream(valueClassCounts[value]).sum();
+        return (double) valueClassCounts[value][classId] / Math.max(total, 1);
+    }
+
+    private static void assertDifferencesMatchCounts(ValueDifferenceMetric vdm) {
+        int[][][] counts = vdm.getAttributeClassCounts();
+        for (int attrNum = 0; attrNum < counts.length; attrNum++) {
+            for (int valueA = ValueDictionary.UNSEEN; valueA <= counts[attrNum].length; valueA++) {
+                for (int valueB = ValueDictionary.UNSEEN; valueB <= counts[attrNum].length; valueB++) {
+                    assertThat(vdm.attributeDifference(attrNum, valueA, valueB),
+                               is(closeTo(expectedDifference(counts[attrNum], valueA, valueB), 1e-12)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDifferencesMatchCounts() {
+        assertDifferencesMatchCounts(
+            new ValueDifferenceMetric(EncodedDataSet.encodeRows(TestData.generate(200, 6, 1))));
+    }
+
+    @Test
+    public void testDifferencesWithoutTable() {
+        int cardinality = 300;
+        assertThat((long) cardinality * cardinality > ValueDifferenceMetric.MAX_TABLE_ENTRIES, is(true));
+        assertDifferencesMatchCounts(
+            new ValueDifferenceMetric(EncodedDataSet.encodeRows(TestData.generate(2000, cardinality, 2))));
+    }
+
+    @Test
+    public void testDifferencesFollowAddAndRemove() {
+        EncodedDataSet data = EncodedDataSet.encodeRows(TestData.generate(200, 6, 3));
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(data);
+        EncodedDataSet more = EncodedDataSet.encodeRows(TestData.generate(100, 8, 4));
+        vdm.add(more);
+        assertDifferencesMatchCounts(vdm);
+        vdm.remove(more);
+        assertDifferencesMatchCounts(vdm);
+
+        ValueDifferenceMetric fresh = new ValueDifferenceMetric(data);
+        for (int row = 0; row < data.size(); row++) {
+            assertThat(vdm.calculateDistance(data, row, data.row(0)),
+                       is(equalTo(fresh.calculateDistance(data, row, data.row(0)))));
+        }
+    }
+
+    @Test
+    public void testRemovingUnaddedPointFails() {
+        EncodedDataSet data = EncodedDataSet.encodeRows(TestData.generate(200, 6, 7));
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(data);
+        // Every value and class has been seen, but every row has already been removed
+        vdm.remove(data);
+        int[][][] counts = vdm.getAttributeClassCounts();
+        try {
+            vdm.remove(data.subset(TestData.rows(0, 1)));
+            throw new AssertionError("Expected removing a point that was never added to fail");
+        } catch (IllegalArgumentException ex) {
+            assertThat(vdm.getAttributeClassCounts(), is(equalTo(counts)));
+            assertDifferencesMatchCounts(vdm);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDistanceBetweenMismatchedPointsFails() {
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(EncodedDataSet.encodeRows(TestData.generate(20, 4, 8)));
+        vdm.calculateDistance(Arrays.asList("a0", "b0", "c0"), Arrays.asList("a0", "b0", "c0", "d0"));
+    }
+
+    @Test
+    public void testConcurrentUpdatesAndDistances() throws InterruptedException {
+        EncodedDataSet data = EncodedDataSet.encodeRows(TestData.generate(200, 6, 5));
+        ValueDifferenceMetric vdm = new ValueDifferenceMetric(data);
+        EncodedDataSet more = EncodedDataSet.encodeRows(TestData.generate(50, 12, 6));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int writer = 0; writer < 2; writer++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    vdm.add(more);
+                    vdm.remove(more);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                for (int row = 0; row < more.size(); row++) {
+                    double distance = vdm.calculateDistance(data, row, vdm.encode(more.getRow(row)));
+                    assertThat(Double.isNaN(distance), is(false));
+                }
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, ex) -> failure.compareAndSet(null, ex));
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failure.get(), is(equalTo(null)));
+
+        // Every add was undone, so only the original points are left
+        int[][][] counts = vdm.getAttributeClassCounts();
+        int[][][] expected = new ValueDifferenceMetric(data).getAttributeClassCounts();
+        for (int attrNum = 0; attrNum < expected.length; attrNum++) {
+            for (int value = 0; value < expected[attrNum].length; value++) {
+                assertThat(Arrays.copyOf(counts[attrNum][value], expected[attrNum][value].length),
+                           is(equalTo(expected[attrNum][value])));
+            }
+        }
+        assertDifferencesMatchCounts(vdm);
+    }
+}